@@ -44,6 +44,7 @@ import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 
 import de.ipbhalle.metfrag.keggWebservice.KeggWebservice;
 import de.ipbhalle.metfrag.main.Config;
+import de.ipbhalle.metfrag.molDatabase.RecordSource;
 import de.ipbhalle.metfrag.tools.MolecularFormulaTools;
 import de.ipbhalle.metfrag.tools.Number;
 
@@ -203,7 +204,7 @@ public class BeilsteinToDatabase {
 					    String smiles = generatorSmiles.createSMILES(new Molecule(molecule));
 				        
 					    
-					    PreparedStatement pstmt = con.prepareStatement("INSERT INTO RECORD (ID, DATE, FORMULA, EXACT_MASS, SMILES, IUPAC, CHONSP) VALUES (?,?,?,?,?,?,?)");
+					    PreparedStatement pstmt = con.prepareStatement("INSERT INTO RECORD (ID, DATE, FORMULA, EXACT_MASS, SMILES, IUPAC, CHONSP, SOURCE, NUM_ID) VALUES (?,?,?,?,?,?,?,?,?)");
 				        pstmt.setString(1, "BE" + Number.numberToFixedLength(Integer.parseInt(ID), 6));
 				        pstmt.setDate(2, dateSQL);
 				        pstmt.setString(3, formulaStringOrig);
@@ -211,6 +212,8 @@ public class BeilsteinToDatabase {
 				        pstmt.setString(5, smiles);
 				        pstmt.setString(6, iupac);
 				        pstmt.setInt(7, chonsp);
+				        pstmt.setInt(8, RecordSource.BEILSTEIN);
+				        pstmt.setLong(9, Integer.parseInt(ID));
 				        pstmt.executeUpdate();
 				        
 				        //now insert all strings into database
@@ -0,0 +1,67 @@
+package de.ipbhalle.metfrag.database;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import de.ipbhalle.metfrag.main.Config;
+import de.ipbhalle.metfrag.molDatabase.RecordSource;
+
+
+/**
+ * Adds the numeric SOURCE and NUM_ID columns (see {@link RecordSource}) and the composite mass index
+ * to an existing RECORD table. The ToDatabase loaders fill the columns for new entries, existing
+ * databases have to be migrated once before the mass range queries of the local databases work.
+ */
+public class CreateMassIndex {
+
+	public static final String[] MIGRATION = {
+		"ALTER TABLE RECORD MODIFY EXACT_MASS DOUBLE",
+		"ALTER TABLE RECORD ADD COLUMN SOURCE TINYINT NOT NULL DEFAULT 0, ADD COLUMN NUM_ID BIGINT UNSIGNED NOT NULL DEFAULT 0",
+		"UPDATE RECORD SET SOURCE = CASE SUBSTRING(ID,1,1) WHEN 'C' THEN " + RecordSource.KEGG + " WHEN 'B' THEN " + RecordSource.BEILSTEIN + " ELSE " + RecordSource.PUBCHEM + " END, " +
+			"NUM_ID = CASE SUBSTRING(ID,1,1) WHEN 'C' THEN CAST(SUBSTRING(ID,2) AS UNSIGNED) WHEN 'B' THEN CAST(SUBSTRING(ID,3) AS UNSIGNED) ELSE CAST(ID AS UNSIGNED) END",
+		//the primary key (ID) is part of every InnoDB index...the candidate query only reads the index
+		"CREATE INDEX RECORD_SOURCE_MASS ON RECORD (SOURCE, EXACT_MASS, NUM_ID)"
+	};
+
+
+	public static void main(String[] args) {
+
+		try
+		{
+			Config c = new Config();
+			Class.forName("com.mysql.jdbc.Driver");
+			Connection con = DriverManager.getConnection(c.getJdbc(), c.getUsername(), c.getPassword());
+			try
+			{
+				Statement stmt = con.createStatement();
+				try
+				{
+					for (String sql : MIGRATION) {
+						long start = System.currentTimeMillis();
+						System.out.println(sql);
+						stmt.executeUpdate(sql);
+						System.out.println("Done in " + (System.currentTimeMillis() - start) + " ms");
+					}
+				}
+				finally
+				{
+					stmt.close();
+				}
+			}
+			finally
+			{
+				con.close();
+			}
+		} catch (ClassNotFoundException e) {
+			e.printStackTrace();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
+}
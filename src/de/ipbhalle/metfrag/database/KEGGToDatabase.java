@@ -51,6 +51,7 @@ import de.ipbhalle.metfrag.fragmenter.Fragmenter;
 import de.ipbhalle.metfrag.keggWebservice.KeggWebservice;
 import de.ipbhalle.metfrag.main.Config;
 import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.molDatabase.RecordSource;
 import de.ipbhalle.metfrag.tools.MolecularFormulaTools;
 import de.ipbhalle.metfrag.tools.Number;
 import de.ipbhalle.metfrag.tools.Render;
@@ -116,7 +117,7 @@ public class KEGGToDatabase {
 		    String smiles = generatorSmiles.createSMILES(new Molecule(molecule));
 	        
 		    
-		    PreparedStatement pstmt = con.prepareStatement("INSERT INTO RECORD (ID, DATE, FORMULA, EXACT_MASS, SMILES, IUPAC, CHONSP) VALUES (?,?,?,?,?,?,?)");
+		    PreparedStatement pstmt = con.prepareStatement("INSERT INTO RECORD (ID, DATE, FORMULA, EXACT_MASS, SMILES, IUPAC, CHONSP, SOURCE, NUM_ID) VALUES (?,?,?,?,?,?,?,?,?)");
 	        pstmt.setString(1, keggID);
 	        pstmt.setDate(2, dateSQL);
 	        pstmt.setString(3, formulaStringOrig);
@@ -124,6 +125,8 @@ public class KEGGToDatabase {
 	        pstmt.setString(5, smiles);
 	        pstmt.setString(6, iupac);
 	        pstmt.setInt(7, chonsp);
+	        pstmt.setInt(8, RecordSource.KEGG);
+	        pstmt.setLong(9, RecordSource.getNumericID(keggID));
 	        pstmt.executeUpdate();
 	        
 	        //now insert all strings into database
@@ -0,0 +1,290 @@
+package de.ipbhalle.metfrag.database;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import de.ipbhalle.metfrag.molDatabase.MassIndex;
+import de.ipbhalle.metfrag.read.ParallelSDFReader;
+
+
+/**
+ * Builds the memory mapped mass index ({@link MassIndex}) from the PubChem SDF files
+ * (the same files {@link PubChemToDatabaseParallel} reads into the database).
+ * <p/>
+ * Usage: MassIndexBuilder indexFile sdfFile1.sdf.gz [sdfFile2.sdf.gz ...]
+ */
+public class MassIndexBuilder {
+
+	private File blobFile;
+	private DataOutputStream blob;
+	private long blobSize = 0;
+	private int count = 0;
+	private double[] masses = new double[1 << 16];
+	private long[] ids = new long[1 << 16];
+	private long[] offsets = new long[1 << 16];
+	private byte[] chonsp = new byte[1 << 16];
+
+
+	/**
+	 * Instantiates a new mass index builder.
+	 *
+	 * @param indexFile the index file to write
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public MassIndexBuilder(File indexFile) throws IOException
+	{
+		//the smiles and InChIs are written to a temp file first...they are not sorted
+		this.blobFile = new File(indexFile.getPath() + ".blob");
+		this.blob = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(blobFile), 1 << 20));
+	}
+
+
+	/**
+	 * Adds all compounds of a (gzipped) PubChem SDF file.
+	 *
+	 * @param sdfFile the sdf file
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred (also if the file could not be read completely).
+	 */
+	public void addSDF(File sdfFile) throws IOException
+	{
+		System.out.println("Processing: " + sdfFile);
+		int before = count;
+		ParallelSDFReader reader = new ParallelSDFReader(ParallelSDFReader.open(sdfFile));
+		try
+		{
+			while (reader.hasNext()) {
+				IAtomContainer molecule = reader.next();
+				Map<Object, Object> properties = molecule.getProperties();
+	
+				try
+				{
+					String smiles = (String)properties.get("PUBCHEM_OPENEYE_CAN_SMILES");
+					long pubChemID = Long.parseLong((String)properties.get("PUBCHEM_COMPOUND_CID"));
+					double exactMass = Double.parseDouble((String)properties.get("PUBCHEM_EXACT_MASS"));
+					String molecularFormula = (String)properties.get("PUBCHEM_MOLECULAR_FORMULA");
+					String inchi = (String)properties.get("PUBCHEM_NIST_INCHI");
+					add(pubChemID, exactMass, Tools.checkCHONSP(molecularFormula), smiles, inchi);
+				}
+				catch(NumberFormatException e)
+				{
+					System.err.println("Skipped entry: " + e.getMessage());
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		//an incomplete index is not written
+		if(reader.getError() != null)
+			throw new IOException("Error reading " + sdfFile + ": " + reader.getError().getMessage());
+		System.out.println("Got " + (count - before) + " structures!");
+	}
+
+
+	/**
+	 * Adds one compound.
+	 *
+	 * @param pubChemID the pub chem id
+	 * @param exactMass the exact mass
+	 * @param isCHONSP the chonsp flag
+	 * @param smiles the smiles
+	 * @param inchi the InChI
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void add(long pubChemID, double exactMass, int isCHONSP, String smiles, String inchi) throws IOException
+	{
+		byte[] smilesBytes = (smiles == null ? "" : smiles).getBytes("UTF-8");
+		byte[] inchiBytes = (inchi == null ? "" : inchi).getBytes("UTF-8");
+		int entrySize = 8 + smilesBytes.length + inchiBytes.length;
+
+		//entries never cross a chunk border
+		long chunkRest = MassIndex.CHUNK_SIZE - (blobSize % MassIndex.CHUNK_SIZE);
+		if(entrySize > chunkRest)
+		{
+			blob.write(new byte[(int)chunkRest]);
+			blobSize += chunkRest;
+		}
+
+		if(count == masses.length)
+		{
+			int capacity = count * 2;
+			masses = Arrays.copyOf(masses, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			chonsp = Arrays.copyOf(chonsp, capacity);
+		}
+		masses[count] = exactMass;
+		ids[count] = pubChemID;
+		offsets[count] = blobSize;
+		chonsp[count] = (byte)isCHONSP;
+		count++;
+
+		blob.writeInt(smilesBytes.length);
+		blob.write(smilesBytes);
+		blob.writeInt(inchiBytes.length);
+		blob.write(inchiBytes);
+		blobSize += entrySize;
+	}
+
+
+	/**
+	 * Sorts the entries and writes the index file.
+	 *
+	 * @param indexFile the index file
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void write(File indexFile) throws IOException
+	{
+		blob.close();
+
+		int[] massOrder = sort(masses, count);
+		//ids as double keys...the pubchem IDs are far below 2^53
+		double[] idKeys = new double[count];
+		for (int i = 0; i < count; i++) {
+			idKeys[i] = ids[i];
+		}
+		int[] idOrder = sort(idKeys, count);
+		int[] massPosition = new int[count];
+		for (int i = 0; i < count; i++) {
+			massPosition[massOrder[i]] = i;
+		}
+
+		long blobStart = MassIndex.HEADER_SIZE + 37L * count;
+		//align the blob
+		blobStart = (blobStart + 7) / 8 * 8;
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile), 1 << 20));
+		try
+		{
+			out.writeInt(MassIndex.MAGIC);
+			out.writeInt(MassIndex.VERSION);
+			out.writeInt(count);
+			out.writeLong(blobStart);
+			out.write(new byte[MassIndex.HEADER_SIZE - 20]);
+			for (int i = 0; i < count; i++) {
+				out.writeDouble(masses[massOrder[i]]);
+			}
+			for (int i = 0; i < count; i++) {
+				out.writeLong(ids[massOrder[i]]);
+			}
+			for (int i = 0; i < count; i++) {
+				out.writeLong(offsets[massOrder[i]]);
+			}
+			for (int i = 0; i < count; i++) {
+				out.writeLong(ids[idOrder[i]]);
+			}
+			for (int i = 0; i < count; i++) {
+				out.writeInt(massPosition[idOrder[i]]);
+			}
+			for (int i = 0; i < count; i++) {
+				out.writeByte(chonsp[massOrder[i]]);
+			}
+			out.write(new byte[(int)(blobStart - MassIndex.HEADER_SIZE - 37L * count)]);
+
+			copy(blobFile, out);
+		}
+		finally
+		{
+			out.close();
+		}
+		blobFile.delete();
+		System.out.println("Mass index written: " + indexFile + " (" + count + " structures)");
+	}
+
+
+	/**
+	 * Sorts the positions by the keys (stable merge sort).
+	 *
+	 * @param keys the keys
+	 * @param length the number of keys
+	 *
+	 * @return the positions in key order
+	 */
+	private static int[] sort(double[] keys, int length)
+	{
+		int[] order = new int[length];
+		for (int i = 0; i < length; i++) {
+			order[i] = i;
+		}
+		int[] temp = new int[length];
+		for (int width = 1; width < length; width *= 2) {
+			for (int low = 0; low < length - width; low += 2 * width) {
+				int mid = low + width;
+				int high = Math.min(low + 2 * width, length);
+				int i = low, j = mid, k = low;
+				while(i < mid && j < high)
+				{
+					if(keys[order[j]] < keys[order[i]])
+						temp[k++] = order[j++];
+					else
+						temp[k++] = order[i++];
+				}
+				while(i < mid)
+					temp[k++] = order[i++];
+				while(j < high)
+					temp[k++] = order[j++];
+				System.arraycopy(temp, low, order, low, high - low);
+			}
+		}
+		return order;
+	}
+
+
+	private static void copy(File file, OutputStream out) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(file));
+		try
+		{
+			byte[] buffer = new byte[1 << 16];
+			int read;
+			while((read = in.read(buffer)) > 0)
+			{
+				out.write(buffer, 0, read);
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+	public static void main(String[] args) {
+
+		if(args.length < 2)
+		{
+			System.err.println("Usage: MassIndexBuilder indexFile sdfFile1.sdf.gz [sdfFile2.sdf.gz ...]");
+			System.exit(1);
+		}
+
+		try
+		{
+			File indexFile = new File(args[0]);
+			MassIndexBuilder builder = new MassIndexBuilder(indexFile);
+			for (int i = 1; i < args.length; i++) {
+				builder.addSDF(new File(args[i]));
+			}
+			builder.write(indexFile);
+		} catch (IOException e) {
+			e.printStackTrace();
+			System.exit(1);
+		}
+	}
+
+}
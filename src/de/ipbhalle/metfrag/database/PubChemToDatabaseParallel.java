@@ -1,10 +1,12 @@
 package de.ipbhalle.metfrag.database;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileReader;
+import java.io.FileWriter;
 import java.io.IOException;
-import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -20,6 +22,8 @@ import java.util.Queue;
 import java.util.Vector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.zip.GZIPInputStream;
@@ -32,6 +36,9 @@ import org.openscience.cdk.smiles.SmilesGenerator;
 import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 
 import de.ipbhalle.metfrag.main.Config;
+import de.ipbhalle.metfrag.molDatabase.ConnectionPool;
+import de.ipbhalle.metfrag.molDatabase.RecordSource;
+import de.ipbhalle.metfrag.read.ParallelSDFReader;
 
 
 
@@ -39,33 +46,89 @@ import java.sql.Connection;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 
+/**
+ * Bulk load of the PubChem SDF files into the local database. Every worker (one SDF file) uses
+ * its own connection and prepared statements, the rows are inserted in JDBC batches and committed
+ * every {@link #COMMIT_SIZE} records. After every commit the number of committed records is written
+ * to the checkpoint file of the SDF file, so an interrupted load is resumed there (finished files
+ * are skipped).
+ * <p/>
+ * Usage: PubChemToDatabaseParallel "file1.sdf.gz;file2.sdf.gz" [checkpointDir]
+ */
 public class PubChemToDatabaseParallel implements Runnable {
 	
-	private static Connection con;
+	//records per batch and commit
+	public static final int COMMIT_SIZE = 1000;
+	private static final String DONE = "done";
+	
+	//all inserted rows (RECORD, CH_NAME and CH_LINK)
+	private static AtomicLong insertedRows = new AtomicLong(0);
+	
+	private ConnectionPool pool;
 	private String path;
 	private String file;
+	private File checkpoint;
 	
-	public PubChemToDatabaseParallel(String path, String filename) {
+	/**
+	 * Instantiates a new worker for one SDF file.
+	 * 
+	 * @param pool the connection pool
+	 * @param path the path
+	 * @param filename the filename
+	 * @param checkpointDir the directory of the checkpoint files
+	 */
+	public PubChemToDatabaseParallel(ConnectionPool pool, String path, String filename, File checkpointDir) {
+		this.pool = pool;
 		this.path = path;
 		this.file = filename;
+		this.checkpoint = new File(checkpointDir, filename + ".checkpoint");
 	}
 	
 	
 	@Override public void run()
 	{
+		Connection con = null;
+		PreparedStatement pstmt = null;
+		PreparedStatement pstmtName = null;
+		PreparedStatement pstmtLink = null;
+		ParallelSDFReader reader = null;
 		try {
-			System.out.println("Processing: " + path + file);
+			String state = readCheckpoint();
+			if(DONE.equals(state))
+			{
+				System.out.println("Skipped (already loaded): " + path + file);
+				return;
+			}
+			//records already committed by a previous run
+			int committed = state == null ? 0 : Integer.parseInt(state);
+			System.out.println("Processing: " + path + file + (committed > 0 ? " (resumed after " + committed + " records)" : ""));
+			long start = System.currentTimeMillis();
+			long rows = 0;
+			
+			con = pool.getConnection();
+			con.setAutoCommit(false);
 			
-			Statement stmt = null;
-		    stmt = con.createStatement();
+			pstmt = con.prepareStatement("INSERT INTO RECORD (ID, DATE, FORMULA, EXACT_MASS, SMILES, IUPAC, CHONSP, SOURCE, NUM_ID) VALUES (?,?,?,?,?,?,?,?,?)");
+			pstmtName = con.prepareStatement("INSERT INTO CH_NAME (ID, NAME) VALUES (?,?)");
+			pstmtLink = con.prepareStatement("INSERT INTO CH_LINK (ID, PUBCHEM) VALUES (?,?)");
 			
+			//the records are parsed by all processors
 			File sdfFile = new File(path + file);
-			IteratingMDLReader reader = new IteratingMDLReader(new GZIPInputStream(new FileInputStream(sdfFile)), DefaultChemObjectBuilder.getInstance());
+			reader = new ParallelSDFReader(ParallelSDFReader.open(sdfFile));
 
 			int count = 0;
+			int batched = 0;
+			java.sql.Date dateSQL = new java.sql.Date(new Date().getTime());
 					
 			while (reader.hasNext()) {
 				IAtomContainer molecule = (IAtomContainer)reader.next();
+				
+				//already in the database
+				if(count < committed)
+				{
+					count++;
+					continue;
+				}
 				  
 			    Map<Object, Object> properties = molecule.getProperties();
 			    
@@ -76,15 +139,7 @@ public class PubChemToDatabaseParallel implements Runnable {
 			    String molecularFormula = (String)properties.get("PUBCHEM_MOLECULAR_FORMULA");
 			    String inchi = (String)properties.get("PUBCHEM_NIST_INCHI");
 			    int chonsp = Tools.checkCHONSP(molecularFormula);
-			    
-		        Date date = new Date();
-		        java.sql.Date dateSQL = new java.sql.Date(date.getTime());
-			    
-		        
-//		        stmt.executeUpdate("INSERT INTO RECORD (ID, DATE, FORMULA, EXACT_MASS, SMILES, IUPAC, CHONSP) " +
-//		        		"VALUES ('" + pubChemID.toString() +  "','" + dateSQL + "','" + molecularFormula + "'," + exactMass + ",'" + smiles + "','" + inchi + "',"  + chonsp + ")");
 		        
-		        PreparedStatement pstmt = con.prepareStatement("INSERT INTO RECORD (ID, DATE, FORMULA, EXACT_MASS, SMILES, IUPAC, CHONSP) VALUES (?,?,?,?,?,?,?)");
 		        pstmt.setString(1, pubChemID.toString());
 		        pstmt.setDate(2, dateSQL);
 		        pstmt.setString(3, molecularFormula);
@@ -92,43 +147,50 @@ public class PubChemToDatabaseParallel implements Runnable {
 		        pstmt.setString(5, smiles);
 		        pstmt.setString(6, inchi);
 		        pstmt.setInt(7, chonsp);
-		        
-		        pstmt.executeUpdate();
-
-		        
+		        pstmt.setInt(8, RecordSource.PUBCHEM);
+		        pstmt.setLong(9, pubChemID);
+		        pstmt.addBatch();
+		        rows++;
 		        
 		        //name data
 			    Map<String, String> names = new HashMap<String, String>();
 			    names.put("PUBCHEM_IUPAC_CAS_NAME", (String)properties.get("PUBCHEM_IUPAC_CAS_NAME"));
 			    names.put("PUBCHEM_IUPAC_OPENEYE_NAME", (String)properties.get("PUBCHEM_IUPAC_OPENEYE_NAME"));
-			    names.put("PUBCHEM_IUPAC_CAS_NAME", (String)properties.get("PUBCHEM_IUPAC_CAS_NAME"));
 			    names.put("PUBCHEM_IUPAC_NAME", (String)properties.get("PUBCHEM_IUPAC_NAME"));
 			    names.put("PUBCHEM_IUPAC_SYSTEMATIC_NAME", (String)properties.get("PUBCHEM_IUPAC_SYSTEMATIC_NAME"));
 			    names.put("PUBCHEM_IUPAC_TRADITIONAL_NAME", (String)properties.get("PUBCHEM_IUPAC_TRADITIONAL_NAME"));
 			    for (String name : names.values()) {
 					if(name != null && name != "")
 					{
-						PreparedStatement pstmtName = con.prepareStatement("INSERT INTO CH_NAME (ID, NAME) VALUES (?,?)");
 				        pstmtName.setString(1, pubChemID.toString());
 				        pstmtName.setString(2, name);
-				        pstmtName.executeUpdate();
-//						stmt.executeUpdate("INSERT INTO CH_NAME (ID, NAME) VALUES (\"" + pubChemID.toString() + "\",\"" + name + "\")");
+				        pstmtName.addBatch();
+				        rows++;
 					}
 				}
 			    
-			    
 			    //link data
-			    PreparedStatement pstmtLink = con.prepareStatement("INSERT INTO CH_LINK (ID, PUBCHEM) VALUES (?,?)");
 		        pstmtLink.setString(1, pubChemID.toString());
 		        pstmtLink.setString(2, "CID:" + pubChemID.toString());
-		        pstmtLink.executeUpdate();
-//			    stmt.executeUpdate("INSERT INTO CH_LINK (ID, PUBCHEM) VALUES ('" + pubChemID.toString() + "','" + "CID:" + pubChemID.toString() + "')");
-
+		        pstmtLink.addBatch();
+		        rows++;
 
 			    count++;
+			    batched++;
+			    if(batched == COMMIT_SIZE)
+			    {
+			    	commit(con, pstmt, pstmtName, pstmtLink, Integer.toString(count));
+			    	batched = 0;
+			    }
 			}
+			//a truncated or broken file is not marked as done...the last checkpoint stays valid
+			if(reader.getError() != null)
+				throw new IOException("Error reading " + path + file + ": " + reader.getError().getMessage());
+			commit(con, pstmt, pstmtName, pstmtLink, DONE);
+			
+			insertedRows.addAndGet(rows);
 			System.out.println("DONE: " + path + file);
-			System.out.println("Got " + count + " structures!");
+			System.out.println("Got " + count + " structures! " + rows + " rows (" + rate(rows, start) + " rows/s)");
 		} catch (NumberFormatException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
@@ -138,18 +200,136 @@ public class PubChemToDatabaseParallel implements Runnable {
 		} catch (SQLException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+			//the uncommitted records are loaded again from the last checkpoint
+			rollback(con);
 		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
+			rollback(con);
+		}
+		finally
+		{
+			try {
+				if(reader != null)
+					reader.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			close(pstmt);
+			close(pstmtName);
+			close(pstmtLink);
+			if(con != null)
+			{
+				try {
+					con.setAutoCommit(true);
+				} catch (SQLException e) {
+					//the pool drops closed connections
+				}
+				pool.release(con);
+			}
 		}
 	}
 	
 	
+	/**
+	 * Rolls back the uncommitted records.
+	 * 
+	 * @param con the connection or null
+	 */
+	private static void rollback(Connection con)
+	{
+		try {
+			if(con != null)
+				con.rollback();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * Closes the statement.
+	 * 
+	 * @param stmt the statement or null
+	 */
+	private static void close(Statement stmt)
+	{
+		try {
+			if(stmt != null)
+				stmt.close();
+		} catch (SQLException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	
+	/**
+	 * Executes the batches, commits and writes the checkpoint.
+	 * 
+	 * @param con the connection
+	 * @param pstmt the record statement
+	 * @param pstmtName the name statement
+	 * @param pstmtLink the link statement
+	 * @param state the number of committed records or DONE
+	 * 
+	 * @throws SQLException the SQL exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void commit(Connection con, PreparedStatement pstmt, PreparedStatement pstmtName, PreparedStatement pstmtLink, String state) throws SQLException, IOException
+	{
+		pstmt.executeBatch();
+		pstmtName.executeBatch();
+		pstmtLink.executeBatch();
+		con.commit();
+		
+		FileWriter writer = new FileWriter(checkpoint);
+		try
+		{
+			writer.write(state);
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+	
+	
+	/**
+	 * Read the checkpoint of the SDF file.
+	 * 
+	 * @return the number of committed records, DONE or null if the file was not loaded before
+	 * 
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private String readCheckpoint() throws IOException
+	{
+		if(!checkpoint.exists())
+			return null;
+		BufferedReader reader = new BufferedReader(new FileReader(checkpoint));
+		try
+		{
+			String line = reader.readLine();
+			return line == null ? null : line.trim();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	
+	private static long rate(long rows, long start)
+	{
+		long time = Math.max(1, System.currentTimeMillis() - start);
+		return rows * 1000 / time;
+	}
+	
+	
 	public static void main(String[] args) {
 		
 		String[] files = null;
 		
-		if(args[0] != null)
+		if(args.length > 0 && args[0] != null)
 		{
 			files = args[0].split(";");
 		}
@@ -159,41 +339,27 @@ public class PubChemToDatabaseParallel implements Runnable {
 			System.exit(1);
 		}
 		
-		String driver = "com.mysql.jdbc.Driver"; 
 		String path = "/vol/mirrors/pubchem/";		
-		//starting from this id the files are read in again!
-		//be shure to delete larger ids!!!
-		String startID = "00000001";
-		
-		// Connection
-	    java.sql.Connection conTemp = null; 
+		//the checkpoints of the loaded files...delete them to load the files again
+		File checkpointDir = new File(args.length > 1 ? args[1] : "checkpoints");
+		checkpointDir.mkdirs();
 	    
 	    //number of threads depending on the available processors
 	    int threads = Runtime.getRuntime().availableProcessors();
 	    
 	    //thread executor
 	    ExecutorService threadExecutor = null;
+	    long start = System.currentTimeMillis();
 		
 		try
 		{
-			Class.forName(driver); 
-			DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-	        // JDBC-driver
-	        Class.forName(driver);
 	        //databse data
 	        Config c = new Config();
 	        String url = c.getJdbc();
-	        String username = c.getUsername();
-	        String password = c.getPassword();
-	        con = DriverManager.getConnection(url, username, password);
-		    
-	
-			//readCompounds = new HashMap<Integer, IAtomContainer>();
-			
-			//loop over all files in folder
-//			File f = new File(path);
-//			File files[] = f.listFiles();
-//			Arrays.sort(files);
+	        //mysql sends the batches as multi row inserts
+	        if(url.startsWith("jdbc:mysql:") && !url.contains("rewriteBatchedStatements"))
+	        	url += (url.contains("?") ? "&" : "?") + "rewriteBatchedStatements=true";
+	        ConnectionPool pool = ConnectionPool.getInstance(url, c.getUsername(), c.getPassword());
 			
 			//queue stores all files to be read in
 			Queue<String> queue = new LinkedList<String>();
@@ -205,35 +371,26 @@ public class PubChemToDatabaseParallel implements Runnable {
 			
 			while(!queue.isEmpty())
 			{
-				threadExecutor.execute(new PubChemToDatabaseParallel(path, queue.poll()));
+				threadExecutor.execute(new PubChemToDatabaseParallel(pool, path, queue.poll(), checkpointDir));
 			}
 			
 			threadExecutor.shutdown();
+			threadExecutor.awaitTermination(Long.MAX_VALUE, TimeUnit.SECONDS);
+			pool.close();
 			
+			long rows = insertedRows.get();
+			System.out.println("Inserted " + rows + " rows in " + (System.currentTimeMillis() - start) / 1000 + " s (" + rate(rows, start) + " rows/s)");
 				
 		} catch (ClassNotFoundException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
-		} catch (SQLException e) {
+		} catch (IOException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
-		} catch (IOException e) {
+		} catch (InterruptedException e) {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}
-		
-		while(!threadExecutor.isTerminated())
-		{
-			try {
-				Thread.currentThread().sleep(10000);
-			} catch (InterruptedException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
-			}//sleep for 1000 ms
-		}
-		
-		threadExecutor.shutdown();
-		
 	}
 
 }
@@ -78,7 +78,8 @@ public class AtomContainerMetFrag extends ChemObject
 	 */
 	private static final long serialVersionUID = 5678100348445919254L;
 	
-	private double bondEnergy = 0.0;
+	//numeric value of the "BondEnergy" property...NaN if not set
+	private double bondEnergy = Double.NaN;
 
 	/**
 	 *  Number of atoms contained by this object.
@@ -1751,7 +1752,25 @@ public class AtomContainerMetFrag extends ChemObject
 
 	public double getBondEnergy() {
 		return bondEnergy;
-	}   
+	}
+	
+	
+	/**
+	 * Gets the bond energy of a fragment: the numeric value of an {@link AtomContainerMetFrag}
+	 * or the parsed "BondEnergy" property of other atom containers.
+	 * 
+	 * @param ac the fragment
+	 * 
+	 * @return the bond energy or null if it is not set
+	 */
+	public static Double getFragmentBondEnergy(IAtomContainer ac)
+	{
+		if(ac instanceof AtomContainerMetFrag && !Double.isNaN(((AtomContainerMetFrag)ac).getBondEnergy()))
+			return ((AtomContainerMetFrag)ac).getBondEnergy();
+		if(ac.getProperty("BondEnergy") == null)
+			return null;
+		return Double.parseDouble(ac.getProperty("BondEnergy").toString());
+	}
 
 }
 
@@ -0,0 +1,329 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.openscience.cdk.Atom;
+import org.openscience.cdk.config.IsotopeFactory;
+import org.openscience.cdk.formula.MolecularFormula;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IMolecularFormula;
+import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
+
+
+/**
+ * The chemistry tables of the fragmenter (bond energies, neutral losses and exact atom masses).
+ * They are read in only once per JVM and shared by all fragmenters (and threads), so they must
+ * not be modified.
+ * <p/>
+ * The bond energies are stored in an array indexed by the element code (see {@link #getElementCode(String)})
+ * and the bond order code (1 = single, 2 = double, 3 = triple bond). Unknown bonds get the energy
+ * of a C-C bond.
+ */
+public class ChemistryTables {
+
+	//not a covalent bond? just assume a C-C bond
+	public static final double DEFAULT_BOND_ENERGY = 348.0;
+
+	private static ChemistryTables instance = null;
+
+	private Map<String, Integer> elementCodes;
+	//[bond order][element code][element code]
+	private double[][][] bondEnergies;
+	private Map<Double, NeutralLoss> neutralLosses;
+	private ConcurrentMap<String, Double> atomMasses = new ConcurrentHashMap<String, Double>();
+
+
+	/**
+	 * Gets the tables. They are read in on the first call.
+	 *
+	 * @return the tables
+	 */
+	public static synchronized ChemistryTables getInstance()
+	{
+		if(instance == null)
+			instance = new ChemistryTables();
+		return instance;
+	}
+
+
+	/**
+	 * Instantiates the tables.
+	 */
+	private ChemistryTables()
+	{
+		readBondEnergies();
+		readNeutralLosses();
+	}
+
+
+	/**
+	 * Gets the element code of the symbol.
+	 *
+	 * @param symbol the element symbol
+	 *
+	 * @return the element code or -1 if there is no bond energy for the element
+	 */
+	public int getElementCode(String symbol)
+	{
+		Integer code = elementCodes.get(symbol);
+		if(code == null)
+			return -1;
+		return code;
+	}
+
+
+	/**
+	 * Gets the bond order code.
+	 *
+	 * @param bond the bond
+	 *
+	 * @return 1 (single), 2 (double), 3 (triple) or 0 for any other bond
+	 */
+	public static int getBondOrderCode(IBond bond)
+	{
+		if(bond.getOrder() == null)
+			return 0;
+		switch (bond.getOrder()) {
+		case SINGLE:
+			return 1;
+		case DOUBLE:
+			return 2;
+		case TRIPLE:
+			return 3;
+		default:
+			return 0;
+		}
+	}
+
+
+	/**
+	 * Gets the bond energy.
+	 *
+	 * @param element1 the element code of the first atom
+	 * @param element2 the element code of the second atom
+	 * @param order the bond order code
+	 *
+	 * @return the bond energy
+	 */
+	public double getBondEnergy(int element1, int element2, int order)
+	{
+		if(element1 < 0 || element2 < 0 || order < 1 || order > 3)
+			return DEFAULT_BOND_ENERGY;
+		double energy = bondEnergies[order - 1][element1][element2];
+		if(Double.isNaN(energy))
+			return DEFAULT_BOND_ENERGY;
+		return energy;
+	}
+
+
+	/**
+	 * Gets the bond energy.
+	 *
+	 * @param bond the bond
+	 *
+	 * @return the bond energy
+	 */
+	public double getBondEnergy(IBond bond)
+	{
+		return getBondEnergy(getElementCode(bond.getAtom(0).getSymbol()), getElementCode(bond.getAtom(1).getSymbol()), getBondOrderCode(bond));
+	}
+
+
+	/**
+	 * Gets the neutral losses.
+	 *
+	 * @return the neutral losses (unmodifiable)
+	 */
+	public Map<Double, NeutralLoss> getNeutralLosses()
+	{
+		return neutralLosses;
+	}
+
+
+	/**
+	 * Gets the exact mass of the major isotope of the element. The masses are cached.
+	 *
+	 * @param symbol the element symbol
+	 *
+	 * @return the exact mass
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public double getAtomMass(String symbol) throws IOException
+	{
+		Double mass = atomMasses.get(symbol);
+		if(mass == null)
+		{
+			IAtom a = new Atom(symbol);
+			IsotopeFactory.getInstance(a.getBuilder()).configure(a);
+			mass = a.getExactMass();
+			atomMasses.putIfAbsent(symbol, mass);
+		}
+		return mass;
+	}
+
+
+	/**
+	 * Gets the path of the file. The file is taken from the property.file.path if
+	 * it is set or from the classpath.
+	 *
+	 * @param name the file name
+	 *
+	 * @return the file
+	 */
+	private static File getFile(String name)
+	{
+		if(System.getProperty("property.file.path") != null)
+			return new File(System.getProperty("property.file.path") + name);
+
+		URL url = ChemistryTables.class.getClassLoader().getResource(name);
+		return new File(url.getFile());
+	}
+
+
+	/**
+	 * Read in the bondenergies.txt. The file contains lines like "C=O   745"...the bond is
+	 * given by the first 5 characters.
+	 */
+	private void readBondEnergies()
+	{
+		Map<String, Double> energies = new LinkedHashMap<String, Double>();
+		try
+		{
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(getFile("bondenergies.txt"))));
+			String strLine;
+			while ((strLine = br.readLine()) != null)   {
+				if(strLine.equals("//"))
+					break;
+				String bond = strLine.substring(0,5).trim();
+				String energy = strLine.substring(6).trim();
+				energies.put(bond, Double.parseDouble(energy));
+			}
+			br.close();
+		}
+		catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		List<String[]> bonds = new ArrayList<String[]>();
+		List<Integer> orders = new ArrayList<Integer>();
+		List<Double> values = new ArrayList<Double>();
+		elementCodes = new HashMap<String, Integer>();
+		for (String bond : energies.keySet()) {
+			int order = 1;
+			String[] atoms = bond.split("-");
+			if(bond.indexOf('=') >= 0)
+			{
+				order = 2;
+				atoms = bond.split("=");
+			}
+			else if(bond.indexOf('~') >= 0)
+			{
+				order = 3;
+				atoms = bond.split("~");
+			}
+			//e.g. the "H-" line
+			if(atoms.length != 2)
+				continue;
+
+			for (String atom : atoms) {
+				if(!elementCodes.containsKey(atom))
+					elementCodes.put(atom, elementCodes.size());
+			}
+			bonds.add(atoms);
+			orders.add(order);
+			values.add(energies.get(bond));
+		}
+
+		int elementCount = elementCodes.size();
+		bondEnergies = new double[3][elementCount][elementCount];
+		for (int order = 0; order < 3; order++) {
+			for (int i = 0; i < elementCount; i++) {
+				Arrays.fill(bondEnergies[order][i], Double.NaN);
+			}
+		}
+		//the given direction first...the reverse bond is only used if it is not in the file
+		for (int i = 0; i < bonds.size(); i++) {
+			bondEnergies[orders.get(i) - 1][elementCodes.get(bonds.get(i)[0])][elementCodes.get(bonds.get(i)[1])] = values.get(i);
+		}
+		for (int i = 0; i < bonds.size(); i++) {
+			int e1 = elementCodes.get(bonds.get(i)[1]);
+			int e2 = elementCodes.get(bonds.get(i)[0]);
+			if(Double.isNaN(bondEnergies[orders.get(i) - 1][e1][e2]))
+				bondEnergies[orders.get(i) - 1][e1][e2] = values.get(i);
+		}
+		elementCodes = Collections.unmodifiableMap(elementCodes);
+	}
+
+
+	/**
+	 * Read in the neutralLoss.csv.
+	 */
+	private void readNeutralLosses()
+	{
+		Map<Double, NeutralLoss> neutralLoss = new HashMap<Double, NeutralLoss>();
+		try
+		{
+			BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(getFile("neutralLoss.csv"))));
+			String strLine;
+			boolean first = true;
+			while ((strLine = br.readLine()) != null)   {
+				//skip header
+				if(first)
+				{
+					first = false;
+					continue;
+				}
+				if(strLine.equals("//"))
+					break;
+
+				if(strLine.startsWith("#"))
+					continue;
+
+				String[] lineArray = strLine.split("\t");
+				int mode = 1;
+				//positive and negative mode
+				if(lineArray[0].equals("+ -"))
+					mode = 0;
+				//negative mode
+				else if(lineArray[0].equals("-"))
+					mode = -1;
+
+				IMolecularFormula mfT = new MolecularFormula();
+				IMolecularFormula mfE = new MolecularFormula();
+				NeutralLoss nl = new NeutralLoss(MolecularFormulaManipulator.getMolecularFormula(lineArray[3], mfE), MolecularFormulaManipulator.getMolecularFormula(lineArray[2], mfT), mode, Integer.parseInt(lineArray[4]), Integer.parseInt(lineArray[5]), lineArray[6], Integer.parseInt(lineArray[7]));
+				double deltaM = Double.parseDouble(lineArray[1]);
+				neutralLoss.put(deltaM, nl);
+			}
+			br.close();
+		}
+		catch (FileNotFoundException e) {
+			e.printStackTrace();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		neutralLosses = Collections.unmodifiableMap(neutralLoss);
+	}
+
+}
@@ -0,0 +1,211 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.util.BitSet;
+import java.util.Map;
+
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+
+
+/**
+ * A fragment stored as atom and bond bit sets over the {@link IndexedMolecule}. Every fragment
+ * is an induced subgraph of the original molecule, so no atom container is needed while
+ * fragmenting. Mass, bond energy and tree depth are kept as primitives and the
+ * {@link IAtomContainer} is only built on demand (see {@link #toAtomContainer(IndexedMolecule)}).
+ * <p/>
+ * Two fragments are equal if they contain the same atoms and bonds.
+ */
+public class FragmentBitSet {
+
+	private BitSet atoms;
+	private BitSet bonds;
+	private int atomCount;
+	private int bondCount;
+	private double mass;
+	private double bondEnergy;
+	private int treeDepth;
+	//properties of neutral loss fragments (and their children)...null otherwise
+	private Map<Object, Object> properties = null;
+
+
+	/**
+	 * Instantiates a new fragment.
+	 *
+	 * @param atoms the atoms (IDs of the original molecule)
+	 * @param bonds the bonds (IDs of the original molecule)
+	 * @param mass the mass of the fragment
+	 * @param bondEnergy the summed up bond energy needed to create the fragment
+	 * @param treeDepth the tree depth
+	 */
+	public FragmentBitSet(BitSet atoms, BitSet bonds, double mass, double bondEnergy, int treeDepth)
+	{
+		this.atoms = atoms;
+		this.bonds = bonds;
+		this.atomCount = atoms.cardinality();
+		this.bondCount = bonds.cardinality();
+		this.mass = mass;
+		this.bondEnergy = bondEnergy;
+		this.treeDepth = treeDepth;
+	}
+
+
+	/**
+	 * Creates the fragment from an atom container which only contains atoms and bonds of the
+	 * indexed molecule (e.g. the neutral loss fragments of the {@link PostProcess}). The properties
+	 * of the atom container are kept.
+	 *
+	 * @param molecule the indexed molecule
+	 * @param fragment the fragment
+	 * @param treeDepth the tree depth
+	 *
+	 * @return the fragment
+	 */
+	public static FragmentBitSet fromAtomContainer(IndexedMolecule molecule, IAtomContainer fragment, int treeDepth)
+	{
+		BitSet atoms = new BitSet(molecule.getAtomCount());
+		BitSet bonds = new BitSet(molecule.getBondCount());
+		double mass = 0.0;
+		for (IAtom atom : fragment.atoms()) {
+			int id = Integer.parseInt(atom.getID());
+			atoms.set(id);
+			mass += molecule.getAtomMass(id);
+		}
+		for (IBond bond : fragment.bonds()) {
+			bonds.set(Integer.parseInt(bond.getID()));
+		}
+
+		double bondEnergy = 0.0;
+		Double fragmentBondEnergy = AtomContainerMetFrag.getFragmentBondEnergy(fragment);
+		if(fragmentBondEnergy != null)
+			bondEnergy = fragmentBondEnergy;
+
+		FragmentBitSet ret = new FragmentBitSet(atoms, bonds, mass, bondEnergy, treeDepth);
+		if(!fragment.getProperties().isEmpty())
+			ret.properties = fragment.getProperties();
+		return ret;
+	}
+
+
+	/**
+	 * Builds the atom container of this fragment. The atoms and bonds are the ones of the
+	 * original molecule. The properties "BondEnergy", "TreeDepth" and "FragmentMass" are
+	 * set as strings like in the {@link Fragmenter}.
+	 *
+	 * @param molecule the indexed molecule
+	 *
+	 * @return the atom container
+	 */
+	public IAtomContainer toAtomContainer(IndexedMolecule molecule)
+	{
+		AtomContainerMetFrag ret = new AtomContainerMetFrag();
+		for (int i = atoms.nextSetBit(0); i >= 0; i = atoms.nextSetBit(i + 1)) {
+			ret.addAtom(molecule.getAtom(i));
+		}
+		for (int i = bonds.nextSetBit(0); i >= 0; i = bonds.nextSetBit(i + 1)) {
+			ret.addBond(molecule.getBond(i));
+		}
+
+		if(properties != null)
+			ret.setProperties(properties);
+		ret.setProperty("BondEnergy", Double.toString(bondEnergy));
+		ret.setBondEnergy(bondEnergy);
+		ret.setProperty("TreeDepth", Integer.toString(treeDepth));
+		//the summed up exact masses...also correct for the neutral loss fragments
+		ret.setProperty("FragmentMass", Double.toString(mass));
+
+		return ret;
+	}
+
+
+	public BitSet getAtoms()
+	{
+		return atoms;
+	}
+
+	public BitSet getBonds()
+	{
+		return bonds;
+	}
+
+	public int getAtomCount()
+	{
+		return atomCount;
+	}
+
+	public int getBondCount()
+	{
+		return bondCount;
+	}
+
+	public double getMass()
+	{
+		return mass;
+	}
+
+	public double getBondEnergy()
+	{
+		return bondEnergy;
+	}
+
+	public void setBondEnergy(double bondEnergy)
+	{
+		this.bondEnergy = bondEnergy;
+	}
+
+	public int getTreeDepth()
+	{
+		return treeDepth;
+	}
+
+	public void setTreeDepth(int treeDepth)
+	{
+		this.treeDepth = treeDepth;
+	}
+
+	/**
+	 * Gets the properties of the neutral loss fragment this fragment was created from.
+	 *
+	 * @return the properties or null
+	 */
+	public Map<Object, Object> getProperties()
+	{
+		return properties;
+	}
+
+	/**
+	 * Sets the properties...they are shared and must not be modified.
+	 *
+	 * @param properties the properties
+	 */
+	public void setProperties(Map<Object, Object> properties)
+	{
+		this.properties = properties;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#hashCode()
+	 */
+	@Override
+	public int hashCode()
+	{
+		return 31 * atoms.hashCode() + bonds.hashCode();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#equals(java.lang.Object)
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true;
+		if(!(obj instanceof FragmentBitSet))
+			return false;
+		FragmentBitSet other = (FragmentBitSet)obj;
+		return atoms.equals(other.atoms) && bonds.equals(other.bonds);
+	}
+
+}
@@ -0,0 +1,276 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openscience.cdk.Molecule;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.isomorphism.UniversalIsomorphismTester;
+import org.openscience.cdk.smiles.SmilesGenerator;
+
+
+/**
+ * Redundancy check of the fragmenter. The fragments are indexed by a cheap key so that a new
+ * fragment is only compared against the fragments with the same key:
+ * <ul>
+ * <li>ATOMS: the atom IDs of the original molecule (all fragments are subgraphs of it)
+ * <li>MOLECULAR_FORMULA: the sum formula
+ * <li>SMILES: the "smiles" property of the fragment (created if it is missing)
+ * <li>ISOMORPHISM: sum formula and a Morgan like invariant hash...the real isomorphism check
+ * 		is only done for fragments with the same key
+ * </ul>
+ * For every key the fragment with the lowest bond energy is kept. The index is not thread safe,
+ * the fragments have to be checked in the order of the BFS to get the same fragments every time.
+ */
+public class FragmentIndex {
+
+	public static final int ATOMS = 0;
+	public static final int MOLECULAR_FORMULA = 1;
+	public static final int SMILES = 2;
+	public static final int ISOMORPHISM = 3;
+
+	//number of refinement iterations of the invariant hash
+	private static final int MORGAN_ITERATIONS = 3;
+
+	private int mode;
+	private Map<Object, List<IAtomContainer>> index = new HashMap<Object, List<IAtomContainer>>();
+	private int collisions = 0;
+
+
+	/**
+	 * Instantiates a new fragment index.
+	 *
+	 * @param mode the redundancy check (ATOMS, MOLECULAR_FORMULA, SMILES or ISOMORPHISM)
+	 */
+	public FragmentIndex(int mode)
+	{
+		this.mode = mode;
+	}
+
+
+	/**
+	 * Checks if the fragment (or an identical one) is already in the index. If not
+	 * the fragment is added. If it is known but has a lower bond energy it replaces
+	 * the representative of the index...it is still reported as known (like the bit set
+	 * fragmenter), so every key is emitted only once.
+	 *
+	 * @param fragment the fragment
+	 * @param sumFormula the sum formula of the fragment
+	 *
+	 * @return true, if the fragment is already known
+	 *
+	 * @throws CDKException the CDK exception
+	 */
+	public boolean isKnown(IAtomContainer fragment, String sumFormula) throws CDKException
+	{
+		Object key = getKey(fragment, sumFormula);
+		List<IAtomContainer> frags = index.get(key);
+		if(frags == null)
+		{
+			frags = new ArrayList<IAtomContainer>(1);
+			frags.add(fragment);
+			index.put(key, frags);
+			return false;
+		}
+
+		int identical = 0;
+		if(mode == ISOMORPHISM)
+		{
+			//real hash collisions are checked with the isomorphism tester
+			identical = -1;
+			for (int i = 0; i < frags.size(); i++) {
+				if(UniversalIsomorphismTester.isIsomorph(fragment, frags.get(i)))
+				{
+					identical = i;
+					break;
+				}
+			}
+			if(identical < 0)
+			{
+				collisions++;
+				frags.add(fragment);
+				return false;
+			}
+		}
+
+		//keep the fragment with the lowest bond energy
+		if(getBondEnergy(frags.get(identical)) > getBondEnergy(fragment))
+			frags.set(identical, fragment);
+		return true;
+	}
+
+
+	/**
+	 * Adds the fragment without checking (e.g. neutral loss fragments).
+	 *
+	 * @param fragment the fragment
+	 * @param sumFormula the sum formula
+	 */
+	public void add(IAtomContainer fragment, String sumFormula)
+	{
+		Object key = getKey(fragment, sumFormula);
+		List<IAtomContainer> frags = index.get(key);
+		if(frags == null)
+		{
+			frags = new ArrayList<IAtomContainer>(1);
+			frags.add(fragment);
+			index.put(key, frags);
+		}
+		else if(mode == ISOMORPHISM)
+			frags.add(fragment);
+	}
+
+
+	/**
+	 * Gets the fragments with the lowest bond energy per key.
+	 *
+	 * @return the representatives
+	 */
+	public List<IAtomContainer> getRepresentatives()
+	{
+		List<IAtomContainer> ret = new ArrayList<IAtomContainer>();
+		for (List<IAtomContainer> frags : index.values()) {
+			ret.addAll(frags);
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Gets the number of keys with more than one non isomorph fragment (ISOMORPHISM only).
+	 *
+	 * @return the collisions
+	 */
+	public int getCollisions()
+	{
+		return collisions;
+	}
+
+
+	/**
+	 * Gets the key of the fragment.
+	 *
+	 * @param fragment the fragment
+	 * @param sumFormula the sum formula
+	 *
+	 * @return the key
+	 */
+	private Object getKey(IAtomContainer fragment, String sumFormula)
+	{
+		switch (mode) {
+		case MOLECULAR_FORMULA:
+			return sumFormula;
+		case SMILES:
+			//the fragmenter sets the smiles...create it if it is missing (a null key is not allowed)
+			Object smiles = fragment.getProperty("smiles");
+			if(smiles == null)
+			{
+				smiles = new SmilesGenerator().createSMILES(new Molecule(fragment));
+				fragment.setProperty("smiles", smiles);
+			}
+			return smiles;
+		case ISOMORPHISM:
+			return sumFormula + "_" + getInvariantHash(fragment);
+		default:
+			BitSet atoms = new BitSet();
+			for (IAtom atom : fragment.atoms()) {
+				atoms.set(Integer.parseInt(atom.getID()));
+			}
+			return atoms;
+		}
+	}
+
+
+	/**
+	 * Gets the bond energy property.
+	 *
+	 * @param fragment the fragment
+	 *
+	 * @return the bond energy
+	 */
+	private double getBondEnergy(IAtomContainer fragment)
+	{
+		Double bondEnergy = AtomContainerMetFrag.getFragmentBondEnergy(fragment);
+		return bondEnergy == null ? 0.0 : bondEnergy;
+	}
+
+
+	/**
+	 * Morgan like invariant hash: the atom invariants (element, degree) are refined with the
+	 * invariants of the neighbours (and the bond orders). Isomorph fragments get the same hash.
+	 *
+	 * @param fragment the fragment
+	 *
+	 * @return the hash
+	 */
+	private long getInvariantHash(IAtomContainer fragment)
+	{
+		int atomCount = fragment.getAtomCount();
+		Map<IAtom, Integer> atomToIndex = new HashMap<IAtom, Integer>();
+		long[] invariants = new long[atomCount];
+		int i = 0;
+		for (IAtom atom : fragment.atoms()) {
+			atomToIndex.put(atom, i);
+			invariants[i] = atom.getSymbol().hashCode();
+			i++;
+		}
+
+		int bondCount = fragment.getBondCount();
+		int[] bondAtom1 = new int[bondCount];
+		int[] bondAtom2 = new int[bondCount];
+		int[] bondOrder = new int[bondCount];
+		i = 0;
+		for (IBond bond : fragment.bonds()) {
+			bondAtom1[i] = atomToIndex.get(bond.getAtom(0));
+			bondAtom2[i] = atomToIndex.get(bond.getAtom(1));
+			bondOrder[i] = bond.getOrder().ordinal() + 1;
+			invariants[bondAtom1[i]] += 1L << 32;
+			invariants[bondAtom2[i]] += 1L << 32;
+			i++;
+		}
+
+		for (int iteration = 0; iteration < MORGAN_ITERATIONS; iteration++) {
+			long[] next = new long[atomCount];
+			for (int a = 0; a < atomCount; a++) {
+				next[a] = invariants[a] * 31;
+			}
+			//sum over the neighbours...independent of the atom order
+			for (int b = 0; b < bondCount; b++) {
+				next[bondAtom1[b]] += mix(invariants[bondAtom2[b]] * bondOrder[b]);
+				next[bondAtom2[b]] += mix(invariants[bondAtom1[b]] * bondOrder[b]);
+			}
+			invariants = next;
+		}
+
+		Arrays.sort(invariants);
+		long hash = 17;
+		for (int a = 0; a < atomCount; a++) {
+			hash = hash * 31 + invariants[a];
+		}
+		return hash;
+	}
+
+
+	/**
+	 * Bit mixing of the invariant.
+	 *
+	 * @param value the value
+	 *
+	 * @return the mixed value
+	 */
+	private static long mix(long value)
+	{
+		value ^= (value >>> 33);
+		value *= 0xff51afd7ed558ccdL;
+		value ^= (value >>> 33);
+		return value;
+	}
+
+}
@@ -0,0 +1,212 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractQueue;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedList;
+
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+
+
+/**
+ * The BFS queue of the {@link Fragmenter}. At most maxNodes nodes are kept in memory, the
+ * following ones are spilled to a binary temp file (same fragment format as {@link FragmentSinkBinary})
+ * and read back in chunks when the nodes in memory are polled. The order is the same as in
+ * an unbounded queue.
+ */
+public class FragmentQueue extends AbstractQueue<Node> {
+
+	private int maxNodes;
+	private String identifier;
+	private IAtomContainer originalMolecule;
+	private LinkedList<Node> nodes = new LinkedList<Node>();
+	private IAtom[] atomsById = null;
+	private IBond[] bondsById = null;
+	private File file = null;
+	private DataOutputStream out = null;
+	private DataInputStream in = null;
+	//nodes in the file which are not read yet
+	private int spilled = 0;
+
+
+	/**
+	 * Instantiates a new fragment queue.
+	 *
+	 * @param originalMolecule the numbered original molecule
+	 * @param maxNodes the max number of nodes kept in memory
+	 * @param identifier the identifier (used as prefix of the spill file)
+	 */
+	public FragmentQueue(IAtomContainer originalMolecule, int maxNodes, String identifier)
+	{
+		this.originalMolecule = originalMolecule;
+		this.maxNodes = Math.max(maxNodes, 1);
+		this.identifier = identifier;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.Queue#offer(java.lang.Object)
+	 */
+	public boolean offer(Node node)
+	{
+		//the spilled nodes are older...keep the order
+		if(spilled == 0 && nodes.size() < maxNodes)
+			return nodes.add(node);
+
+		try
+		{
+			if(out == null)
+				openFile();
+			out.writeInt(node.getCurrent());
+			out.writeInt(node.getParent());
+			out.writeInt(node.getTreeDepth());
+			FragmentSinkBinary.writeFragment(out, node.getMol());
+			spilled++;
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Error writing the fragment queue of " + identifier, e);
+		}
+		return true;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.Queue#poll()
+	 */
+	public Node poll()
+	{
+		fill();
+		return nodes.poll();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.Queue#peek()
+	 */
+	public Node peek()
+	{
+		fill();
+		return nodes.peek();
+	}
+
+
+	/**
+	 * Iterates over the nodes in memory (the head of the queue).
+	 *
+	 * @see java.util.AbstractCollection#iterator()
+	 */
+	public Iterator<Node> iterator()
+	{
+		fill();
+		return Collections.unmodifiableList(nodes).iterator();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.AbstractCollection#size()
+	 */
+	public int size()
+	{
+		return nodes.size() + spilled;
+	}
+
+
+	/**
+	 * Checks if nodes were spilled to disk.
+	 *
+	 * @return true, if spilled
+	 */
+	public boolean isSpilled()
+	{
+		return file != null;
+	}
+
+
+	/**
+	 * Deletes the spill file.
+	 */
+	public void close()
+	{
+		try
+		{
+			if(out != null)
+				out.close();
+			if(in != null)
+				in.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		if(file != null)
+			file.delete();
+		out = null;
+		in = null;
+		file = null;
+		spilled = 0;
+	}
+
+
+	/**
+	 * Read the next spilled nodes if there are no nodes in memory.
+	 */
+	private void fill()
+	{
+		if(!nodes.isEmpty() || spilled == 0)
+			return;
+
+		try
+		{
+			out.flush();
+			if(in == null)
+				in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			int count = Math.min(spilled, maxNodes);
+			for (int i = 0; i < count; i++) {
+				int current = in.readInt();
+				int parent = in.readInt();
+				int treeDepth = in.readInt();
+				IAtomContainer fragment = FragmentSinkBinary.readFragment(in, atomsById, bondsById);
+				nodes.add(new Node(current, parent, fragment, treeDepth));
+			}
+			spilled -= count;
+		}
+		catch (IOException e)
+		{
+			throw new IllegalStateException("Error reading the fragment queue of " + identifier, e);
+		}
+
+		//all spilled nodes are read...the next ones go into a new file
+		if(spilled == 0)
+			close();
+	}
+
+
+	/**
+	 * Create the spill file.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	private void openFile() throws IOException
+	{
+		if(atomsById == null)
+		{
+			atomsById = FragmentSinkBinary.getAtomsById(originalMolecule);
+			bondsById = FragmentSinkBinary.getBondsById(originalMolecule);
+		}
+		file = File.createTempFile(identifier + "_queue", ".bin");
+		// Delete temp file when program exits.
+		file.deleteOnExit();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+	}
+
+}
@@ -0,0 +1,59 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+
+/**
+ * Receives the fragments generated in the BFS loop of the {@link Fragmenter}.
+ * All fragments are induced subgraphs of the (numbered) original molecule, so
+ * implementations may store them by atom and bond IDs instead of writing complete
+ * molecule files.
+ */
+public interface FragmentSink {
+
+	/**
+	 * Called once after the preprocessing of the candidate. The atoms and bonds of the
+	 * original molecule are numbered at this point.
+	 *
+	 * @param originalMolecule the original molecule
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void init(IAtomContainer originalMolecule) throws IOException;
+
+	/**
+	 * Adds a fragment.
+	 *
+	 * @param fragment the fragment
+	 *
+	 * @throws CDKException the CDK exception
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void add(IAtomContainer fragment) throws CDKException, IOException;
+
+	/**
+	 * Gets the number of fragments added.
+	 *
+	 * @return the number of fragments
+	 */
+	public int size();
+
+	/**
+	 * Gets all fragments in the order they were added.
+	 *
+	 * @return the fragments
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public List<IAtomContainer> getFragments() throws IOException;
+
+	/**
+	 * Releases all resources (e.g. spill files). The sink must not be used afterwards.
+	 */
+	public void close();
+
+}
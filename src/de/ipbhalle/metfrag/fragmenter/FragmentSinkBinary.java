@@ -0,0 +1,222 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+
+
+/**
+ * Fragment sink which spills all fragments into one binary temp file.
+ * <p/>
+ * A fragment is stored as the IDs of its atoms and bonds in the original molecule
+ * followed by its properties (key/value strings). Reading the fragments back only
+ * looks up the atoms and bonds of the original molecule...no MDL parsing is needed.
+ */
+public class FragmentSinkBinary implements FragmentSink {
+
+	private String identifier;
+	private File file = null;
+	private DataOutputStream out = null;
+	private IAtom[] atomsById = null;
+	private IBond[] bondsById = null;
+	private int count = 0;
+
+
+	/**
+	 * Instantiates a new binary fragment sink.
+	 *
+	 * @param identifier the identifier (used as prefix of the temp file)
+	 */
+	public FragmentSinkBinary(String identifier)
+	{
+		this.identifier = identifier;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#init(org.openscience.cdk.interfaces.IAtomContainer)
+	 */
+	public void init(IAtomContainer originalMolecule) throws IOException
+	{
+		atomsById = getAtomsById(originalMolecule);
+		bondsById = getBondsById(originalMolecule);
+
+		file = File.createTempFile(identifier + "_frags", ".bin");
+		// Delete temp file when program exits.
+		file.deleteOnExit();
+		out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+		count = 0;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#add(org.openscience.cdk.interfaces.IAtomContainer)
+	 */
+	public void add(IAtomContainer fragment) throws IOException
+	{
+		writeFragment(out, fragment);
+		count++;
+	}
+
+
+	/**
+	 * Write one fragment to the stream.
+	 *
+	 * @param out the out
+	 * @param fragment the fragment
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static void writeFragment(DataOutputStream out, IAtomContainer fragment) throws IOException
+	{
+		out.writeInt(fragment.getAtomCount());
+		for (IAtom atom : fragment.atoms()) {
+			out.writeInt(Integer.parseInt(atom.getID()));
+		}
+		out.writeInt(fragment.getBondCount());
+		for (IBond bond : fragment.bonds()) {
+			out.writeInt(Integer.parseInt(bond.getID()));
+		}
+
+		//all properties are stored as strings...same as in the sdf file
+		Map<Object, Object> props = fragment.getProperties();
+		out.writeInt(props.size());
+		for (Map.Entry<Object, Object> entry : props.entrySet()) {
+			out.writeUTF(entry.getKey().toString());
+			out.writeUTF(entry.getValue() == null ? "" : entry.getValue().toString());
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#size()
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#getFragments()
+	 */
+	public List<IAtomContainer> getFragments() throws IOException
+	{
+		List<IAtomContainer> ret = new ArrayList<IAtomContainer>(count);
+		if(file == null)
+			return ret;
+
+		out.flush();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		try
+		{
+			for (int i = 0; i < count; i++) {
+				ret.add(readFragment(in, atomsById, bondsById));
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Read one fragment from the stream.
+	 *
+	 * @param in the in
+	 * @param atomsById the atoms of the original molecule by ID
+	 * @param bondsById the bonds of the original molecule by ID
+	 *
+	 * @return the fragment
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	static IAtomContainer readFragment(DataInputStream in, IAtom[] atomsById, IBond[] bondsById) throws IOException
+	{
+		IAtomContainer fragment = new AtomContainerMetFrag();
+		int atomCount = in.readInt();
+		for (int i = 0; i < atomCount; i++) {
+			fragment.addAtom(atomsById[in.readInt()]);
+		}
+		int bondCount = in.readInt();
+		for (int i = 0; i < bondCount; i++) {
+			fragment.addBond(bondsById[in.readInt()]);
+		}
+		int propCount = in.readInt();
+		for (int i = 0; i < propCount; i++) {
+			String key = in.readUTF();
+			fragment.setProperty(key, in.readUTF());
+		}
+		return fragment;
+	}
+
+
+	/**
+	 * Gets the atoms of the original molecule by ID.
+	 *
+	 * @param originalMolecule the numbered original molecule
+	 *
+	 * @return the atoms
+	 */
+	static IAtom[] getAtomsById(IAtomContainer originalMolecule)
+	{
+		IAtom[] atoms = new IAtom[originalMolecule.getAtomCount()];
+		for (IAtom atom : originalMolecule.atoms()) {
+			atoms[Integer.parseInt(atom.getID())] = atom;
+		}
+		return atoms;
+	}
+
+
+	/**
+	 * Gets the bonds of the original molecule by ID.
+	 *
+	 * @param originalMolecule the numbered original molecule
+	 *
+	 * @return the bonds
+	 */
+	static IBond[] getBondsById(IAtomContainer originalMolecule)
+	{
+		IBond[] bonds = new IBond[originalMolecule.getBondCount()];
+		for (IBond bond : originalMolecule.bonds()) {
+			bonds[Integer.parseInt(bond.getID())] = bond;
+		}
+		return bonds;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#close()
+	 */
+	public void close()
+	{
+		try
+		{
+			if(out != null)
+				out.close();
+		}
+		catch (IOException e) {
+			e.printStackTrace();
+		}
+		if(file != null)
+			file.delete();
+		out = null;
+		file = null;
+		count = 0;
+	}
+
+}
@@ -0,0 +1,129 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+
+/**
+ * Fragment sink which keeps the fragments in memory. If more than the given maximum
+ * number of fragments are added, the remaining ones are spilled to a {@link FragmentSinkBinary}.
+ */
+public class FragmentSinkMemory implements FragmentSink {
+
+	private List<IAtomContainer> fragments = new ArrayList<IAtomContainer>();
+	private int maxFragments;
+	private String identifier;
+	private IAtomContainer originalMolecule = null;
+	private FragmentSinkBinary spill = null;
+
+
+	/**
+	 * Instantiates a new unbounded in memory fragment sink.
+	 */
+	public FragmentSinkMemory()
+	{
+		this(Integer.MAX_VALUE, "");
+	}
+
+
+	/**
+	 * Instantiates a new bounded in memory fragment sink.
+	 *
+	 * @param maxFragments the max number of fragments kept in memory
+	 * @param identifier the identifier (used as prefix of the spill file)
+	 */
+	public FragmentSinkMemory(int maxFragments, String identifier)
+	{
+		this.maxFragments = maxFragments;
+		this.identifier = identifier;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#init(org.openscience.cdk.interfaces.IAtomContainer)
+	 */
+	public void init(IAtomContainer originalMolecule) throws IOException
+	{
+		this.originalMolecule = originalMolecule;
+		this.fragments = new ArrayList<IAtomContainer>();
+		if(spill != null)
+		{
+			spill.close();
+			spill = null;
+		}
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#add(org.openscience.cdk.interfaces.IAtomContainer)
+	 */
+	public void add(IAtomContainer fragment) throws IOException
+	{
+		if(fragments.size() < maxFragments)
+		{
+			fragments.add(fragment);
+			return;
+		}
+
+		//bound reached...spill the rest to disk
+		if(spill == null)
+		{
+			spill = new FragmentSinkBinary(identifier);
+			spill.init(originalMolecule);
+		}
+		spill.add(fragment);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#size()
+	 */
+	public int size()
+	{
+		if(spill != null)
+			return fragments.size() + spill.size();
+		return fragments.size();
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#getFragments()
+	 */
+	public List<IAtomContainer> getFragments() throws IOException
+	{
+		if(spill == null)
+			return fragments;
+
+		List<IAtomContainer> ret = new ArrayList<IAtomContainer>(size());
+		ret.addAll(fragments);
+		ret.addAll(spill.getFragments());
+		return ret;
+	}
+
+
+	/**
+	 * Checks if fragments were spilled to disk.
+	 *
+	 * @return true, if spilled
+	 */
+	public boolean isSpilled()
+	{
+		return spill != null;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#close()
+	 */
+	public void close()
+	{
+		if(spill != null)
+			spill.close();
+		spill = null;
+		fragments = new ArrayList<IAtomContainer>();
+	}
+
+}
@@ -0,0 +1,320 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+
+/**
+ * Persistent content addressed store of the fragment trees generated by
+ * {@link Fragmenter#generateFragmentsBitSet(IAtomContainer, int)}. The key is built from the
+ * structure and the settings of the split (see {@link Fragmenter}), the file name is the
+ * SHA-1 of the key. The trees do not depend on the peaks, they are filtered by the fragmenter. Every file contains the fragments of one candidate as atom/bond bit sets,
+ * mass, bond energy, tree depth and the neutral loss properties and is read memory mapped.
+ * <p/>
+ * The cache is thread safe: the files are written to a temp file and renamed.
+ */
+public class FragmentTreeCache {
+
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".frag";
+
+	private static FragmentTreeCache instance = null;
+
+	private File directory;
+	private AtomicInteger hits = new AtomicInteger(0);
+	private AtomicInteger misses = new AtomicInteger(0);
+
+
+	/**
+	 * Instantiates a new fragment tree cache.
+	 *
+	 * @param directory the cache directory
+	 */
+	public FragmentTreeCache(File directory)
+	{
+		this.directory = directory;
+		if(!directory.exists())
+			directory.mkdirs();
+	}
+
+
+	/**
+	 * Gets the cache shared by all searches of this JVM.
+	 *
+	 * @param directory the cache directory...null or empty disables the cache
+	 *
+	 * @return the cache or null if it is disabled
+	 */
+	public static synchronized FragmentTreeCache getInstance(String directory)
+	{
+		if(directory == null || directory.trim().equals(""))
+			return null;
+		File dir = new File(directory.trim());
+		if(instance == null || !instance.directory.equals(dir))
+			instance = new FragmentTreeCache(dir);
+		return instance;
+	}
+
+
+	/**
+	 * Gets the cached fragments.
+	 *
+	 * @param key the key
+	 * @param molecule the indexed molecule the fragments belong to
+	 *
+	 * @return the fragments or null if the tree is not cached
+	 */
+	public List<FragmentBitSet> get(String key, IndexedMolecule molecule)
+	{
+		File file = getFile(key);
+		if(!file.exists())
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try
+			{
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+				List<FragmentBitSet> ret = read(buffer, key, molecule);
+				if(ret == null)
+					misses.incrementAndGet();
+				else
+					hits.incrementAndGet();
+				return ret;
+			}
+			finally
+			{
+				raf.close();
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not read fragment cache file " + file + ": " + e.getMessage());
+		}
+		catch(RuntimeException e)
+		{
+			//broken file...fragment again
+			System.err.println("Broken fragment cache file " + file);
+		}
+		misses.incrementAndGet();
+		return null;
+	}
+
+
+	/**
+	 * Stores the fragments.
+	 *
+	 * @param key the key
+	 * @param molecule the indexed molecule the fragments belong to
+	 * @param fragments the fragments
+	 */
+	public void put(String key, IndexedMolecule molecule, List<FragmentBitSet> fragments)
+	{
+		File file = getFile(key);
+		try
+		{
+			File temp = File.createTempFile(file.getName(), ".tmp", directory);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				write(out, key, molecule, fragments);
+			}
+			finally
+			{
+				out.close();
+			}
+			if(!temp.renameTo(file))
+			{
+				file.delete();
+				if(!temp.renameTo(file))
+					temp.delete();
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not write fragment cache file " + file + ": " + e.getMessage());
+		}
+	}
+
+
+	public int getHits()
+	{
+		return hits.get();
+	}
+
+	public int getMisses()
+	{
+		return misses.get();
+	}
+
+
+	/**
+	 * Write the fragments.
+	 */
+	private void write(DataOutputStream out, String key, IndexedMolecule molecule, List<FragmentBitSet> fragments) throws IOException
+	{
+		int atomWords = getWordCount(molecule.getAtomCount());
+		int bondWords = getWordCount(molecule.getBondCount());
+		out.writeInt(VERSION);
+		writeString(out, key);
+		out.writeInt(molecule.getAtomCount());
+		out.writeInt(molecule.getBondCount());
+		out.writeInt(fragments.size());
+		for (FragmentBitSet fragment : fragments) {
+			out.writeDouble(fragment.getMass());
+			out.writeDouble(fragment.getBondEnergy());
+			out.writeInt(fragment.getTreeDepth());
+			writeBitSet(out, fragment.getAtoms(), atomWords);
+			writeBitSet(out, fragment.getBonds(), bondWords);
+
+			//only the string properties of the neutral loss fragments
+			Map<String, String> properties = new HashMap<String, String>();
+			if(fragment.getProperties() != null)
+			{
+				for (Map.Entry<Object, Object> entry : fragment.getProperties().entrySet()) {
+					if(entry.getKey() instanceof String && entry.getValue() instanceof String)
+						properties.put((String)entry.getKey(), (String)entry.getValue());
+				}
+			}
+			out.writeInt(properties.size());
+			for (Map.Entry<String, String> entry : properties.entrySet()) {
+				writeString(out, entry.getKey());
+				writeString(out, entry.getValue());
+			}
+		}
+	}
+
+
+	/**
+	 * Read the fragments.
+	 *
+	 * @return the fragments or null if the file does not fit
+	 */
+	private List<FragmentBitSet> read(MappedByteBuffer buffer, String key, IndexedMolecule molecule) throws UnsupportedEncodingException
+	{
+		if(buffer.getInt() != VERSION || !key.equals(readString(buffer)))
+			return null;
+		if(buffer.getInt() != molecule.getAtomCount() || buffer.getInt() != molecule.getBondCount())
+			return null;
+
+		int atomWords = getWordCount(molecule.getAtomCount());
+		int bondWords = getWordCount(molecule.getBondCount());
+		int count = buffer.getInt();
+		List<FragmentBitSet> ret = new ArrayList<FragmentBitSet>(count);
+		for (int i = 0; i < count; i++) {
+			double mass = buffer.getDouble();
+			double bondEnergy = buffer.getDouble();
+			int treeDepth = buffer.getInt();
+			BitSet atoms = readBitSet(buffer, atomWords);
+			BitSet bonds = readBitSet(buffer, bondWords);
+			FragmentBitSet fragment = new FragmentBitSet(atoms, bonds, mass, bondEnergy, treeDepth);
+
+			int propertyCount = buffer.getInt();
+			if(propertyCount > 0)
+			{
+				Map<Object, Object> properties = new HashMap<Object, Object>();
+				for (int j = 0; j < propertyCount; j++) {
+					String name = readString(buffer);
+					properties.put(name, readString(buffer));
+				}
+				fragment.setProperties(properties);
+			}
+			ret.add(fragment);
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Gets the file of the key (SHA-1 of the key).
+	 *
+	 * @param key the key
+	 *
+	 * @return the file
+	 */
+	private File getFile(String key)
+	{
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(key.getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+			}
+			return new File(directory, hex.toString() + SUFFIX);
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	private static int getWordCount(int bits)
+	{
+		return (bits + 63) / 64;
+	}
+
+	private static void writeBitSet(DataOutputStream out, BitSet bits, int words) throws IOException
+	{
+		long[] data = new long[words];
+		for (int i = bits.nextSetBit(0); i >= 0; i = bits.nextSetBit(i + 1)) {
+			data[i >> 6] |= 1L << (i & 63);
+		}
+		for (long word : data) {
+			out.writeLong(word);
+		}
+	}
+
+	private static BitSet readBitSet(MappedByteBuffer buffer, int words)
+	{
+		BitSet ret = new BitSet(words * 64);
+		for (int w = 0; w < words; w++) {
+			long word = buffer.getLong();
+			while(word != 0)
+			{
+				int bit = Long.numberOfTrailingZeros(word);
+				ret.set(w * 64 + bit);
+				word &= word - 1;
+			}
+		}
+		return ret;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException
+	{
+		byte[] bytes = value.getBytes("UTF-8");
+		out.writeInt(bytes.length);
+		out.write(bytes);
+	}
+
+	private static String readString(MappedByteBuffer buffer) throws UnsupportedEncodingException
+	{
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+
+}
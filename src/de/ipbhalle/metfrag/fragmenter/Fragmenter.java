@@ -12,14 +12,23 @@ import java.io.InputStreamReader;
 import java.net.URL;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 import java.util.Stack;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 
 import org.openscience.cdk.Atom;
@@ -56,6 +65,7 @@ import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 import de.ipbhalle.metfrag.bondPrediction.Charges;
 import de.ipbhalle.metfrag.graphviz.GraphViz;
 import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.read.Molfile;
 import de.ipbhalle.metfrag.spectrum.AssignFragmentPeak;
 import de.ipbhalle.metfrag.tools.MolecularFormulaTools;
 import de.ipbhalle.metfrag.tools.MoleculeTools;
@@ -67,7 +77,6 @@ import de.ipbhalle.metfrag.tools.Render;
 public class Fragmenter {
 	
 	private int nround = 0;
-	private List<BondPair> knownBonds = null;
 	private IRingSet allRings;
 	private List<IBond> aromaticBonds;
 	private List<BondInRing> bondInRing = null;
@@ -78,7 +87,8 @@ public class Fragmenter {
     private IMolecularFormulaSet sumFormulas;
     private Vector<HashMap<String, Integer>> peakSumFormulaTable;
     //store the sum formula with its atom container properties
-    private HashMap<String, List<IAtomContainer>> sumformulaToFragMap;
+    //redundancy check...created for every molecule
+    private FragmentIndex fragmentIndex;
     //private String currentSumFormula;
     private int countIsomorph = 0;
     private IAtomContainer originalMolecule;
@@ -88,8 +98,6 @@ public class Fragmenter {
     private double protonMass = MolecularFormulaTools.getMonoisotopicMass("H1");
     private static int bondNumber = 0;
     private HashMap<String, Double> atomMasses = new HashMap<String, Double>();
-    private Double currentFragWeight = 0.0;
-    private List<IAtom> atomList = new ArrayList<IAtom>();
     //private boolean checked = false; //only 1 iteration for molecules that only consist of rings (if false)...probably WRONG
     private GraphViz gv;
     private boolean removePeak = false;
@@ -99,12 +107,32 @@ public class Fragmenter {
     private boolean lonePairGeneration = false;
     private boolean neutralLossAdd = true;
     private int atomsContained;
-    private Map<String, Double> bondEnergies;
     private Map<Double, NeutralLoss> neutralLoss;
     private int treeDepth = 0;
     private PostProcess pp = null;
     private List<String> bondsToBreak = null;
     private boolean isOnlyBreakSelectedBonds = false;
+    private IndexedMolecule indexedMolecule = null;
+    //state of the split (sequential BFS)
+    private SplitContext splitContext = null;
+    //threads used to split up one tree level
+    private int threads = 1;
+    //max number of fragments of the BFS queue kept in memory
+    private int maxQueueSize = Integer.MAX_VALUE;
+    //shared cache of the preprocessed candidates...null if not used
+    private PreprocessCache preprocessCache = null;
+    //persistent cache of the bit set fragment trees...null if not used
+    private FragmentTreeCache fragmentTreeCache = null;
+    //the tree for the cache is built without the peaks (no min weight, all neutral losses)
+    private boolean peakIndependent = false;
+    //neutral fragment mass a neutral loss fragment (after the first level) has to explain
+    private static final String NL_PEAK_MASS = "NlPeakMass";
+    //peak guided pruning (streaming matching)...null if not used
+    private AssignFragmentPeak peakPruning = null;
+    private int prunedSubtrees = 0;
+    private int expandedFragments = 0;
+    //the recursive traversal over the atom container (before the adjacency arrays)...for benchmarks only
+    private boolean recursiveTraverse = false;
     
     //Timer
     long startTraverse = 0;
@@ -146,8 +174,6 @@ public class Fragmenter {
     	this.sumFormulas = null;
     	//no peaks given
     	this.givenPeaks = false;
-    	//HashMap which stores the sum formulas corresponding to the Atomcontainer (fragment)
-    	this.sumformulaToFragMap = new HashMap<String, List<IAtomContainer>>();
     	//break up molecule into fragments ... they are all returned
     	this.minWeight = 0;
     	this.nround = 0;
@@ -155,7 +181,7 @@ public class Fragmenter {
     	gv = new GraphViz();
         gv.addln(gv.start_graph());
         this.molecularFormulaRedundancyCheck = molecularFormulaRedundancyCheck;
-        ReadInNeutralLosses();
+        this.neutralLoss = ChemistryTables.getInstance().getNeutralLosses();
     	
     }
     
@@ -178,8 +204,6 @@ public class Fragmenter {
     	this.mzppm = 0;
     	this.breakAromaticRings = breakAromaticRings;
     	this.sumFormulas = null;
-    	//HashMap which stores the sum formulas corresponding to the Atomcontainer (fragment)
-    	this.sumformulaToFragMap = new HashMap<String, List<IAtomContainer>>();
     	this.minWeight = minWeight;
     	this.nround = 0;
     	this.neutralLossAdd = false;
@@ -188,7 +212,7 @@ public class Fragmenter {
         gv.addln(gv.start_graph());
         this.molecularFormulaRedundancyCheck = molecularFormulaRedundancyCheck;
 
-        ReadInNeutralLosses();
+        this.neutralLoss = ChemistryTables.getInstance().getNeutralLosses();
     }
     
     
@@ -215,7 +239,6 @@ public class Fragmenter {
     	this.breakAromaticRings = breakAromaticRings;
     	this.mode = positiveMode;
     	this.sumFormulas = sumFormulas;
-    	this.sumformulaToFragMap = new HashMap<String, List<IAtomContainer>>();
     	this.nround = 0;
     	this.molecularFormulaRedundancyCheck = molecularFormulaRedundancyCheck;
     	this.neutralLossAdd = neutralLossCheck;
@@ -224,7 +247,7 @@ public class Fragmenter {
     	parseFormula();
     	//set the minimum weight...the "leightest" peak
     	setMinWeight();
-    	ReadInNeutralLosses();
+    	this.neutralLoss = ChemistryTables.getInstance().getNeutralLosses();
     	//graphviz output
     	gv = new GraphViz();
         gv.addln(gv.start_graph());
@@ -249,14 +272,13 @@ public class Fragmenter {
     	this.mzppm = mzppm;
     	this.breakAromaticRings = breakAromaticRings;
     	this.mode = positiveMode;
-    	this.sumformulaToFragMap = new HashMap<String, List<IAtomContainer>>();
     	this.nround = 0;
     	this.molecularFormulaRedundancyCheck = molecularFormulaRedundancyCheck;
     	this.neutralLossAdd = neutralLossCheck;
     	
     	//set the minimum weight...the "leightest" peak
     	setMinWeight();
-    	ReadInNeutralLosses();
+    	this.neutralLoss = ChemistryTables.getInstance().getNeutralLosses();
     	//graphviz output
     	gv = new GraphViz();
         gv.addln(gv.start_graph());
@@ -281,7 +303,6 @@ public class Fragmenter {
     	this.mzppm = mzppm;
     	this.breakAromaticRings = breakAromaticRings;
     	this.mode = positiveMode;
-    	this.sumformulaToFragMap = new HashMap<String, List<IAtomContainer>>();
     	this.nround = 0;
     	this.molecularFormulaRedundancyCheck = molecularFormulaRedundancyCheck;
     	this.neutralLossAdd = neutralLossCheck;
@@ -289,7 +310,7 @@ public class Fragmenter {
     	//set the minimum weight...the "leightest" peak
     	setMinWeight();
     	this.removePeak = removePeaks;
-    	ReadInNeutralLosses();
+    	this.neutralLoss = ChemistryTables.getInstance().getNeutralLosses();
     	//graphviz output
     	gv = new GraphViz();
         gv.addln(gv.start_graph());
@@ -357,56 +378,79 @@ public class Fragmenter {
     	//Render.Draw(original, "Preprocessing!");
     	
     	
-    	//read in bondenergies.txt
-    	bondEnergies = new HashMap<String, Double>();
-        try 
-        {
-        	String file = "";
-        	if(System.getProperty("property.file.path") != null)
-        	{
-        		file = System.getProperty("property.file.path");
-        		file += "bondenergies.txt";
-        	}
-        	else
-        	{
-        		URL url = Fragmenter.class.getClassLoader().getResource("bondenergies.txt");
-    			file = url.getFile();
-//        		System.out.println("Pfad zu bondenergies.txt: " + url.getFile());
-        	}
-        	
-        	FileInputStream fstream = new FileInputStream(new File(file));
-    	    // Get the object of DataInputStream
-    	    DataInputStream in = new DataInputStream(fstream);
-    	    BufferedReader br = new BufferedReader(new InputStreamReader(in));
-    	    String strLine;
-    	    //Read File Line By Line
-    	    while ((strLine = br.readLine()) != null)   {
-    	      // Print the content on the console
-    	      //System.out.println (strLine);
-    	      if(strLine.equals("//"))
-    	    	  break;
-    	      String bond = strLine.substring(0,5).trim();
-    	      String energy = strLine.substring(6).trim();
-    	      bondEnergies.put(bond, Double.parseDouble(energy));
-    	      //System.out.println("Bond: '" + bond + "' Energy: '" + energy + "'");
-    	    }
-    	    //Close the input stream
-    	    in.close();
-        } 
-        catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
-    	
     	//prepare atom weights
         prepareAtomWeights(original);
         
         //mark all the bonds and atoms with numbers --> identify them later on        
         this.originalMolecule = markAllBonds(original);
         
+        //fragments already generated
+        if(realIsomorphism)
+        	this.fragmentIndex = new FragmentIndex(FragmentIndex.ISOMORPHISM);
+        else if(smilesRedundancyCheck)
+        	this.fragmentIndex = new FragmentIndex(FragmentIndex.SMILES);
+        else if(molecularFormulaRedundancyCheck)
+        	this.fragmentIndex = new FragmentIndex(FragmentIndex.MOLECULAR_FORMULA);
+        else
+        	this.fragmentIndex = new FragmentIndex(FragmentIndex.ATOMS);
+        
+        
+        //the candidate may already be preprocessed (in another spectrum)
+        String structureKey = null;
+        PreprocessedStructure cached = null;
+        if(this.preprocessCache != null)
+        {
+        	structureKey = PreprocessedStructure.getStructureKey(this.originalMolecule);
+        	cached = this.preprocessCache.get(structureKey);
+        	if(cached != null && !cached.fits(this.originalMolecule))
+        		cached = null;
+        }
         
+        if(cached != null)
+        {
+        	this.allRings = cached.getRings(this.originalMolecule);
+        	this.aromaticBonds = cached.getAromaticBonds(this.originalMolecule);
+        	cached.setAromaticityFlags(this.originalMolecule);
+        }
+        else
+        	detectRings();
+    	
+    	//primitive adjacency and atom masses for the traversal
+    	this.indexedMolecule = indexMolecule(cached == null ? null : cached.getBondEnergies());
+    	this.splitContext = new SplitContext(this.indexedMolecule);
+    	
+    	boolean calculated = (cached == null);
+    	if(isOnlyBreakSelectedBonds)
+    	{
+    		if(cached != null && cached.getBondsToBreak() != null)
+    			this.bondsToBreak = cached.getBondsToBreak();
+    		else
+    		{
+	    		//now find all bonds which are worth splitting
+	        	try {
+	        		Charges bondPrediction = new Charges();
+	    			this.bondsToBreak = bondPrediction.calculateBondsToBreak(this.originalMolecule);
+	    			calculated = true;
+	    		} catch (CloneNotSupportedException e) {
+	    			// TODO Auto-generated catch block
+	    			e.printStackTrace();
+	    		}
+    		}
+    	}
+    	
+    	//new candidate (or the bonds to break were missing)
+    	if(this.preprocessCache != null && calculated)
+    		this.preprocessCache.put(new PreprocessedStructure(structureKey, this.originalMolecule, this.allRings, this.aromaticBonds, this.indexedMolecule.getBondEnergies(), isOnlyBreakSelectedBonds ? this.bondsToBreak : null));
+    } 
+    
+    
+    /**
+     * Ring and aromaticity detection of the original molecule.
+     * 
+     * @throws CDKException the CDK exception
+     */
+    private void detectRings() throws CDKException
+    {
         //do ring detection with the original molecule
         AllRingsFinder allRingsFinder = new AllRingsFinder();
         allRingsFinder.setTimeout(100000);
@@ -430,22 +474,7 @@ public class Fragmenter {
             	}
 			}
         }
-    	
-    	if(isOnlyBreakSelectedBonds)
-    	{
-    		//now find all bonds which are worth splitting
-        	try {
-        		Charges bondPrediction = new Charges();
-    			this.bondsToBreak = bondPrediction.calculateBondsToBreak(this.originalMolecule);
-    		} catch (CloneNotSupportedException e) {
-    			// TODO Auto-generated catch block
-    			e.printStackTrace();
-    		}
-    	}
-    	
-    	
-    	
-    } 
+    }
     
     
     /**
@@ -463,6 +492,9 @@ public class Fragmenter {
      * Fragments are stored in the temporary folder. More memory efficient especially when using pubchem or chemspider
      * as compound database.
      * 
+     * Every fragment is written to its own sdf file...use {@link #generateFragmentsEfficient(IAtomContainer, boolean, int, FragmentSink)}
+     * to avoid the temp file round trip.
+     * 
      * @param atomContainer The molecule to split
      * @param verbose the verbose
      * @param treeDepthMax the tree depth max
@@ -474,123 +506,37 @@ public class Fragmenter {
      * @throws Exception the exception
      * @throws CDKException the CDK exception
      */
-    public List<File> generateFragmentsEfficient(IAtomContainer atomContainer, boolean verbose, int treeDepthMax, String identifier) throws CDKException, Exception 
+    public List<File> generateFragmentsEfficient(IAtomContainer atomContainer, boolean verbose, int treeDepthMax, final String identifier) throws CDKException, Exception 
     {
-    	List<File> fragmentsReturn = new ArrayList<File>();
-    	int tempLevelCount = 0;
-    	
-    	//now set a new min weight
-    	this.minWeight = this.minWeight - (double)treeDepthMax;
+    	final List<File> fragmentsReturn = new ArrayList<File>();
     	
-
-    	//counting vars for the tree build
-    	int parent = 0;
-    	int globalCount = 0; //count all frags --> labeling of the pictures
+    	//write every fragment to the temp folder
+    	FragmentSink tempFileSink = new FragmentSink() {
+    		
+    		public void init(IAtomContainer originalMolecule) {}
+    		
+    		public void add(IAtomContainer fragment) throws CDKException, IOException {
+    			fragmentsReturn.add(writeMoleculeToTemp(fragment, identifier, fragmentsReturn.size() + 1, (String)fragment.getProperty("BondEnergy"), Integer.parseInt((String)fragment.getProperty("TreeDepth"))));
+    		}
+    		
+    		public int size() {
+    			return fragmentsReturn.size();
+    		}
+    		
+    		public List<IAtomContainer> getFragments() throws IOException {
+    			//read the written fragments back in
+    			try {
+    				return Molfile.ReadfolderTemp(fragmentsReturn);
+    			} catch (CDKException e) {
+    				throw new IOException("Error reading the fragments of " + identifier, e);
+    			}
+    		}
+    		
+    		public void close() {}
+    	};
     	
-    	//fragments not yet split up enough...QUEUE --> BFS
-        Queue<Node> fragmentQueue = new LinkedList<Node>();
-       
-		globalCount++;
-        
-		//do preprocess: find all rings and aromatic rings...mark all bonds
-		preprocessMolecule(atomContainer);
-		//create new PostProcess object
-    	pp = new PostProcess(this.aromaticBonds, this.allRings, neutralLoss);
+    	generateFragments(atomContainer, treeDepthMax, tempFileSink);
     	
-		//add original molecule to it
-        fragmentQueue.offer(new Node(0, 0, this.originalMolecule, 0));       
-//        fragmentsReturn.add(writeMoleculeToTemp(this.originalMolecule, identifier, globalCount, "0", 0));
-        globalCount++;
-        int treeDepth = 1;
-        
-        //add neutral loss in the first step for sure
-        if(this.neutralLossAdd || true)
-        {
-        	IMolecularFormula molecularFormula = new MolecularFormula();
-        	molecularFormula = MolecularFormulaManipulator.getMolecularFormula(this.originalMolecule, molecularFormula);
-            //now add neutral losses to it
-            List<IAtomContainer> fragsNL = AddNeutralLosses(this.originalMolecule, molecularFormula, true);
-            
-                      
-            String atomCount = "";
-            for (IAtomContainer fragNL : fragsNL) {
-            	atomCount +=  (String)fragNL.getProperty("NeutralLossRule") + "[" + fragNL.getAtomCount() + "] ";
-            	fragmentQueue.offer(new Node(globalCount, 0, fragNL, treeDepth));    
-            	fragNL.setProperty("TreeDepth", "1");
-                fragmentsReturn.add(writeMoleculeToTemp(fragNL, identifier, globalCount, (String)fragNL.getProperty("BondEnergy"), treeDepth));
-                globalCount++;
-			}
-            System.out.println("Original Candidate [" + this.originalMolecule.getAtomCount() + "]: Neutral Losses: " + fragsNL.size() + " --> " + atomCount);
-        }
-        
-        
-        //get the number of preprocessed spectra
-        tempLevelCount = fragmentQueue.size();
-        
-        while(!fragmentQueue.isEmpty())
-        {
-        	nround++;
-        	//remember already tried combinations of ring...so there are less combinations
-        	knownBonds = new ArrayList<BondPair>();
-        	
-        	//get a fragment from the priority queue
-        	Node currentNode = fragmentQueue.poll();
-        	//reduce the number of fragments in this level
-        	tempLevelCount--;
-        	IAtomContainer currentFragment = currentNode.getMol();
-        	
-        	//add to result list...don't break fragments which only have 2 bonds left
-        	if (currentFragment.getBondCount() < 2)
-        		continue;
-        	
-        	List<IBond> splitableBonds = getSplitableBonds(currentFragment);
-            
-            //no splitable bonds are found
-            if (splitableBonds.size() == 0)
-                continue;
-            
-            parent = currentNode.getCurrent();
-
-            for (IBond bond : splitableBonds) {
-            	
-            	this.startSplitable = System.currentTimeMillis();
-            	List<IAtomContainer> parts = splitMolecule(currentFragment, bond);
-                this.endSplitable = System.currentTimeMillis() - this.startSplitable;
-                this.sumSplitableBonds += this.endSplitable;
-                                
-                for (IAtomContainer partContainer : parts) {
-                	//Render.Draw(partContainer, "Round: " + this.nround);
-                    fragmentQueue.offer(new Node(globalCount, parent, partContainer, treeDepth));
-                    fragmentsReturn.add(writeMoleculeToTemp(partContainer, identifier, globalCount, (String)partContainer.getProperty("BondEnergy"), treeDepth));                    
-                    globalCount++;
-                    int parentPP = globalCount - 1;
-                }
-            }
-        	//set the number of fragments for this level
-            if(tempLevelCount <= 0)
-            {
-            	//count for the current level
-	            tempLevelCount = fragmentQueue.size();
-	            treeDepth++;
-        	}
-            
-
-            
-//            System.out.println("Fragmente fertig #: " + fragments.size() + " Insgesamt Todo #: " + fragmentQueue.size() + " nround: " + this.nround);
-//            System.out.println("Treedepth: " + treeDepth);
-//            System.out.println("Benötigte Zeit Mass: " + this.sumMass);
-//            System.out.println("Benötigte Zeit Traverse: " + this.sumTraverse);
-//            System.out.println("Benötigte Zeit MakeAtomContainer: " + this.sumAtom);
-//            System.out.println("Benötigte Zeit Isomorph check: " + this.sumIsomorph + "Anzahl Hits: " + this.countIsomorph);
-//            System.out.println("Benötigte Zeit Fingerprint: " + this.endPartition + " Insgesamt: " + this.sumPartition);
-//            System.out.println("Benötigte Zeit Split Molecule: " + this.endSplitable + " Insgesamt: " + this.sumSplitableBonds);
-            
-          //generate only fragments until a specified depth
-	      if(treeDepth >= (treeDepthMax))
-	    	  break;
-    
-        }
-	    
         //return all fragments
 	    return fragmentsReturn;        
     }
@@ -608,8 +554,37 @@ public class Fragmenter {
      * <p/>
      * Hydrogens are added in this method to the original molecule! This method uses a queue (BFS).
      * 
-     * Fragments are stored in the temporary folder. More memory efficient especially when using pubchem or chemspider
-     * as compound database.
+     * The fragments are written into the given sink (e.g. {@link FragmentSinkMemory} or 
+     * {@link FragmentSinkBinary}) and can be read back from there without MDL parsing.
+     * 
+     * @param atomContainer The molecule to split
+     * @param verbose the verbose
+     * @param treeDepthMax the tree depth max
+     * @param sink the fragment sink
+     * 
+     * @return the sink containing all fragments
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    public FragmentSink generateFragmentsEfficient(IAtomContainer atomContainer, boolean verbose, int treeDepthMax, FragmentSink sink) throws CDKException, Exception 
+    {
+    	generateFragments(atomContainer, treeDepthMax, sink);
+    	return sink;
+    }
+    
+    
+    /**
+     * Split a molecule into fragments.
+     * <p/>
+     * The method considers bonds as splitable if they are
+     * <ul>
+     * <li><strike>non-terminal</strike>
+     * <li><strike>Not in a ring</strike>
+     * <li>Heavier than the given smallest weight
+     * </ul>
+     * <p/>
+     * Hydrogens are added in this method to the original molecule! This method uses a queue (BFS).
      * 
      * @param atomContainer The molecule to split
      * @param verbose the verbose
@@ -623,7 +598,26 @@ public class Fragmenter {
      */
     public List<IAtomContainer> generateFragmentsInMemory(IAtomContainer atomContainer, boolean verbose, int treeDepthMax) throws CDKException, Exception 
     {
-    	List<IAtomContainer> fragmentsReturn = new ArrayList<IAtomContainer>();
+    	FragmentSink sink = new FragmentSinkMemory();
+    	generateFragments(atomContainer, treeDepthMax, sink);
+    	
+        //return all fragments
+	    return sink.getFragments();        
+    }
+    
+    
+    /**
+     * The BFS loop which splits up the molecule. Every generated fragment is added to the sink.
+     * 
+     * @param atomContainer The molecule to split
+     * @param treeDepthMax the tree depth max
+     * @param sink the fragment sink
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    private void generateFragments(IAtomContainer atomContainer, int treeDepthMax, FragmentSink sink) throws CDKException, Exception 
+    {
     	int tempLevelCount = 0;
     	
     	//now set a new min weight
@@ -633,19 +627,20 @@ public class Fragmenter {
     	int parent = 0;
     	int globalCount = 0; //count all frags --> labeling of the pictures
     	
-    	//fragments not yet split up enough...QUEUE --> BFS
-        Queue<Node> fragmentQueue = new LinkedList<Node>();
-       
 		globalCount++;
         
 		//do preprocess: find all rings and aromatic rings...mark all bonds
 		preprocessMolecule(atomContainer);
 		//create new PostProcess object
     	pp = new PostProcess(this.aromaticBonds, this.allRings, neutralLoss);
+    	//the atoms and bonds are numbered now
+    	sink.init(this.originalMolecule);
+    	
+    	//fragments not yet split up enough...QUEUE --> BFS (the rest is spilled to disk if it gets too large)
+        FragmentQueue fragmentQueue = new FragmentQueue(this.originalMolecule, this.maxQueueSize, "fragmenter");
     	
 		//add original molecule to it
         fragmentQueue.offer(new Node(0, 0, this.originalMolecule, 0));       
-//        fragmentsReturn.add(writeMoleculeToTemp(this.originalMolecule, identifier, globalCount, "0", 0));
         globalCount++;
         Integer treeDepth = 1;
         
@@ -662,85 +657,836 @@ public class Fragmenter {
             	atomCount +=  (String)fragNL.getProperty("NeutralLossRule") + "[" + fragNL.getAtomCount() + "] ";
             	fragmentQueue.offer(new Node(globalCount, 0, fragNL, treeDepth));    
             	fragNL.setProperty("TreeDepth", "1");
-                fragmentsReturn.add(fragNL);
+                sink.add(fragNL);
                 globalCount++;
 			}
             System.out.println("Original Candidate [" + this.originalMolecule.getAtomCount() + "]: Neutral Losses: " + fragsNL.size() + " --> " + atomCount);
         }
         
         
+        //create the parts of the fragments in parallel...not possible if peaks are removed while splitting
+        SplitPrefetcher prefetcher = null;
+        if(this.threads > 1 && !this.removePeak)
+        	prefetcher = new SplitPrefetcher(this.threads);
+        
+        //get the number of preprocessed spectra
+        tempLevelCount = fragmentQueue.size();
+        
+        try
+        {
+	        while(!fragmentQueue.isEmpty())
+	        {
+	        	nround++;
+	        	
+	        	//the parts of the next fragment (and the rest of the level) are created by the threads
+	        	List<SplitPart> prefetchedParts = null;
+	        	if(prefetcher != null)
+	        		prefetchedParts = prefetcher.next(fragmentQueue, (treeDepth >= treeDepthMax) ? 1 : tempLevelCount);
+	        	
+	        	//get a fragment from the priority queue
+	        	Node currentNode = fragmentQueue.poll();
+	        	//reduce the number of fragments in this level
+	        	tempLevelCount--;
+	        	IAtomContainer currentFragment = currentNode.getMol();
+	        	
+	        	List<IBond> splitableBonds = null;
+	        	if(prefetcher == null)
+	        	{
+	        		//remember already tried combinations of ring...so there are less combinations
+	            	this.splitContext.reset();
+	            	
+		        	//add to result list...don't break fragments which only have 2 bonds left
+		        	if (currentFragment.getBondCount() < 2)
+		        		continue;
+		        	
+		        	splitableBonds = getSplitableBonds(currentFragment);
+		            
+		            //no splitable bonds are found
+		            if (splitableBonds.size() == 0)
+		                continue;
+	        	}
+	        	else if(prefetchedParts == null)
+	        		continue;
+	            
+	            parent = currentNode.getCurrent();
+	            
+	            List<IAtomContainer> parts = new ArrayList<IAtomContainer>();
+	            //no sub fragment can explain a peak which is still open...the tree level is counted as usual
+	            if(!isPruned(currentFragment, treeDepthMax))
+	            {
+	            	this.expandedFragments++;
+	            	
+	            	this.startSplitable = System.currentTimeMillis();
+	            	if(prefetcher == null)
+	            	{
+		            	for (IBond bond : splitableBonds) {
+		            		parts.addAll(splitMolecule(currentFragment, bond, this.splitContext));
+		            	}
+	            	}
+	            	else
+	            	{
+	            		//the checks are done in the same order as in the sequential BFS
+	            		for (SplitPart part : prefetchedParts) {
+							addSplitPart(part, parts);
+						}
+	            	}
+	            	this.endSplitable = System.currentTimeMillis() - this.startSplitable;
+	                this.sumSplitableBonds += this.endSplitable;
+	            }
+	                                
+	            for (IAtomContainer partContainer : parts) {
+	            	//Render.Draw(partContainer, "Round: " + this.nround);
+	            	partContainer.setProperty("TreeDepth", treeDepth.toString());
+	                fragmentQueue.offer(new Node(globalCount, parent, partContainer, treeDepth));
+	                sink.add(partContainer);                    
+	                globalCount++;
+	            }
+	        	//set the number of fragments for this level
+	            if(tempLevelCount <= 0)
+	            {
+	            	//count for the current level
+		            tempLevelCount = fragmentQueue.size();
+		            treeDepth++;
+	        	}
+	            
+//	            System.out.println("Fragmente fertig #: " + sink.size() + " Insgesamt Todo #: " + fragmentQueue.size() + " nround: " + this.nround);
+//	            System.out.println("Treedepth: " + treeDepth);
+//	            System.out.println("Benötigte Zeit Mass: " + this.sumMass);
+//	            System.out.println("Benötigte Zeit Traverse: " + this.sumTraverse);
+//	            System.out.println("Benötigte Zeit MakeAtomContainer: " + this.sumAtom);
+//	            System.out.println("Benötigte Zeit Isomorph check: " + this.sumIsomorph + "Anzahl Hits: " + this.countIsomorph);
+//	            System.out.println("Benötigte Zeit Fingerprint: " + this.endPartition + " Insgesamt: " + this.sumPartition);
+//	            System.out.println("Benötigte Zeit Split Molecule: " + this.endSplitable + " Insgesamt: " + this.sumSplitableBonds);
+	            
+	          //generate only fragments until a specified depth
+		      if(treeDepth >= (treeDepthMax))
+		    	  break;
+	    
+	        }
+        }
+        finally
+        {
+        	if(prefetcher != null)
+        		prefetcher.shutdown();
+        	fragmentQueue.close();
+        	this.sumTraverse += this.splitContext.sumTraverse;
+        	this.sumAtom += this.splitContext.sumAtom;
+        }
+    }
+    
+    
+    /**
+     * Creates the parts of the next fragments of the BFS queue in parallel. Every thread uses its own
+     * {@link SplitContext} and only creates the parts (see {@link #splitBond(IAtomContainer, IBond, SplitContext)}),
+     * the mass and redundancy checks are done by the BFS in the order of the queue. So the fragments are
+     * the same as in the sequential BFS.
+     */
+    private class SplitPrefetcher
+    {
+    	private ExecutorService executor;
+    	private Queue<Future<List<SplitPart>>> pending = new LinkedList<Future<List<SplitPart>>>();
+    	private List<SplitContext> contexts = new Vector<SplitContext>();
+    	private ThreadLocal<SplitContext> threadContext = new ThreadLocal<SplitContext>() {
+    		protected SplitContext initialValue() {
+    			SplitContext context = new SplitContext(indexedMolecule);
+    			contexts.add(context);
+    			return context;
+    		}
+    	};
+    	
+    	
+    	/**
+    	 * Instantiates a new split prefetcher.
+    	 * 
+    	 * @param threads the threads
+    	 */
+    	public SplitPrefetcher(int threads)
+    	{
+    		this.executor = Executors.newFixedThreadPool(threads);
+    	}
+    	
+    	
+    	/**
+    	 * Gets the parts of the head of the queue (before it is polled). If the head is not submitted yet
+    	 * the next fragments of the queue are submitted.
+    	 * 
+    	 * @param queue the BFS queue
+    	 * @param count the number of fragments to submit (the rest of the current tree level)
+    	 * 
+    	 * @return the parts or null if the fragment has no splitable bonds
+    	 * 
+    	 * @throws Exception the exception
+    	 */
+    	public List<SplitPart> next(Queue<Node> queue, int count) throws Exception
+    	{
+    		if(this.pending.isEmpty())
+    		{
+    			Iterator<Node> nodes = queue.iterator();
+    			for (int i = 0; i < Math.max(count, 1) && nodes.hasNext(); i++) {
+    				final IAtomContainer fragment = nodes.next().getMol();
+    				this.pending.offer(this.executor.submit(new Callable<List<SplitPart>>() {
+    					public List<SplitPart> call() throws Exception {
+    						return splitAllBonds(fragment, threadContext.get());
+    					}
+    				}));
+				}
+    		}
+    		
+    		try
+			{
+				return this.pending.poll().get();
+			}
+			catch(ExecutionException e)
+			{
+				if(e.getCause() instanceof Exception)
+					throw (Exception)e.getCause();
+				throw (Error)e.getCause();
+			}
+    	}
+    	
+    	
+    	/**
+    	 * Stops the threads and adds their times.
+    	 * 
+    	 * @throws InterruptedException the interrupted exception
+    	 */
+    	public void shutdown() throws InterruptedException
+    	{
+    		this.executor.shutdownNow();
+    		this.executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+    		for (SplitContext context : this.contexts) {
+				sumTraverse += context.sumTraverse;
+				sumAtom += context.sumAtom;
+			}
+    	}
+    }
+    
+    
+    /**
+     * Split up the fragment at every splitable bond. The parts are not checked yet.
+     * 
+     * @param fragment the fragment
+     * @param context the split context of the current thread
+     * 
+     * @return the parts or null if the fragment has no splitable bonds
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    private List<SplitPart> splitAllBonds(IAtomContainer fragment, SplitContext context) throws CDKException, Exception
+    {
+    	//remember already tried combinations of ring...so there are less combinations
+    	context.reset();
+    	
+    	//don't break fragments which only have 2 bonds left
+    	if (fragment.getBondCount() < 2)
+    		return null;
+    	
+    	List<IBond> splitableBonds = getSplitableBonds(fragment);
+    	if (splitableBonds.size() == 0)
+    		return null;
+    	
+    	List<SplitPart> ret = new ArrayList<SplitPart>();
+    	for (IBond bond : splitableBonds) {
+			ret.addAll(splitBond(fragment, bond, context));
+		}
+    	return ret;
+    }
+    
+    
+    /**
+     * Sets the number of threads used to create the fragments of one tree level. The fragments are the same
+     * as in the sequential BFS. Default is 1 (sequential).
+     * 
+     * @param threads the threads
+     */
+    public void setThreads(int threads)
+    {
+    	this.threads = threads;
+    }
+    
+    
+    /**
+     * Sets the max number of fragments of the BFS queue kept in memory. The rest is spilled to a
+     * temp file (see {@link FragmentQueue}). Default is unbounded.
+     * 
+     * @param maxQueueSize the max queue size
+     */
+    public void setMaxQueueSize(int maxQueueSize)
+    {
+    	this.maxQueueSize = maxQueueSize;
+    }
+    
+    
+    /**
+     * Uses the recursive traversal over the atom container of the fragment instead of the iterative
+     * traversal over the adjacency arrays. The fragments are the same, it is only kept to compare the
+     * running times (see FragmenterBenchmark). Default is false.
+     * 
+     * @param recursiveTraverse the recursive traverse
+     */
+    public void setRecursiveTraverse(boolean recursiveTraverse)
+    {
+    	this.recursiveTraverse = recursiveTraverse;
+    }
+    
+    
+    /**
+     * Sets the cache of the preprocessed candidates (rings, aromatic bonds, bond energies and bonds to break).
+     * 
+     * @param preprocessCache the preprocess cache or null
+     */
+    public void setPreprocessCache(PreprocessCache preprocessCache)
+    {
+    	this.preprocessCache = preprocessCache;
+    }
+    
+    
+    /**
+     * Enables the peak guided pruning: a fragment is not split up if none of its sub fragments can
+     * explain a peak which is not yet explained without hydrogen penalty (see
+     * {@link AssignFragmentPeak#canExplainOpenPeak(double, int)}). The matcher has to be in streaming mode
+     * and get every fragment while it is generated (e.g. FragmentPeakMatchSink), so the hits are the
+     * same as without pruning.
+     * 
+     * @param afp the fragment peak matcher in streaming mode or null
+     */
+    public void setPeakPruning(AssignFragmentPeak afp)
+    {
+    	this.peakPruning = afp;
+    }
+    
+    
+    /**
+     * Gets the number of fragments which were not split up by the peak guided pruning.
+     * 
+     * @return the pruned subtrees
+     */
+    public int getPrunedSubtrees()
+    {
+    	return this.prunedSubtrees;
+    }
+    
+    
+    /**
+     * Gets the number of fragments which were split up.
+     * 
+     * @return the expanded fragments
+     */
+    public int getExpandedFragments()
+    {
+    	return this.expandedFragments;
+    }
+    
+    
+    /**
+     * Checks if the subtree of the fragment is pruned (peak guided pruning).
+     * 
+     * @param fragment the fragment
+     * @param treeDepthMax the tree depth max
+     * 
+     * @return true, if the fragment is not split up
+     */
+    private boolean isPruned(IAtomContainer fragment, int treeDepthMax)
+    {
+    	if(this.peakPruning == null)
+    		return false;
+    	
+    	//same mass as used in the matching
+    	double mass = 0.0;
+    	if(fragment.getProperty("FragmentMass") != null && !"".equals(fragment.getProperty("FragmentMass")))
+    		mass = Double.parseDouble(fragment.getProperty("FragmentMass").toString());
+    	else
+    		mass = getAtomMassSum(fragment);
+    	
+    	if(this.peakPruning.canExplainOpenPeak(mass, treeDepthMax))
+    		return false;
+    	this.prunedSubtrees++;
+    	return true;
+    }
+    
+    
+    /**
+     * Sets the cache of the fragment trees generated by {@link #generateFragmentsBitSet(IAtomContainer, int)}.
+     * 
+     * @param fragmentTreeCache the fragment tree cache or null
+     */
+    public void setFragmentTreeCache(FragmentTreeCache fragmentTreeCache)
+    {
+    	this.fragmentTreeCache = fragmentTreeCache;
+    }
+    
+    
+    /**
+     * Gets the key of the fragment tree of the preprocessed molecule: the structure and the settings
+     * of the split (tree depth, aromatic rings, redundancy check, selected bonds, mode and neutral losses).
+     * The cached tree does not depend on the peaks: it is built without the min weight and with all
+     * neutral losses and filtered by the peaks of the spectrum when it is used (see {@link #filterFragmentTree(List)}),
+     * so every spectrum of the same candidate only does the mass matching.
+     * 
+     * @param treeDepthMax the tree depth max
+     * 
+     * @return the key
+     */
+    private String getFragmentTreeKey(int treeDepthMax)
+    {
+    	StringBuilder key = new StringBuilder();
+    	key.append(PreprocessedStructure.getStructureKey(this.originalMolecule));
+    	key.append(";depth=").append(treeDepthMax);
+    	key.append(";aromatic=").append(this.breakAromaticRings);
+    	key.append(";formula=").append(this.molecularFormulaRedundancyCheck);
+    	key.append(";selected=").append(this.isOnlyBreakSelectedBonds);
+    	key.append(";mode=").append(this.mode);
+    	key.append(";nl=").append(this.neutralLossAdd);
+    	return key.toString();
+    }
+    
+    
+    /**
+     * Filters the peak independent fragment tree by the peaks of this fragmenter. The fragments have to be
+     * heavy enough (see {@link #isHeavyEnough(Double)}) and the neutral losses after the first level have to
+     * explain a peak like in {@link #AddNeutralLosses(IAtomContainer, IMolecularFormula, boolean)}. The
+     * sub fragments of a dropped neutral loss fragment are kept if they are heavy enough, so the filtered
+     * tree can contain a few fragments more than the tree split up with the peaks.
+     * 
+     * @param fragments the peak independent fragments
+     * 
+     * @return the fragments for the peaks of this fragmenter
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    private List<FragmentBitSet> filterFragmentTree(List<FragmentBitSet> fragments) throws CDKException, Exception
+    {
+    	List<FragmentBitSet> ret = new ArrayList<FragmentBitSet>(fragments.size());
+    	double hydrogenMass = MolecularFormulaTools.getMonoisotopicMass("H1");
+    	for (FragmentBitSet fragment : fragments) {
+    		Map<Object, Object> props = fragment.getProperties();
+    		if(props != null && props.get("NeutralLossRule") != null)
+    		{
+    			if(fragment.getMass() < this.minWeight)
+    				continue;
+    			if(props.get(NL_PEAK_MASS) != null && !isPeakExplained(Double.parseDouble((String)props.get(NL_PEAK_MASS)) + hydrogenMass * (double)this.mode))
+    				continue;
+    		}
+    		else if(!isHeavyEnough(fragment.getMass()))
+    			continue;
+    		ret.add(fragment);
+		}
+    	return ret;
+    }
+    
+    
+    /**
+     * Checks if the mass is in the window of a peak.
+     * 
+     * @param mass the mass
+     * 
+     * @return true, if a peak is explained
+     */
+    private boolean isPeakExplained(double mass)
+    {
+    	for (Peak peak : this.peakList) {
+    		double deviation = this.mzabs + PPMTool.getPPMDeviation(peak.getMass(), this.mzppm);
+			if(mass >= peak.getMass() - deviation && mass <= peak.getMass() + deviation)
+				return true;
+		}
+    	return false;
+    }
+    
+    
+    /**
+     * Split a molecule into fragments using the bit set representation (see {@link FragmentBitSet}).
+     * The same BFS is done as in {@link #generateFragmentsInMemory(IAtomContainer, boolean, int)} but
+     * no atom container is created for the fragments. Use {@link FragmentBitSet#toAtomContainer(IndexedMolecule)}
+     * with {@link #getIndexedMolecule()} to get the atom container of a fragment.
+     * <p/>
+     * Hydrogens are added in this method to the original molecule!
+     * 
+     * @param atomContainer The molecule to split
+     * @param treeDepthMax the tree depth max
+     * 
+     * @return the fragments
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    public List<FragmentBitSet> generateFragmentsBitSet(IAtomContainer atomContainer, int treeDepthMax) throws CDKException, Exception 
+    {
+    	List<FragmentBitSet> ret = new ArrayList<FragmentBitSet>();
+    	//redundancy check: atom IDs or molecular formula --> fragment
+    	Map<Object, FragmentBitSet> knownFragments = new HashMap<Object, FragmentBitSet>();
+    	int tempLevelCount = 0;
+    	
+    	//now set a new min weight
+    	this.minWeight = this.minWeight - (double)treeDepthMax;
+    	this.peakIndependent = false;
+    	
+    	//do preprocess: find all rings and aromatic rings...mark all bonds
+		preprocessMolecule(atomContainer);
+		pp = new PostProcess(this.aromaticBonds, this.allRings, neutralLoss);
+		
+		//the same candidate was already split up with the same settings...the removed peaks
+		//depend on the order of the fragments, so these trees are not cached
+		String treeKey = null;
+		if(this.fragmentTreeCache != null && !this.removePeak)
+		{
+			treeKey = getFragmentTreeKey(treeDepthMax);
+			List<FragmentBitSet> cached = this.fragmentTreeCache.get(treeKey, this.indexedMolecule);
+			if(cached != null)
+				return filterFragmentTree(cached);
+			this.peakIndependent = true;
+		}
+		
+		//fragments not yet split up enough...QUEUE --> BFS
+		Queue<FragmentBitSet> fragmentQueue = new LinkedList<FragmentBitSet>();
+		fragmentQueue.offer(FragmentBitSet.fromAtomContainer(this.indexedMolecule, this.originalMolecule, 0));
+		int treeDepth = 1;
+		
+		//add neutral loss in the first step for sure
+		IMolecularFormula molecularFormula = new MolecularFormula();
+    	molecularFormula = MolecularFormulaManipulator.getMolecularFormula(this.originalMolecule, molecularFormula);
+        List<IAtomContainer> fragsNL = AddNeutralLosses(this.originalMolecule, molecularFormula, true);
+        for (IAtomContainer fragNL : fragsNL) {
+        	FragmentBitSet fragment = FragmentBitSet.fromAtomContainer(this.indexedMolecule, fragNL, treeDepth);
+        	addKnownFragment(fragment, knownFragments);
+        	fragmentQueue.offer(fragment);
+        	ret.add(fragment);
+		}
+        
         //get the number of preprocessed spectra
         tempLevelCount = fragmentQueue.size();
         
         while(!fragmentQueue.isEmpty())
         {
         	nround++;
-        	//remember already tried combinations of ring...so there are less combinations
-        	knownBonds = new ArrayList<BondPair>();
+        	//remember already tried combinations of ring bonds
+        	Set<Integer> knownBondPairs = new HashSet<Integer>();
         	
-        	//get a fragment from the priority queue
-        	Node currentNode = fragmentQueue.poll();
+        	FragmentBitSet currentFragment = fragmentQueue.poll();
         	//reduce the number of fragments in this level
         	tempLevelCount--;
-        	IAtomContainer currentFragment = currentNode.getMol();
         	
-        	//add to result list...don't break fragments which only have 2 bonds left
+        	//don't break fragments which only have 2 bonds left
         	if (currentFragment.getBondCount() < 2)
         		continue;
         	
-        	List<IBond> splitableBonds = getSplitableBonds(currentFragment);
-            
-            //no splitable bonds are found
-            if (splitableBonds.size() == 0)
-                continue;
-            
-            parent = currentNode.getCurrent();
-
-            for (IBond bond : splitableBonds) {
-            	
-            	this.startSplitable = System.currentTimeMillis();
-            	List<IAtomContainer> parts = splitMolecule(currentFragment, bond);
-                this.endSplitable = System.currentTimeMillis() - this.startSplitable;
-                this.sumSplitableBonds += this.endSplitable;
-                                
-                for (IAtomContainer partContainer : parts) {
-                	//Render.Draw(partContainer, "Round: " + this.nround);
-                	partContainer.setProperty("TreeDepth", treeDepth.toString());
-                    fragmentQueue.offer(new Node(globalCount, parent, partContainer, treeDepth));
-                    fragmentsReturn.add(partContainer);                    
-                    globalCount++;
-                    int parentPP = globalCount - 1;
-                }
-            }
+        	List<Integer> splitableBonds = getSplitableBonds(currentFragment);
+        	//no splitable bonds are found
+        	if (splitableBonds.size() == 0)
+        		continue;
+        	
+        	for (Integer bond : splitableBonds) {
+        		List<FragmentBitSet> parts = splitFragment(currentFragment, bond, knownBondPairs, knownFragments);
+        		for (FragmentBitSet part : parts) {
+        			part.setTreeDepth(treeDepth);
+        			fragmentQueue.offer(part);
+        			ret.add(part);
+				}
+			}
+        	
         	//set the number of fragments for this level
             if(tempLevelCount <= 0)
             {
-            	//count for the current level
 	            tempLevelCount = fragmentQueue.size();
 	            treeDepth++;
         	}
             
-
-            
-//            System.out.println("Fragmente fertig #: " + fragments.size() + " Insgesamt Todo #: " + fragmentQueue.size() + " nround: " + this.nround);
-//            System.out.println("Treedepth: " + treeDepth);
-//            System.out.println("Benötigte Zeit Mass: " + this.sumMass);
-//            System.out.println("Benötigte Zeit Traverse: " + this.sumTraverse);
-//            System.out.println("Benötigte Zeit MakeAtomContainer: " + this.sumAtom);
-//            System.out.println("Benötigte Zeit Isomorph check: " + this.sumIsomorph + "Anzahl Hits: " + this.countIsomorph);
-//            System.out.println("Benötigte Zeit Fingerprint: " + this.endPartition + " Insgesamt: " + this.sumPartition);
-//            System.out.println("Benötigte Zeit Split Molecule: " + this.endSplitable + " Insgesamt: " + this.sumSplitableBonds);
-            
-          //generate only fragments until a specified depth
-	      if(treeDepth >= (treeDepthMax))
-	    	  break;
+            //generate only fragments until a specified depth
+  	      	if(treeDepth >= (treeDepthMax))
+  	      		break;
+        }
+        
+        if(treeKey != null)
+        {
+        	this.peakIndependent = false;
+        	this.fragmentTreeCache.put(treeKey, this.indexedMolecule, ret);
+        	return filterFragmentTree(ret);
+        }
+        
+        return ret;
+    }
+    
+    
+    /**
+     * Gets the indexed original molecule of the last molecule split up.
+     * 
+     * @return the indexed molecule
+     */
+    public IndexedMolecule getIndexedMolecule()
+    {
+    	return this.indexedMolecule;
+    }
+    
+    
+    /**
+     * Index the preprocessed original molecule.
+     * 
+     * @param energies the (cached) bond energies by bond ID or null
+     * 
+     * @return the indexed molecule
+     */
+    private IndexedMolecule indexMolecule(double[] energies)
+    {
+    	if(energies == null)
+    	{
+	    	energies = new double[this.originalMolecule.getBondCount()];
+	    	for (IBond bond : this.originalMolecule.bonds()) {
+				energies[Integer.parseInt(bond.getID())] = getBondEnergy(bond);
+			}
+    	}
+    	return new IndexedMolecule(this.originalMolecule, this.atomMasses, energies, this.aromaticBonds, this.allRings);
+    }
+    
+    
+    /**
+     * Gets the splitable bonds of a bit set fragment. Same rules as in {@link #getSplitableBonds(IAtomContainer)}.
+     * 
+     * @param fragment the fragment
+     * 
+     * @return the splitable bonds (IDs)
+     */
+    private List<Integer> getSplitableBonds(FragmentBitSet fragment)
+    {
+    	List<Integer> splitableBonds = new ArrayList<Integer>();
+    	BitSet bonds = fragment.getBonds();
+    	
+    	for (int bond = bonds.nextSetBit(0); bond >= 0; bond = bonds.nextSetBit(bond + 1)) {
+    		//don't split up aromatic rings...see constructor for option
+    		if(!this.breakAromaticRings && this.indexedMolecule.isAromatic(bond))
+    			continue;
+    		
+    		//dont split up "terminal" H atoms
+    		if(isTerminalHydrogen(fragment, this.indexedMolecule.getBondAtom1(bond)) || isTerminalHydrogen(fragment, this.indexedMolecule.getBondAtom2(bond)))
+    			continue;
+    		
+    		if(isOnlyBreakSelectedBonds && !bondsToBreak.contains(Integer.toString(bond)))
+    			continue;
+    		
+    		splitableBonds.add(bond);
+		}
+    	return splitableBonds;
+    }
+    
+    
+    /**
+     * Checks if the atom is a hydrogen which is only connected to one atom in the fragment.
+     * 
+     * @param fragment the fragment
+     * @param atom the atom
+     * 
+     * @return true, if is terminal hydrogen
+     */
+    private boolean isTerminalHydrogen(FragmentBitSet fragment, int atom)
+    {
+    	if(!this.indexedMolecule.isHydrogen(atom))
+    		return false;
+    	
+    	int[] adjOffset = this.indexedMolecule.getAdjacencyOffsets();
+    	int[] adjBond = this.indexedMolecule.getAdjacentBonds();
+    	int connected = 0;
+    	for (int i = adjOffset[atom]; i < adjOffset[atom + 1]; i++) {
+			if(fragment.getBonds().get(adjBond[i]))
+				connected++;
+		}
+    	return connected == 1;
+    }
+    
+    
+    /**
+     * Split a bit set fragment at the given bond. If the bond is in a ring, another bond of
+     * this ring is split too. Same as {@link #splitMolecule(IAtomContainer, IBond, SplitContext)}.
+     * 
+     * @param fragment the fragment
+     * @param bond the bond to split on
+     * @param knownBondPairs the already split ring bond pairs of this fragment
+     * @param knownFragments the known fragments (redundancy check)
+     * 
+     * @return the new fragments
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    private List<FragmentBitSet> splitFragment(FragmentBitSet fragment, int bond, Set<Integer> knownBondPairs, Map<Object, FragmentBitSet> knownFragments) throws CDKException, Exception
+    {
+    	List<FragmentBitSet> ret = new ArrayList<FragmentBitSet>();
+    	double currentBondEnergy = this.indexedMolecule.getBondEnergy(bond);
+    	int bondCount = this.indexedMolecule.getBondCount();
+    	
+    	int[] ringBonds = this.indexedMolecule.getRingBonds(bond);
+    	if(ringBonds != null)
+    	{
+    		for (int i = 0; i < ringBonds.length; i++) {
+    			int bondInRing = ringBonds[i];
+    			//if the bonds are the same...this wont split up the ring
+    			if(bondInRing == bond)
+    				continue;
+    			
+    			//check for already tried bonds
+    			int pair = Math.min(bond, bondInRing) * bondCount + Math.max(bond, bondInRing);
+    			if(!knownBondPairs.add(pair))
+    				continue;
+    			
+    			double energy = fragment.getBondEnergy() + currentBondEnergy + this.indexedMolecule.getBondEnergy(bondInRing);
+    			addPart(fragment, traverse(fragment, this.indexedMolecule.getBondAtom1(bond), bond, bondInRing, energy), knownFragments, ret);
+    			addPart(fragment, traverse(fragment, this.indexedMolecule.getBondAtom2(bond), bond, bondInRing, energy), knownFragments, ret);
+			}
+    	}
+    	else
+    	{
+    		double energy = fragment.getBondEnergy() + currentBondEnergy;
+    		addPart(fragment, traverse(fragment, this.indexedMolecule.getBondAtom1(bond), bond, -1, energy), knownFragments, ret);
+    		addPart(fragment, traverse(fragment, this.indexedMolecule.getBondAtom2(bond), bond, -1, energy), knownFragments, ret);
+    	}
+    	
+    	return ret;
+    }
+    
+    
+    /**
+     * Check the new part (size, mass, redundancy) and add it to the return list. The neutral losses
+     * of the part are added too.
+     * 
+     * @param parent the parent fragment
+     * @param part the part
+     * @param knownFragments the known fragments
+     * @param ret the return list
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    private void addPart(FragmentBitSet parent, FragmentBitSet part, Map<Object, FragmentBitSet> knownFragments, List<FragmentBitSet> ret) throws CDKException, Exception
+    {
+    	if (part.getAtomCount() == 0 || part.getBondCount() == 0 || part.getAtomCount() == parent.getAtomCount())
+    		return;
+    	
+    	//check the weight of the current fragment
+    	if(!isHeavyEnough(part.getMass()))
+    		return;
+    	
+    	//returns true if already known
+    	if(!addKnownFragment(part, knownFragments))
+    		return;
+    	
+    	if(this.neutralLossAdd)
+    	{
+    		//the neutral losses need the atom container
+    		IAtomContainer partContainer = part.toAtomContainer(this.indexedMolecule);
+    		IMolecularFormula fragmentFormula = MolecularFormulaManipulator.getMolecularFormula(partContainer);
+    		List<IAtomContainer> fragsNL = AddNeutralLosses(partContainer, fragmentFormula, false);
+    		for (IAtomContainer fragNL : fragsNL) {
+    			FragmentBitSet fragmentNL = FragmentBitSet.fromAtomContainer(this.indexedMolecule, fragNL, part.getTreeDepth());
+    			//the neutral loss may be dropped by the filter...it must not hide a fragment with the same atoms
+    			if(!this.peakIndependent && !knownFragments.containsKey(getRedundancyKey(fragmentNL)))
+    				knownFragments.put(getRedundancyKey(fragmentNL), fragmentNL);
+    			ret.add(fragmentNL);
+			}
+    	}
+    	
+    	ret.add(part);
+    }
+    
+    
+    /**
+     * Adds the fragment to the known fragments.
+     * 
+     * @param fragment the fragment
+     * @param knownFragments the known fragments
+     * 
+     * @return true, if the fragment was not known before
+     */
+    private boolean addKnownFragment(FragmentBitSet fragment, Map<Object, FragmentBitSet> knownFragments)
+    {
+    	Object key = getRedundancyKey(fragment);
+    	FragmentBitSet known = knownFragments.get(key);
+    	if(known != null)
+    	{
+    		this.countIsomorph++;
+    		//keep the fragment with the lowest bond energy
+    		if(known.getBondEnergy() > fragment.getBondEnergy())
+    			knownFragments.put(key, fragment);
+    		return false;
+    	}
+    	knownFragments.put(key, fragment);
+    	return true;
+    }
+    
+    
+    /**
+     * Gets the key for the redundancy check: the molecular formula (element counts) or the atoms.
+     * 
+     * @param fragment the fragment
+     * 
+     * @return the redundancy key
+     */
+    private Object getRedundancyKey(FragmentBitSet fragment)
+    {
+    	if(!molecularFormulaRedundancyCheck)
+    		return fragment.getAtoms();
+    	
+    	int[] counts = new int[this.indexedMolecule.getElementCount()];
+    	BitSet atoms = fragment.getAtoms();
+    	for (int atom = atoms.nextSetBit(0); atom >= 0; atom = atoms.nextSetBit(atom + 1)) {
+			counts[this.indexedMolecule.getElement(atom)]++;
+		}
+    	StringBuilder key = new StringBuilder();
+    	for (int i = 0; i < counts.length; i++) {
+			key.append(counts[i]).append(',');
+		}
+    	return key.toString();
+    }
     
-        }
-	    
-        //return all fragments
-	    return fragmentsReturn;        
+    
+    /**
+     * Traverse the bit set fragment starting at the given atom ignoring the given bond(s). Same
+     * as {@link #traverse(IAtomContainer, IAtom, IBond, IBond, SplitContext)}.
+     * 
+     * @param fragment the fragment
+     * @param atom the start atom
+     * @param bondToRemove the bond to remove
+     * @param bondToRemove2 the second bond to remove (ring) or -1
+     * @param bondEnergy the bond energy of the new fragment
+     * 
+     * @return the new fragment
+     */
+    private FragmentBitSet traverse(FragmentBitSet fragment, int atom, int bondToRemove, int bondToRemove2, double bondEnergy)
+    {
+    	int[] adjOffset = this.indexedMolecule.getAdjacencyOffsets();
+    	int[] adjBond = this.indexedMolecule.getAdjacentBonds();
+    	BitSet fragmentBonds = fragment.getBonds();
+    	BitSet atoms = new BitSet(this.indexedMolecule.getAtomCount());
+    	BitSet bonds = new BitSet(this.indexedMolecule.getBondCount());
+    	
+    	int[] stack = this.splitContext.traverseStack;
+    	int stackSize = 0;
+    	stack[stackSize++] = atom;
+    	atoms.set(atom);
+    	double mass = this.indexedMolecule.getAtomMass(atom);
+    	
+    	while(stackSize > 0)
+    	{
+    		int currentAtom = stack[--stackSize];
+    		for (int i = adjOffset[currentAtom]; i < adjOffset[currentAtom + 1]; i++) {
+    			int bond = adjBond[i];
+    			if(bond == bondToRemove || bond == bondToRemove2 || !fragmentBonds.get(bond) || bonds.get(bond))
+    				continue;
+    			bonds.set(bond);
+    			int nextAtom = this.indexedMolecule.getConnectedAtom(bond, currentAtom);
+    			if(atoms.get(nextAtom))
+    				continue;
+    			atoms.set(nextAtom);
+    			mass += this.indexedMolecule.getAtomMass(nextAtom);
+    			stack[stackSize++] = nextAtom;
+			}
+    	}
+    	
+    	FragmentBitSet ret = new FragmentBitSet(atoms, bonds, mass, bondEnergy, 0);
+    	//the neutral loss information is passed on like in makeAtomContainer
+    	ret.setProperties(fragment.getProperties());
+    	return ret;
     }
     
+    
     /**
      * Gets the graph.
      * 
@@ -861,16 +1607,47 @@ public class Fragmenter {
      * 
      * @return the list< i atom container>
      */
-    private List<IAtomContainer> splitMolecule(IAtomContainer atomContainer, IBond bond) throws CDKException, Exception
+    private List<IAtomContainer> splitMolecule(IAtomContainer atomContainer, IBond bond, SplitContext context) throws CDKException, Exception
+    {
+    	List<IAtomContainer> ret = new ArrayList<IAtomContainer>();
+    	for (SplitPart part : splitBond(atomContainer, bond, context)) {
+			addSplitPart(part, ret);
+		}
+        return ret;
+    }
+    
+    
+    /**
+     * Split the bond of the fragment (and another bond if the bond is in a ring) and create the
+     * parts. Only the original molecule and the given context are read, so the parts of different
+     * fragments can be created in parallel. The mass, redundancy and neutral loss checks are done in
+     * {@link #addSplitPart(SplitPart, List)}.
+     * 
+     * @param atomContainer the fragment
+     * @param bond the bond to split on
+     * @param context the split context of the current thread
+     * 
+     * @return the parts in the order they are checked
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    private List<SplitPart> splitBond(IAtomContainer atomContainer, IBond bond, SplitContext context) throws CDKException, Exception
     {
     	
     	//if this bond is in a ring we have to split another bond in this ring where at least one 
         //bond is in between. Otherwise we wont have two fragments. Else normal split.
         
-        List<IAtomContainer> ret = new ArrayList<IAtomContainer>();        
+        List<SplitPart> ret = new ArrayList<SplitPart>();        
+        
+        //the bonds of the current fragment...only these are traversed
+        context.fragmentBonds.clear();
+        for (IBond fragmentBond : atomContainer.bonds()) {
+			context.fragmentBonds.set(Integer.parseInt(fragmentBond.getID()));
+		}
         
         //get bond energy for splitting this bond
-        double currentBondEnergy = getBondEnergy(bond);
+        double currentBondEnergy = this.indexedMolecule.getBondEnergy(Integer.parseInt(bond.getID()));
         
             
         //bond is in a ring....so we have to split up another bond to break it
@@ -891,9 +1668,9 @@ public class Fragmenter {
 
         			//check for already tried bonds
         			BondPair check = new BondPair(bond, bondInRing);
-        			if (knownBonds.contains(check))
+        			if (context.knownBonds.contains(check))
         				continue;
-        			knownBonds.add(new BondPair(bond,bondInRing));
+        			context.knownBonds.add(new BondPair(bond,bondInRing));
         			     			
 			
         			List<IAtomContainer> set = new ArrayList<IAtomContainer>();
@@ -901,23 +1678,15 @@ public class Fragmenter {
                 	List<Double> fragWeightList = new ArrayList<Double>();
 
                 	for (IAtom currentAtom : bond.atoms()) {
-                		this.startTraverse = System.currentTimeMillis();
-                		//List with bonds in Ring
-            			List<IBond> partRing = new ArrayList<IBond>();
-            			//reset the weight because it is computed inside the traverse
-            			this.currentFragWeight = 0.0;
-            			//initialize new atom list
-            	        atomList = new ArrayList<IAtom>();
-            	        
-            	        //clone current atom because a single electron is being added...homolytic cleavage
-                		partRing = traverse(atomContainer, currentAtom, partRing, bond, bondInRing);
+                		long startTraverse = System.currentTimeMillis();
+                		//List with bonds in Ring...the weight is computed inside the traverse
+                		List<IBond> partRing = traverse(atomContainer, currentAtom, bond, bondInRing, context);
                 		
                 		bondListList.add(partRing);
-                		fragWeightList.add(this.currentFragWeight);
-                		this.endTraverse = System.currentTimeMillis() - this.startTraverse;
-                        this.sumTraverse += this.endTraverse;
+                		fragWeightList.add(context.currentFragWeight);
+                        context.sumTraverse += System.currentTimeMillis() - startTraverse;
                         
-                        this.startAtom = System.currentTimeMillis();
+                        long startAtom = System.currentTimeMillis();
                         
                         IAtomContainer temp = makeAtomContainer(currentAtom, partRing);
                         //set the properties again!
@@ -928,7 +1697,7 @@ public class Fragmenter {
                         //*********************************************************
                         //BOND ENERGY CALCULATION
                         //calculate bond energy
-                        double currentBondEnergyRing = getBondEnergy(bondInRing);
+                        double currentBondEnergyRing = this.indexedMolecule.getBondEnergy(Integer.parseInt(bondInRing.getID()));
                         
                         //*********************************************************
                         
@@ -950,8 +1719,7 @@ public class Fragmenter {
                         
                         set.add(temp);
                         
-                        this.endAtom = System.currentTimeMillis() - this.startAtom;
-                        this.sumAtom += this.endAtom;
+                        context.sumAtom += System.currentTimeMillis() - startAtom;
                         
                 	}
         			
@@ -962,35 +1730,7 @@ public class Fragmenter {
 	    	            if (set.get(j).getAtomCount() > 0 && set.get(j).getBondCount() > 0 && 
 	    	            		set.get(j).getAtomCount() != atomContainer.getAtomCount())
 	    	            {
-	    	            	this.startMass = System.currentTimeMillis();  
-	                		
-	    	            	//now check the current mass
-	    	            	double fragMass = getFragmentMass(set.get(j), fragWeightList.get(j));
-	                		//check the weight of the current fragment
-	    	            	if(!isHeavyEnough(fragMass))
-	                			continue;
-	                		this.endMass = System.currentTimeMillis() - this.startMass;
-	                        this.sumMass += this.endMass;
-	                        
-	    	            	this.startIsomorph = System.currentTimeMillis();   
-	        	            //returns true if isomorph
-	    	            	//set the current sum formula
-	    	            	IMolecularFormula fragmentFormula = MolecularFormulaManipulator.getMolecularFormula(set.get(j));
-	    	            	String currentSumFormula = MolecularFormulaManipulator.getString(fragmentFormula);
-	    	            	if(isIdentical(set.get(j), currentSumFormula))
-	        	            	continue;
-	        	            this.endIsomorph = System.currentTimeMillis() - this.startIsomorph;
-	                        this.sumIsomorph += this.endIsomorph;
-	                        
-	                        if(this.neutralLossAdd)
-	                        {
-		                        //now add neutral losses to it
-		                        List<IAtomContainer> fragsNL = AddNeutralLosses(set.get(j), fragmentFormula, false);
-		                        //for now add all fragments to the list TODO
-		                        ret.addAll(fragsNL);
-	                        }
-	                        //add the fragment to the return list
-	    	                ret.add(set.get(j));
+	    	            	ret.add(new SplitPart(set.get(j), fragWeightList.get(j)));
 	    	            }     
                     }
         		}         		
@@ -1004,19 +1744,14 @@ public class Fragmenter {
 
         	//get the atoms from the splitting bond --> create 2 fragments
         	for (IAtom currentAtom : bond.atoms()) {
-        		List<IBond> part = new ArrayList<IBond>();
-        		this.startTraverse = System.currentTimeMillis();
-        		//reset the weight because it is computed inside the traverse
-    			this.currentFragWeight = 0.0;
-    			//initialize new atom list
-    	        atomList = new ArrayList<IAtom>();
-        		part = traverse(atomContainer, currentAtom, part, bond);
+        		long startTraverse = System.currentTimeMillis();
+        		//the weight is computed inside the traverse
+        		List<IBond> part = traverse(atomContainer, currentAtom, bond, null, context);
         		bondListList.add(part);        		
-        		this.endTraverse = System.currentTimeMillis() - this.startTraverse;
-                this.sumTraverse += this.endTraverse;
+                context.sumTraverse += System.currentTimeMillis() - startTraverse;
                 
         		//create Atomcontainer out of bondList
-        		this.startAtom = System.currentTimeMillis(); 
+        		long startAtom = System.currentTimeMillis(); 
         		
         		IAtomContainer temp = makeAtomContainer(currentAtom, part);
         		//set the properties again!
@@ -1024,7 +1759,7 @@ public class Fragmenter {
                 temp.setProperties(properties);
                 //now calculate the correct weight subtrating the possible neutral loss mass
                 
-                fragWeightList.add(this.currentFragWeight);
+                fragWeightList.add(context.currentFragWeight);
                 
                 
         		//now set property: BondEnergy!
@@ -1040,8 +1775,7 @@ public class Fragmenter {
                 }
                 set.add(temp);
                 
-        		this.endAtom = System.currentTimeMillis() - this.startAtom;
-                this.sumAtom += this.endAtom;
+                context.sumAtom += System.currentTimeMillis() - startAtom;
         	}
             
             
@@ -1053,35 +1787,7 @@ public class Fragmenter {
 	            if (set.get(i).getAtomCount() > 0 && set.get(i).getBondCount() > 0 &&
 	            		set.get(i).getAtomCount() != atomContainer.getAtomCount())
 	            {
-	            	this.startMass = System.currentTimeMillis();
-	            	
-	            	//now check the current mass
-	            	double fragMass = getFragmentMass(set.get(i), fragWeightList.get(i));
-            		//check the weight of the current fragment
-	            	if(!isHeavyEnough(fragMass))
-            			continue;
-            		this.endMass = System.currentTimeMillis() - this.startMass;
-                    this.sumMass += this.endMass;                   
-                    
-	            	this.startIsomorph = System.currentTimeMillis();   
-		            //set the current sum formula
-	            	IMolecularFormula fragmentFormula = MolecularFormulaManipulator.getMolecularFormula(set.get(i));
-	            	String currentSumFormula = MolecularFormulaManipulator.getString(fragmentFormula);
-	            	//returns true if isomorph (fast isomorph check)
-	            	if(isIdentical(set.get(i), currentSumFormula))
-		            	continue;
-		            this.endIsomorph = System.currentTimeMillis() - this.startIsomorph;
-	                this.sumIsomorph += this.endIsomorph;
-	                
-	                if(this.neutralLossAdd)
-                    {
-		                //now add neutral losses to it
-	                    List<IAtomContainer> fragsNL = AddNeutralLosses(set.get(i), fragmentFormula, false);
-	                    //for now add all fragments to the list TODO
-	                    ret.addAll(fragsNL);
-                    }
-	                
-	                ret.add(set.get(i));
+	            	ret.add(new SplitPart(set.get(i), fragWeightList.get(i)));
 	            }
             }
             
@@ -1091,6 +1797,67 @@ public class Fragmenter {
     }
     
     
+    /**
+     * Checks the part of a split fragment: mass, redundancy (the {@link FragmentIndex}) and
+     * neutral losses. Not thread safe...the parts have to be added in the order they are created
+     * by {@link #splitBond(IAtomContainer, IBond, SplitContext)} to get the same fragments every time.
+     * 
+     * @param part the part
+     * @param ret the new fragments (neutral loss fragments first)
+     * 
+     * @throws CDKException the CDK exception
+     * @throws Exception the exception
+     */
+    private void addSplitPart(SplitPart part, List<IAtomContainer> ret) throws CDKException, Exception
+    {
+    	this.startMass = System.currentTimeMillis();
+    	
+    	//now check the current mass
+    	double fragMass = getFragmentMass(part.fragment, part.weight);
+		//check the weight of the current fragment
+    	if(!isHeavyEnough(fragMass))
+			return;
+		this.endMass = System.currentTimeMillis() - this.startMass;
+        this.sumMass += this.endMass;                   
+        
+    	this.startIsomorph = System.currentTimeMillis();   
+        //set the current sum formula
+    	IMolecularFormula fragmentFormula = MolecularFormulaManipulator.getMolecularFormula(part.fragment);
+    	String currentSumFormula = MolecularFormulaManipulator.getString(fragmentFormula);
+    	//returns true if isomorph (fast isomorph check)
+    	if(isIdentical(part.fragment, currentSumFormula))
+        	return;
+        this.endIsomorph = System.currentTimeMillis() - this.startIsomorph;
+        this.sumIsomorph += this.endIsomorph;
+        
+        if(this.neutralLossAdd)
+        {
+            //now add neutral losses to it
+            List<IAtomContainer> fragsNL = AddNeutralLosses(part.fragment, fragmentFormula, false);
+            //for now add all fragments to the list TODO
+            ret.addAll(fragsNL);
+        }
+        
+        ret.add(part.fragment);
+    }
+    
+    
+    /**
+     * A part of a split fragment and its weight (before the neutral losses are subtracted).
+     */
+    private static class SplitPart
+    {
+    	private IAtomContainer fragment;
+    	private double weight;
+    	
+    	public SplitPart(IAtomContainer fragment, double weight)
+    	{
+    		this.fragment = fragment;
+    		this.weight = weight;
+    	}
+    }
+    
+    
     /**
      * Sets the bond energy.
      * 
@@ -1102,19 +1869,7 @@ public class Fragmenter {
     private IAtomContainer setBondEnergy(IAtomContainer mol, Double bondEnergy)
     {
     	
-    	Map<Object, Object> props = mol.getProperties();
-    	if(props.get("BondEnergy") != null)
-    	{
-    		Double sumEnergy = Double.parseDouble((String)props.get("BondEnergy")) + bondEnergy;
-    		props.put("BondEnergy", sumEnergy.toString());	
-    	}
-    	else
-    	{
-    		props.put("BondEnergy", bondEnergy.toString());
-    	}
-    	
-    	mol.setProperties(props);
-    	return mol;
+    	return setBondEnergy(mol, mol, bondEnergy);
     }
     
     
@@ -1130,18 +1885,16 @@ public class Fragmenter {
     {
     	
     	Map<Object, Object> props = mol.getProperties();
-    	String bondEnergyOrig = (String)origMol.getProperty("BondEnergy");
+    	Double bondEnergyOrig = AtomContainerMetFrag.getFragmentBondEnergy(origMol);
+    	Double sumEnergy = bondEnergy;
     	if(bondEnergyOrig != null)
-    	{
-    		Double sumEnergy = Double.parseDouble(bondEnergyOrig) + bondEnergy;
-    		props.put("BondEnergy", sumEnergy.toString());	
-    	}
-    	else
-    	{
-    		props.put("BondEnergy", bondEnergy.toString());
-    	}
+    		sumEnergy = bondEnergyOrig + bondEnergy;
+    	props.put("BondEnergy", sumEnergy.toString());
     	
     	mol.setProperties(props);
+    	//numeric copy used by the scoring
+    	if(mol instanceof AtomContainerMetFrag)
+    		((AtomContainerMetFrag)mol).setBondEnergy(sumEnergy);
     	return mol;
     }
     
@@ -1174,6 +1927,23 @@ public class Fragmenter {
     	return massFinal;
     }
     
+    /**
+     * Gets the summed up masses of the atoms of the fragment (in the order of the atom container).
+     * 
+     * @param fragment the fragment
+     * 
+     * @return the mass
+     */
+    private double getAtomMassSum(IAtomContainer fragment)
+    {
+    	double mass = 0.0;
+    	for (IAtom atom : fragment.atoms()) {
+			mass += this.indexedMolecule.getAtomMass(Integer.parseInt(atom.getID()));
+		}
+    	return mass;
+    }
+    
+    
     /**
      * Checks if the fragment is heavy enough.
      * 
@@ -1184,10 +1954,14 @@ public class Fragmenter {
      * @throws CDKException the CDK exception
      * @throws Exception the exception
      */
-    private boolean isHeavyEnough(Double mass) throws CDKException, Exception
+    private synchronized boolean isHeavyEnough(Double mass) throws CDKException, Exception
     {
     	boolean candidate = false;
     	
+    	//the peak independent tree is filtered afterwards
+    	if (this.peakIndependent)
+    		return true;
+    	
     	//only if peaks are supplied
     	if (this.givenPeaks)
     	{
@@ -1222,13 +1996,12 @@ public class Fragmenter {
     
     
     /**
-     * Quick isomorphism check:
-     * ...if the fragment is isomorph to the ones already in the map
-     * ...only the atoms are compared and a list of bonds is stored in a
-     * 		map with sum formula to fragment
-     * 
+     * Redundancy check: checks if the fragment is already in the {@link FragmentIndex}. Only fragments
+     * with the same key (atoms, sum formula, smiles or invariant hash) are compared. The index keeps
+     * the fragment with the lowest bond energy.
      * 
      * @param fragment the fragment to be checked
+     * @param currentSumFormula the sum formula of the fragment
      * 
      * @return true, if successful
      * 
@@ -1236,12 +2009,6 @@ public class Fragmenter {
      */
     private boolean isIdentical(IAtomContainer fragment, String currentSumFormula) throws CDKException, Exception
     {
-    	boolean isomorph = false;
-    	
-    	//if there is already a sum formula from the checks before or isHeavyEnough
-    	//get lists of bond list  with the same sum formula
-    	List<IAtomContainer> fragsToCompare = sumformulaToFragMap.get(currentSumFormula);
-    	
     	if(smilesRedundancyCheck)
     	{
     		//now generate the smiles for the fragment
@@ -1252,154 +2019,11 @@ public class Fragmenter {
     		map.put("smiles", smilesFrag);
     	}
     	
-    	//iterate over list to check for isomorphism
-    	if (fragsToCompare != null)
-    	{
-    		//addFragmentToListMap(fragment, currentSumFormula);
-	    	//isomorph = true;
-    		if(realIsomorphism)
-    			isomorph = isIsomorph(fragment, fragsToCompare);
-    		else
-    			isomorph = identicalAtoms(fragment, fragsToCompare);
-    		//isomorphism quick check cdk
-	    	//isomorph = quickCheck(fragment, fragsToCompare);
-	    	if(isomorph)
-	    	{
-	    		this.countIsomorph++;
-	    		//now check if this fragment energy to create the fragment is lower 
-	    		if(molecularFormulaRedundancyCheck || smilesRedundancyCheck)
-	    		{
-	    			//now replace fragment if its "bond energy is less"
-		    		double bondEnergy = Double.parseDouble((String)fragment.getProperty("BondEnergy"));
-		    		for (IAtomContainer atomContainer : fragsToCompare) {
-						if(Double.parseDouble((String)atomContainer.getProperty("BondEnergy")) > bondEnergy )
-						{
-							addFragmentToListMapReplace(fragment, currentSumFormula);
-						}
-					}
-	    		}	    		
-	    	}
-	    	//if not in map (with this formula) add it
-	    	else
-	    		addFragmentToListMap(fragment, currentSumFormula);
-    	}
-    	else
-		{
-    		//sum formula has no entry in map yet
-			addFragmentToListMap(fragment, currentSumFormula);
-		}
-    	return isomorph;
-    }
-    
-    
-    /**
-     * Checks if two molecules are isomorph.
-     * 
-     * @param molecule1 the molecule1
-     * @param fragsToCompare the frags to compare
-     * 
-     * @return true, if is isomorph
-     * 
-     * @throws CDKException the CDK exception
-     */
-    private boolean isIsomorph(IAtomContainer molecule1, List<IAtomContainer> fragsToCompare) throws CDKException 
-    {
-    	boolean isomorph = false;
-
-    	for (int i = 0; i < fragsToCompare.size(); i++) {
-    		//no match
-    		if (molecule1.getBondCount() != fragsToCompare.get(i).getBondCount() && molecule1.getAtomCount() != fragsToCompare.get(i).getAtomCount()) 
-    		{
-    			continue;
-    		}
-    		if(UniversalIsomorphismTester.isIsomorph(molecule1, fragsToCompare.get(i)))
-    			return true; 
-		}
+    	boolean isomorph = this.fragmentIndex.isKnown(fragment, currentSumFormula);
+    	if(isomorph)
+    		this.countIsomorph++;
     	return isomorph;
     }
-        
-    
-    /**
-     * Very quick and easy isomorphism check.
-     * 
-     * @param molecule1 the molecule1
-     * @param fragsToCompare the frags to compare
-     * 
-     * @return true, if successful
-     */
-    private boolean identicalAtoms(IAtomContainer molecule1, List<IAtomContainer> fragsToCompare) {
-	
-    	IMolecularFormula molFormula = null;
-    	String molFormulaString = null;
-    	if(molecularFormulaRedundancyCheck || smilesRedundancyCheck)
-    	{
-    		molFormula = MolecularFormulaManipulator.getMolecularFormula(molecule1);
-    		molFormulaString = MolecularFormulaManipulator.getString(molFormula);
-    	}
-    	
-    	
-    	String smiles = null;
-    	if(smilesRedundancyCheck)
-    	{
-    		smiles = (String)molecule1.getProperties().get("smiles");
-    	}
-    	
-    	boolean[] idComparison = null;
-    	if(!smilesRedundancyCheck && !molecularFormulaRedundancyCheck)
-    	{
-    		idComparison= new boolean[this.originalMolecule.getAtomCount()];
-    		//now initialize array to compare the other candidates with it
-    		for (IAtom atom : molecule1.atoms()) {
-    			idComparison[Integer.parseInt(atom.getID())] = true; 
-			}
-    		
-    	}
-    	
-
-    	for (int i = 0; i < fragsToCompare.size(); i++) 
-    	{
-    		//no match
-    		if (molecule1.getBondCount() != fragsToCompare.get(i).getBondCount() && molecule1.getAtomCount() != fragsToCompare.get(i).getAtomCount()) 
-    		{
-    			continue;
-    		}
-    		
-    		//smiles based redundancy check
-    		if(smilesRedundancyCheck)
-    		{   
-    			if(smiles.equals((String)fragsToCompare.get(i).getProperty("smiles")))
-    			{
-    				return true;
-    			}	
-    		}
-    		//Molecular Formula redundancy check
-    		else if(molecularFormulaRedundancyCheck)
-    		{
-    			IMolecularFormula molFormulaFrag = MolecularFormulaManipulator.getMolecularFormula(fragsToCompare.get(i));
-    			String molFormulaFragString = MolecularFormulaManipulator.getString(molFormulaFrag);
-    			if(molFormulaString.equals(molFormulaFragString))
-    				return true;
-    		}
-    		//atom based redundancy check
-    		else
-    		{
-    			int count = 0;
-	    		for (IAtom atom : fragsToCompare.get(i).atoms()) 
-    			{				
-	    			if(idComparison[Integer.parseInt(atom.getID())])
-	    				count ++;
-	    			else
-	    				System.out.println("no match");
-    			}
-	    		//"isomorph" structure
-	    		if(count == molecule1.getAtomCount())
-	    			return true;
-    		}
-		}  	
-    	
-	    //no match found
-		return false;
-	}
     
     
     /**
@@ -1473,53 +2097,6 @@ public class Fragmenter {
     }
     
     
-    /**
-     * Adds a fragment to the list of fragments with the current sum formula as key.
-     * 
-     * @param fragment the fragment
-     */
-    private void addFragmentToListMap(IAtomContainer frag, String currentSumFormula)
-    {
-    	//add sum formula molecule comb. to map
-        if(sumformulaToFragMap.containsKey(currentSumFormula))
-        {
-        	List<IAtomContainer> tempList = sumformulaToFragMap.get(currentSumFormula);
-        	tempList.add(frag);
-        	sumformulaToFragMap.put(currentSumFormula, tempList);
-        }
-        else
-        {
-        	List<IAtomContainer> temp = new ArrayList<IAtomContainer>();
-        	temp.add(frag);
-        	sumformulaToFragMap.put(currentSumFormula, temp);
-        }
-    }
-    
-    
-    /**
-     * Adds a fragment to the list of fragments with the current sum formula as key and replaces 
-     * the current entry.
-     * 
-     * @param fragment the fragment
-     */
-    private void addFragmentToListMapReplace(IAtomContainer frag, String currentSumFormula)
-    {
-    	//add sum formula molecule comb. to map
-        if(sumformulaToFragMap.containsKey(currentSumFormula))
-        {
-        	List<IAtomContainer> tempList = sumformulaToFragMap.get(currentSumFormula);
-        	tempList.clear();
-        	tempList.add(frag);
-        	sumformulaToFragMap.put(currentSumFormula, tempList);
-        }
-        else
-        {
-        	List<IAtomContainer> temp = new ArrayList<IAtomContainer>();
-        	temp.add(frag);
-        	sumformulaToFragMap.put(currentSumFormula, temp);
-        }
-    }
-    
     /**
      * Set new minweight.
      * 
@@ -1599,10 +2176,8 @@ public class Fragmenter {
         
         List<IElement> elements = MolecularFormulaManipulator.elements(molecularFormula);
         for (IElement element : elements) {
-        	IAtom a = new Atom(element);
-			IsotopeFactory.getInstance(a.getBuilder()).configure(a);
-			//get mass and store in map
-			atomMasses.put(element.getSymbol(), a.getExactMass());
+			//get mass (cached per JVM) and store in map
+			atomMasses.put(element.getSymbol(), ChemistryTables.getInstance().getAtomMass(element.getSymbol()));
 		}
     }
     
@@ -1639,55 +2214,88 @@ public class Fragmenter {
     
     
     /**
-     * Resursively traverse the molecule to get all the bonds in a list and return them. Start
-     * at the given atom
+     * Traverse the current fragment to get all the bonds in a list and return them. Start at the given atom.
+     * Ignore the given bond(s) --> split up a bond or a ring (bondToRemove2 may be null)!
+     * <p/>
+     * Iterative (explicit stack) over the adjacency arrays of the {@link IndexedMolecule}. Only the bonds
+     * of the current fragment are used (see {@link #splitMolecule(IAtomContainer, IBond, SplitContext)}). The mass of
+     * the atoms found is stored in the context.
      * 
-     * @param atomContainer the atom container
-     * @param atom the atom
-     * @param bondList the bond list
+     * @param atomContainer the current fragment (only used by the recursive traversal)
+     * @param atom the start atom
+     * @param bondToRemove the bond to remove
+     * @param bondToRemove2 the second bond to remove or null
+     * @param context the split context
      * 
      * @return the list< i bond>
      */
-    private List<IBond> traverse(IAtomContainer atomContainer, IAtom atom, List<IBond> bondList, IBond bondToRemove)
+    private List<IBond> traverse(IAtomContainer atomContainer, IAtom atom, IBond bondToRemove, IBond bondToRemove2, SplitContext context)
     {
-        List<IBond> connectedBonds = atomContainer.getConnectedBondsList(atom);
-        
-        
-        for (IBond aBond : connectedBonds) {
-            if (bondList.contains(aBond) || aBond.equals(bondToRemove))
-                continue;
-            bondList.add(aBond);
-            
-            //get the weight of the bonded atoms
-            for (IAtom atomWeight : aBond.atoms()) {
-            	//get the prepared mass of the atom if it is not already counted
-            	if(!atomList.contains(atomWeight))
-            	{
-            		this.currentFragWeight += atomMasses.get(atomWeight.getSymbol());
-            		atomList.add(atomWeight);
-            	}
-            }
-            
-            IAtom nextAtom = aBond.getConnectedAtom(atom);
-            if (atomContainer.getConnectedAtomsCount(nextAtom) == 1)
-                continue;
-            traverse(atomContainer, nextAtom, bondList, bondToRemove);
-        }
-        return bondList;
+    	if(this.recursiveTraverse)
+    	{
+    		//reset the weight because it is computed inside the traverse
+    		context.currentFragWeight = 0.0;
+    		return traverse(atomContainer, atom, new ArrayList<IBond>(), new ArrayList<IAtom>(), bondToRemove, bondToRemove2, context);
+    	}
+    	
+    	int[] adjOffset = this.indexedMolecule.getAdjacencyOffsets();
+    	int[] adjBond = this.indexedMolecule.getAdjacentBonds();
+    	double[] atomMass = this.indexedMolecule.getAtomMasses();
+    	int removed = Integer.parseInt(bondToRemove.getID());
+    	int removed2 = (bondToRemove2 == null) ? -1 : Integer.parseInt(bondToRemove2.getID());
+    	
+    	List<IBond> bondList = new ArrayList<IBond>();
+    	context.visitedAtoms.clear();
+    	context.visitedBonds.clear();
+    	
+    	int startAtom = Integer.parseInt(atom.getID());
+    	context.visitedAtoms.set(startAtom);
+    	double mass = atomMass[startAtom];
+    	int stackSize = 0;
+    	context.traverseStack[stackSize++] = startAtom;
+    	
+    	while(stackSize > 0)
+    	{
+    		int currentAtom = context.traverseStack[--stackSize];
+    		for (int i = adjOffset[currentAtom]; i < adjOffset[currentAtom + 1]; i++) {
+    			int bond = adjBond[i];
+    			if(bond == removed || bond == removed2 || !context.fragmentBonds.get(bond) || context.visitedBonds.get(bond))
+    				continue;
+    			context.visitedBonds.set(bond);
+    			bondList.add(this.indexedMolecule.getBond(bond));
+    			
+    			int nextAtom = this.indexedMolecule.getConnectedAtom(bond, currentAtom);
+    			if(context.visitedAtoms.get(nextAtom))
+    				continue;
+    			context.visitedAtoms.set(nextAtom);
+    			mass += atomMass[nextAtom];
+    			context.traverseStack[stackSize++] = nextAtom;
+			}
+    	}
+    	
+    	//the start atom alone is no fragment
+    	context.currentFragWeight = bondList.isEmpty() ? 0.0 : mass;
+    	return bondList;
     }
     
+    
     /**
      * Resursively traverse the molecule to get all the bonds in a list and return them. Start at the given Atom.
-     * Ignore the 2 given bonds --> split up a ring!
+     * Ignore the given bond(s) --> split up a bond or a ring (bondToRemove2 may be null)! This is the traversal
+     * before the adjacency arrays (see {@link #setRecursiveTraverse(boolean)}).
      * 
      * @param atomContainer the atom container
      * @param atom the atom
      * @param bondList the bond list
+     * @param atomList the atoms already counted in the weight
+     * @param bondToRemove the bond to remove
+     * @param bondToRemove2 the second bond to remove or null
+     * @param context the split context
      * 
      * @return the list< i bond>
      */
-    private List<IBond> traverse(IAtomContainer atomContainer, IAtom atom, List<IBond> bondList, IBond bondToRemove, IBond bondToRemove2) {
-    	
+    private List<IBond> traverse(IAtomContainer atomContainer, IAtom atom, List<IBond> bondList, List<IAtom> atomList, IBond bondToRemove, IBond bondToRemove2, SplitContext context)
+    {
     	List<IBond> connectedBonds = atomContainer.getConnectedBondsList(atom);
         for (IBond aBond : connectedBonds) {
             if (bondList.contains(aBond) || aBond.equals(bondToRemove) || aBond.equals(bondToRemove2))
@@ -1698,14 +2306,14 @@ public class Fragmenter {
             	//get the prepared mass of the atom if it is not already counted
             	if(!atomList.contains(atomWeight))
             	{
-            		this.currentFragWeight += atomMasses.get(atomWeight.getSymbol());
+            		context.currentFragWeight += atomMasses.get(atomWeight.getSymbol());
             		atomList.add(atomWeight);
             	}
             }
             IAtom nextAtom = aBond.getConnectedAtom(atom);
             if (atomContainer.getConnectedAtomsCount(nextAtom) == 1)
                 continue;
-            traverse(atomContainer, nextAtom, bondList, bondToRemove, bondToRemove2);
+            traverse(atomContainer, nextAtom, bondList, atomList, bondToRemove, bondToRemove2, context);
         }
         return bondList;
     }
@@ -1719,54 +2327,8 @@ public class Fragmenter {
      */
     private double getBondEnergy(IBond bond)
     {
-    	//calculate bond energy
-        String bondEnergy = "";
-        String bondEnergyReverse = "";
-        String bondEnergyString1 = "";
-        String bondEnergyString2 = "";
-        boolean first = true;
-        for (IAtom bondAtom : bond.atoms()) {
-        	if(first)
-        	{
-        		bondEnergyString1 = bondAtom.getSymbol().toString();
-        		first = false;
-        	}
-        	else
-        		bondEnergyString2 = bondAtom.getSymbol().toString();
-    	}
-        //now check the bond order up to 3
-        // - --> single bond
-        // = --> double bond
-        // ~ --> triple bond
-        if(bond.getOrder().toString().equals("SINGLE"))
-        {
-        	bondEnergy = bondEnergyString1 + "-" + bondEnergyString2;
-        	bondEnergyReverse = bondEnergyString2 + "-" + bondEnergyString1;
-        }
-        if(bond.getOrder().toString().equals("DOUBLE"))
-        {
-        	bondEnergy = bondEnergyString1 + "=" + bondEnergyString2;
-        	bondEnergyReverse = bondEnergyString2 + "=" + bondEnergyString1;
-        }
-        if(bond.getOrder().toString().equals("TRIPLE"))
-        {
-        	bondEnergy = bondEnergyString1 + "~" + bondEnergyString2;
-        	bondEnergyReverse = bondEnergyString2 + "~" + bondEnergyString1;
-        }
-        
-        Double currentBondEnergy = 0.0;
-        if(this.bondEnergies.get(bondEnergy) != null)
-        	currentBondEnergy = this.bondEnergies.get(bondEnergy);
-        else if (this.bondEnergies.get(bondEnergyReverse) != null)
-        	currentBondEnergy = this.bondEnergies.get(bondEnergyReverse);
-        else
-        {
-        	//not a covalent bond? just assume a C-C bond TODO!
-        	currentBondEnergy = 348.0;
-        	//System.out.println("COULD NOT FIND BOND ENERGY!!! " + bondEnergy + " " + bondEnergyReverse);
-        }
-        
-        return currentBondEnergy;
+    	//array lookup by element and bond order code...unknown bonds are assumed to be C-C bonds
+    	return ChemistryTables.getInstance().getBondEnergy(bond);
     }
     
     /**
@@ -1831,7 +2393,8 @@ public class Fragmenter {
     	//in the first layer add all neutral losses!!! afterwards only if it matches a peak!
     	for (Peak peak : peakList) {
     		
-    		if(initialMolecule && checked)
+    		//the peak independent tree gets all neutral losses once
+    		if((initialMolecule || this.peakIndependent) && checked)
     			break;
     		
     		double peakLow = peak.getMass() - this.mzabs - PPMTool.getPPMDeviation(peak.getMass(), this.mzppm);
@@ -1845,16 +2408,20 @@ public class Fragmenter {
         			IMolecularFormula neutralLossFormula = this.neutralLoss.get(neutralLossMass).getElementalComposition();
         			boolean isPossibleNeutralLoss = MolecularFormulaTools.isPossibleNeutralLoss(originalFormulaMap, neutralLossFormula);
         			
-    				if((isPossibleNeutralLoss && ((mass+protonMass)-neutralLossMass) >= peakLow && (((mass+protonMass)-neutralLossMass) <= peakHigh)) || initialMolecule)
+    				if((isPossibleNeutralLoss && ((mass+protonMass)-neutralLossMass) >= peakLow && (((mass+protonMass)-neutralLossMass) <= peakHigh)) || initialMolecule || (isPossibleNeutralLoss && this.peakIndependent))
     				{
-    					List<IAtomContainer> fragmentsNL = pp.postProcess(fragment, neutralLossMass);
+    					List<IAtomContainer> fragmentsNL = null;
+    					//the post processing is not thread safe
+    					synchronized (pp) {
+    						fragmentsNL = pp.postProcess(fragment, neutralLossMass);
+						}
     					for (IAtomContainer fragmentNL : fragmentsNL) {
     						
     						IMolecularFormula fragmentMolFormula = MolecularFormulaManipulator.getMolecularFormula(fragmentNL);
     						Double fragmentMass = MolecularFormulaTools.getMonoisotopicMass(fragmentMolFormula);
     						    						
     						//skip this fragment which is lighter than the smallest peak
-    						if(fragmentMass < minWeight)
+    						if(!this.peakIndependent && fragmentMass < minWeight)
     							continue;
     						
 	    					//add neutral loss elemental composition to atomcontainer
@@ -1875,6 +2442,11 @@ public class Fragmenter {
 	    					
 	    					Map<Object, Object> props = fragmentNL.getProperties();
 	    					props.put("NeutralLossRule", MolecularFormulaManipulator.getString(neutralLossFormula));
+	    					//the mass of the parent is copied...use the remaining atoms (same as FragmentBitSet)
+	    					props.put("FragmentMass", Double.toString(getAtomMassSum(fragmentNL)));
+	    					//the peak is checked when the tree is filtered
+	    					if(this.peakIndependent && !initialMolecule)
+	    						props.put(NL_PEAK_MASS, Double.toString(mass - neutralLossMass));
 	    					
 	    					if(smilesRedundancyCheck)
 	    					{
@@ -1884,7 +2456,7 @@ public class Fragmenter {
 		    					props.put("smiles", smiles);
 	    					}
 	    					
-	    					addFragmentToListMap(fragmentNL, MolecularFormulaManipulator.getString(fragmentMolFormula));
+	    					this.fragmentIndex.add(fragmentNL, MolecularFormulaManipulator.getString(fragmentMolFormula));
 	    					
 	    					//add to result list
 	    					ret.add(fragmentNL);
@@ -1941,77 +2513,4 @@ public class Fragmenter {
     	}
     	return ret;
     }
-    
-    
-    /**
-	 * Gets the neutral losses which are stored in a file.
-	 * 
-	 * @return the neutral losses
-	 */
-	private Map<Double, NeutralLoss> ReadInNeutralLosses()
-	{
-		neutralLoss = new HashMap<Double, NeutralLoss>();
-		try 
-        {	
-			String file = "";
-        	if(System.getProperty("property.file.path") != null)
-        	{
-        		file = System.getProperty("property.file.path");
-        		file += "neutralLoss.csv";
-        	}
-        	else
-        	{
-        		URL url = AssignFragmentPeak.class.getClassLoader().getResource("neutralLoss.csv");
-    			file = url.getFile();
-        		//System.out.println("Pfad: " + url.getFile());
-        	}
-        	FileInputStream fstream = new FileInputStream(new File(file));
-    	    // Get the object of DataInputStream
-    	    DataInputStream in = new DataInputStream(fstream);
-    	    BufferedReader br = new BufferedReader(new InputStreamReader(in));
-    	    String strLine;
-    	    boolean first = true;
-    	    //Read File Line By Line
-    	    while ((strLine = br.readLine()) != null)   {
-    	    	//skip header
-    	    	if(first)
-    	    	{
-    	    		first = false;
-    	    		continue;
-    	    	}
-    	      if(strLine.equals("//"))
-    	    	  break;
-    	      
-    	      if(strLine.startsWith("#"))
-    	    	  continue;
-    	      
-    	      String[] lineArray = strLine.split("\t");
-    	      IMolecularFormula formula = new MolecularFormula();
-    	      int mode = 1;
-    	      //positive and negative mode
-    	      if(lineArray[0].equals("+ -"))
-    	    	  mode = 0;
-    	      //negative mode
-    	      else if(lineArray[0].equals("-"))
-    	    	  mode = -1;
-    	      
-    	      IMolecularFormula mfT = new MolecularFormula();
-    	      IMolecularFormula mfE = new MolecularFormula();
-    	      NeutralLoss nl = new NeutralLoss(MolecularFormulaManipulator.getMolecularFormula(lineArray[3], mfE), MolecularFormulaManipulator.getMolecularFormula(lineArray[2], mfT), mode, Integer.parseInt(lineArray[4]), Integer.parseInt(lineArray[5]), lineArray[6], Integer.parseInt(lineArray[7]));
-    	      double deltaM = Double.parseDouble(lineArray[1]);
-    	      neutralLoss.put(deltaM, nl);
-    	      //System.out.println("Bond: '" + bond + "' Energy: '" + energy + "'");
-    	    }
-    	    //Close the input stream
-    	    in.close();
-        } 
-        catch (FileNotFoundException e) {
-            e.printStackTrace();
-        }
-        catch (IOException e) {
-            e.printStackTrace();
-        }
-        
-        return neutralLoss;
-	}
 }
\ No newline at end of file
@@ -0,0 +1,250 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.util.List;
+import java.util.Map;
+
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IRingSet;
+
+
+/**
+ * Primitive (array based) view of the numbered original molecule. Atoms and bonds are
+ * addressed by their ID (see MoleculeTools.moleculeNumbering) which is used as array index.
+ * The adjacency is stored CSR-style: the bonds connected to atom a are
+ * adjBond[adjOffset[a]] ... adjBond[adjOffset[a + 1] - 1].
+ */
+public class IndexedMolecule {
+
+	private IAtomContainer original;
+	private IAtom[] atoms;
+	private IBond[] bonds;
+	private int[] bondAtom1;
+	private int[] bondAtom2;
+	private int[] adjOffset;
+	private int[] adjBond;
+	private double[] atomMass;
+	private boolean[] hydrogen;
+	private int[] element;
+	private int elementCount;
+	private double[] bondEnergy;
+	private boolean[] aromatic;
+	private int[][] ringBonds;
+
+
+	/**
+	 * Instantiates a new indexed molecule.
+	 *
+	 * @param original the numbered original molecule
+	 * @param atomMasses the exact atom masses by symbol
+	 * @param bondEnergies the bond energies by bond ID
+	 * @param aromaticBonds the aromatic bonds
+	 * @param allRings all rings of the original molecule
+	 */
+	public IndexedMolecule(IAtomContainer original, Map<String, Double> atomMasses, double[] bondEnergies, List<IBond> aromaticBonds, IRingSet allRings)
+	{
+		this.original = original;
+		int atomCount = original.getAtomCount();
+		int bondCount = original.getBondCount();
+
+		atoms = new IAtom[atomCount];
+		atomMass = new double[atomCount];
+		hydrogen = new boolean[atomCount];
+		element = new int[atomCount];
+		List<String> symbols = new java.util.ArrayList<String>();
+		for (IAtom atom : original.atoms()) {
+			int id = Integer.parseInt(atom.getID());
+			atoms[id] = atom;
+			atomMass[id] = atomMasses.get(atom.getSymbol());
+			hydrogen[id] = atom.getSymbol().startsWith("H");
+			int e = symbols.indexOf(atom.getSymbol());
+			if(e < 0)
+			{
+				e = symbols.size();
+				symbols.add(atom.getSymbol());
+			}
+			element[id] = e;
+		}
+		elementCount = symbols.size();
+
+		bonds = new IBond[bondCount];
+		bondAtom1 = new int[bondCount];
+		bondAtom2 = new int[bondCount];
+		aromatic = new boolean[bondCount];
+		ringBonds = new int[bondCount][];
+		int[] degree = new int[atomCount];
+		for (IBond bond : original.bonds()) {
+			int id = Integer.parseInt(bond.getID());
+			bonds[id] = bond;
+			bondAtom1[id] = Integer.parseInt(bond.getAtom(0).getID());
+			bondAtom2[id] = Integer.parseInt(bond.getAtom(1).getID());
+			degree[bondAtom1[id]]++;
+			degree[bondAtom2[id]]++;
+		}
+
+		//CSR adjacency
+		adjOffset = new int[atomCount + 1];
+		for (int i = 0; i < atomCount; i++) {
+			adjOffset[i + 1] = adjOffset[i] + degree[i];
+		}
+		adjBond = new int[adjOffset[atomCount]];
+		int[] fill = new int[atomCount];
+		for (int b = 0; b < bondCount; b++) {
+			adjBond[adjOffset[bondAtom1[b]] + fill[bondAtom1[b]]++] = b;
+			adjBond[adjOffset[bondAtom2[b]] + fill[bondAtom2[b]]++] = b;
+		}
+
+		this.bondEnergy = bondEnergies;
+		for (IBond bond : aromaticBonds) {
+			aromatic[Integer.parseInt(bond.getID())] = true;
+		}
+
+		//only the first ring of a bond is used to split it up (same as in the fragmenter)
+		for (int b = 0; b < bondCount; b++) {
+			IRingSet rings = allRings.getRings(bonds[b]);
+			if(rings.getAtomContainerCount() == 0)
+				continue;
+			IAtomContainer ring = rings.getAtomContainer(0);
+			ringBonds[b] = new int[ring.getBondCount()];
+			int i = 0;
+			for (IBond ringBond : ring.bonds()) {
+				ringBonds[b][i++] = Integer.parseInt(ringBond.getID());
+			}
+		}
+	}
+
+
+	/**
+	 * Gets the original molecule.
+	 *
+	 * @return the original molecule
+	 */
+	public IAtomContainer getOriginal()
+	{
+		return original;
+	}
+
+	public int getAtomCount()
+	{
+		return atoms.length;
+	}
+
+	public int getBondCount()
+	{
+		return bonds.length;
+	}
+
+	public IAtom getAtom(int atom)
+	{
+		return atoms[atom];
+	}
+
+	public IBond getBond(int bond)
+	{
+		return bonds[bond];
+	}
+
+	public int getBondAtom1(int bond)
+	{
+		return bondAtom1[bond];
+	}
+
+	public int getBondAtom2(int bond)
+	{
+		return bondAtom2[bond];
+	}
+
+	/**
+	 * Gets the other atom of the bond.
+	 *
+	 * @param bond the bond
+	 * @param atom the atom
+	 *
+	 * @return the connected atom
+	 */
+	public int getConnectedAtom(int bond, int atom)
+	{
+		return (bondAtom1[bond] == atom) ? bondAtom2[bond] : bondAtom1[bond];
+	}
+
+	/**
+	 * Start index of the bonds of the atom in {@link #getAdjacentBonds()}.
+	 *
+	 * @return the CSR offsets (length atom count + 1)
+	 */
+	public int[] getAdjacencyOffsets()
+	{
+		return adjOffset;
+	}
+
+	/**
+	 * Gets the adjacent bonds of all atoms (CSR).
+	 *
+	 * @return the adjacent bonds
+	 */
+	public int[] getAdjacentBonds()
+	{
+		return adjBond;
+	}
+
+	public double[] getAtomMasses()
+	{
+		return atomMass;
+	}
+
+	public double getAtomMass(int atom)
+	{
+		return atomMass[atom];
+	}
+
+	public boolean isHydrogen(int atom)
+	{
+		return hydrogen[atom];
+	}
+
+	/**
+	 * Gets the element index (0...{@link #getElementCount()} - 1) of the atom.
+	 *
+	 * @param atom the atom
+	 *
+	 * @return the element index
+	 */
+	public int getElement(int atom)
+	{
+		return element[atom];
+	}
+
+	public int getElementCount()
+	{
+		return elementCount;
+	}
+
+	public double getBondEnergy(int bond)
+	{
+		return bondEnergy[bond];
+	}
+
+	public double[] getBondEnergies()
+	{
+		return bondEnergy;
+	}
+
+	public boolean isAromatic(int bond)
+	{
+		return aromatic[bond];
+	}
+
+	/**
+	 * Gets the bonds of the (first) ring the bond is in.
+	 *
+	 * @param bond the bond
+	 *
+	 * @return the ring bonds or null if the bond is not in a ring
+	 */
+	public int[] getRingBonds(int bond)
+	{
+		return ringBonds[bond];
+	}
+
+}
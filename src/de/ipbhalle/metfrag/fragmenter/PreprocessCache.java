@@ -0,0 +1,220 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+
+/**
+ * Cache of the preprocessed candidates (see {@link PreprocessedStructure}). The same candidates recur
+ * in many spectra, so ring detection, aromaticity detection and the bond prediction are only done once.
+ * The structures are kept in an in memory LRU map and (optionally) in a directory with one file per
+ * structure key. The cache is thread safe and shared by all fragmenters.
+ */
+public class PreprocessCache {
+
+	private static final int VERSION = 1;
+	private static final String SUFFIX = ".pre";
+
+	private static PreprocessCache instance = null;
+
+	private File directory;
+	private int maxEntries;
+	private Map<String, PreprocessedStructure> memory;
+	private int hits = 0;
+	private int misses = 0;
+
+
+	/**
+	 * Instantiates a new preprocess cache.
+	 *
+	 * @param directory the cache directory or null (only in memory)
+	 * @param maxEntries the max number of structures in memory
+	 */
+	public PreprocessCache(File directory, final int maxEntries)
+	{
+		this.directory = directory;
+		this.maxEntries = maxEntries;
+		if(directory != null && !directory.exists())
+			directory.mkdirs();
+
+		//access ordered...the least recently used structure is removed
+		this.memory = new LinkedHashMap<String, PreprocessedStructure>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreprocessedStructure> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+
+	/**
+	 * Gets the cache shared by all searches of this JVM. The cache is created again if the
+	 * settings change.
+	 *
+	 * @param directory the cache directory or null (only in memory)
+	 * @param maxEntries the max number of structures in memory...0 disables the cache
+	 *
+	 * @return the cache or null if it is disabled
+	 */
+	public static synchronized PreprocessCache getInstance(String directory, int maxEntries)
+	{
+		if(maxEntries <= 0)
+			return null;
+		File dir = (directory == null || directory.trim().equals("")) ? null : new File(directory.trim());
+		if(instance == null || instance.maxEntries != maxEntries || (dir == null ? instance.directory != null : !dir.equals(instance.directory)))
+			instance = new PreprocessCache(dir, maxEntries);
+		return instance;
+	}
+
+
+	/**
+	 * Gets the preprocessed structure.
+	 *
+	 * @param key the structure key
+	 *
+	 * @return the structure or null if it is not cached
+	 */
+	public PreprocessedStructure get(String key)
+	{
+		synchronized (memory) {
+			PreprocessedStructure ret = memory.get(key);
+			if(ret != null)
+			{
+				hits++;
+				return ret;
+			}
+		}
+
+		PreprocessedStructure ret = readFromDisk(key);
+		synchronized (memory) {
+			if(ret != null)
+			{
+				hits++;
+				memory.put(key, ret);
+			}
+			else
+				misses++;
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Adds the preprocessed structure.
+	 *
+	 * @param structure the structure
+	 */
+	public void put(PreprocessedStructure structure)
+	{
+		synchronized (memory) {
+			memory.put(structure.getKey(), structure);
+		}
+		writeToDisk(structure);
+	}
+
+
+	public int getHits()
+	{
+		synchronized (memory) {
+			return hits;
+		}
+	}
+
+	public int getMisses()
+	{
+		synchronized (memory) {
+			return misses;
+		}
+	}
+
+
+	/**
+	 * Read the structure from the cache directory.
+	 *
+	 * @param key the key
+	 *
+	 * @return the structure or null
+	 */
+	private PreprocessedStructure readFromDisk(String key)
+	{
+		if(directory == null)
+			return null;
+		File file = new File(directory, key + SUFFIX);
+		if(!file.exists())
+			return null;
+
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try
+			{
+				if(in.readInt() != VERSION)
+					return null;
+				PreprocessedStructure ret = PreprocessedStructure.read(in);
+				if(!key.equals(ret.getKey()))
+					return null;
+				return ret;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch(IOException e)
+		{
+			//broken file...preprocess again
+			System.err.println("Could not read preprocess cache file " + file + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+
+	/**
+	 * Write the structure to the cache directory. The file is written to a temp file first and
+	 * renamed, so other threads (or processes) never read half written files.
+	 *
+	 * @param structure the structure
+	 */
+	private void writeToDisk(PreprocessedStructure structure)
+	{
+		if(directory == null)
+			return;
+
+		File file = new File(directory, structure.getKey() + SUFFIX);
+		try
+		{
+			File temp = File.createTempFile(structure.getKey(), ".tmp", directory);
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+			try
+			{
+				out.writeInt(VERSION);
+				structure.write(out);
+			}
+			finally
+			{
+				out.close();
+			}
+			if(!temp.renameTo(file))
+			{
+				file.delete();
+				if(!temp.renameTo(file))
+					temp.delete();
+			}
+		}
+		catch(IOException e)
+		{
+			System.err.println("Could not write preprocess cache file " + file + ": " + e.getMessage());
+		}
+	}
+
+}
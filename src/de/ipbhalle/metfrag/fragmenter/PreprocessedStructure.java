@@ -0,0 +1,367 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openscience.cdk.CDKConstants;
+import org.openscience.cdk.Ring;
+import org.openscience.cdk.RingSet;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.interfaces.IBond;
+import org.openscience.cdk.interfaces.IRing;
+import org.openscience.cdk.interfaces.IRingSet;
+
+
+/**
+ * The result of the preprocessing of a candidate in the {@link Fragmenter} (all rings, aromatic bonds,
+ * bond energies and the bonds to break). Everything is stored by the atom and bond IDs of the
+ * numbered molecule (see MoleculeTools.moleculeNumbering), so it can be applied to every molecule
+ * with the same structure key.
+ */
+public class PreprocessedStructure {
+
+	private String key;
+	private int atomCount;
+	private int bondCount;
+	private int[][] ringAtoms;
+	private int[][] ringBonds;
+	//aromatic bonds used by the fragmenter
+	private int[] aromaticBonds;
+	//aromaticity flags set by the aromaticity detection
+	private int[] aromaticFlagAtoms;
+	private int[] aromaticFlagBonds;
+	private double[] bondEnergies;
+	//null if the bonds to break were not calculated
+	private List<String> bondsToBreak;
+
+
+	/**
+	 * Instantiates a new preprocessed structure.
+	 *
+	 * @param key the structure key
+	 * @param molecule the numbered and preprocessed molecule
+	 * @param allRings all rings
+	 * @param aromaticBonds the aromatic bonds
+	 * @param bondEnergies the bond energies by bond ID
+	 * @param bondsToBreak the bonds to break (may be null)
+	 */
+	public PreprocessedStructure(String key, IAtomContainer molecule, IRingSet allRings, List<IBond> aromaticBonds, double[] bondEnergies, List<String> bondsToBreak)
+	{
+		this.key = key;
+		this.atomCount = molecule.getAtomCount();
+		this.bondCount = molecule.getBondCount();
+
+		int ringCount = allRings.getAtomContainerCount();
+		this.ringAtoms = new int[ringCount][];
+		this.ringBonds = new int[ringCount][];
+		for (int i = 0; i < ringCount; i++) {
+			IAtomContainer ring = allRings.getAtomContainer(i);
+			ringAtoms[i] = new int[ring.getAtomCount()];
+			int j = 0;
+			for (IAtom atom : ring.atoms()) {
+				ringAtoms[i][j++] = Integer.parseInt(atom.getID());
+			}
+			ringBonds[i] = new int[ring.getBondCount()];
+			j = 0;
+			for (IBond bond : ring.bonds()) {
+				ringBonds[i][j++] = Integer.parseInt(bond.getID());
+			}
+		}
+
+		this.aromaticBonds = new int[aromaticBonds.size()];
+		for (int i = 0; i < aromaticBonds.size(); i++) {
+			this.aromaticBonds[i] = Integer.parseInt(aromaticBonds.get(i).getID());
+		}
+
+		List<Integer> flagAtoms = new ArrayList<Integer>();
+		for (IAtom atom : molecule.atoms()) {
+			if(atom.getFlag(CDKConstants.ISAROMATIC))
+				flagAtoms.add(Integer.parseInt(atom.getID()));
+		}
+		List<Integer> flagBonds = new ArrayList<Integer>();
+		for (IBond bond : molecule.bonds()) {
+			if(bond.getFlag(CDKConstants.ISAROMATIC))
+				flagBonds.add(Integer.parseInt(bond.getID()));
+		}
+		this.aromaticFlagAtoms = toArray(flagAtoms);
+		this.aromaticFlagBonds = toArray(flagBonds);
+
+		this.bondEnergies = bondEnergies;
+		this.bondsToBreak = bondsToBreak;
+	}
+
+
+	/**
+	 * Instantiates a new preprocessed structure (read in from the cache).
+	 */
+	private PreprocessedStructure()
+	{
+	}
+
+
+	/**
+	 * Gets the structure key of the numbered molecule: a SHA-1 hash of the atoms (element symbol,
+	 * mass number and formal charge) in ID order and the bonds (atom IDs and order) in ID order. The cached data is stored by atom and bond IDs,
+	 * so the key has to depend on the numbering. The same candidate read from the database gets
+	 * the same key.
+	 *
+	 * @param molecule the numbered molecule
+	 *
+	 * @return the structure key
+	 */
+	public static String getStructureKey(IAtomContainer molecule)
+	{
+		String[] symbols = new String[molecule.getAtomCount()];
+		for (IAtom atom : molecule.atoms()) {
+			//charged atoms and isotopes have other masses and bond energies
+			symbols[Integer.parseInt(atom.getID())] = atom.getSymbol() + "^" + atom.getMassNumber() + "q" + atom.getFormalCharge();
+		}
+		String[] bonds = new String[molecule.getBondCount()];
+		for (IBond bond : molecule.bonds()) {
+			bonds[Integer.parseInt(bond.getID())] = bond.getAtom(0).getID() + "-" + bond.getAtom(1).getID() + ":" + ChemistryTables.getBondOrderCode(bond);
+		}
+
+		StringBuilder sb = new StringBuilder();
+		for (String symbol : symbols) {
+			sb.append(symbol).append(',');
+		}
+		sb.append('|');
+		for (String bond : bonds) {
+			sb.append(bond).append(',');
+		}
+
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-1");
+			byte[] digest = md.digest(sb.toString().getBytes("UTF-8"));
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest) {
+				hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+			}
+			return hex.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+
+	/**
+	 * Checks if the structure fits to the molecule.
+	 *
+	 * @param molecule the numbered molecule
+	 *
+	 * @return true, if successful
+	 */
+	public boolean fits(IAtomContainer molecule)
+	{
+		return molecule.getAtomCount() == atomCount && molecule.getBondCount() == bondCount;
+	}
+
+
+	/**
+	 * Builds the rings with the atoms and bonds of the molecule.
+	 *
+	 * @param molecule the numbered molecule
+	 *
+	 * @return all rings
+	 */
+	public IRingSet getRings(IAtomContainer molecule)
+	{
+		IAtom[] atoms = getAtoms(molecule);
+		IBond[] bonds = getBonds(molecule);
+		IRingSet ret = new RingSet();
+		for (int i = 0; i < ringAtoms.length; i++) {
+			IRing ring = new Ring();
+			for (int atom : ringAtoms[i]) {
+				ring.addAtom(atoms[atom]);
+			}
+			for (int bond : ringBonds[i]) {
+				ring.addBond(bonds[bond]);
+			}
+			ret.addAtomContainer(ring);
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Gets the aromatic bonds of the molecule.
+	 *
+	 * @param molecule the numbered molecule
+	 *
+	 * @return the aromatic bonds
+	 */
+	public List<IBond> getAromaticBonds(IAtomContainer molecule)
+	{
+		IBond[] bonds = getBonds(molecule);
+		List<IBond> ret = new ArrayList<IBond>();
+		for (int bond : aromaticBonds) {
+			ret.add(bonds[bond]);
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Sets the aromaticity flags like the aromaticity detection does.
+	 *
+	 * @param molecule the numbered molecule
+	 */
+	public void setAromaticityFlags(IAtomContainer molecule)
+	{
+		IAtom[] atoms = getAtoms(molecule);
+		IBond[] bonds = getBonds(molecule);
+		for (int atom : aromaticFlagAtoms) {
+			atoms[atom].setFlag(CDKConstants.ISAROMATIC, true);
+		}
+		for (int bond : aromaticFlagBonds) {
+			bonds[bond].setFlag(CDKConstants.ISAROMATIC, true);
+		}
+	}
+
+
+	public String getKey()
+	{
+		return key;
+	}
+
+	public double[] getBondEnergies()
+	{
+		return bondEnergies;
+	}
+
+	public List<String> getBondsToBreak()
+	{
+		return bondsToBreak;
+	}
+
+
+	/**
+	 * Write the structure.
+	 *
+	 * @param out the output stream
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void write(DataOutputStream out) throws IOException
+	{
+		out.writeUTF(key);
+		out.writeInt(atomCount);
+		out.writeInt(bondCount);
+		out.writeInt(ringAtoms.length);
+		for (int i = 0; i < ringAtoms.length; i++) {
+			writeArray(out, ringAtoms[i]);
+			writeArray(out, ringBonds[i]);
+		}
+		writeArray(out, aromaticBonds);
+		writeArray(out, aromaticFlagAtoms);
+		writeArray(out, aromaticFlagBonds);
+		out.writeInt(bondEnergies.length);
+		for (double energy : bondEnergies) {
+			out.writeDouble(energy);
+		}
+		out.writeBoolean(bondsToBreak != null);
+		if(bondsToBreak != null)
+		{
+			out.writeInt(bondsToBreak.size());
+			for (String bond : bondsToBreak) {
+				out.writeUTF(bond);
+			}
+		}
+	}
+
+
+	/**
+	 * Read the structure.
+	 *
+	 * @param in the input stream
+	 *
+	 * @return the preprocessed structure
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static PreprocessedStructure read(DataInputStream in) throws IOException
+	{
+		PreprocessedStructure ret = new PreprocessedStructure();
+		ret.key = in.readUTF();
+		ret.atomCount = in.readInt();
+		ret.bondCount = in.readInt();
+		int ringCount = in.readInt();
+		ret.ringAtoms = new int[ringCount][];
+		ret.ringBonds = new int[ringCount][];
+		for (int i = 0; i < ringCount; i++) {
+			ret.ringAtoms[i] = readArray(in);
+			ret.ringBonds[i] = readArray(in);
+		}
+		ret.aromaticBonds = readArray(in);
+		ret.aromaticFlagAtoms = readArray(in);
+		ret.aromaticFlagBonds = readArray(in);
+		ret.bondEnergies = new double[in.readInt()];
+		for (int i = 0; i < ret.bondEnergies.length; i++) {
+			ret.bondEnergies[i] = in.readDouble();
+		}
+		if(in.readBoolean())
+		{
+			int count = in.readInt();
+			ret.bondsToBreak = new ArrayList<String>(count);
+			for (int i = 0; i < count; i++) {
+				ret.bondsToBreak.add(in.readUTF());
+			}
+		}
+		return ret;
+	}
+
+
+	private static void writeArray(DataOutputStream out, int[] array) throws IOException
+	{
+		out.writeInt(array.length);
+		for (int value : array) {
+			out.writeInt(value);
+		}
+	}
+
+	private static int[] readArray(DataInputStream in) throws IOException
+	{
+		int[] ret = new int[in.readInt()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = in.readInt();
+		}
+		return ret;
+	}
+
+	private static int[] toArray(List<Integer> list)
+	{
+		int[] ret = new int[list.size()];
+		for (int i = 0; i < ret.length; i++) {
+			ret[i] = list.get(i);
+		}
+		return ret;
+	}
+
+	private static IAtom[] getAtoms(IAtomContainer molecule)
+	{
+		IAtom[] ret = new IAtom[molecule.getAtomCount()];
+		for (IAtom atom : molecule.atoms()) {
+			ret[Integer.parseInt(atom.getID())] = atom;
+		}
+		return ret;
+	}
+
+	private static IBond[] getBonds(IAtomContainer molecule)
+	{
+		IBond[] ret = new IBond[molecule.getBondCount()];
+		for (IBond bond : molecule.bonds()) {
+			ret[Integer.parseInt(bond.getID())] = bond;
+		}
+		return ret;
+	}
+
+}
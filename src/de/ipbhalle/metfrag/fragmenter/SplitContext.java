@@ -0,0 +1,63 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+
+/**
+ * State needed while one fragment is split up in the {@link Fragmenter}: the already tried
+ * ring bond pairs, the reusable buffers of the traversal, the weight of the last traversed part and
+ * the time spent in the traversal.
+ * Every thread splitting fragments has its own context.
+ */
+public class SplitContext {
+
+	/** remember already tried combinations of ring bonds. */
+	List<BondPair> knownBonds = new ArrayList<BondPair>();
+
+	/** the bonds of the fragment currently split up. */
+	BitSet fragmentBonds;
+
+	/** the visited atoms of the traversal. */
+	BitSet visitedAtoms;
+
+	/** the visited bonds of the traversal. */
+	BitSet visitedBonds;
+
+	/** the stack of the traversal. */
+	int[] traverseStack;
+
+	/** the weight of the last traversed part. */
+	double currentFragWeight = 0.0;
+
+	/** the time needed for the traversals (ms). */
+	long sumTraverse = 0;
+
+	/** the time needed to create the atom containers (ms). */
+	long sumAtom = 0;
+
+
+	/**
+	 * Instantiates a new split context.
+	 *
+	 * @param molecule the indexed original molecule
+	 */
+	public SplitContext(IndexedMolecule molecule)
+	{
+		this.fragmentBonds = new BitSet(molecule.getBondCount());
+		this.visitedAtoms = new BitSet(molecule.getAtomCount());
+		this.visitedBonds = new BitSet(molecule.getBondCount());
+		this.traverseStack = new int[molecule.getAtomCount()];
+	}
+
+
+	/**
+	 * Reset the context before the next fragment is split up.
+	 */
+	public void reset()
+	{
+		this.knownBonds = new ArrayList<BondPair>();
+	}
+
+}
@@ -0,0 +1,132 @@
+package de.ipbhalle.metfrag.main;
+
+import java.util.List;
+import java.util.Vector;
+
+import de.ipbhalle.metfrag.massbankParser.Peak;
+
+
+/**
+ * The result of one candidate computed in a {@link PubChemFragmentationParallelThread}. Every
+ * thread fills its own result, the results are merged by the {@link PubChemSearchParallel}
+ * afterwards...so no shared state is modified by the threads.
+ */
+public class CandidateResult {
+
+	private String candidate;
+	private boolean scored = false;
+	private double score = 0.0;
+	private int hitCount = 0;
+	private double bondEnergy = 0.0;
+	private double hydrogenPenalty = 0.0;
+	private List<Peak> hitPeaks = new Vector<Peak>();
+	private boolean correct = false;
+	private StringBuilder log = new StringBuilder();
+
+
+	/**
+	 * Instantiates a new candidate result.
+	 *
+	 * @param candidate the candidate
+	 */
+	public CandidateResult(String candidate)
+	{
+		this.candidate = candidate;
+	}
+
+
+	/**
+	 * Sets the scores of the candidate.
+	 *
+	 * @param score the score
+	 * @param hitCount the number of explained peaks
+	 * @param bondEnergy the mean bond energy of the hits
+	 * @param hydrogenPenalty the hydrogen penalty
+	 */
+	public void setScore(double score, int hitCount, double bondEnergy, double hydrogenPenalty)
+	{
+		this.scored = true;
+		this.score = score;
+		this.hitCount = hitCount;
+		this.bondEnergy = bondEnergy;
+		this.hydrogenPenalty = hydrogenPenalty;
+	}
+
+
+	/**
+	 * Adds to the log of the candidate.
+	 *
+	 * @param add the add
+	 */
+	public void addToLog(String add)
+	{
+		log.append(add);
+	}
+
+
+	public String getCandidate()
+	{
+		return candidate;
+	}
+
+	/**
+	 * Checks if the candidate was scored (no error).
+	 *
+	 * @return true, if scored
+	 */
+	public boolean isScored()
+	{
+		return scored;
+	}
+
+	public double getScore()
+	{
+		return score;
+	}
+
+	public int getHitCount()
+	{
+		return hitCount;
+	}
+
+	public double getBondEnergy()
+	{
+		return bondEnergy;
+	}
+
+	public double getHydrogenPenalty()
+	{
+		return hydrogenPenalty;
+	}
+
+	/**
+	 * Gets the explained peaks.
+	 *
+	 * @return the hit peaks
+	 */
+	public List<Peak> getHitPeaks()
+	{
+		return hitPeaks;
+	}
+
+	/**
+	 * Checks if the candidate is the correct one (the CID of the spectrum).
+	 *
+	 * @return true, if is correct
+	 */
+	public boolean isCorrect()
+	{
+		return correct;
+	}
+
+	public void setCorrect(boolean correct)
+	{
+		this.correct = correct;
+	}
+
+	public String getLog()
+	{
+		return log.toString();
+	}
+
+}
@@ -38,6 +38,18 @@ public class Config {
     private boolean neutralLossAdd = false;
     private boolean bondEnergyScoring = false;
     private boolean isOnlyBreakSelectedBonds = false;
+    private boolean streamingMatching = false;
+    private boolean bitSetFragments = false;
+    private int fragmenterThreads = 1;
+    private String preprocessCacheDir = null;
+    private int preprocessCacheSize = 0;
+    private String fragmentCacheDir = null;
+    private boolean peakPruning = false;
+    private int loaderThreads = 1;
+    private int searchThreads = 0;
+    private int candidateQueueSize = 0;
+    private String massIndexFile = null;
+    private int spectrumThreads = 1;
 	
 	/**
 	 * Instantiates a new config.
@@ -190,6 +202,48 @@ public class Config {
 		
 		if(properties.getProperty("breakOnlySelectedBonds").equals("true"))
 			setOnlyBreakSelectedBonds(isOnlyBreakSelectedBonds);
+		
+		//match the fragments while they are generated (optional setting)
+		if("true".equals(properties.getProperty("streamingMatching")))
+			setStreamingMatching(true);
+		
+		//fragment using bit sets...atom containers only for possible hits (optional setting)
+		if("true".equals(properties.getProperty("bitSetFragments")))
+			setBitSetFragments(true);
+		
+		//threads used to fragment one candidate (optional setting)
+		if(properties.getProperty("fragmenterThreads") != null)
+			setFragmenterThreads(Integer.parseInt(properties.getProperty("fragmenterThreads").trim()));
+		
+		//cache of the preprocessed candidates (optional setting)
+		if(properties.getProperty("preprocessCacheDir") != null)
+			setPreprocessCacheDir(properties.getProperty("preprocessCacheDir").trim());
+		if(properties.getProperty("preprocessCacheSize") != null)
+			setPreprocessCacheSize(Integer.parseInt(properties.getProperty("preprocessCacheSize").trim()));
+		
+		//persistent cache of the fragment trees (optional setting)
+		if(properties.getProperty("fragmentCacheDir") != null)
+			setFragmentCacheDir(properties.getProperty("fragmentCacheDir").trim());
+		
+		//prune the fragments which cannot explain an open peak (optional setting)
+		if("true".equals(properties.getProperty("peakPruning")))
+			setPeakPruning(true);
+		
+		//parallelism of the candidate pipeline (optional settings)
+		if(properties.getProperty("loaderThreads") != null)
+			setLoaderThreads(Integer.parseInt(properties.getProperty("loaderThreads").trim()));
+		if(properties.getProperty("searchThreads") != null)
+			setSearchThreads(Integer.parseInt(properties.getProperty("searchThreads").trim()));
+		if(properties.getProperty("candidateQueueSize") != null)
+			setCandidateQueueSize(Integer.parseInt(properties.getProperty("candidateQueueSize").trim()));
+		
+		//memory mapped mass index instead of the database (optional setting)
+		if(properties.getProperty("massIndexFile") != null)
+			setMassIndexFile(properties.getProperty("massIndexFile").trim());
+		
+		//spectra searched at once in folder mode (optional setting)
+		if(properties.getProperty("spectrumThreads") != null)
+			setSpectrumThreads(Integer.parseInt(properties.getProperty("spectrumThreads").trim()));
 	}
 
 	/**
@@ -580,4 +634,100 @@ public class Config {
 		return isOnlyBreakSelectedBonds;
 	}
 
+	public void setStreamingMatching(boolean streamingMatching) {
+		this.streamingMatching = streamingMatching;
+	}
+
+	public boolean isStreamingMatching() {
+		return streamingMatching;
+	}
+
+	public void setBitSetFragments(boolean bitSetFragments) {
+		this.bitSetFragments = bitSetFragments;
+	}
+
+	public boolean isBitSetFragments() {
+		return bitSetFragments;
+	}
+
+	public void setFragmenterThreads(int fragmenterThreads) {
+		this.fragmenterThreads = fragmenterThreads;
+	}
+
+	public int getFragmenterThreads() {
+		return fragmenterThreads;
+	}
+
+	public void setPreprocessCacheDir(String preprocessCacheDir) {
+		this.preprocessCacheDir = preprocessCacheDir;
+	}
+
+	public String getPreprocessCacheDir() {
+		return preprocessCacheDir;
+	}
+
+	public void setPreprocessCacheSize(int preprocessCacheSize) {
+		this.preprocessCacheSize = preprocessCacheSize;
+	}
+
+	public int getPreprocessCacheSize() {
+		return preprocessCacheSize;
+	}
+
+	public void setFragmentCacheDir(String fragmentCacheDir) {
+		this.fragmentCacheDir = fragmentCacheDir;
+	}
+
+	public String getFragmentCacheDir() {
+		return fragmentCacheDir;
+	}
+
+	public void setPeakPruning(boolean peakPruning) {
+		this.peakPruning = peakPruning;
+	}
+
+	public boolean isPeakPruning() {
+		return peakPruning;
+	}
+
+	public void setLoaderThreads(int loaderThreads) {
+		this.loaderThreads = loaderThreads;
+	}
+
+	public int getLoaderThreads() {
+		return loaderThreads;
+	}
+
+	public void setSearchThreads(int searchThreads) {
+		this.searchThreads = searchThreads;
+	}
+
+	public int getSearchThreads() {
+		return searchThreads;
+	}
+
+	public void setCandidateQueueSize(int candidateQueueSize) {
+		this.candidateQueueSize = candidateQueueSize;
+	}
+
+	public int getCandidateQueueSize() {
+		return candidateQueueSize;
+	}
+
+	public void setMassIndexFile(String massIndexFile) {
+		this.massIndexFile = massIndexFile;
+	}
+
+	public String getMassIndexFile() {
+		return massIndexFile;
+	}
+
+	public void setSpectrumThreads(int spectrumThreads) {
+		this.spectrumThreads = spectrumThreads;
+	}
+
+	public int getSpectrumThreads() {
+		return spectrumThreads;
+	}
+
 }
@@ -0,0 +1,149 @@
+package de.ipbhalle.metfrag.main;
+
+import java.util.List;
+import java.util.Vector;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import de.ipbhalle.metfrag.fragmenter.FragmentBitSet;
+import de.ipbhalle.metfrag.fragmenter.Fragmenter;
+import de.ipbhalle.metfrag.massbankParser.Peak;
+
+
+/**
+ * Micro benchmark of the fragmenter (traversal and BFS). Every candidate is fragmented
+ * a few times after a warm up and the mean and the fastest running time are printed for the atom
+ * container engine with the recursive traversal (before) and the iterative traversal (after) and
+ * for the bit set engine...the fastest round is less sensitive to GC and other load on the machine.
+ * The fragment counts of both traversals have to be the same.
+ * <p/>
+ * Usage: FragmenterBenchmark [treeDepth] [rounds] [smiles ...]
+ */
+public class FragmenterBenchmark {
+
+	//a long chain (deep traversal), a steroid and a glycoside (many rings)
+	private static final String[] DEFAULT_SMILES = {
+		"CCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCCC(=O)O",
+		"CC12CCC3C(CCC4=CC(=O)CCC34C)C1CCC2O",
+		"OCC1OC(OC2=CC(O)=C3C(=O)C=C(OC3=C2)C2=CC=C(O)C(O)=C2)C(O)C(O)C1O",
+		"CN1C=NC2=C1C(=O)N(C(=O)N2C)C"
+	};
+	private static final int WARMUP = 2;
+
+
+	/**
+	 * The main method.
+	 *
+	 * @param args the arguments
+	 */
+	public static void main(String[] args) {
+
+		int treeDepth = 2;
+		int rounds = 5;
+		String[] smiles = DEFAULT_SMILES;
+		if(args.length > 0)
+			treeDepth = Integer.parseInt(args[0]);
+		if(args.length > 1)
+			rounds = Integer.parseInt(args[1]);
+		if(args.length > 2)
+		{
+			smiles = new String[args.length - 2];
+			System.arraycopy(args, 2, smiles, 0, smiles.length);
+		}
+
+		Vector<Peak> peakList = new Vector<Peak>();
+		peakList.add(new Peak(30.0, 999.0, 10));
+
+		long totalRecursive = 0;
+		long totalContainer = 0;
+		long totalBitSet = 0;
+		try
+		{
+			for (String candidate : smiles) {
+				long timeRecursive = 0;
+				long timeContainer = 0;
+				long timeBitSet = 0;
+				long minRecursive = Long.MAX_VALUE;
+				long minContainer = Long.MAX_VALUE;
+				long minBitSet = Long.MAX_VALUE;
+				int fragsRecursive = 0;
+				int fragsContainer = 0;
+				int fragsBitSet = 0;
+
+				for (int i = 0; i < WARMUP + rounds; i++) {
+					IAtomContainer mol = getMolecule(candidate);
+					Fragmenter fragmenter = new Fragmenter((Vector<Peak>)peakList.clone(), 0.01, 10, 1, true, false, true, false);
+					fragmenter.setRecursiveTraverse(true);
+					long start = System.nanoTime();
+					List<IAtomContainer> fragsRec = fragmenter.generateFragmentsInMemory(mol, false, treeDepth);
+					long timeRec = System.nanoTime() - start;
+
+					mol = getMolecule(candidate);
+					fragmenter = new Fragmenter((Vector<Peak>)peakList.clone(), 0.01, 10, 1, true, false, true, false);
+					start = System.nanoTime();
+					List<IAtomContainer> frags = fragmenter.generateFragmentsInMemory(mol, false, treeDepth);
+					long time = System.nanoTime() - start;
+
+					mol = getMolecule(candidate);
+					fragmenter = new Fragmenter((Vector<Peak>)peakList.clone(), 0.01, 10, 1, true, false, true, false);
+					start = System.nanoTime();
+					List<FragmentBitSet> fragsBits = fragmenter.generateFragmentsBitSet(mol, treeDepth);
+					long timeBits = System.nanoTime() - start;
+
+					if(i < WARMUP)
+						continue;
+					timeRecursive += timeRec;
+					timeContainer += time;
+					timeBitSet += timeBits;
+					minRecursive = Math.min(minRecursive, timeRec);
+					minContainer = Math.min(minContainer, time);
+					minBitSet = Math.min(minBitSet, timeBits);
+					fragsRecursive = fragsRec.size();
+					fragsContainer = frags.size();
+					fragsBitSet = fragsBits.size();
+				}
+
+				System.out.println(candidate);
+				System.out.println("\tatom container (recursive): " + fragsRecursive + " fragments " + (timeRecursive / rounds / 1000000.0) + " ms (min " + (minRecursive / 1000000.0) + " ms)");
+				System.out.println("\tatom container: " + fragsContainer + " fragments " + (timeContainer / rounds / 1000000.0) + " ms (min " + (minContainer / 1000000.0) + " ms)");
+				System.out.println("\tbit set: " + fragsBitSet + " fragments " + (timeBitSet / rounds / 1000000.0) + " ms (min " + (minBitSet / 1000000.0) + " ms)");
+				totalRecursive += timeRecursive;
+				totalContainer += timeContainer;
+				totalBitSet += timeBitSet;
+			}
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+
+		System.out.println("Total atom container (recursive): " + (totalRecursive / rounds / 1000000.0) + " ms atom container: " + (totalContainer / rounds / 1000000.0) + " ms bit set: " + (totalBitSet / rounds / 1000000.0) + " ms");
+	}
+
+
+	/**
+	 * Parse the smiles and add explicit hydrogens.
+	 *
+	 * @param smiles the smiles
+	 *
+	 * @return the molecule
+	 *
+	 * @throws CDKException the CDK exception
+	 */
+	private static IAtomContainer getMolecule(String smiles) throws CDKException
+	{
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		IAtomContainer mol = sp.parseSmiles(smiles);
+		AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(mol);
+		CDKHydrogenAdder hAdder = CDKHydrogenAdder.getInstance(mol.getBuilder());
+		hAdder.addImplicitHydrogens(mol);
+		AtomContainerManipulator.convertImplicitToExplicitHydrogens(mol);
+		return mol;
+	}
+
+}
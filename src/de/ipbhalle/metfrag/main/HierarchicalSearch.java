@@ -6,6 +6,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -29,12 +30,14 @@ import de.ipbhalle.metfrag.keggWebservice.KeggWebservice;
 import de.ipbhalle.metfrag.massbankParser.Peak;
 import de.ipbhalle.metfrag.scoring.Scoring;
 import de.ipbhalle.metfrag.spectrum.AssignFragmentPeak;
-import de.ipbhalle.metfrag.spectrum.CleanUpPeakList;
+import de.ipbhalle.metfrag.spectrum.FragmentMassIndex;
+import de.ipbhalle.metfrag.spectrum.PeakList;
 import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
 import de.ipbhalle.metfrag.tools.DisplayStructure;
 import de.ipbhalle.metfrag.tools.GetKEGGIdentifier;
 import de.ipbhalle.metfrag.tools.MassBankData;
 import de.ipbhalle.metfrag.tools.PPMTool;
+import de.ipbhalle.metfrag.tools.PreprocessSpectraLive;
 import de.ipbhalle.metfrag.tools.Render;
 import de.ipbhalle.metfrag.tools.WritePDFTable;
 import de.ipbhalle.metfrag.read.Molfile;
@@ -52,7 +55,6 @@ public class HierarchicalSearch {
 	private boolean quickRedundancy = false;
 	private boolean pdf = false;
 	private boolean showDiagrams = false;
-	private Vector<IAtomContainer> foundHits;
 	private Vector<String> blackList;
 	private HashMap<Integer, ArrayList<String>> scoreMap = new HashMap<Integer, ArrayList<String>>();
 	private int foundPeaks = 0;
@@ -68,8 +70,9 @@ public class HierarchicalSearch {
     private boolean hydrogenTest = false;
 	
 	/**
-	 * Instantiates a new hierarchical search. Frag Search starts from the lowest collision energy
-	 * to the highest collision energy one after one.
+	 * Instantiates a new hierarchical search. Every candidate is fragmented once (up to the tree depth)
+	 * and the peak lists of all collision energies are matched against these fragments. The log contains
+	 * the scores per collision energy and the score of the merged peak list.
 	 * 
 	 * @param folder the folder
 	 * @param file the file
@@ -86,7 +89,6 @@ public class HierarchicalSearch {
 		this.quickRedundancy = sumFormulaRedundancy;
 		this.showDiagrams = showDiagrams;
 		this.pdf = pdf;
-		this.foundHits = new Vector<IAtomContainer>();
 		BlackList bl = new BlackList(sumFormulaRedundancy);
 		this.blackList = bl.getBlackList();
 		this.hydrogenTest = hydrogenTest;
@@ -160,11 +162,31 @@ public class HierarchicalSearch {
     }
 	
 	
+	/**
+	 * Gets the peaks of all collision energies sorted by mass. The shared fragment tree is built with
+	 * these peaks: the fragmenter prunes fragments lighter than its lowest peak, so with only the peaks
+	 * of the lowest collision energy the small fragments of the higher energies would be missing.
+	 * 
+	 * @param spectra the spectra
+	 * 
+	 * @return the peaks
+	 */
+	static Vector<Peak> getAllPeaks(Vector<WrapperSpectrum> spectra)
+	{
+		Vector<Peak> peaks = new Vector<Peak>();
+		for (WrapperSpectrum spectrum : spectra) {
+			peaks.addAll(spectrum.getPeakList());
+		}
+		Collections.sort(peaks);
+		return peaks;
+	}
+	
+	
 	/**
 	 * Process spectra in the following way:
-	 * Fragment each hit in KEGG starting with the lowest collision energy
-	 * If hits were found they are used for the next measurement as input and the original
-	 * molecule is not used. 
+	 * Fragment each hit in KEGG once and match the fragments against the peak lists of all
+	 * collision energies (one fragment index per hit). The scores of the collision energies are
+	 * summed up, the score of the merged peak list is logged.
 	 * 
 	 * @param folder the folder
 	 * @param file the file
@@ -227,11 +249,19 @@ public class HierarchicalSearch {
 		Vector<Peak> listOfPeaks = new Vector<Peak>();
 		
 		
+		//the cleaned peak lists of the collision energies and the merged peak list...the same for all candidates
+		PeakList[] energyPeakLists = new PeakList[spectra.size()];
+		double[][] energyWeights = new double[spectra.size()][];
+		for (int s = 0; s < spectra.size(); s++) {
+			energyPeakLists[s] = new PeakList(spectra.get(s).getPeakList()).getPeaksBelow(spectra.get(s).getExactMass());
+			energyWeights[s] = Scoring.getPeakWeights(energyPeakLists[s]);
+		}
+		PeakList mergedPeakList = new PeakList(PreprocessSpectraLive.mergePeaks(spectra, mzabs, mzppm)).getPeaksBelow(exactMass);
+		double[] mergedWeights = Scoring.getPeakWeights(mergedPeakList);
+		
 		//loop over all hits
 		for (int c = 0; c < candidates.size(); c++) {				
 			
-			this.foundHits = new Vector<IAtomContainer>();
-			
 			//get mol file from kegg....remove "cpd:"
 			String candidate = KeggWebservice.KEGGgetMol(candidates.get(c).substring(4), this.keggPath);
 			IAtomContainer molecule = null;
@@ -286,229 +316,174 @@ public class HierarchicalSearch {
             }
 	        
 	        
-	        //get peak list....it is reset if this is not the first run
-			Vector<Peak> peakList = spectra.get(0).getPeakList();
-			//create a new instance
-			Fragmenter fragmenter = new Fragmenter((Vector<Peak>)peakList.clone(), mzabs, mzppm, mode, breakAromaticRings, quickRedundancy, false, false);
+	        //the fragment tree is built once up to the max tree depth...the peak lists of all collision
+	        //energies are matched against the same fragments
+			Fragmenter fragmenter = new Fragmenter(getAllPeaks(spectra), mzabs, mzppm, mode, breakAromaticRings, quickRedundancy, false, false);
 
-	        
 	        double combinedScore = 0;
+	        double mergedScore = 0;
 	        int combinedHits = 0;
 	        int combinedPeakCount= 0;
 	        String peaks = "";
-	        combinedPeakCount = peakList.size();
-	        int count = 0;
+	        String energyScores = "";
 	        
-			boolean first = true;
-			//loop over the different collision energies
-			for (WrapperSpectrum spectrum : spectra) {
-				
-				List<IAtomContainer> l = null;
+			try
+			{
 				long start = System.currentTimeMillis();
-				
-				try
-				{					
-					if(first)
-					{
-				        try
-				        {
-				        	l = fragmenter.generateFragmentsInMemory(molecule, true, treeDepth);
-				        	count++;
-				        }
-				        catch(OutOfMemoryError e)
-				        {
-				        	System.out.println("OUT OF MEMORY ERROR! " + candidates.get(c).substring(4));
-				        	completeLog += "Error: " + candidates.get(c).substring(4) + " Message: " + e.getMessage();
-				        	continue;
-				        }
-				        first = false;
-					}
-					else
-					{
-						peakList = spectrum.getPeakList();
-						combinedPeakCount += peakList.size();
-						//set the current peak list...
-				        fragmenter.setPeakList((Vector<Peak>)peakList.clone());
-				        try
-				        {
-//				        	l = fragmenter.generateFragmentsHierarchical(foundHits, true);
-				        	System.err.println("REMOVED....no improvement!");
-				        	System.exit(1);
-				        	count++;
-				        }
-				        catch(OutOfMemoryError e)
-				        {
-				        	System.out.println("OUT OF MEMORY ERROR! " + candidates.get(c).substring(4));
-				        	completeLog += "Error: " + candidates.get(c).substring(4) + " Message: " + e.getMessage();
-				        	continue;
-				        }
-					}
-					
+				List<IAtomContainer> l = fragmenter.generateFragmentsInMemory(molecule, true, treeDepth);
+		        
+		        long time = System.currentTimeMillis() - start;
+		        System.out.println("Benötigte Zeit: " + time);
+		        System.out.println("Got " + l.size() + " fragments");
+		        System.out.println("Needed " + fragmenter.getNround() + " calls to generateFragments()");
+		        
+		        //the fragments are written once (folder of the lowest collision energy)
+		        String fragmentFolder = folder + file + "/" + candidates.get(c).substring(4) + "/" + spectra.get(0).getCollisionEnergy();
+		        new File(fragmentFolder).mkdir();
+		        
+		        for (int i = 0; i < l.size(); i++) 
+		        {		
 					
-			        
-			        long time = System.currentTimeMillis() - start;
-			        System.out.println("Benötigte Zeit: " + time);
-			        System.out.println("Got " + l.size() + " fragments");
-			        System.out.println("Needed " + fragmenter.getNround() + " calls to generateFragments()");
-			        
-			        new File(folder + file + "/" + candidates.get(c).substring(4) + "/" + spectrum.getCollisionEnergy()).mkdir();
-			        
-			        for (int i = 0; i < l.size(); i++) 
-			        {		
-						
-				        try {
-				           //write fragments to disk
-				           FileWriter w = new FileWriter(new File(folder + file + "/" + candidates.get(c).substring(4) + "/" + spectrum.getCollisionEnergy() + "/frag_" + i + ".mol"));
-				           MDLWriter mw = new MDLWriter(w);
-				           mw.write(new Molecule(l.get(i)));
-				           mw.close();
-				        }catch (IOException e) {
-				           System.out.println("IOException: " + e.toString());
-				           completeLog += "Error: " + candidates.get(c).substring(4) + " Message: " + e.getMessage();
-				        } 
-				        catch (Exception e) {
-				           System.out.println(e.toString());
-				           completeLog += "Error: " + candidates.get(c).substring(4) + " Message: " + e.getMessage();
-				        }
+			        try {
+			           //write fragments to disk
+			           FileWriter w = new FileWriter(new File(fragmentFolder + "/frag_" + i + ".mol"));
+			           MDLWriter mw = new MDLWriter(w);
+			           mw.write(new Molecule(l.get(i)));
+			           mw.close();
+			        }catch (IOException e) {
+			           System.out.println("IOException: " + e.toString());
+			           completeLog += "Error: " + candidates.get(c).substring(4) + " Message: " + e.getMessage();
+			        } 
+			        catch (Exception e) {
+			           System.out.println(e.toString());
+			           completeLog += "Error: " + candidates.get(c).substring(4) + " Message: " + e.getMessage();
 			        }
+		        }
+	        
+		        //Draw molecule and its fragments
+		        if (showDiagrams)
+		        	Render.Draw(molecule,l, "Original Molecule"); 
 		        
-			        //Draw molecule and its fragments
-			        if (showDiagrams)
-			        	Render.Draw(molecule,l, "Original Molecule"); 
+		        if(pdf)
+		        {
+			        //Create PDF Output
+			        l.add(0,molecule);
+		        	DisplayStructure ds1 = null;
+		        	//create pdf subfolder
+		        	new File(folder + file + "/" + candidates.get(c) + "pdf/").mkdir();
+		        	ds1 = new WritePDFTable(true, 300, 300, 0.9, 2, false, false, folder + file + "/" + candidates.get(c) + "pdf/");
+		        	for (int i = 0; i < l.size(); i++) {
+		                //ds = new displayStructure(false, 300, 300, 0.9, false, "PDF", "/home/basti/WorkspaceJava/TandemMSLookup/fragmenter/Test");
+		                assert ds1 != null;
+		                ds1.drawStructure(l.get(i), i);
+		    		}
 			        
-			        if(pdf)
-			        {
-				        //Create PDF Output
-				        l.add(0,molecule);
-			        	DisplayStructure ds1 = null;
-			        	//create pdf subfolder
-			        	new File(folder + file + "/" + candidates.get(c) + "pdf/").mkdir();
-			        	ds1 = new WritePDFTable(true, 300, 300, 0.9, 2, false, false, folder + file + "/" + candidates.get(c) + "pdf/");
-			        	for (int i = 0; i < l.size(); i++) {
-			                //ds = new displayStructure(false, 300, 300, 0.9, false, "PDF", "/home/basti/WorkspaceJava/TandemMSLookup/fragmenter/Test");
-			                assert ds1 != null;
-			                ds1.drawStructure(l.get(i), i);
-			    		}
-				        
-				        if (ds1 != null) ds1.close();
-			        }
-			     
-			
-			        
-					//now read the saved mol files
-					List<IAtomContainer> fragments = Molfile.Readfolder(folder + file + "/" + candidates.get(c).substring(4) + "/" + spectrum.getCollisionEnergy());
-					
-					List<IAtomContainer> fragmentsList = new ArrayList<IAtomContainer>();
-					for (int i = 0; i < fragments.size(); i++) {
-						fragmentsList.add(fragments.get(i));
-					}
-					
-					//get the original peak list again 
-					//spectrum = new SpectrumWrapper(folder + file + ".txt");
-					peakList = (Vector<Peak>)spectrum.getPeakList().clone();
-					//clean up peak list
-					CleanUpPeakList cList = new CleanUpPeakList(peakList);
-					Vector<Peak> cleanedPeakList = cList.getCleanedPeakList(spectrum.getExactMass());
-					
-					
-					//now find corresponding fragments to the mass
-					AssignFragmentPeak afp = new AssignFragmentPeak();
-					afp.setHydrogenTest(hydrogenTest);
-					afp.assignFragmentPeak(fragments, cleanedPeakList, mzabs, mzppm, spectrum.getMode(), false);					Vector<PeakMolPair> hits = afp.getHits();
-					Vector<PeakMolPair> hitsAll = afp.getAllHits();
-					
-					//add them to the list of already found fragments....they were found in the previous run 
-					//with a smaller collission energy
-					for (PeakMolPair peakMolPair : hitsAll) {
-						foundHits.add(peakMolPair.getFragment());
-					}
+			        if (ds1 != null) ds1.close();
+		        }
+		     
+				//now read the saved mol files
+				List<IAtomContainer> fragments = Molfile.Readfolder(fragmentFolder);
+				
+				//one pass over the fragments: they are indexed by mass once, every peak list is a range query
+				FragmentMassIndex fragmentIndex = new FragmentMassIndex(hydrogenTest, treeDepth);
+				//the peak lists are already cleaned up
+				fragmentIndex.addCompound(candidates.get(c).substring(4), fragments, Double.MAX_VALUE);
+				
+				//loop over the different collision energies
+				for (int s = 0; s < spectra.size(); s++) {
+					WrapperSpectrum spectrum = spectra.get(s);
+					combinedPeakCount += spectrum.getPeakList().size();
 					
-					combinedHits += ((combinedHits + hits.size()) - combinedHits);
-			        //Render.Draw(molecule, foundHits, "Found Hits"); 
+					FragmentMassIndex.Match match = fragmentIndex.match(energyPeakLists[s], mzabs, mzppm, spectrum.getMode());
+					int[] hitIndices = match.getHitIndices(0);
+					combinedHits += hitIndices.length;
 					
 					//now "real" scoring
-					Scoring score = new Scoring(cleanedPeakList);
-					double currentScore = score.computeScoring(afp.getHitsMZ());
+					double currentScore = Scoring.computeScore(energyWeights[s], hitIndices);
 					combinedScore += currentScore; 
+					energyScores += " " + spectrum.getCollisionEnergy() + ": " + currentScore;
 					
-					//check for last run and create the data for the log file
-					if(count == spectra.size())
-					{
-						//save score in hashmap...if there are several hits with the same score --> vector of strings
-						if(realScoreMap.containsKey(combinedScore))
-				        {
-				        	Vector<String> tempList = realScoreMap.get(combinedScore);
-				        	tempList.add(candidates.get(c).substring(4));
-				        	realScoreMap.put(combinedScore, tempList);
-				        }
-				        else
-				        {
-				        	Vector<String> temp = new Vector<String>();
-				        	temp.add(candidates.get(c).substring(4));
-				        	realScoreMap.put(combinedScore, temp);
-				        }
-						
-						
-						//save score in hashmap...if there are several hits with the same
-						//amount of identified peaks --> ArrayList
-						if(scoreMap.containsKey(combinedHits))
-				        {
-				        	ArrayList<String> tempList = scoreMap.get(combinedHits);
-				        	tempList.add(candidates.get(c).substring(4));
-				        	scoreMap.put(combinedHits, tempList);
-				        }
-				        else
-				        {
-				        	ArrayList<String> temp = new ArrayList<String>();
-				        	temp.add(candidates.get(c).substring(4));
-				        	scoreMap.put(combinedHits, temp);
-				        }
-					}
-				
 					//get all the identified peaks
-					for (int i = 0; i < hits.size(); i++) {
-						peaks += hits.get(i).getPeak().getMass() + " ";
-						listOfPeaks.add(hits.get(i).getPeak());
+					for (int i = 0; i < hitIndices.length; i++) {
+						Peak peak = energyPeakLists[s].getPeak(hitIndices[i]);
+						peaks += peak.getMass() + " ";
+						listOfPeaks.add(peak);
 						if(keggIdentifier.equals(candidates.get(c).substring(4)))
-							listOfPeaksCorresponding.add(hits.get(i).getPeak());
+							listOfPeaksCorresponding.add(peak);
 					}
 					
-					List<IAtomContainer> hitsListTest = new ArrayList<IAtomContainer>();
-					for (int i = 0; i < hits.size(); i++) {
-						List<IAtomContainer> hitsList = new ArrayList<IAtomContainer>();
-						hitsList.add(AtomContainerManipulator.removeHydrogens(hits.get(i).getFragment()));
-						hitsListTest.add(hits.get(i).getFragment());
-						//Render.Highlight(AtomContainerManipulator.removeHydrogens(molecule), hitsList , Double.toString(hits.get(i).getPeak()));
-					}
 					if (showDiagrams)
+					{
+						//the fragments of the hits are only needed for the diagrams
+						AssignFragmentPeak afp = new AssignFragmentPeak();
+						afp.setHydrogenTest(hydrogenTest);
+						afp.assignFragmentPeak(fragments, energyPeakLists[s].toVector(), mzabs, mzppm, spectrum.getMode(), false);
+						List<IAtomContainer> hitsListTest = new ArrayList<IAtomContainer>();
+						for (PeakMolPair hit : afp.getHits()) {
+							hitsListTest.add(hit.getFragment());
+						}
 						Render.Draw(molecule, hitsListTest , "Fragmente von: " + candidates.get(c));
+					}
 				}
-				catch(CDKException e)
-				{
-					System.out.println("CDK error!" + e.getMessage());
-					completeLog += "CDK Error! " + e.getMessage() + "File: " + candidates.get(c).substring(4);
-				}
-				catch(FileNotFoundException e)
-				{
-					System.out.println("File not found" + e.getMessage());
-					completeLog += "File not found error! "+ e.getMessage() + "File: " + candidates.get(c).substring(4);
-				}
-				catch(IOException e)
-				{
-					System.out.println("IO error: " + e.getMessage());
-					completeLog += "IO Error! "+ e.getMessage() + "File: " + candidates.get(c).substring(4);
-				}
-				catch(Exception e)
-				{
-					System.out.println("Error" + e.getMessage());
-					completeLog += "Error! "+ e.getMessage() + "File: " + candidates.get(c).substring(4);
-				}
-				catch(OutOfMemoryError e)
-				{
-					System.out.println("Out of memory: " + e.getMessage() + "\n" + e.getStackTrace());
-					System.gc();
-					completeLog += "Out of memory! "+ e.getMessage() + "File: " + candidates.get(c).substring(4);
-				}
+				
+				//score of the peaks of all collision energies merged
+				mergedScore = Scoring.computeScore(mergedWeights, fragmentIndex.match(mergedPeakList, mzabs, mzppm, mode).getHitIndices(0));
+				
+				//save score in hashmap...if there are several hits with the same score --> vector of strings
+				if(realScoreMap.containsKey(combinedScore))
+		        {
+		        	Vector<String> tempList = realScoreMap.get(combinedScore);
+		        	tempList.add(candidates.get(c).substring(4));
+		        	realScoreMap.put(combinedScore, tempList);
+		        }
+		        else
+		        {
+		        	Vector<String> temp = new Vector<String>();
+		        	temp.add(candidates.get(c).substring(4));
+		        	realScoreMap.put(combinedScore, temp);
+		        }
+				
+				
+				//save score in hashmap...if there are several hits with the same
+				//amount of identified peaks --> ArrayList
+				if(scoreMap.containsKey(combinedHits))
+		        {
+		        	ArrayList<String> tempList = scoreMap.get(combinedHits);
+		        	tempList.add(candidates.get(c).substring(4));
+		        	scoreMap.put(combinedHits, tempList);
+		        }
+		        else
+		        {
+		        	ArrayList<String> temp = new ArrayList<String>();
+		        	temp.add(candidates.get(c).substring(4));
+		        	scoreMap.put(combinedHits, temp);
+		        }
+			}
+			catch(CDKException e)
+			{
+				System.out.println("CDK error!" + e.getMessage());
+				completeLog += "CDK Error! " + e.getMessage() + "File: " + candidates.get(c).substring(4);
+			}
+			catch(FileNotFoundException e)
+			{
+				System.out.println("File not found" + e.getMessage());
+				completeLog += "File not found error! "+ e.getMessage() + "File: " + candidates.get(c).substring(4);
+			}
+			catch(IOException e)
+			{
+				System.out.println("IO error: " + e.getMessage());
+				completeLog += "IO Error! "+ e.getMessage() + "File: " + candidates.get(c).substring(4);
+			}
+			catch(Exception e)
+			{
+				System.out.println("Error" + e.getMessage());
+				completeLog += "Error! "+ e.getMessage() + "File: " + candidates.get(c).substring(4);
+			}
+			catch(OutOfMemoryError e)
+			{
+				System.out.println("OUT OF MEMORY ERROR! " + candidates.get(c).substring(4));
+				System.gc();
+				completeLog += "Out of memory! "+ e.getMessage() + "File: " + candidates.get(c).substring(4);
 			}
 			
 			//write things to log file
@@ -516,6 +491,7 @@ public class HierarchicalSearch {
 			allPeaks += combinedPeakCount;
 			completeLog += "\nFile: " + candidates.get(c).substring(4) + "\t #Peaks: " + combinedPeakCount + "\t #Found: " + combinedHits;
 			completeLog += "\tPeaks: " + peaks;
+			completeLog += "\tScores:" + energyScores + "\tMerged score: " + mergedScore;
 			
 		}
 		
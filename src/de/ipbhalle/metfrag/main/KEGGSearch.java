@@ -26,6 +26,8 @@ import org.openscience.cdk.tools.CDKHydrogenAdder;
 import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 import org.openscience.cdk.tools.manipulator.AtomTypeManipulator;
 
+import de.ipbhalle.metfrag.fragmenter.FragmentSink;
+import de.ipbhalle.metfrag.fragmenter.FragmentSinkMemory;
 import de.ipbhalle.metfrag.fragmenter.Fragmenter;
 import de.ipbhalle.metfrag.fragmenter.NeutralLoss;
 import de.ipbhalle.metfrag.keggWebservice.KeggWebservice;
@@ -375,11 +377,11 @@ public class KEGGSearch {
 			        
 			        Fragmenter fragmenter = new Fragmenter((Vector<Peak>)peakList.clone(), mzabs, mzppm, mode, breakAromaticRings, experimentalRedundancyCheck, neutralLossCheck, isOnlyBreakSelectedBonds);
 			        long start = System.currentTimeMillis();
-			        List<File> generatedFrags = null;
+			        FragmentSink generatedFrags = new FragmentSinkMemory();
 			        try
 			        {
-			        	generatedFrags = fragmenter.generateFragmentsEfficient(molecule, true, treeDepth, candidates.get(c));
-				        l = Molfile.ReadfolderTemp(generatedFrags);
+			        	fragmenter.generateFragmentsEfficient(molecule, true, treeDepth, generatedFrags);
+				        l = generatedFrags.getFragments();
 			        	
 //			        	l = fragmenter.generateFragments(molecule, true, treeDepth);
 			        	System.out.println("Candidate: " + candidates.get(c) + " Fragments: " + l.size());
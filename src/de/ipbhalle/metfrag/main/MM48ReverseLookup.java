@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
 import java.util.ArrayList;
@@ -27,10 +28,17 @@ import de.ipbhalle.metfrag.fragmenter.Fragmenter;
 import de.ipbhalle.metfrag.fragmenter.NeutralLoss;
 import de.ipbhalle.metfrag.massbankParser.Peak;
 import de.ipbhalle.metfrag.pubchem.PubChemWebService;
-import de.ipbhalle.metfrag.spectrum.AssignFragmentPeak;
-import de.ipbhalle.metfrag.spectrum.CleanUpPeakList;
+import de.ipbhalle.metfrag.spectrum.FragmentMassIndex;
+import de.ipbhalle.metfrag.spectrum.PeakList;
 import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
 
+/**
+ * Reverse lookup of the MM48 standards: every standard is fragmented once into a {@link FragmentMassIndex}
+ * and every peak list of the folder is read once and matched against all standards.
+ * <p/>
+ * Usage: MM48ReverseLookup mzabs mzppm [indexFile]...the fragment index is read from the index file
+ * if it exists and is built with the same hydrogen test and tree depth, otherwise it is rebuilt and written to it.
+ */
 public class MM48ReverseLookup {
 
 	/**
@@ -45,10 +53,13 @@ public class MM48ReverseLookup {
 		double mzabs = 0.0;
 		double mzppm = 0.0;
 		
+		File indexFile = null;
 		if(args.length > 1)
 		{
 			mzabs = Double.parseDouble(args[0]);
 			mzppm = Double.parseDouble(args[1]);
+			if(args.length > 2)
+				indexFile = new File(args[2]);
 		}
 		else
 		{
@@ -65,6 +76,33 @@ public class MM48ReverseLookup {
 			String file = "/vol/data/lcms/archive/MICROTOF-Q/cboettch/MM48/MM48.csv";
 			String folderPeakList = "/vol/data/lcms/archive/MICROTOF-Q/cboettch/MM48/microTOFQ/050309/PeakLists";
 			
+			boolean hydrogenTest = true;
+			int treeDepth = 2;
+			
+			//fragment the standards only if there is no index with the same settings
+			FragmentMassIndex index = null;
+			if(indexFile != null && indexFile.exists())
+			{
+				try
+				{
+					index = FragmentMassIndex.read(indexFile);
+				}
+				catch(IOException e)
+				{
+					System.err.println("Rebuild fragment index: " + e.getMessage());
+				}
+				if(index != null && !index.isBuiltWith(hydrogenTest, treeDepth))
+				{
+					System.err.println("Rebuild fragment index: " + indexFile + " is built with hydrogen test " + index.isHydrogenTest() + " and tree depth " + index.getTreeDepth());
+					index = null;
+				}
+				if(index != null)
+					System.out.println("Read fragment index: " + indexFile + " (" + index.getCompoundCount() + " compounds, " + index.getFragmentCount() + " fragments)");
+			}
+			boolean fragment = index == null;
+			if(fragment)
+				index = new FragmentMassIndex(hydrogenTest, treeDepth);
+			
 			FileInputStream fstream = new FileInputStream(new File(file));
 		    // Get the object of DataInputStream
 		    DataInputStream in = new DataInputStream(fstream);
@@ -116,16 +154,13 @@ public class MM48ReverseLookup {
     	      }
 		      
 		      
+    	      compoundToPubchem.put(number, Integer.parseInt(pubchemID));
+    	      if(!fragment)
+    	    	  continue;
+		      
 		      PubChemWebService pubchemService = new PubChemWebService();
 			  IAtomContainer molecule = pubchemService.getSingleMol(pubchemID);
 		      
-		      System.out.println("\nNow match spectra\n");
-		      File f = new File(folderPeakList);
-		      File files[] = f.listFiles();
-    	      
-    	      
-    	      compoundToPubchem.put(number, Integer.parseInt(pubchemID));
-		      
 		      //now fragment the molecule
 	    	  try
 		      {
@@ -153,7 +188,7 @@ public class MM48ReverseLookup {
 		      List<IAtomContainer> l = null;
 		      try
 		      {
-		    	  l = fragmenter.generateFragmentsInMemory(molecule, true, 2);
+		    	  l = fragmenter.generateFragmentsInMemory(molecule, true, treeDepth);
 		      }
 		      catch(OutOfMemoryError e)
 		      {
@@ -161,54 +196,49 @@ public class MM48ReverseLookup {
 		    	  continue;
 		      }
 	        
-		      List<IAtomContainer> fragments = l; 
 		      
-		      Map<String, Integer> fileToHits = new HashMap<String, Integer>();
-    	      for(int i=0;i<files.length;i++)
-    	      {
-    	    	  if(files[i].isFile())
-    	    	  {
-    	    		  
-    	    		  FileInputStream fstream1 = new FileInputStream(files[i]);
-    	    		  // Get the object of DataInputStream
-    	    		  DataInputStream in1 = new DataInputStream(fstream1);
-    	    		  BufferedReader br1 = new BufferedReader(new InputStreamReader(in1));
-    	    		  String peakList = "";
-    	    		  while ((strLine = br1.readLine()) != null)   {
-    	    			  peakList += strLine + "\n";
-    	    		  } 
-    	    		  in1.close();
-    	    		  fstream1.close();
-	    		    	
-    	    		  WrapperSpectrum spectrum = new WrapperSpectrum(peakList, 1, parentMass);
-    	    		  //get the original peak list again
-    	    		  Vector<Peak> peakListParsed = spectrum.getPeakList();
-	    				
-	    				
-    	    		  //clean up peak list
-    	    		  CleanUpPeakList cList = new CleanUpPeakList((Vector<Peak>) peakListParsed.clone());
-    	    		  Vector<Peak> cleanedPeakList = cList.getCleanedPeakList(spectrum.getExactMass());
-	    				
-	    				
-    	    		  //now find corresponding fragments to the mass
-    	    		  AssignFragmentPeak afp = new AssignFragmentPeak();
-    	    		  afp.setHydrogenTest(true);
-    	    		  afp.assignFragmentPeak(fragments, cleanedPeakList, mzabs, mzppm, spectrum.getMode(), true);
-    	    		  Vector<PeakMolPair> hits = afp.getHits();
-    	    		  
-    	    		  //add to result map
-    	    		  fileToHits.put(files[i].getName(), hits.size());
-	    			  
-//    	    		  System.out.println("File name: " + files[i].getName() + " Pubchem: " + pubchemID + " Hits: " + hits.size());
-    	    	  }
-    	      }
-    	      
-    	      compoundToFile.put(number, fileToHits);
-
+		      //only the masses are kept
+		      index.addCompound(number.toString(), l, parentMass);
     	    }
     	    //Close the input stream
     	    in.close();
     	    fstream.close();
+    	    
+    	    if(fragment && indexFile != null)
+    	    	index.write(indexFile);
+    	    
+    	    for (int c = 0; c < index.getCompoundCount(); c++) {
+    	    	compoundToFile.put(Integer.parseInt(index.getCompound(c)), new HashMap<String, Integer>());
+			}
+    	    
+    	    System.out.println("\nNow match spectra\n");
+    	    File f = new File(folderPeakList);
+    	    File files[] = f.listFiles();
+    	    for(int i=0;i<files.length;i++)
+    	    {
+    	    	if(!files[i].isFile())
+    	    		continue;
+    	    	
+    	    	FileInputStream fstream1 = new FileInputStream(files[i]);
+    	    	// Get the object of DataInputStream
+    	    	DataInputStream in1 = new DataInputStream(fstream1);
+    	    	BufferedReader br1 = new BufferedReader(new InputStreamReader(in1));
+    	    	StringBuilder peakList = new StringBuilder();
+    	    	while ((strLine = br1.readLine()) != null)   {
+    	    		peakList.append(strLine).append("\n");
+    	    	} 
+    	    	in1.close();
+    	    	fstream1.close();
+    	    	
+    	    	//the peaks above the parent mass of a standard are skipped in the index (clean up peak list)
+    	    	WrapperSpectrum spectrum = new WrapperSpectrum(peakList.toString(), 1, 0.0);
+    	    	FragmentMassIndex.Match match = index.match(new PeakList(spectrum.getPeakList()), mzabs, mzppm, spectrum.getMode());
+    	    	
+    	    	//add to result map
+    	    	for (int c = 0; c < match.getCompoundCount(); c++) {
+    	    		compoundToFile.get(Integer.parseInt(match.getCompound(c))).put(files[i].getName(), match.getHitCount(c));
+				}
+    	    }
         }
 		catch (Exception e) {
 			e.printStackTrace();
@@ -222,6 +252,9 @@ public class MM48ReverseLookup {
 		for (Integer compound : compoundToPubchem.keySet()) {
 			//get map storing for each file the number of hits
 			Map<String, Integer> tempFileHits = compoundToFile.get(compound);
+			//not fragmented
+			if(tempFileHits == null)
+				continue;
 			//for each compound check every file and the maximum number of hits!
 			for (String file : tempFileHits.keySet()) {
 				Integer hits = tempFileHits.get(file);
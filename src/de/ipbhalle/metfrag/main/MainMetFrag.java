@@ -17,6 +17,11 @@ import java.util.HashMap;
 import java.util.Vector;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.FileHandler;
 import java.util.logging.Handler;
 import java.util.logging.LogManager;
@@ -131,226 +136,105 @@ public class MainMetFrag {
 		if(c.isFolderRead())
 		{
 			//add comment to log file
-			completeLog += c.getComment() + "\n\n\n"; 
+			String comment = c.getComment() + "\n\n\n"; 
 
 			//timer
-			long start = 0;
-		    long end = 0;
 		    long sum = 0;
+		    String runDate = dateFormat.format(date);
 		    
 		    PreprocessSpectraLive ppLive = new PreprocessSpectraLive(c.getFolder(), c.getMzabs(), c.getMzppm());
 		    Vector<WrapperSpectrum> mergedSpectra = ppLive.getMergedSpectra();
 		    
+		    if(!c.isKEGG() && !c.isPubChem() && c.isHierarchical())
+		    {
+		    	System.err.println("Not implemented with hierarchical option");
+		    	System.exit(0);
+		    }
 		    
-		    for (WrapperSpectrum spectrum : mergedSpectra) {
-		    	try
-				{		
-					//create a buffered reader that connects to the console, we use it so we can read lines
-		            System.out.println("Current Date Time : " + dateFormat.format(date));
-		            String path = c.getFolder() + spectrum.getFilename();
-					new File(path).mkdir();
-					//PrintWriter out = new PrintWriter(new FileWriter(folder + file + "/" + dateFormat.format(date) + "/ConsoleOutput.txt"));
-					
-					
-					// initialize logging to go to rolling log file
-			        LogManager logManager = LogManager.getLogManager();
-			        logManager.reset();
-
-			        // log file max size 10K, 3 rolling files, append-on-open
-			        Handler fileHandler = new FileHandler(c.getFolder() + spectrum.getFilename() + "/log_" + dateFormat.format(date), 10000000, 1, true);
-			        fileHandler.setFormatter(new SimpleFormatter());
-			        Logger.getLogger("").addHandler(fileHandler);        
-
-					// preserve old stdout/stderr streams in case they might be useful
-					PrintStream stdout = System.out;
-				
-					// now rebind stdout/stderr to logger
-					Logger logger;
-					LoggingOutputStream los;
-
-					logger = Logger.getLogger("stdout");
-					los = new LoggingOutputStream(logger, StdOutErrLevel.STDOUT);
-					System.setOut(new PrintStream(los, true));
+		    //stdout and stderr of every spectrum go to its own log file
+		    SpectrumLog.install();
+		    
+		    //several spectra at once...the candidates of all spectra are searched in one shared pool
+		    int spectrumThreads = Math.max(1, c.getSpectrumThreads());
+		    ExecutorService spectrumExecutor = Executors.newFixedThreadPool(spectrumThreads);
+		    ExecutorService searchExecutor = null;
+		    if(spectrumThreads > 1)
+		    	searchExecutor = Executors.newFixedThreadPool(c.getSearchThreads() > 0 ? c.getSearchThreads() : Runtime.getRuntime().availableProcessors());
+		    
+		    try
+		    {
+			    List<Future<SpectrumResult>> results = new ArrayList<Future<SpectrumResult>>();
+			    for (WrapperSpectrum spectrum : mergedSpectra) {
+			    	results.add(spectrumExecutor.submit(new SpectrumSearch(spectrum, runDate, searchExecutor)));
+			    }
+			    spectrumExecutor.shutdown();
+		    
+			    //the logs are written in the order of the spectra
+			    for (Future<SpectrumResult> future : results) {
+			    	SpectrumResult result = null;
+			    	try {
+			    		result = future.get();
+			    	} catch (InterruptedException e) {
+			    		System.err.println("Interrupted! " + e.getMessage());
+			    		spectrumExecutor.shutdownNow();
+			    		break;
+			    	} catch (ExecutionException e) {
+			    		System.err.println("Error in spectrum search! " + e.getCause());
+			    		e.getCause().printStackTrace();
+			    		continue;
+			    	}
+		    	
+			    	sum += result.time;
+			    	if(result.hierarchicalSearch != null)
+			    		hs = result.hierarchicalSearch;
+			    	completeLog = result.completeLog;
+			    	histogramCompare += result.histogramCompare;
+			    	histogram += result.histogram;
+			    	histogramReal += result.histogramReal;
 				
-					logger = Logger.getLogger("stderr");
-					los= new LoggingOutputStream(logger, StdOutErrLevel.STDERR);
-					System.setErr(new PrintStream(los, true));
-
-			        
-			      
-			        //things to log BEGIN ================================================================
-					MainMetFrag test = new MainMetFrag();
-					
-					//take time
-					start = System.currentTimeMillis();
-					//kegg or massbank proof of concept						
-					if(c.isKEGG())
-					{
-						if(c.isHierarchical())
-						{
-							hs = new HierarchicalSearch(c.getFolder(), spectrum.getFilename().substring(0, 8), c.getMzabs(), c.getMzppm(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.isShowDiagrams(), c.isPdf(), c.getTreeDepth(), c.getKeggPath(), c.isHydrogenTest());
-						}
-						else
-						{
-							ks = new KEGGSearch(c.getFolder(), spectrum, c.getMzabs(), c.getMzppm(), c.isPdf(), c.isShowDiagrams(), c.isRecreateFrags(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.getUsername(), c.getPassword(), c.getJdbc(), c.getTreeDepth(), c.isHydrogenTest(), c.getKeggPath(), c.isNeutralLossAdd(), c.isBondEnergyScoring(), c.isOnlyBreakSelectedBonds());
-						}
-					}
-					else if(c.isPubChem())
+					try
 					{
-						try {
-							//ps = new PubChemSearch(c.getFolder(), spectrum, c.getMzabs(), c.getMzppm(), c.getSearchPPM(), c.isPdf(), c.isShowDiagrams(), c.isRecreateFrags(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.getUsername(), c.getPassword(), c.getJdbc(), c.getTreeDepth(), c.isHydrogenTest());
-							psParallel = new PubChemSearchParallel(c.getFolder(), spectrum, c.getMzabs(), c.getMzppm(), c.getSearchPPM(), c.isPdf(), c.isShowDiagrams(), c.isRecreateFrags(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.getUsername(), c.getPassword(), c.getJdbc(), c.getTreeDepth(), c.isHydrogenTest(), c.isNeutralLossAdd(), c.isBondEnergyScoring(), c.isOnlyBreakSelectedBonds());
-						} catch (NumberFormatException e) {
-							e.printStackTrace();
-						} catch (RemoteException e) {
-							e.printStackTrace();
-						} catch (InvalidSmilesException e) {
-							e.printStackTrace();
-						} catch (ServiceException e) {
-							e.printStackTrace();
-						} catch (ClassNotFoundException e) {
-							e.printStackTrace();
-						} catch (SQLException e) {
-							e.printStackTrace();
-						} catch (CDKException e) {
-							e.printStackTrace();
-						}					
-					}
-					else
-					{
-						if(c.isHierarchical())
-						{
-							System.err.println("Not implemented with hierarchical option");
-							System.exit(0);
-						}
-						
-					}
-					end = System.currentTimeMillis() - start;
-					
-					if(c.isHierarchical())
-					{
-						completeLog = hs.getCompleteLog();
-						completeLog += "\t Time: " + end + "\n Frags Generated: " + fragsCount;
-						histogramCompare += hs.getHistogramCompare() + "\t" + end;
-						histogram += hs.getHistogram() + "\t" + end;
-						histogramReal += hs.getHistogramReal() + "\t" + end;
-//						histogramPeaks += hs.getHistogramPeaks();
-//						histogramPeaksCorresponding += hs.getHistogramPeaksReal();
-//						histogramPeaksAll += hs.getHistogramPeaksAll();
+						new File(c.getFolder() + "logs/").mkdir();
+						File outFile = new File(c.getFolder() + "logs/" + runDate + "_log.txt");
+			            FileWriter out = new FileWriter(outFile, true);
+			            out.write(result.completeLog);
+			            out.close();
+		            
+		            
+			            //write peak data of the correct compounds to file
+			            FileWriter out1 = new FileWriter(c.getFolder() + "logs/" + date + "_histCompare.txt", true);
+			            out1.write(result.histogramCompare);
+			            out1.close();
+		            
+			            //write peak data of all explained peaks to file
+			            FileWriter out2 = new FileWriter(c.getFolder() + "logs/" + date + "_histEasy.txt", true);
+			            out2.write(result.histogram);
+			            out2.close();
+		            
+			            //write peak data of all explained peaks to file
+			            FileWriter out3 = new FileWriter(c.getFolder() + "logs/" + date + "_histRealScoring.txt", true);
+			            out3.write(result.histogramReal);
+			            out3.close();
 					}
-					else if(c.isKEGG())
+					catch (FileNotFoundException ex)
 					{
-						completeLog = ks.getCompleteLog();
-						completeLog += "\t Time: " + end + "\n Frags Generated: " + fragsCount;
-						histogramCompare = ks.getHistogramCompare() + "\t" + end;
-						histogram = ks.getHistogram() + "\t" + end;
-						histogramReal = ks.getHistogramReal() + "\t" + end;
-//						histogramPeaks += ks.getHistogramPeaks();
-//						histogramPeaksCorresponding += ks.getHistogramPeaksReal();
-//						histogramPeaksAll += ks.getHistogramPeaksAll();
+						System.out.print("File not found: " + ex.getMessage());
 					}
-					else if(c.isPubChem())
+					catch (IOException ex)
 					{
-						completeLog = psParallel.getCompleteLog();
-						completeLog += "\t Time: " + end + "\n Frags Generated: " + fragsCount;
-						histogramCompare = psParallel.getHistogramCompare() + "\t" + end;
-						histogram = psParallel.getHistogram() + "\t" + end;
-						histogramReal = psParallel.getHistogramReal() + "\t" + end;
-//						histogramPeaks += ps.getHistogramPeaks();
-//						histogramPeaksCorresponding += ps.getHistogramPeaksReal();
-//						histogramPeaksAll += ps.getHistogramPeaksAll();
+						System.out.print("IO Error: " + ex.getMessage());
 					}
-					
-		            sum += end;
-					
-		            
-		            //things to log END ====================================================================      
-			        // and output on the original stdout				        
-			        stdout.println("Finished LOG!!! " + spectrum.getFilename());
-
-			        BufferedReader reader = new BufferedReader(new FileReader(c.getFolder() + spectrum.getFilename() + "/log_" + dateFormat.format(date)));
-				  	String line;
-				  	// Create file 
-				  	FileWriter fstream = new FileWriter(c.getFolder() + spectrum.getFilename() + "/logFile_" + dateFormat.format(date) + ".txt");
-			  	    BufferedWriter out = new BufferedWriter(fstream);
-			  	    
-			  	    while ((line = reader.readLine()) != null)
-				  	{
-				  	  if (line.length() > 5)
-				  	  {
-					  	  if(line.startsWith("STDOUT") || line.startsWith("STDERR"))
-					  	  {
-					  	    out.write(line + "\n");
-					  	  }
-				  	  }
-				  	}
-				  	out.close();
-				  	
-			
-				}
-				catch(IOException e)
-				{
-					System.out.println("Error during reading/writing" + e.getMessage());
 				}
-				
-				
-				try
-				{
-					new File(c.getFolder() + "logs/").mkdir();
-					File outFile = new File(c.getFolder() + "logs/" + dateFormat.format(date) + "_log.txt");
-//					File histogramAllPeaks = new File(c.getFolder() + "logs/" + dateFormat.format(date) + "_AllPeaksInclusive.txt");
-//					File histogramAllPeaksExclusive = new File(c.getFolder() + "logs/" + dateFormat.format(date) + "_AllPeaksExclusive.txt");
-//					File histogramFoundPeaks = new File(c.getFolder() + "logs/" + dateFormat.format(date) + "_FoundPeaks.txt");
-		            FileWriter out = new FileWriter(outFile, true);
-		            out.write(completeLog);
-		            out.close();
-		            
-		            
-		            //write peak data of the correct compounds to file
-		            FileWriter out1 = new FileWriter(c.getFolder() + "logs/" + date + "_histCompare.txt", true);
-		            out1.write(histogramCompare);
-		            out1.close();
-		            
-		            //write peak data of all explained peaks to file
-		            FileWriter out2 = new FileWriter(c.getFolder() + "logs/" + date + "_histEasy.txt", true);
-		            out2.write(histogram);
-		            out2.close();
-		            
-		            //write peak data of all explained peaks to file
-		            FileWriter out3 = new FileWriter(c.getFolder() + "logs/" + date + "_histRealScoring.txt", true);
-		            out3.write(histogramReal);
-		            out3.close();
-		            
-//		            //write peak data of the correct compounds to file
-//		            FileWriter out1 = new FileWriter(histogramAllPeaksExclusive);
-//		            out1.write(histogramPeaks);
-//		            out1.close();
-//		            
-//		            //write peak data of all explained peaks to file
-//		            FileWriter out2 = new FileWriter(histogramFoundPeaks);
-//		            out2.write(histogramPeaksCorresponding);
-//		            out2.close();
-//		            
-//		          //write peak data of all explained peaks to file
-//		            FileWriter out3 = new FileWriter(histogramAllPeaks);
-//		            out3.write(histogramPeaksAll);
-//		            out3.close();
-		            
-				}
-				catch (FileNotFoundException ex)
-				{
-					System.out.print("File not found: " + ex.getMessage());
-				}
-				catch (IOException ex)
-				{
-					System.out.print("IO Error: " + ex.getMessage());
-				}
-				
-				
-			}
-			
-					
+		    }
+		    finally
+		    {
+		    	//all spectra are finished (or failed)...stop the worker threads of both pools
+		    	spectrumExecutor.shutdownNow();
+		    	if(searchExecutor != null)
+		    		searchExecutor.shutdownNow();
+		    }
 			
+			completeLog = comment + completeLog;
 			if(c.isHierarchical())
 			{
 				completeLog += "\n\n\n============================================================================";
@@ -375,29 +259,10 @@ public class MainMetFrag {
 			try
 			{
 				new File(c.getFolder() + "logs/").mkdir();
-				File outFile = new File(c.getFolder() + "logs/" + dateFormat.format(date) + "_log.txt");
-//				File histogramAllPeaks = new File(c.getFolder() + "logs/" + dateFormat.format(date) + "_AllPeaksInclusive.txt");
-//				File histogramAllPeaksExclusive = new File(c.getFolder() + "logs/" + dateFormat.format(date) + "_AllPeaksExclusive.txt");
-//				File histogramFoundPeaks = new File(c.getFolder() + "logs/" + dateFormat.format(date) + "_FoundPeaks.txt");
+				File outFile = new File(c.getFolder() + "logs/" + runDate + "_log.txt");
 	            FileWriter out = new FileWriter(outFile, true);
 	            out.write(completeLog);
 	            out.close();
-	            
-	            //write peak data of the correct compounds to file
-//	            FileWriter out1 = new FileWriter(histogramAllPeaksExclusive);
-//	            out1.write(histogramPeaks);
-//	            out1.close();
-//	            
-//	            //write peak data of all explained peaks to file
-//	            FileWriter out2 = new FileWriter(histogramFoundPeaks);
-//	            out2.write(histogramPeaksCorresponding);
-//	            out2.close();
-//	            
-//	          //write peak data of all explained peaks to file
-//	            FileWriter out3 = new FileWriter(histogramAllPeaks);
-//	            out3.write(histogramPeaksAll);
-//	            out3.close();
-	            
 			}
 			catch (FileNotFoundException ex)
 			{
@@ -438,7 +303,7 @@ public class MainMetFrag {
 				try
 				{
 					WrapperSpectrum spectrum = new WrapperSpectrum(c.getFolder() + c.getFile() + ".txt");
-					psParallel = new PubChemSearchParallel(c.getFolder(), spectrum, c.getMzabs(), c.getMzppm(), c.getSearchPPM(), c.isPdf(), c.isShowDiagrams(), c.isRecreateFrags(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.getUsername(), c.getPassword(), c.getJdbc(), c.getTreeDepth(), c.isHydrogenTest(), c.isNeutralLossAdd(), c.isBondEnergyScoring(), c.isOnlyBreakSelectedBonds());
+					psParallel = new PubChemSearchParallel(c.getFolder(), spectrum, c.getMzabs(), c.getMzppm(), c.getSearchPPM(), c.isPdf(), c.isShowDiagrams(), c.isRecreateFrags(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.getUsername(), c.getPassword(), c.getJdbc(), c.getTreeDepth(), c.isHydrogenTest(), c.isNeutralLossAdd(), c.isBondEnergyScoring(), c.isOnlyBreakSelectedBonds(), c.isStreamingMatching(), c.isBitSetFragments(), c.getFragmenterThreads(), c.getPreprocessCacheDir(), c.getPreprocessCacheSize(), c.getFragmentCacheDir(), c.isPeakPruning(), c.getLoaderThreads(), c.getSearchThreads(), c.getCandidateQueueSize(), c.getMassIndexFile(), null);
 				} catch (NumberFormatException e) {
 					e.printStackTrace();
 				} catch (RemoteException e) {
@@ -509,4 +374,137 @@ public class MainMetFrag {
 		}
 		
 	}
+	
+	
+	/**
+	 * The results of one spectrum in folder mode.
+	 */
+	private static class SpectrumResult {
+		
+		private long time = 0;
+		private String completeLog = "";
+		private String histogramCompare = "";
+		private String histogram = "";
+		private String histogramReal = "";
+		private HierarchicalSearch hierarchicalSearch = null;
+	}
+	
+	
+	/**
+	 * Searches one spectrum in folder mode. The output of the search (and of all threads started by it)
+	 * goes to the log file of the spectrum.
+	 */
+	private static class SpectrumSearch implements Callable<SpectrumResult> {
+		
+		private WrapperSpectrum spectrum;
+		private String runDate;
+		private ExecutorService searchExecutor;
+		
+		/**
+		 * Instantiates a new spectrum search.
+		 * 
+		 * @param spectrum the spectrum
+		 * @param runDate the date of the run (log file names)
+		 * @param searchExecutor the search pool shared by the spectra (null: own pool per spectrum)
+		 */
+		private SpectrumSearch(WrapperSpectrum spectrum, String runDate, ExecutorService searchExecutor)
+		{
+			this.spectrum = spectrum;
+			this.runDate = runDate;
+			this.searchExecutor = searchExecutor;
+		}
+		
+		public SpectrumResult call() throws IOException
+		{
+			SpectrumResult result = new SpectrumResult();
+			
+			System.out.println("Current Date Time : " + runDate + " " + spectrum.getFilename());
+            String path = c.getFolder() + spectrum.getFilename();
+			new File(path).mkdir();
+			
+			SpectrumLog log = new SpectrumLog(new File(path + "/logFile_" + runDate + ".txt"));
+			log.bind();
+			try
+			{
+				//things to log BEGIN ================================================================
+				HierarchicalSearch hs = null;
+				KEGGSearch ks = null;
+				PubChemSearchParallel psParallel = null;
+				
+				//take time
+				long start = System.currentTimeMillis();
+				//kegg or massbank proof of concept						
+				if(c.isKEGG())
+				{
+					if(c.isHierarchical())
+					{
+						hs = new HierarchicalSearch(c.getFolder(), spectrum.getFilename().substring(0, 8), c.getMzabs(), c.getMzppm(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.isShowDiagrams(), c.isPdf(), c.getTreeDepth(), c.getKeggPath(), c.isHydrogenTest());
+					}
+					else
+					{
+						ks = new KEGGSearch(c.getFolder(), spectrum, c.getMzabs(), c.getMzppm(), c.isPdf(), c.isShowDiagrams(), c.isRecreateFrags(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.getUsername(), c.getPassword(), c.getJdbc(), c.getTreeDepth(), c.isHydrogenTest(), c.getKeggPath(), c.isNeutralLossAdd(), c.isBondEnergyScoring(), c.isOnlyBreakSelectedBonds());
+					}
+				}
+				else if(c.isPubChem())
+				{
+					try {
+						psParallel = new PubChemSearchParallel(c.getFolder(), spectrum, c.getMzabs(), c.getMzppm(), c.getSearchPPM(), c.isPdf(), c.isShowDiagrams(), c.isRecreateFrags(), c.isBreakAromaticRings(), c.isSumFormulaRedundancyCheck(), c.getUsername(), c.getPassword(), c.getJdbc(), c.getTreeDepth(), c.isHydrogenTest(), c.isNeutralLossAdd(), c.isBondEnergyScoring(), c.isOnlyBreakSelectedBonds(), c.isStreamingMatching(), c.isBitSetFragments(), c.getFragmenterThreads(), c.getPreprocessCacheDir(), c.getPreprocessCacheSize(), c.getFragmentCacheDir(), c.isPeakPruning(), c.getLoaderThreads(), c.getSearchThreads(), c.getCandidateQueueSize(), c.getMassIndexFile(), searchExecutor);
+					} catch (NumberFormatException e) {
+						e.printStackTrace();
+					} catch (RemoteException e) {
+						e.printStackTrace();
+					} catch (InvalidSmilesException e) {
+						e.printStackTrace();
+					} catch (ServiceException e) {
+						e.printStackTrace();
+					} catch (ClassNotFoundException e) {
+						e.printStackTrace();
+					} catch (SQLException e) {
+						e.printStackTrace();
+					} catch (CDKException e) {
+						e.printStackTrace();
+					}					
+				}
+				result.time = System.currentTimeMillis() - start;
+				long end = result.time;
+				
+				if(c.isHierarchical())
+				{
+					result.hierarchicalSearch = hs;
+					result.completeLog = hs.getCompleteLog();
+					result.completeLog += "\t Time: " + end + "\n Frags Generated: " + fragsCount;
+					result.histogramCompare = hs.getHistogramCompare() + "\t" + end;
+					result.histogram = hs.getHistogram() + "\t" + end;
+					result.histogramReal = hs.getHistogramReal() + "\t" + end;
+				}
+				else if(c.isKEGG())
+				{
+					result.completeLog = ks.getCompleteLog();
+					result.completeLog += "\t Time: " + end + "\n Frags Generated: " + fragsCount;
+					result.histogramCompare = ks.getHistogramCompare() + "\t" + end;
+					result.histogram = ks.getHistogram() + "\t" + end;
+					result.histogramReal = ks.getHistogramReal() + "\t" + end;
+				}
+				else if(c.isPubChem() && psParallel != null)
+				{
+					result.completeLog = psParallel.getCompleteLog();
+					result.completeLog += "\t Time: " + end + "\n Frags Generated: " + fragsCount;
+					result.histogramCompare = psParallel.getHistogramCompare() + "\t" + end;
+					result.histogram = psParallel.getHistogram() + "\t" + end;
+					result.histogramReal = psParallel.getHistogramReal() + "\t" + end;
+				}
+				//things to log END ====================================================================
+			}
+			finally
+			{
+				SpectrumLog.unbind();
+				log.close();
+			}
+			
+	        // and output on the original stdout
+	        System.out.println("Finished LOG!!! " + spectrum.getFilename());
+			return result;
+		}
+	}
+	
 }
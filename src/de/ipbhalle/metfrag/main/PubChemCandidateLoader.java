@@ -0,0 +1,210 @@
+package de.ipbhalle.metfrag.main;
+
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.InvalidSmilesException;
+import org.openscience.cdk.graph.ConnectivityChecker;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import de.ipbhalle.metfrag.molDatabase.CandidateSource;
+
+
+/**
+ * The first stage of the candidate pipeline of the {@link PubChemSearchParallel}: loads the candidates
+ * from the local PubChem database (or the mass index), parses the SMILES and adds the hydrogens. The loaded candidates are
+ * put into a bounded queue...the loader blocks if the search threads can't keep up, so only a few
+ * molecules are kept in memory. Several loaders can share one candidate list, every loader takes
+ * {@link #BATCH_SIZE} candidates at once (one query) and puts {@link #END} into the queue when there
+ * are no candidates left.
+ */
+public class PubChemCandidateLoader implements Runnable {
+
+	//marks the end of the candidates of one loader
+	public static final LoadedCandidate END = new LoadedCandidate(-1, null, null, null, "");
+	//candidates fetched with one query
+	public static final int BATCH_SIZE = 50;
+
+	private List<String> candidates;
+	private AtomicInteger nextCandidate;
+	private BlockingQueue<LoadedCandidate> queue;
+	private CandidateSource pubchem;
+	private SmilesParser smilesParser = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+
+
+	/**
+	 * Instantiates a new candidate loader.
+	 *
+	 * @param candidates the candidates (shared by all loaders)
+	 * @param nextCandidate the index of the next candidate to load (shared by all loaders)
+	 * @param queue the bounded queue of the loaded candidates
+	 * @param pubchem the candidate source (thread safe)
+	 */
+	public PubChemCandidateLoader(List<String> candidates, AtomicInteger nextCandidate, BlockingQueue<LoadedCandidate> queue, CandidateSource pubchem)
+	{
+		this.candidates = candidates;
+		this.nextCandidate = nextCandidate;
+		this.queue = queue;
+		this.pubchem = pubchem;
+	}
+
+
+	@Override public void run()
+	{
+		try
+		{
+			int start;
+			while((start = nextCandidate.getAndAdd(BATCH_SIZE)) < candidates.size())
+			{
+				int end = Math.min(start + BATCH_SIZE, candidates.size());
+				Map<String, String> smiles = null;
+				String error = null;
+				try {
+					smiles = pubchem.getSmiles(candidates.subList(start, end), false);
+				} catch (SQLException e) {
+					System.out.println("Error SQL!!! " + e.getMessage());
+					e.printStackTrace();
+					error = "Error SQL!!! " + e.getMessage() + " Candidate: ";
+				} catch (Exception e) {
+					System.out.println("Error!!! " + e.getMessage());
+					e.printStackTrace();
+					error = "Error!!! " + e.getMessage() + " Candidate: ";
+				}
+				
+				for (int i = start; i < end; i++) {
+					if(error != null)
+						queue.put(new LoadedCandidate(i, candidates.get(i), null, null, error + candidates.get(i) + "\n"));
+					else
+						queue.put(load(i, smiles.get(candidates.get(i))));
+				}
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			//the search waits for the end of every loader
+			try {
+				queue.put(END);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+
+	/**
+	 * Parse one candidate and add the hydrogens.
+	 *
+	 * @param index the index of the candidate
+	 * @param smiles the smiles of the candidate (null if it is not stored in the database or not chonsp)
+	 *
+	 * @return the loaded candidate...the molecule is null if it is skipped
+	 */
+	private LoadedCandidate load(int index, String smiles)
+	{
+		String candidate = candidates.get(index);
+		if(smiles == null)
+			return new LoadedCandidate(index, candidate, null, null, "");
+		
+		IAtomContainer molecule = null;
+		try {
+			molecule = smilesParser.parseSmiles(smiles);
+		} catch (InvalidSmilesException e) {
+			System.out.println("Error parsing smiles!!! " + e.getMessage() + " Candidate: " + candidate);
+			e.printStackTrace();
+			return new LoadedCandidate(index, candidate, null, null, "Error parsing smiles!!! " + e.getMessage() + " Candidate: " + candidate + "\n" + e.getStackTrace());
+		}
+
+		if(!ConnectivityChecker.isConnected(molecule))
+			return new LoadedCandidate(index, candidate, null, null, "");
+
+		try
+		{
+			//add hydrogens
+			AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+			CDKHydrogenAdder hAdder = CDKHydrogenAdder.getInstance(molecule.getBuilder());
+			hAdder.addImplicitHydrogens(molecule);
+			AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+		}
+		//there is a bug in cdk?? error happens when there is a S or Ti in the molecule
+		catch(IllegalArgumentException e)
+		{
+			//still a candidate...but it is not fragmented
+			return new LoadedCandidate(index, candidate, null, smiles, "Error: " + candidate + " Message: " + e.getMessage());
+		}
+		catch(Exception e)
+		{
+			System.out.println("CDK error!" + e.getMessage());
+			return new LoadedCandidate(index, candidate, null, smiles, "CDK Error! " + e.getMessage() + "File: " + candidate);
+		}
+
+		return new LoadedCandidate(index, candidate, molecule, smiles, "");
+	}
+
+
+	/**
+	 * A candidate loaded from the database.
+	 */
+	public static class LoadedCandidate {
+
+		private int index;
+		private String candidate;
+		private IAtomContainer molecule;
+		private String smiles;
+		private String log;
+
+		/**
+		 * Instantiates a new loaded candidate.
+		 *
+		 * @param index the index in the candidate list
+		 * @param candidate the candidate
+		 * @param molecule the molecule with explicit hydrogens (null if it is not fragmented)
+		 * @param smiles the smiles (null if it is no valid candidate)
+		 * @param log the log messages
+		 */
+		public LoadedCandidate(int index, String candidate, IAtomContainer molecule, String smiles, String log)
+		{
+			this.index = index;
+			this.candidate = candidate;
+			this.molecule = molecule;
+			this.smiles = smiles;
+			this.log = log;
+		}
+
+		public int getIndex()
+		{
+			return index;
+		}
+
+		public String getCandidate()
+		{
+			return candidate;
+		}
+
+		public IAtomContainer getMolecule()
+		{
+			return molecule;
+		}
+
+		public String getSmiles()
+		{
+			return smiles;
+		}
+
+		public String getLog()
+		{
+			return log;
+		}
+	}
+
+}
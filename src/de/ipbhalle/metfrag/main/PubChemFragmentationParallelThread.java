@@ -6,12 +6,9 @@ import java.io.FileNotFoundException;
 import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.Vector;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.Callable;
 
 import org.openscience.cdk.Molecule;
 import org.openscience.cdk.atomtype.CDKAtomTypeMatcher;
@@ -22,30 +19,42 @@ import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.interfaces.IAtomContainerSet;
 import org.openscience.cdk.interfaces.IAtomType;
 import org.openscience.cdk.io.MDLWriter;
-import org.openscience.cdk.tools.CDKHydrogenAdder;
 import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
 import org.openscience.cdk.tools.manipulator.AtomTypeManipulator;
 
+import de.ipbhalle.metfrag.fragmenter.FragmentBitSet;
+import de.ipbhalle.metfrag.fragmenter.FragmentSink;
+import de.ipbhalle.metfrag.fragmenter.FragmentSinkMemory;
+import de.ipbhalle.metfrag.fragmenter.FragmentTreeCache;
 import de.ipbhalle.metfrag.fragmenter.Fragmenter;
+import de.ipbhalle.metfrag.fragmenter.IndexedMolecule;
+import de.ipbhalle.metfrag.fragmenter.PreprocessCache;
 import de.ipbhalle.metfrag.massbankParser.Peak;
 import de.ipbhalle.metfrag.massbankParser.Spectrum;
-import de.ipbhalle.metfrag.read.Molfile;
 import de.ipbhalle.metfrag.scoring.Scoring;
 import de.ipbhalle.metfrag.spectrum.AssignFragmentPeak;
-import de.ipbhalle.metfrag.spectrum.CleanUpPeakList;
+import de.ipbhalle.metfrag.spectrum.PeakList;
+import de.ipbhalle.metfrag.spectrum.FragmentPeakMatchSink;
 import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
 import de.ipbhalle.metfrag.tools.DisplayStructure;
 import de.ipbhalle.metfrag.tools.Render;
 import de.ipbhalle.metfrag.tools.WritePDFTable;
 
-public class PubChemFragmentationParallelThread implements Runnable{
+/**
+ * Fragments and scores one candidate. The thread does not touch any shared state...the scores, hits and
+ * log messages are returned as a {@link CandidateResult} and merged by the {@link PubChemSearchParallel}.
+ */
+public class PubChemFragmentationParallelThread implements Callable<CandidateResult>{
 	
 	private IAtomContainer molecule = null;
 	private String candidate = null;
 	private String folder = "";
 	private String file = "";
 	private boolean recreateFrags = true;
-	private Vector<Peak> peakList = null;
+	private PeakList peakList = null;
+	private PeakList cleanedPeakList = null;
+	private double[] peakWeights = null;
+	private double sumIntensities = 0.0;
 	private double mzabs;
 	private double mzppm;
 	private boolean sumFormulaRedundancyCheck = true;
@@ -58,16 +67,27 @@ public class PubChemFragmentationParallelThread implements Runnable{
 	private boolean neutralLossAdd = false;
 	private boolean bondEnergyScoring = false;
 	private boolean isOnlyBreakSelectedBonds = false;
+	//fragments kept in memory per candidate...the rest is spilled to disk
+	private static final int MAX_FRAGMENTS_IN_MEMORY = 100000;
+	private boolean streamingMatching = false;
+	private boolean bitSetFragments = false;
+	private int fragmenterThreads = 1;
+	private PreprocessCache preprocessCache = null;
+	private FragmentTreeCache fragmentTreeCache = null;
+	private boolean peakPruning = false;
 	
 	/**
 	 * Instantiates a new pubChem search thread.
 	 * 
-	 * @param molecule the molecule
+	 * @param molecule the molecule with explicit hydrogens
 	 * @param candidate the candidate
 	 * @param folder the folder
 	 * @param file the file
 	 * @param recreateFrags the recreate frags
-	 * @param peakList the peak list
+	 * @param peakList the peak list (shared by all threads)
+	 * @param cleanedPeakList the peak list without the molecule peak (shared by all threads)
+	 * @param peakWeights the weights of the peaks computed once per spectrum (see {@link Scoring#getPeakWeights(PeakList)})
+	 * @param sumIntensities the summed up intensities computed once per spectrum (see {@link Scoring#getSumIntensities(PeakList)})
 	 * @param mzabs the mzabs
 	 * @param mzppm the mzppm
 	 * @param sumFormulaRedundancyCheck the sum formula redundancy check
@@ -77,11 +97,17 @@ public class PubChemFragmentationParallelThread implements Runnable{
 	 * @param showDiagrams the show diagrams
 	 * @param spectrum the spectrum
 	 * @param hydrogenTest the hydrogen test
+	 * @param streamingMatching match the fragments while they are generated (only the best hit per peak is kept)
+	 * @param bitSetFragments use the bit set fragmenter...atom containers are only built for possible hits
+	 * @param fragmenterThreads the threads used to split up the tree levels of this candidate
+	 * @param preprocessCache the shared cache of the preprocessed candidates (may be null)
+	 * @param fragmentTreeCache the persistent cache of the bit set fragment trees (may be null)
+	 * @param peakPruning don't split up fragments which cannot explain an open peak (streaming matching only)
 	 */
 	public PubChemFragmentationParallelThread(IAtomContainer molecule, String candidate, String folder, String file,
-			boolean recreateFrags, Vector<Peak> peakList, double mzabs, double mzppm, boolean sumFormulaRedundancyCheck, int mode,
+			boolean recreateFrags, PeakList peakList, PeakList cleanedPeakList, double[] peakWeights, double sumIntensities, double mzabs, double mzppm, boolean sumFormulaRedundancyCheck, int mode,
 			boolean breakAromaticRings, int treeDepth, boolean showDiagrams, WrapperSpectrum spectrum, boolean hydrogenTest,
-			boolean neutralLossAdd, boolean bondEnergyScoring, boolean isOnlyBreakSelectedBonds)
+			boolean neutralLossAdd, boolean bondEnergyScoring, boolean isOnlyBreakSelectedBonds, boolean streamingMatching, boolean bitSetFragments, int fragmenterThreads, PreprocessCache preprocessCache, FragmentTreeCache fragmentTreeCache, boolean peakPruning)
 	{
 		this.molecule = molecule;
 		this.candidate = candidate;
@@ -89,6 +115,9 @@ public class PubChemFragmentationParallelThread implements Runnable{
 		this.folder = folder;
 		this.recreateFrags = recreateFrags;
 		this.peakList = peakList;
+		this.cleanedPeakList = cleanedPeakList;
+		this.peakWeights = peakWeights;
+		this.sumIntensities = sumIntensities;
 		this.mzabs = mzabs;
 		this.mzppm = mzppm;
 		this.sumFormulaRedundancyCheck = sumFormulaRedundancyCheck;
@@ -101,11 +130,38 @@ public class PubChemFragmentationParallelThread implements Runnable{
 		this.neutralLossAdd = neutralLossAdd;
 		this.bondEnergyScoring = bondEnergyScoring;
 		this.isOnlyBreakSelectedBonds = isOnlyBreakSelectedBonds;
+		this.streamingMatching = streamingMatching;
+		this.bitSetFragments = bitSetFragments;
+		this.fragmenterThreads = fragmenterThreads;
+		this.preprocessCache = preprocessCache;
+		this.fragmentTreeCache = fragmentTreeCache;
+		this.peakPruning = peakPruning;
 	}
 	
 	
-	@Override public void run()
-	{		
+	@Override public CandidateResult call()
+	{
+		CandidateResult result = new CandidateResult(candidate);
+		try
+		{
+			fragmentAndScore(result);
+		}
+		finally
+		{
+			//the finished task may be kept by the executor...don't keep the molecule
+			molecule = null;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Fragment the candidate and score it.
+	 * 
+	 * @param result the result of the candidate
+	 */
+	private void fragmentAndScore(CandidateResult result)
+	{
 		try
 		{	        
 	        //now create a new folder to write the .mol files into
@@ -117,70 +173,84 @@ public class PubChemFragmentationParallelThread implements Runnable{
 	        {
 		        //System.out.println("Folder created: " + folder + file);
 		        
-		        try
+		        //the hydrogens are already added by the candidate loader...the peaks are only read
+		        Fragmenter fragmenter = new Fragmenter(peakList.toVector(), mzabs, mzppm, mode, breakAromaticRings, sumFormulaRedundancyCheck, neutralLossAdd, isOnlyBreakSelectedBonds);
+		        fragmenter.setThreads(fragmenterThreads);
+		        fragmenter.setPreprocessCache(preprocessCache);
+		        fragmenter.setFragmentTreeCache(fragmentTreeCache);
+		        
+		        //the cleaned peak list is created once per spectrum
+		        Vector<Peak> cleanedPeakList = this.cleanedPeakList.toVector();
+		        AssignFragmentPeak afp = new AssignFragmentPeak();
+		        afp.setHydrogenTest(hydrogenTest);
+		        
+		        long start = System.currentTimeMillis();
+		        FragmentSink generatedFrags = null;
+		        if(bitSetFragments)
 		        {
-			        //add hydrogens
-			        AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
-			        CDKHydrogenAdder hAdder = CDKHydrogenAdder.getInstance(molecule.getBuilder());
-			        hAdder.addImplicitHydrogens(molecule);
-			        AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+		        	//the fragments are matched after the BFS...only possible hits are converted
+		        	afp.initStreaming(cleanedPeakList, mzabs, mzppm, spectrum.getMode(), false);
+		        	generatedFrags = new FragmentPeakMatchSink(afp);
+		        }
+		        else if(streamingMatching)
+		        {
+		        	//match every fragment while it is generated...only the best hit per peak is kept
+		        	afp.initStreaming(cleanedPeakList, mzabs, mzppm, spectrum.getMode(), false);
+		        	generatedFrags = new FragmentPeakMatchSink(afp);
+		        	//the BFS queue is bounded too
+		        	fragmenter.setMaxQueueSize(MAX_FRAGMENTS_IN_MEMORY);
+		        	if(peakPruning)
+		        		fragmenter.setPeakPruning(afp);
+		        }
+		        else
+		        {
+		        	//keep the fragments in memory...spill the rest to a single binary file
+		        	generatedFrags = new FragmentSinkMemory(MAX_FRAGMENTS_IN_MEMORY, candidate);
 		        }
-		        //there is a bug in cdk?? error happens when there is a S or Ti in the molecule
-		        catch(IllegalArgumentException e)
-	            {
-		        	PubChemSearchParallel.addToCompleteLog("Error: " + candidate + " Message: " + e.getMessage());
-	            	//skip it
-	            	return;
-	            }
 		        
-		        Fragmenter fragmenter = new Fragmenter((Vector<Peak>)peakList.clone(), mzabs, mzppm, mode, breakAromaticRings, sumFormulaRedundancyCheck, neutralLossAdd, isOnlyBreakSelectedBonds);
-		        long start = System.currentTimeMillis();
-		        List<File> generatedFrags = null;
 		        try
 		        {
-		        	generatedFrags = fragmenter.generateFragmentsEfficient(molecule, true, treeDepth, candidate);
+		        	if(bitSetFragments)
+		        	{
+		        		List<FragmentBitSet> fragments = fragmenter.generateFragmentsBitSet(molecule, treeDepth);
+		        		IndexedMolecule indexedMolecule = fragmenter.getIndexedMolecule();
+		        		for (FragmentBitSet fragment : fragments) {
+		        			if(afp.isPossibleHit(fragment.getMass(), fragment.getTreeDepth()))
+		        				generatedFrags.add(fragment.toAtomContainer(indexedMolecule));
+						}
+		        		System.out.println("Bit set fragments: " + fragments.size() + " atom containers built: " + generatedFrags.size());
+		        	}
+		        	else
+		        		fragmenter.generateFragmentsEfficient(molecule, true, treeDepth, generatedFrags);
 		        }
 		        catch(OutOfMemoryError e)
 		        {
+		        	generatedFrags.close();
 		        	System.out.println("OUT OF MEMORY ERROR! " + treeDepth);
-		        	PubChemSearchParallel.addToCompleteLog("Error: " + candidate + " Message: " + e.getMessage());
+		        	result.addToLog("Error: " + candidate + " Message: " + e.getMessage());
 		        	return;
 		        }
 		        long time = System.currentTimeMillis() - start;
+		        if(peakPruning && streamingMatching && !bitSetFragments)
+		        	System.out.println("Peak pruning: " + fragmenter.getPrunedSubtrees() + " subtrees pruned " + fragmenter.getExpandedFragments() + " fragments split up");
 		        System.out.println("Benötigte Zeit: " + time + " Got " + generatedFrags.size() + " fragments");
-
-		        //read temp files in again
-		        List<IAtomContainer> l = Molfile.ReadfolderTemp(generatedFrags);
-		        //delete those files because they use up a lot space...in another thread TODO
-		        //Molfile.DeleteFilesTemp(generatedFrags);
-		        
-		        //Create a new thread to delete all the temp files!!!
-		        int threads = 1;
-			    ExecutorService threadExecutor = null;
-			    System.out.println("Used Threads to Delete: " + threads);
-			    threadExecutor = Executors.newFixedThreadPool(threads);
-			    threadExecutor.execute(new DeleteTempFiles(generatedFrags));
-			    threadExecutor.shutdown();
 			    
 		        
 		        try
 				{					
-					//get the original peak list again
-					peakList = spectrum.getPeakList();
-					//clean up peak list
-					CleanUpPeakList cList = new CleanUpPeakList(peakList);
-					Vector<Peak> cleanedPeakList = cList.getCleanedPeakList(spectrum.getExactMass());
-					
-					
-					//now find corresponding fragments to the mass
-					AssignFragmentPeak afp = new AssignFragmentPeak();
-					afp.setHydrogenTest(hydrogenTest);
-					afp.assignFragmentPeak(l, cleanedPeakList, mzabs, mzppm, spectrum.getMode(), false);
+					//now find corresponding fragments to the mass...already done in streaming mode
+					if(!streamingMatching && !bitSetFragments)
+					{
+						//read the fragments back in...no temp files to parse and delete
+						List<IAtomContainer> l = generatedFrags.getFragments();
+						afp.assignFragmentPeak(l, cleanedPeakList, mzabs, mzppm, spectrum.getMode(), false);
+					}
+					generatedFrags.close();
 					Vector<PeakMolPair> hits = afp.getHits();
 					
 					
 					//now "real" scoring --> depends on intensities
-					Scoring score = new Scoring(spectrum.getPeakList());
+					Scoring score = new Scoring(peakList, peakWeights, sumIntensities);
 					double currentScore = 0.0;
 					if(this.bondEnergyScoring)
 						currentScore = score.computeScoringWithBondEnergies(hits);
@@ -191,76 +261,25 @@ public class PubChemFragmentationParallelThread implements Runnable{
 		
 					if(currentBondEnergy > 0)
 						currentBondEnergy = currentBondEnergy / afp.getHits().size();
-					//set the added up energy of every fragment
-					Map<String, Double> mapCandidateToEnergy = PubChemSearchParallel.getCandidateToEnergy();
-					mapCandidateToEnergy.put(candidate, currentBondEnergy);
-					PubChemSearchParallel.setCandidateToEnergy(mapCandidateToEnergy);
-					Map<String, Double> mapCandidateToHydrogenPenalty = PubChemSearchParallel.getCandidateToHydrogenPenalty();
-					mapCandidateToHydrogenPenalty.put(candidate, score.getPenalty());
-					PubChemSearchParallel.setCandidateToHydrogenPenalty(mapCandidateToHydrogenPenalty);
-					
-					
-					
-					Map<Double, Vector<String>> realScoreMap = PubChemSearchParallel.getRealScoreMap();
-					//save score in hashmap...if there are several hits with the same score --> vector of strings
-					if(realScoreMap.containsKey(currentScore))
-			        {
-			        	Vector<String> tempList = realScoreMap.get(currentScore);
-			        	tempList.add(candidate);
-			        	realScoreMap.put(currentScore, tempList);
-			        }
-			        else
-			        {
-			        	Vector<String> temp = new Vector<String>();
-			        	temp.add(candidate);
-			        	realScoreMap.put(currentScore, temp);
-			        }
-					PubChemSearchParallel.setRealScoreMap(realScoreMap);
-					
-					//save score in hashmap...if there are several hits with the same
-					//amount of identified peaks --> ArrayList
-					HashMap<Integer, ArrayList<String>> scoreMap = PubChemSearchParallel.getScoreMap();
-					if(scoreMap.containsKey(hits.size()))
-			        {
-			        	ArrayList<String> tempList = scoreMap.get(hits.size());
-			        	tempList.add(candidate);
-			        	scoreMap.put(hits.size(), tempList);
-			        }
-			        else
-			        {
-			        	ArrayList<String> temp = new ArrayList<String>();
-			        	temp.add(candidate);
-			        	scoreMap.put(hits.size(), temp);
-			        }
-					PubChemSearchParallel.setScoreMap(scoreMap);
+					//the scores are merged into the score maps of the search
+					result.setScore(currentScore, hits.size(), currentBondEnergy, score.getPenalty());
+					result.setCorrect(spectrum.getCID() == Integer.parseInt(candidate));
 					
 				
 					//get all the identified peaks
 					String peaks = "";
-					Double bondEnergy = 0.0;
 					
 					for (int i = 0; i < hits.size(); i++) {
 						
-						bondEnergy += Double.parseDouble((String)hits.get(i).getFragment().getProperty("BondEnergy"));
 						peaks += hits.get(i).getPeak().getMass() + "[" + hits.get(i).getFragment().getProperty("BondEnergy") + "]" +  " ";
-						//add to vector
-						Vector<Peak> temp = PubChemSearchParallel.getVectorOfPeaks();
-						temp.add(hits.get(i).getPeak());
-						PubChemSearchParallel.setVectorOfPeaks(temp);
-						
-						if(spectrum.getCID() == Integer.parseInt(candidate))
-						{
-							Vector<Peak> tempCorrect = PubChemSearchParallel.getVectorOfCorrectPeaks();
-							tempCorrect.add(hits.get(i).getPeak());
-							PubChemSearchParallel.setVectorOfCorrectPeaks(tempCorrect);
-						}
+						result.getHitPeaks().add(hits.get(i).getPeak());
 					}
 					
 					
 					
 //					//write things to log file
-					PubChemSearchParallel.addToCompleteLog("\nFile: " + candidate + "\t #Peaks: " + spectrum.getPeakList().size() + "\t #Found: " + hits.size());
-					PubChemSearchParallel.addToCompleteLog("\tPeaks: " + peaks);
+					result.addToLog("\nFile: " + candidate + "\t #Peaks: " + peakList.size() + "\t #Found: " + hits.size());
+					result.addToLog("\tPeaks: " + peaks);
 					
 					List<IAtomContainer> hitsListTest = new ArrayList<IAtomContainer>();
 					for (int i = 0; i < hits.size(); i++) {
@@ -275,19 +294,19 @@ public class PubChemFragmentationParallelThread implements Runnable{
 				catch(CDKException e)
 				{
 					System.out.println("CDK error!" + e.getMessage());
-					PubChemSearchParallel.addToCompleteLog("CDK Error! " + e.getMessage() + " File: " + candidate);
+					result.addToLog("CDK Error! " + e.getMessage() + " File: " + candidate);
 				}
 				catch(Exception e)
 				{
 					System.out.println("Error: " + e.getMessage());
 					e.printStackTrace();
-					PubChemSearchParallel.addToCompleteLog("Error! "+ e.getMessage() + " File: " + candidate);
+					result.addToLog("Error! "+ e.getMessage() + " File: " + candidate);
 				}
 				catch(OutOfMemoryError e)
 				{
 					System.out.println("Out of memory: " + e.getMessage() + "\n" + e.getStackTrace());
 					System.gc();
-					PubChemSearchParallel.addToCompleteLog("Out of memory! "+ e.getMessage() + " File: " + candidate);
+					result.addToLog("Out of memory! "+ e.getMessage() + " File: " + candidate);
 				}
 	        }
 	        else
@@ -297,29 +316,29 @@ public class PubChemFragmentationParallelThread implements Runnable{
 		catch(CDKException e)
 		{
 			System.out.println("CDK error!" + e.getMessage());
-			PubChemSearchParallel.addToCompleteLog("CDK Error! " + e.getMessage() + "File: " + candidate);
+			result.addToLog("CDK Error! " + e.getMessage() + "File: " + candidate);
 		}
 		catch(FileNotFoundException e)
 		{
 			System.out.println("File not found" + e.getMessage());
-			PubChemSearchParallel.addToCompleteLog("File not found error! "+ e.getMessage() + "File: " + candidate);
+			result.addToLog("File not found error! "+ e.getMessage() + "File: " + candidate);
 		}
 		catch(IOException e)
 		{
 			System.out.println("IO error: " + e.getMessage());
-			PubChemSearchParallel.addToCompleteLog("IO Error! "+ e.getMessage() + "File: " + candidate);
+			result.addToLog("IO Error! "+ e.getMessage() + "File: " + candidate);
 		}
 		catch(Exception e)
 		{
 			System.out.println("Error: " + e.getMessage());
 			e.printStackTrace();
-			PubChemSearchParallel.addToCompleteLog("Error! "+ e.getMessage() + "File: " + candidate);
+			result.addToLog("Error! "+ e.getMessage() + "File: " + candidate);
 		}
 		catch(OutOfMemoryError e)
 		{
 			System.out.println("Out of memory: " + e.getMessage() + "\n" + e.getStackTrace());
 			System.gc();
-			PubChemSearchParallel.addToCompleteLog("Out of memory! "+ e.getMessage() + "File: " + candidate);
+			result.addToLog("Out of memory! "+ e.getMessage() + "File: " + candidate);
 		}
 	}
 }
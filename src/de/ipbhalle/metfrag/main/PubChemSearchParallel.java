@@ -15,8 +15,17 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Vector;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.xml.rpc.ServiceException;
 
@@ -41,14 +50,20 @@ import org.openscience.cdk.tools.manipulator.AtomTypeManipulator;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 
 import de.ipbhalle.metfrag.database.PubChemToDatabaseParallel;
+import de.ipbhalle.metfrag.fragmenter.FragmentTreeCache;
 import de.ipbhalle.metfrag.fragmenter.Fragmenter;
+import de.ipbhalle.metfrag.fragmenter.PreprocessCache;
+import de.ipbhalle.metfrag.main.PubChemCandidateLoader.LoadedCandidate;
 import de.ipbhalle.metfrag.keggWebservice.KeggWebservice;
 import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.molDatabase.CandidateSource;
+import de.ipbhalle.metfrag.molDatabase.MassIndex;
 import de.ipbhalle.metfrag.molDatabase.PubChemLocal;
 import de.ipbhalle.metfrag.pubchem.ESearchDownload;
 import de.ipbhalle.metfrag.pubchem.PubChemWebService;
 import de.ipbhalle.metfrag.read.Molfile;
 import de.ipbhalle.metfrag.scoring.Scoring;
+import de.ipbhalle.metfrag.spectrum.PeakList;
 import de.ipbhalle.metfrag.similarity.Similarity;
 import de.ipbhalle.metfrag.similarity.SimilarityGroup;
 import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
@@ -59,37 +74,53 @@ import de.ipbhalle.metfrag.tools.PPMTool;
 import de.ipbhalle.metfrag.tools.Render;
 import de.ipbhalle.metfrag.tools.WritePDFTable;
 
+/**
+ * Searches the candidates of one spectrum in the local PubChem database. Every candidate is fragmented
+ * and scored in a {@link PubChemFragmentationParallelThread}, the results are merged in this class.
+ * All the results are stored per instance, so several spectra can be searched at the same time.
+ */
 public class PubChemSearchParallel{
 		
 		private Vector<String> blackList;
-	    private static String completeLog = "";
+	    private String completeLog = "";
 	    private int foundPeaks = 0;
 	    private int allPeaks = 0;
 	    private boolean showDiagrams = false;
 	    private Vector<String> doneMols = new Vector<String>();
-	    private static HashMap<Integer, ArrayList<String>> scoreMap = new HashMap<Integer, ArrayList<String>>();
+	    private HashMap<Integer, ArrayList<String>> scoreMap = new HashMap<Integer, ArrayList<String>>();
 	    private String jdbc = "";
 	    private String username = "";
 	    private String password = "";
-	    private static String histogram = "";
-	    private static String histogramCompare = "";
-	    private static String histogramReal = "";
-	    private static String histogramPeaks = "";
-	    private static String histogramPeaksAll = "";
-	    private static String histogramPeaksReal = "";
+	    private String histogram = "";
+	    private String histogramCompare = "";
+	    private String histogramReal = "";
+	    private String histogramPeaks = "";
+	    private String histogramPeaksAll = "";
+	    private String histogramPeaksReal = "";
 	    //list of peaks which are contained in the corresponding molecule
-		private static Vector<Peak> listOfPeaksCorresponding = new Vector<Peak>();
+		private Vector<Peak> listOfPeaksCorresponding = new Vector<Peak>();
 		//list of peaks which are not contained in the real molecule
-		private static Vector<Peak> listOfPeaks = new Vector<Peak>();
+		private Vector<Peak> listOfPeaks = new Vector<Peak>();
 		private boolean hydrogenTest = false;
-		private static Map<String, Double> candidateToEnergy = new HashMap<String, Double>(); 
-		private static Map<String, Double> candidateToHydrogenPenalty = new HashMap<String, Double>();
+		private Map<String, Double> candidateToEnergy = new HashMap<String, Double>(); 
+		private Map<String, Double> candidateToHydrogenPenalty = new HashMap<String, Double>();
 		private boolean neutralLossAdd = false;
-		private static String similarityValues = "";
+		private boolean streamingMatching = false;
+		private boolean bitSetFragments = false;
+		private int fragmenterThreads = 1;
+		private PreprocessCache preprocessCache = null;
+		private FragmentTreeCache fragmentTreeCache = null;
+		private boolean peakPruning = false;
+		private int loaderThreads = 1;
+		private int searchThreads = 0;
+		private int candidateQueueSize = 0;
+		private String massIndexFile = null;
+		private ExecutorService searchExecutor = null;
+		private String similarityValues = "";
 
 
 	    private long sumTime = 0;
-	    private static Map<Double, Vector<String>> realScoreMap = new HashMap<Double, Vector<String>>();
+	    private Map<Double, Vector<String>> realScoreMap = new HashMap<Double, Vector<String>>();
 		
 	    
 		
@@ -110,6 +141,18 @@ public class PubChemSearchParallel{
 		 * @param jdbc the jdbc
 		 * @param treeDepth the tree depth
 		 * @param keggPath the kegg path
+		 * @param streamingMatching match the fragments while they are generated
+		 * @param bitSetFragments use the bit set fragmenter
+		 * @param fragmenterThreads the threads used to fragment one candidate
+		 * @param preprocessCacheDir the directory of the preprocessing cache (null: only in memory)
+		 * @param preprocessCacheSize the number of preprocessed candidates in memory (0: no cache)
+		 * @param fragmentCacheDir the directory of the fragment tree cache (null: no cache)
+		 * @param peakPruning prune the fragments which cannot explain an open peak (streaming matching)
+		 * @param loaderThreads the threads which load the candidates from the database
+		 * @param searchThreads the threads which fragment and score the candidates (0: number of processors)
+		 * @param candidateQueueSize the max number of loaded candidates waiting for a search thread (0: 4 * searchThreads)
+		 * @param massIndexFile the mass index file used instead of the database (null: database)
+		 * @param searchExecutor the search pool shared by several spectra (null: own pool with searchThreads)
 		 * @throws SQLException 
 		 * @throws ClassNotFoundException 
 		 * @throws ServiceException 
@@ -118,7 +161,7 @@ public class PubChemSearchParallel{
 		 * @throws CDKException 
 		 * @throws FileNotFoundException 
 		 */
-		public PubChemSearchParallel(String folder, WrapperSpectrum spectrum, double mzabs, double mzppm, int searchPPM, boolean pdf, boolean showDiagrams, boolean recreateFrags, boolean breakAromaticRings, boolean sumFormulaRedundancyCheck, String username, String password, String jdbc, int treeDepth, boolean hydrogenTest, boolean neutralLossAdd, boolean bondEnergyScoring, boolean isOnlyBreakSelectedBonds) throws NumberFormatException, RemoteException, ServiceException, ClassNotFoundException, SQLException, FileNotFoundException, CDKException
+		public PubChemSearchParallel(String folder, WrapperSpectrum spectrum, double mzabs, double mzppm, int searchPPM, boolean pdf, boolean showDiagrams, boolean recreateFrags, boolean breakAromaticRings, boolean sumFormulaRedundancyCheck, String username, String password, String jdbc, int treeDepth, boolean hydrogenTest, boolean neutralLossAdd, boolean bondEnergyScoring, boolean isOnlyBreakSelectedBonds, boolean streamingMatching, boolean bitSetFragments, int fragmenterThreads, String preprocessCacheDir, int preprocessCacheSize, String fragmentCacheDir, boolean peakPruning, int loaderThreads, int searchThreads, int candidateQueueSize, String massIndexFile, ExecutorService searchExecutor) throws NumberFormatException, RemoteException, ServiceException, ClassNotFoundException, SQLException, FileNotFoundException, CDKException
 		{
 			this.username = username;
 			this.password = password;
@@ -127,73 +170,21 @@ public class PubChemSearchParallel{
 			this.blackList = bl.getBlackList();
 			this.hydrogenTest = hydrogenTest;
 			this.neutralLossAdd = neutralLossAdd;
-			//delete previous entries
-			completeLog = "";
-			histogram = "";
-		    histogramCompare = "";
-		    histogramReal = "";
-		    histogramPeaks = "";
-		    histogramPeaksAll = "";
-		    histogramPeaksReal = "";
-		    realScoreMap = new HashMap<Double, Vector<String>>();
-		    scoreMap = new HashMap<Integer, ArrayList<String>>();
+			this.streamingMatching = streamingMatching;
+			this.bitSetFragments = bitSetFragments;
+			this.fragmenterThreads = fragmenterThreads;
+			this.preprocessCache = PreprocessCache.getInstance(preprocessCacheDir, preprocessCacheSize);
+			this.fragmentTreeCache = FragmentTreeCache.getInstance(fragmentCacheDir);
+			this.peakPruning = peakPruning;
+			this.loaderThreads = loaderThreads;
+			this.searchThreads = searchThreads;
+			this.candidateQueueSize = candidateQueueSize;
+			this.massIndexFile = massIndexFile;
+			this.searchExecutor = searchExecutor;
 			pubChemSearch(folder, spectrum, mzabs, mzppm, searchPPM, recreateFrags, breakAromaticRings, sumFormulaRedundancyCheck, pdf, treeDepth, bondEnergyScoring, isOnlyBreakSelectedBonds);
 		}
 		
 		
-		/**
-		 * Adds the to complete log.
-		 * 
-		 * @param add the add
-		 */
-		public static void addToCompleteLog(String add)
-		{
-			completeLog += add;
-		}
-		
-		/**
-		 * Gets the real score map.
-		 * 
-		 * @return the real score map
-		 */
-		public static Map<Double, Vector<String>> getRealScoreMap()
-		{
-			return realScoreMap;
-		}
-		
-		/**
-		 * Sets the real score map.
-		 * 
-		 * @param realScoreMap the real score map
-		 */
-		public static void setRealScoreMap(Map<Double, Vector<String>> realScoreMap)
-		{
-			PubChemSearchParallel.realScoreMap = realScoreMap;
-		}
-		
-		
-		/**
-		 * Gets the score map.
-		 * 
-		 * @return the score map
-		 */
-		public static HashMap<Integer, ArrayList<String>> getScoreMap()
-		{
-			return scoreMap;
-		}
-		
-		
-		/**
-		 * Sets the score map.
-		 * 
-		 * @param scoreMap the score map
-		 */
-		public static void setScoreMap( HashMap<Integer, ArrayList<String>> scoreMap)
-		{
-			PubChemSearchParallel.scoreMap = scoreMap;
-		}
-		
-		
 		/**
 		 * Gets the complete log.
 		 * 
@@ -219,40 +210,21 @@ public class PubChemSearchParallel{
 		 * 
 		 * @return the vector of peaks
 		 */
-		public static Vector<Peak> getVectorOfPeaks()
+		public Vector<Peak> getVectorOfPeaks()
 		{
 			return listOfPeaks;
 		}
 		
-		/**
-		 * Sets the vector of peaks.
-		 * 
-		 * @return the vector of peaks
-		 */
-		public static void setVectorOfPeaks(Vector<Peak> peaks)
-		{
-			listOfPeaks = peaks;
-		}
-		
 		/**
 		 * Gets the vector of correct peaks.
 		 * 
 		 * @return the vector of correct peaks
 		 */
-		public static Vector<Peak> getVectorOfCorrectPeaks()
+		public Vector<Peak> getVectorOfCorrectPeaks()
 		{
 			return listOfPeaksCorresponding;
 		}
 		
-		/**
-		 * Sets the vector of correct peaks.
-		 * 
-		 * @return the vector of correct peaks
-		 */
-		public static void setVectorOfCorrectPeaks(Vector<Peak> peaks)
-		{
-			listOfPeaksCorresponding = peaks;
-		}
 	    
 		/**
 		 * Gets the all peaks.
@@ -359,7 +331,11 @@ public class PubChemSearchParallel{
 			
 			//Test Data
 			WrapperSpectrum spectrum = mergedSpectrum;
-			Vector<Peak> peakList = spectrum.getPeakList();
+			//shared read only by all search threads...the cleaned list is a view without the molecule peak
+			PeakList peakList = new PeakList(spectrum.getPeakList());
+			PeakList cleanedPeakList = peakList.getPeaksBelow(spectrum.getExactMass());
+			double[] peakWeights = Scoring.getPeakWeights(peakList);
+			double sumIntensities = Scoring.getSumIntensities(peakList);
 			
 			int mode = spectrum.getMode();
 
@@ -374,14 +350,18 @@ public class PubChemSearchParallel{
 			completeLog += "\nFile: " + file + " (Pubchem Entry: " + pubChemIdentifier + ")";
 			
 			//get candidates from pubchem webservice...with with a given mzppm and mzabs
-			PubChemLocal pubchem = null;
+			CandidateSource pubchem = null;
 			List<String> candidates = null;
 			Map<String, String> candidateToSmiles = new HashMap<String, String>();
 			
 			try {
 				
 				try {
-					pubchem = new PubChemLocal(jdbc, username, password);
+					//the memory mapped mass index or the database
+					if(massIndexFile != null && !massIndexFile.equals(""))
+						pubchem = MassIndex.getInstance(massIndexFile);
+					else
+						pubchem = new PubChemLocal(jdbc, username, password);
 					double lowerBound = exactMass -(mzabs + PPMTool.getPPMDeviation(exactMass, mzppm)); 
 					double upperBound = exactMass +(mzabs + PPMTool.getPPMDeviation(exactMass, mzppm)); 
 					candidates = pubchem.getHits(lowerBound, upperBound);
@@ -406,66 +386,80 @@ public class PubChemSearchParallel{
 					completeLog += "Error: " + e.getMessage();
 					e.printStackTrace();
 				}
+				if(candidates == null)
+					candidates = new ArrayList<String>();
 							
 				
-				//now fill executor!!!
-				//number of threads depending on the available processors
-			    int threads = Runtime.getRuntime().availableProcessors();
-			    
-			    //thread executor
-			    ExecutorService threadExecutor = null;
-			    System.out.println("Used Threads: " + threads);
-			    threadExecutor = Executors.newFixedThreadPool(threads);
-			    //threadExecutor = Executors.newCachedThreadPool();
-				Vector<String> realCandidates = new Vector<String>();
+				//candidate pipeline: the loader threads (database, smiles, hydrogens) fill a bounded queue,
+				//the search threads fragment, match and score the candidates
+				int threads = searchThreads > 0 ? searchThreads : Runtime.getRuntime().availableProcessors();
+				int loaders = Math.max(1, loaderThreads);
+				int queueSize = candidateQueueSize > 0 ? candidateQueueSize : 4 * threads;
+				System.out.println("Used Threads: " + threads + " Loader Threads: " + loaders);
 				
+				BlockingQueue<LoadedCandidate> loadedCandidates = new ArrayBlockingQueue<LoadedCandidate>(queueSize);
+				AtomicInteger nextCandidate = new AtomicInteger(0);
+				ExecutorService loaderExecutor = Executors.newFixedThreadPool(loaders);
+				for (int i = 0; i < loaders; i++) {
+					loaderExecutor.execute(SpectrumLog.wrap(new PubChemCandidateLoader(candidates, nextCandidate, loadedCandidates, pubchem)));
+				}
+				loaderExecutor.shutdown();
 				
+				//the shared pool is not shut down...only the results of this spectrum are waited for
+				ExecutorService threadExecutor = searchExecutor != null ? searchExecutor : Executors.newFixedThreadPool(threads);
+				//the executor queue is bounded too...only one waiting candidate per search thread
+				final Semaphore searchSlots = new Semaphore(2 * threads);
+				//the results by candidate index...merged in the order of the candidates
+				Map<Integer, Future<CandidateResult>> results = new TreeMap<Integer, Future<CandidateResult>>();
 				
 				int count = 0;
-			    //add them into queue
-				for (String candidate : candidates) {
-					
-					IAtomContainer molecule = null;
+				int finishedLoaders = 0;
+				try {
+					while(finishedLoaders < loaders)
+					{
+						LoadedCandidate loaded = loadedCandidates.take();
+						if(loaded == PubChemCandidateLoader.END)
+						{
+							finishedLoaders++;
+							continue;
+						}
+						completeLog += loaded.getLog();
+						//not stored in the database, not chonsp or not connected
+						if(loaded.getSmiles() == null)
+							continue;
+						
+						candidateToSmiles.put(loaded.getCandidate(), loaded.getSmiles());
+						count++;
+						if(loaded.getMolecule() == null)
+							continue;
+						
+						searchSlots.acquire();
+						final PubChemFragmentationParallelThread task = new PubChemFragmentationParallelThread(loaded.getMolecule(), loaded.getCandidate(), folder, file, recreateFrags, peakList, cleanedPeakList, peakWeights, sumIntensities, mzabs, mzppm, molecularFormulaRedundancyCheck,mode, breakAromaticRings, treeDepth, showDiagrams, spectrum, hydrogenTest, neutralLossAdd, bondEnergyScoring, isOnlyBreakSelectedBonds, streamingMatching, bitSetFragments, fragmenterThreads, preprocessCache, fragmentTreeCache, peakPruning);
+						results.put(loaded.getIndex(), threadExecutor.submit(SpectrumLog.wrap(new Callable<CandidateResult>() {
+							@Override public CandidateResult call() {
+								try {
+									return task.call();
+								} finally {
+									searchSlots.release();
+								}
+							}
+						})));
+					}
+				} catch (InterruptedException e) {
+					completeLog += "Interrupted! " + e.getMessage();
+					Thread.currentThread().interrupt();
+				} finally {
+					//stop the loaders (e.g. after an error)...none of them may stay blocked on the full queue
+					nextCandidate.set(candidates.size());
+					loaderExecutor.shutdownNow();
 					try {
-						molecule = pubchem.getMol(candidate, false);
-					} catch (NumberFormatException e) {
-						completeLog += "Error!!! " + e.getMessage() + " Candidate: " + candidate + "\n" + e.getStackTrace();
-						System.out.println("Error!!! " + e.getMessage() + " Candidate: " + candidate);
-						e.printStackTrace();
-					} catch (InvalidSmilesException e) {
-						completeLog += "Error parsing smiles!!! " + e.getMessage() + " Candidate: " + candidate + "\n" + e.getStackTrace();
-						System.out.println("Error parsing smiles!!! " + e.getMessage() + " Candidate: " + candidate);
-						e.printStackTrace();
-					} catch (SQLException e) {
-						completeLog += "Error SQL!!! " + e.getMessage() + " Candidate: " + candidate + "\n" + e.getStackTrace();
-						System.out.println("Error SQL!!! " + e.getMessage() + " Candidate: " + candidate);
-						e.printStackTrace();
-					} catch (ClassNotFoundException e) {
-						completeLog += "Error!!! " + e.getMessage() + " Candidate: " + candidate + "\n" + e.getStackTrace();
-						System.out.println("Error!!! " + e.getMessage() + " Candidate: " + candidate);
-						e.printStackTrace();
+						do {
+							loadedCandidates.clear();
+						} while(!loaderExecutor.awaitTermination(100, TimeUnit.MILLISECONDS));
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
 					}
-					
-					//molecule is not stored in the database or not chonsp!
-					if(molecule == null)
-						continue;
-					
-					
-					boolean isConnected = true;
-					if (molecule != null)
-						isConnected = ConnectivityChecker.isConnected(molecule);
-					
-					if(!isConnected)
-						continue;
-					
-					candidateToSmiles.put(candidate, pubchem.getLastSmiles());
-					
-					realCandidates.add(candidate);
-					threadExecutor.execute(new PubChemFragmentationParallelThread(molecule,candidate,folder,file, recreateFrags, peakList, mzabs, mzppm, molecularFormulaRedundancyCheck,mode, breakAromaticRings, treeDepth, showDiagrams, spectrum, hydrogenTest, neutralLossAdd, bondEnergyScoring, isOnlyBreakSelectedBonds));
-					
-					count++;
-//					if(count >= 2000)
-//						break;
+					loadedCandidates.clear();
 				}
 				
 				//comparison histogram
@@ -474,17 +468,23 @@ public class PubChemSearchParallel{
 				else
 					histogramCompare += "\n" + file + "\t" + pubChemIdentifier + "\t" + count + "\t" + exactMass;
 				
-				threadExecutor.shutdown();
+				if(searchExecutor == null)
+					threadExecutor.shutdown();
 				
-				//wait until all threads are finished
-				while(!threadExecutor.isTerminated())
-				{
+				//wait until all threads are finished...the results are merged in the order of the candidates
+				for (Future<CandidateResult> result : results.values()) {
 					try {
-						Thread.currentThread().sleep(1000);
+						addResult(result.get());
 					} catch (InterruptedException e) {
-						// TODO Auto-generated catch block
+						completeLog += "Interrupted! " + e.getMessage();
+						if(searchExecutor == null)
+							threadExecutor.shutdownNow();
+						Thread.currentThread().interrupt();
+						break;
+					} catch (ExecutionException e) {
+						completeLog += "Error! " + e.getCause();
 						e.printStackTrace();
-					}//sleep for 1000 ms
+					}
 				}
 				
 			}
@@ -683,36 +683,45 @@ public class PubChemSearchParallel{
 
 
 		/**
-		 * Sets the candidate to energy.
+		 * Merges the result of one candidate.
 		 * 
-		 * @param map the map
+		 * @param result the result
 		 */
-		public static void setCandidateToEnergy(Map<String, Double> map) {
-			candidateToEnergy = map;
-		}
-
-
-		/**
-		 * Gets the candidate to energy.
-		 * 
-		 * @return the candidate to energy
-		 */
-		public static Map<String, Double> getCandidateToEnergy() {
-			return candidateToEnergy;
-		}
-
-
-		public static void setCandidateToHydrogenPenalty(
-				Map<String, Double> candidateToHydrogenPenalty) {
-			PubChemSearchParallel.candidateToHydrogenPenalty = candidateToHydrogenPenalty;
-		}
-
-
-		public static Map<String, Double> getCandidateToHydrogenPenalty() {
-			return candidateToHydrogenPenalty;
+		private void addResult(CandidateResult result)
+		{
+			completeLog += result.getLog();
+			if(!result.isScored())
+				return;
+			
+			String candidate = result.getCandidate();
+			candidateToEnergy.put(candidate, result.getBondEnergy());
+			candidateToHydrogenPenalty.put(candidate, result.getHydrogenPenalty());
+			
+			//save score in hashmap...if there are several hits with the same score --> vector of strings
+			Vector<String> realScoreList = realScoreMap.get(result.getScore());
+			if(realScoreList == null)
+			{
+				realScoreList = new Vector<String>();
+				realScoreMap.put(result.getScore(), realScoreList);
+			}
+			realScoreList.add(candidate);
+			
+			//save score in hashmap...if there are several hits with the same
+			//amount of identified peaks --> ArrayList
+			ArrayList<String> scoreList = scoreMap.get(result.getHitCount());
+			if(scoreList == null)
+			{
+				scoreList = new ArrayList<String>();
+				scoreMap.put(result.getHitCount(), scoreList);
+			}
+			scoreList.add(candidate);
+			
+			listOfPeaks.addAll(result.getHitPeaks());
+			if(result.isCorrect())
+				listOfPeaksCorresponding.addAll(result.getHitPeaks());
 		}
 		
-		public static String getSimilarityValues()
+		public String getSimilarityValues()
 		{
 			return similarityValues;
 		}
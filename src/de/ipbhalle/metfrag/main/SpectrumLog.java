@@ -0,0 +1,215 @@
+package de.ipbhalle.metfrag.main;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.Callable;
+
+
+/**
+ * Log context of one spectrum. Several spectra are searched at once, so System.out and System.err
+ * can't be rebound to the log of one spectrum. Instead they are replaced once ({@link #install()}) by
+ * streams which write to the log bound to the current thread...or to the original streams if there is
+ * none. The log is not inherited: pool threads are created lazily by whichever spectrum submits first and
+ * outlive it. Tasks get the log of the submitting thread with {@link #wrap(Callable)} or {@link #wrap(Runnable)},
+ * it is removed again when the task is done.
+ * <p/>
+ * The lines are written like the filtered java.util.logging output before ("STDOUT: ..." and "STDERR: ...").
+ */
+public class SpectrumLog {
+
+	private static final ThreadLocal<SpectrumLog> current = new ThreadLocal<SpectrumLog>();
+	private static boolean installed = false;
+
+	private BufferedWriter out;
+	private boolean closed = false;
+	private ByteArrayOutputStream stdoutLine = new ByteArrayOutputStream();
+	private ByteArrayOutputStream stderrLine = new ByteArrayOutputStream();
+
+
+	/**
+	 * Instantiates a new spectrum log.
+	 *
+	 * @param logFile the log file
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public SpectrumLog(File logFile) throws IOException
+	{
+		this.out = new BufferedWriter(new FileWriter(logFile));
+	}
+
+
+	/**
+	 * Replaces System.out and System.err by the streams writing to the log of the current thread.
+	 */
+	public static synchronized void install()
+	{
+		if(installed)
+			return;
+		System.setOut(new PrintStream(new RoutingOutputStream(System.out, false), true));
+		System.setErr(new PrintStream(new RoutingOutputStream(System.err, true), true));
+		installed = true;
+	}
+
+
+	/**
+	 * Binds the log to the current thread.
+	 */
+	public void bind()
+	{
+		current.set(this);
+	}
+
+
+	/**
+	 * Removes the log from the current thread.
+	 */
+	public static void unbind()
+	{
+		current.remove();
+	}
+
+
+	/**
+	 * Gets the log of the current thread.
+	 *
+	 * @return the log or null
+	 */
+	public static SpectrumLog getCurrent()
+	{
+		return current.get();
+	}
+
+
+	/**
+	 * Runs the task with the log of the current thread, e.g. in a pool shared by several spectra.
+	 *
+	 * @param task the task
+	 *
+	 * @return the wrapped task
+	 */
+	public static <T> Callable<T> wrap(final Callable<T> task)
+	{
+		final SpectrumLog log = current.get();
+		if(log == null)
+			return task;
+		return new Callable<T>() {
+			public T call() throws Exception {
+				current.set(log);
+				try {
+					return task.call();
+				} finally {
+					//the pool thread runs tasks of other spectra next
+					current.remove();
+				}
+			}
+		};
+	}
+	
+	
+	/**
+	 * Runs the task with the log of the current thread, e.g. in a pool started for a spectrum.
+	 *
+	 * @param task the task
+	 *
+	 * @return the wrapped task
+	 */
+	public static Runnable wrap(final Runnable task)
+	{
+		final SpectrumLog log = current.get();
+		if(log == null)
+			return task;
+		return new Runnable() {
+			public void run() {
+				current.set(log);
+				try {
+					task.run();
+				} finally {
+					current.remove();
+				}
+			}
+		};
+	}
+
+
+	/**
+	 * Writes the last incomplete lines and closes the log.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public synchronized void close() throws IOException
+	{
+		writeLine(stdoutLine, "STDOUT: ");
+		writeLine(stderrLine, "STDERR: ");
+		out.close();
+		closed = true;
+	}
+
+
+	private synchronized void write(byte[] b, int off, int len, boolean err) throws IOException
+	{
+		//threads still running after the search
+		if(closed)
+			return;
+		ByteArrayOutputStream line = err ? stderrLine : stdoutLine;
+		for (int i = off; i < off + len; i++) {
+			if(b[i] == '\n')
+				writeLine(line, err ? "STDERR: " : "STDOUT: ");
+			else if(b[i] != '\r')
+				line.write(b[i]);
+		}
+	}
+
+
+	private void writeLine(ByteArrayOutputStream line, String prefix) throws IOException
+	{
+		//avoid empty records
+		if(line.size() == 0)
+			return;
+		out.write(prefix);
+		out.write(line.toString());
+		out.write('\n');
+		line.reset();
+	}
+
+
+	/**
+	 * Writes to the log of the current thread or to the original stream.
+	 */
+	private static class RoutingOutputStream extends OutputStream {
+
+		private PrintStream original;
+		private boolean err;
+
+		private RoutingOutputStream(PrintStream original, boolean err)
+		{
+			this.original = original;
+			this.err = err;
+		}
+
+		@Override public void write(int b) throws IOException
+		{
+			write(new byte[] {(byte)b}, 0, 1);
+		}
+
+		@Override public void write(byte[] b, int off, int len) throws IOException
+		{
+			SpectrumLog log = current.get();
+			if(log == null)
+				original.write(b, off, len);
+			else
+				log.write(b, off, len, err);
+		}
+
+		@Override public void flush() throws IOException
+		{
+			original.flush();
+		}
+	}
+
+}
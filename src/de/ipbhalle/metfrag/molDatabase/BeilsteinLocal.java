@@ -1,10 +1,9 @@
 package de.ipbhalle.metfrag.molDatabase;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Vector;
@@ -20,6 +19,9 @@ import de.ipbhalle.metfrag.tools.MolecularFormulaTools;
 
 public class BeilsteinLocal {
 
+	//range scan on the index (SOURCE, EXACT_MASS, NUM_ID)...see RecordSource
+	private static final String HITS_QUERY = "SELECT ID FROM RECORD WHERE SOURCE = ? and EXACT_MASS >= ? and EXACT_MASS <= ?";
+	
 	private String url = ""; 
     private String username = ""; 
     private String password = ""; 
@@ -50,26 +52,7 @@ public class BeilsteinLocal {
 	{
 		List<String> candidatesString = new ArrayList<String>();    
 		System.out.println("Lower bound: " + lowerBound + " Upper bound: " + upperBound);
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-	    
-        Statement stmt = null;
-	    stmt = con.createStatement();
-	    //now select only the pubchem entries!
-	    ResultSet rs = stmt.executeQuery("SELECT ID FROM RECORD WHERE SUBSTRING(ID,1,1) = 'B' and EXACT_MASS >= '" + lowerBound + "' and EXACT_MASS <= '" + upperBound);
-
-	    while(rs.next())
-	    {
-	    	candidatesString.add(rs.getString("id"));
-	    }
-        con.close();
-        
+		readHits(lowerBound, upperBound, candidatesString);
         return candidatesString;
 	}
 	
@@ -91,30 +74,51 @@ public class BeilsteinLocal {
 	{
 		Vector<String> candidatesString = new Vector<String>();    
 		System.out.println("Lower bound: " + lowerBound + " Upper bound: " + upperBound);
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-	    
-        Statement stmt = null;
-	    stmt = con.createStatement();
-	    //now select only the pubchem entries!
-	    ResultSet rs = stmt.executeQuery("SELECT ID FROM RECORD WHERE SUBSTRING(ID,1,1) = 'B' and EXACT_MASS >= '" + lowerBound + "' and EXACT_MASS <= '" + upperBound + "'");
-
-	    while(rs.next())
-	    {
-	    	candidatesString.add(rs.getString("id"));
-	    }
-        con.close();
-        
+		readHits(lowerBound, upperBound, candidatesString);
         return candidatesString;
 	}
 	
 	
+	/**
+	 * Read the beilstein entries in the mass range.
+	 * 
+	 * @param lowerBound the lower bound
+	 * @param upperBound the upper bound
+	 * @param candidates the list to add the IDs to
+	 * 
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	private void readHits(double lowerBound, double upperBound, List<String> candidates) throws SQLException, ClassNotFoundException
+	{
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			PreparedStatement stmt = con.prepareStatement(HITS_QUERY);
+			try
+			{
+				stmt.setInt(1, RecordSource.BEILSTEIN);
+				stmt.setDouble(2, lowerBound);
+				stmt.setDouble(3, upperBound);
+				ResultSet rs = stmt.executeQuery();
+				while(rs.next())
+			    {
+					candidates.add(rs.getString("id"));
+			    }
+			}
+			finally
+			{
+				stmt.close();
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
+	}
+	
+	
 	/**
 	 * Gets the names to a specified beilstein ID using the local pubchem snapshot!
 	 * 
@@ -129,25 +133,31 @@ public class BeilsteinLocal {
 	public List<String> getNames(String beilsteinID) throws SQLException, ClassNotFoundException, InvalidSmilesException
 	{
 		List<String> ret = new ArrayList<String>();
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-        Statement stmt = con.createStatement();
-	    ResultSet rs = stmt.executeQuery("select NAME from CH_NAME where ID = '" + beilsteinID + "' limit 10;");
-	    
-	    while(rs.next())
-	    {
-	    	//Name
-	    	System.out.print(beilsteinID);
-	    	ret.add(rs.getString("NAME"));
-	    		
-	    }
-	    con.close();
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			PreparedStatement stmt = con.prepareStatement("select NAME from CH_NAME where ID = ? limit 10");
+			try
+			{
+				stmt.setString(1, beilsteinID);
+				ResultSet rs = stmt.executeQuery();
+			    while(rs.next())
+			    {
+			    	//Name
+			    	System.out.print(beilsteinID);
+			    	ret.add(rs.getString("NAME"));
+			    }
+			}
+			finally
+			{
+				stmt.close();
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
 	    
 	    return ret;
 	}
@@ -166,27 +176,35 @@ public class BeilsteinLocal {
 	 */
 	public IAtomContainer getMol(String beilsteinID, boolean getAll) throws SQLException, ClassNotFoundException, InvalidSmilesException
 	{
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-        Statement stmt = con.createStatement();
-	    ResultSet rs = stmt.executeQuery("SELECT SMILES FROM RECORD WHERE ID = '" + beilsteinID + "';");
-	    SmilesParser sp1 = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		SmilesParser sp1 = new SmilesParser(DefaultChemObjectBuilder.getInstance());
 	    IAtomContainer molecule = null;
-	    while(rs.next())
-	    {
-	    	//Name
-	    	System.out.print(beilsteinID);
-	    	String smiles = rs.getString("smiles");
-	    	if(MolecularFormulaTools.isBiologicalCompound(smiles) || getAll)
-	    		molecule = sp1.parseSmiles(smiles);
-	    }
-	    con.close();
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			PreparedStatement stmt = con.prepareStatement("SELECT SMILES FROM RECORD WHERE ID = ?");
+			try
+			{
+				stmt.setString(1, beilsteinID);
+				ResultSet rs = stmt.executeQuery();
+			    while(rs.next())
+			    {
+			    	//Name
+			    	System.out.print(beilsteinID);
+			    	String smiles = rs.getString("smiles");
+			    	if(MolecularFormulaTools.isBiologicalCompound(smiles) || getAll)
+			    		molecule = sp1.parseSmiles(smiles);
+			    }
+			}
+			finally
+			{
+				stmt.close();
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
 	    
 	    return molecule;
 	}
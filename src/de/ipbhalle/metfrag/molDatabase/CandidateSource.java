@@ -0,0 +1,38 @@
+package de.ipbhalle.metfrag.molDatabase;
+
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * A local source of PubChem candidates: the MySQL database ({@link PubChemLocal}) or
+ * the memory mapped mass index file ({@link MassIndex}).
+ */
+public interface CandidateSource {
+
+	/**
+	 * Gets the IDs of the candidates in the mass range (ordered by ID).
+	 *
+	 * @param lowerBound the lower bound
+	 * @param upperBound the upper bound
+	 *
+	 * @return the candidate IDs
+	 *
+	 * @throws Exception the candidates could not be read
+	 */
+	public List<String> getHits(double lowerBound, double upperBound) throws Exception;
+
+	/**
+	 * Gets the smiles of many candidates at once. Only the chonsp candidates which are no
+	 * hydrocarbons are returned (or all candidates with getALL).
+	 *
+	 * @param ids the candidate IDs
+	 * @param getALL gets the molecules also if not biological compound
+	 *
+	 * @return the smiles by ID (in the order of the IDs)
+	 *
+	 * @throws Exception the candidates could not be read
+	 */
+	public Map<String, String> getSmiles(List<String> ids, boolean getALL) throws Exception;
+
+}
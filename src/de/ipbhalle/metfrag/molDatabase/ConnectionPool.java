@@ -0,0 +1,187 @@
+package de.ipbhalle.metfrag.molDatabase;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+
+/**
+ * A simple pool of JDBC connections. There is one pool per database url and user, shared by all
+ * local database accesses (PubChemLocal, KEGGLocal and BeilsteinLocal) of the JVM, so the connection
+ * is not opened again for every candidate. The pool is thread safe.
+ * <p/>
+ * The MySQL driver is loaded for "jdbc:mysql:" urls. For other JDBC urls the driver has to be
+ * registered by the caller...only MySQL is used and tested with the MassBank schema.
+ */
+public class ConnectionPool {
+
+	//idle connections are closed after this time...the server may have closed them already
+	private static final long MAX_IDLE_TIME = 60000;
+	private static final int MAX_IDLE_CONNECTIONS = 16;
+
+	private static Map<String, ConnectionPool> pools = new HashMap<String, ConnectionPool>();
+
+	private String url;
+	private String username;
+	private String password;
+	private LinkedList<IdleConnection> idle = new LinkedList<IdleConnection>();
+
+
+	/**
+	 * Instantiates a new connection pool.
+	 *
+	 * @param url the database url
+	 * @param username the username
+	 * @param password the password
+	 */
+	private ConnectionPool(String url, String username, String password)
+	{
+		this.url = url;
+		this.username = username;
+		this.password = password;
+	}
+
+
+	/**
+	 * Gets the pool of the database.
+	 *
+	 * @param url the database url
+	 * @param username the username
+	 * @param password the password
+	 *
+	 * @return the pool
+	 *
+	 * @throws ClassNotFoundException the JDBC driver was not found
+	 */
+	public static synchronized ConnectionPool getInstance(String url, String username, String password) throws ClassNotFoundException
+	{
+		String key = url + "\n" + username;
+		ConnectionPool pool = pools.get(key);
+		if(pool == null)
+		{
+			if(url.startsWith("jdbc:mysql:"))
+				Class.forName("com.mysql.jdbc.Driver");
+			pool = new ConnectionPool(url, username, password);
+			pools.put(key, pool);
+		}
+		return pool;
+	}
+
+
+	/**
+	 * Gets a connection. It has to be given back with {@link #release(Connection)}.
+	 *
+	 * @return the connection
+	 *
+	 * @throws SQLException the SQL exception
+	 */
+	public Connection getConnection() throws SQLException
+	{
+		long now = System.currentTimeMillis();
+		while(true)
+		{
+			IdleConnection pooled = null;
+			synchronized (idle) {
+				if(idle.isEmpty())
+					break;
+				//the most recently used connection
+				pooled = idle.removeLast();
+			}
+			if(now - pooled.since <= MAX_IDLE_TIME && !pooled.connection.isClosed())
+				return pooled.connection;
+			close(pooled.connection);
+		}
+		return DriverManager.getConnection(url, username, password);
+	}
+
+
+	/**
+	 * Gives the connection back to the pool. All statements of the connection have to be closed.
+	 *
+	 * @param connection the connection (may be null)
+	 */
+	public void release(Connection connection)
+	{
+		if(connection == null)
+			return;
+		try {
+			if(connection.isClosed())
+				return;
+		} catch (SQLException e) {
+			close(connection);
+			return;
+		}
+
+		synchronized (idle) {
+			if(idle.size() < MAX_IDLE_CONNECTIONS)
+			{
+				idle.add(new IdleConnection(connection));
+				return;
+			}
+		}
+		close(connection);
+	}
+
+
+	/**
+	 * Closes all idle connections.
+	 */
+	public void close()
+	{
+		synchronized (idle) {
+			for (IdleConnection pooled : idle) {
+				close(pooled.connection);
+			}
+			idle.clear();
+		}
+	}
+
+
+	/**
+	 * Gets the placeholders of an IN clause for a prepared statement, e.g. "(?,?,?)".
+	 *
+	 * @param count the number of values
+	 *
+	 * @return the IN clause
+	 */
+	public static String getInClause(int count)
+	{
+		StringBuilder sb = new StringBuilder("(");
+		for (int i = 0; i < count; i++) {
+			if(i > 0)
+				sb.append(',');
+			sb.append('?');
+		}
+		return sb.append(')').toString();
+	}
+
+
+	private static void close(Connection connection)
+	{
+		try {
+			connection.close();
+		} catch (SQLException e) {
+			//nothing to do
+		}
+	}
+
+
+	/**
+	 * An idle connection and the time it was given back.
+	 */
+	private static class IdleConnection {
+
+		private Connection connection;
+		private long since;
+
+		private IdleConnection(Connection connection)
+		{
+			this.connection = connection;
+			this.since = System.currentTimeMillis();
+		}
+	}
+
+}
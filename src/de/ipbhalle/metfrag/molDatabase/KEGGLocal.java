@@ -1,10 +1,9 @@
 package de.ipbhalle.metfrag.molDatabase;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -49,25 +48,32 @@ public class KEGGLocal {
 	{
 		List<String> candidatesString = new ArrayList<String>();    
 		System.out.println("Lower bound: " + lowerBound + " Upper bound: " + upperBound);
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-	    
-        Statement stmt = null;
-	    stmt = con.createStatement();
-	    //now select only the pubchem entries!
-	    ResultSet rs = stmt.executeQuery("SELECT ID FROM RECORD WHERE CHONSP = '1' and SUBSTRING(ID,1,1) = 'C' and EXACT_MASS >= '" + lowerBound + "' and EXACT_MASS <= '" + upperBound + "' limit " + limit);
-
-	    while(rs.next())
-	    {
-	    	candidatesString.add(rs.getString("id"));
-	    }
-        con.close();
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			//now select only the kegg entries...range scan on the index (SOURCE, EXACT_MASS, NUM_ID)
+			PreparedStatement stmt = con.prepareStatement("SELECT ID FROM RECORD WHERE SOURCE = ? and EXACT_MASS >= ? and EXACT_MASS <= ? and CHONSP = 1 limit " + limit);
+			try
+			{
+				stmt.setInt(1, RecordSource.KEGG);
+				stmt.setDouble(2, lowerBound);
+				stmt.setDouble(3, upperBound);
+				ResultSet rs = stmt.executeQuery();
+			    while(rs.next())
+			    {
+			    	candidatesString.add(rs.getString("id"));
+			    }
+			}
+			finally
+			{
+				stmt.close();
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
         
         return candidatesString;
 	}
@@ -86,27 +92,35 @@ public class KEGGLocal {
 	 */
 	public IAtomContainer getMol(String KEGGID) throws SQLException, ClassNotFoundException, InvalidSmilesException
 	{
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-        Statement stmt = con.createStatement();
-	    ResultSet rs = stmt.executeQuery("SELECT SMILES FROM RECORD WHERE ID = '" + KEGGID + "';");
-	    SmilesParser sp1 = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		SmilesParser sp1 = new SmilesParser(DefaultChemObjectBuilder.getInstance());
 	    IAtomContainer molecule = null;
-	    while(rs.next())
-	    {
-	    	//Name
-	    	System.out.print(KEGGID);
-	    	String smiles = rs.getString("smiles");
-	    	if(MolecularFormulaTools.isBiologicalCompound(smiles))
-	    		molecule = sp1.parseSmiles(smiles);
-	    }
-	    con.close();
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			PreparedStatement stmt = con.prepareStatement("SELECT SMILES FROM RECORD WHERE ID = ?");
+			try
+			{
+				stmt.setString(1, KEGGID);
+				ResultSet rs = stmt.executeQuery();
+			    while(rs.next())
+			    {
+			    	//Name
+			    	System.out.print(KEGGID);
+			    	String smiles = rs.getString("smiles");
+			    	if(MolecularFormulaTools.isBiologicalCompound(smiles))
+			    		molecule = sp1.parseSmiles(smiles);
+			    }
+			}
+			finally
+			{
+				stmt.close();
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
 	    
 	    return molecule;
 	}
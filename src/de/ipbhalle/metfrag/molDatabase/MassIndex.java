@@ -0,0 +1,362 @@
+package de.ipbhalle.metfrag.molDatabase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.exception.InvalidSmilesException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+
+
+/**
+ * Local PubChem candidate source without a database: a file with the exact masses, IDs and
+ * smiles/InChIs of all compounds which is read memory mapped. The file is built once from the
+ * PubChem SDF files with the MassIndexBuilder (database package). All JVMs on one node share
+ * the file in the page cache.
+ * <p/>
+ * File layout (n entries, big endian):
+ * <pre>
+ * header (32 bytes)   magic, version, n, blob start
+ * double[n]           exact masses (sorted)
+ * long[n]             PubChem IDs (in mass order)
+ * long[n]             offsets of the entries in the blob (in mass order)
+ * long[n]             PubChem IDs (sorted)
+ * int[n]              mass order position of the sorted IDs
+ * byte[n]             chonsp flags (in mass order)
+ * blob                per entry: smiles and InChI (int length + UTF-8 bytes)
+ * </pre>
+ * The blob is mapped in chunks of {@link #CHUNK_SIZE} bytes, entries never cross a chunk border.
+ * The index is thread safe.
+ */
+public class MassIndex implements CandidateSource {
+
+	public static final int MAGIC = 0x4d464d49;
+	public static final int VERSION = 1;
+	public static final int HEADER_SIZE = 32;
+	public static final int CHUNK_SIZE = 1 << 30;
+
+	private static Map<File, MassIndex> instances = new HashMap<File, MassIndex>();
+
+	private int count;
+	private DoubleBuffer masses;
+	private LongBuffer ids;
+	private LongBuffer offsets;
+	private LongBuffer sortedIds;
+	private IntBuffer idPositions;
+	private ByteBuffer chonsp;
+	private MappedByteBuffer[] blob;
+
+
+	/**
+	 * Opens the mass index.
+	 *
+	 * @param file the index file
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public MassIndex(File file) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+			if(header.getInt() != MAGIC || header.getInt() != VERSION)
+				throw new IOException("No mass index (or wrong version): " + file);
+			count = header.getInt();
+			long blobStart = header.getLong();
+
+			long position = HEADER_SIZE;
+			masses = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * count).asDoubleBuffer();
+			position += 8L * count;
+			ids = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * count).asLongBuffer();
+			position += 8L * count;
+			offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * count).asLongBuffer();
+			position += 8L * count;
+			sortedIds = channel.map(FileChannel.MapMode.READ_ONLY, position, 8L * count).asLongBuffer();
+			position += 8L * count;
+			idPositions = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).asIntBuffer();
+			position += 4L * count;
+			chonsp = channel.map(FileChannel.MapMode.READ_ONLY, position, count);
+
+			long blobSize = channel.size() - blobStart;
+			int chunks = (int)((blobSize + CHUNK_SIZE - 1) / CHUNK_SIZE);
+			blob = new MappedByteBuffer[chunks];
+			for (int i = 0; i < chunks; i++) {
+				long start = blobStart + (long)i * CHUNK_SIZE;
+				blob[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(CHUNK_SIZE, channel.size() - start));
+			}
+		}
+		finally
+		{
+			//the mappings stay valid
+			raf.close();
+		}
+	}
+
+
+	/**
+	 * Gets the index shared by all searches of this JVM.
+	 *
+	 * @param path the index file
+	 *
+	 * @return the mass index
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static synchronized MassIndex getInstance(String path) throws IOException
+	{
+		File file = new File(path).getAbsoluteFile();
+		MassIndex index = instances.get(file);
+		if(index == null)
+		{
+			index = new MassIndex(file);
+			instances.put(file, index);
+		}
+		return index;
+	}
+
+
+	/**
+	 * Gets the number of entries.
+	 *
+	 * @return the size
+	 */
+	public int size()
+	{
+		return count;
+	}
+
+
+	/**
+	 * Gets the entries in the mass range.
+	 *
+	 * @param lowerBound the lower bound
+	 * @param upperBound the upper bound
+	 *
+	 * @return the first and the last (exclusive) position
+	 */
+	public int[] getRange(double lowerBound, double upperBound)
+	{
+		int from = lowerBound(lowerBound, false);
+		int to = lowerBound(upperBound, true);
+		return new int[] {from, Math.max(from, to)};
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.molDatabase.CandidateSource#getHits(double, double)
+	 */
+	public List<String> getHits(double lowerBound, double upperBound)
+	{
+		System.out.println("Lower bound: " + lowerBound + " Upper bound: " + upperBound);
+		int[] range = getRange(lowerBound, upperBound);
+		//ordered by ID like the database query
+		long[] hits = new long[range[1] - range[0]];
+		for (int i = range[0]; i < range[1]; i++) {
+			hits[i - range[0]] = ids.get(i);
+		}
+		Arrays.sort(hits);
+		List<String> ret = new ArrayList<String>(hits.length);
+		for (long id : hits) {
+			ret.add(Long.toString(id));
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Gets the hits in the mass range.
+	 *
+	 * @param lowerBound the lower bound
+	 * @param upperBound the upper bound
+	 *
+	 * @return the hits
+	 */
+	public Vector<String> getHitsVector(double lowerBound, double upperBound)
+	{
+		return new Vector<String>(getHits(lowerBound, upperBound));
+	}
+
+
+	/**
+	 * Gets the position of the pubchem ID.
+	 *
+	 * @param pubChemID the pub chem id
+	 *
+	 * @return the position in mass order or -1 if it is not contained
+	 */
+	public int getPosition(String pubChemID)
+	{
+		long id;
+		try {
+			id = Long.parseLong(pubChemID);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+		int low = 0;
+		int high = count - 1;
+		while(low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			long value = sortedIds.get(mid);
+			if(value < id)
+				low = mid + 1;
+			else if(value > id)
+				high = mid - 1;
+			else
+				return idPositions.get(mid);
+		}
+		return -1;
+	}
+
+
+	public double getMass(int position)
+	{
+		return masses.get(position);
+	}
+
+	public String getSmiles(int position)
+	{
+		return readEntry(position, 0);
+	}
+
+	public String getInChI(int position)
+	{
+		return readEntry(position, 1);
+	}
+
+	public boolean isCHONSP(int position)
+	{
+		return chonsp.get(position) == 1;
+	}
+
+
+	/**
+	 * Gets the mol.
+	 *
+	 * @param pubChemID the pub chem id
+	 * @param getALL gets the molecule also if not biological compound
+	 *
+	 * @return the mol or null
+	 *
+	 * @throws InvalidSmilesException the invalid smiles exception
+	 */
+	public IAtomContainer getMol(String pubChemID, boolean getALL) throws InvalidSmilesException
+	{
+		int position = getPosition(pubChemID);
+		if(position < 0)
+			return null;
+		String smiles = getSmiles(position);
+		if(!PubChemLocal.isCandidate(smiles, chonsp.get(position), getALL))
+			return null;
+		return new SmilesParser(DefaultChemObjectBuilder.getInstance()).parseSmiles(smiles);
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.molDatabase.CandidateSource#getSmiles(java.util.List, boolean)
+	 */
+	public Map<String, String> getSmiles(List<String> pubChemIDs, boolean getALL)
+	{
+		Map<String, String> ret = new LinkedHashMap<String, String>();
+		for (String pubChemID : pubChemIDs) {
+			int position = getPosition(pubChemID);
+			if(position < 0)
+				continue;
+			String smiles = getSmiles(position);
+			if(PubChemLocal.isCandidate(smiles, chonsp.get(position), getALL))
+				ret.put(pubChemID, smiles);
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Gets the molecules of many candidates (see {@link #getSmiles(List, boolean)}).
+	 * Candidates with invalid smiles are skipped.
+	 *
+	 * @param pubChemIDs the pub chem ids
+	 * @param getALL gets the molecules also if not biological compound
+	 *
+	 * @return the molecules by pubchem ID (in the order of the IDs)
+	 */
+	public Map<String, IAtomContainer> getMols(List<String> pubChemIDs, boolean getALL)
+	{
+		SmilesParser sp1 = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		Map<String, IAtomContainer> ret = new LinkedHashMap<String, IAtomContainer>();
+		for (Map.Entry<String, String> entry : getSmiles(pubChemIDs, getALL).entrySet()) {
+			try {
+				ret.put(entry.getKey(), sp1.parseSmiles(entry.getValue()));
+			} catch (InvalidSmilesException e) {
+				System.out.println("Error parsing smiles!!! " + e.getMessage() + " Candidate: " + entry.getKey());
+			}
+		}
+		return ret;
+	}
+
+
+	/**
+	 * First position with a mass >= value (or > value if upper is set).
+	 */
+	private int lowerBound(double value, boolean upper)
+	{
+		int low = 0;
+		int high = count;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			double mass = masses.get(mid);
+			if(mass < value || (upper && mass == value))
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+
+	/**
+	 * Read one string of the entry.
+	 *
+	 * @param position the position in mass order
+	 * @param field 0 = smiles, 1 = InChI
+	 *
+	 * @return the string
+	 */
+	private String readEntry(int position, int field)
+	{
+		long offset = offsets.get(position);
+		//read from a duplicate...the position of the shared buffers is never changed
+		ByteBuffer buffer = blob[(int)(offset / CHUNK_SIZE)].duplicate();
+		buffer.position((int)(offset % CHUNK_SIZE));
+		for (int i = 0; i < field; i++) {
+			int length = buffer.getInt();
+			buffer.position(buffer.position() + length);
+		}
+		byte[] bytes = new byte[buffer.getInt()];
+		buffer.get(bytes);
+		try {
+			return new String(bytes, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -6,12 +6,12 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Vector;
@@ -24,8 +24,13 @@ import org.openscience.cdk.smiles.SmilesParser;
 
 
 
-public class PubChemLocal {
+public class PubChemLocal implements CandidateSource {
 
+	//max number of IDs in one IN clause
+	private static final int BATCH_SIZE = 500;
+	//range scan on the index (SOURCE, EXACT_MASS, NUM_ID)...see RecordSource
+	private static final String HITS_QUERY = "SELECT ID FROM RECORD WHERE SOURCE = ? and EXACT_MASS >= ? and EXACT_MASS <= ? order by NUM_ID";
+	
 	private String url = ""; 
     private String username = ""; 
     private String password = ""; 
@@ -56,26 +61,7 @@ public class PubChemLocal {
 	{
 		List<String> candidatesString = new ArrayList<String>();    
 		System.out.println("Lower bound: " + lowerBound + " Upper bound: " + upperBound);
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-	    
-        Statement stmt = null;
-	    stmt = con.createStatement();
-	    //now select only the pubchem entries!
-	    ResultSet rs = stmt.executeQuery("SELECT ID FROM RECORD WHERE SUBSTRING(ID,1,1) != 'C' and SUBSTRING(ID,1,1) != 'B' and EXACT_MASS >= '" + lowerBound + "' and EXACT_MASS <= '" + upperBound + "' order by  CAST(ID as UNSIGNED)");
-
-	    while(rs.next())
-	    {
-	    	candidatesString.add(rs.getString("id"));
-	    }
-        con.close();
-        
+		readHits(lowerBound, upperBound, candidatesString);
         return candidatesString;
 	}
 	
@@ -96,30 +82,52 @@ public class PubChemLocal {
 	{
 		Vector<String> candidatesString = new Vector<String>();    
 		System.out.println("Lower bound: " + lowerBound + " Upper bound: " + upperBound);
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-	    
-        Statement stmt = null;
-	    stmt = con.createStatement();
-	    //now select only the pubchem entries!
-	    ResultSet rs = stmt.executeQuery("SELECT ID FROM RECORD WHERE SUBSTRING(ID,1,1) != 'C' and SUBSTRING(ID,1,1) != 'B' and EXACT_MASS >= '" + lowerBound + "' and EXACT_MASS <= '" + upperBound + "' order by  CAST(ID as UNSIGNED)");
-
-	    while(rs.next())
-	    {
-	    	candidatesString.add(rs.getString("id"));
-	    }
-        con.close();
-        
+		readHits(lowerBound, upperBound, candidatesString);
         return candidatesString;
 	}
 	
 	
+	/**
+	 * Read the pubchem entries in the mass range.
+	 * 
+	 * @param lowerBound the lower bound
+	 * @param upperBound the upper bound
+	 * @param candidates the list to add the IDs to
+	 * 
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	private void readHits(double lowerBound, double upperBound, List<String> candidates) throws SQLException, ClassNotFoundException
+	{
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			//now select only the pubchem entries!
+			PreparedStatement stmt = con.prepareStatement(HITS_QUERY);
+			try
+			{
+				stmt.setInt(1, RecordSource.PUBCHEM);
+				stmt.setDouble(2, lowerBound);
+				stmt.setDouble(3, upperBound);
+				ResultSet rs = stmt.executeQuery();
+				while(rs.next())
+			    {
+					candidates.add(rs.getString("id"));
+			    }
+			}
+			finally
+			{
+				stmt.close();
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
+	}
+	
+	
 	/**
 	 * Gets the mol.
 	 * 
@@ -134,36 +142,140 @@ public class PubChemLocal {
 	 */
 	public IAtomContainer getMol(String pubChemID, boolean getALL) throws SQLException, ClassNotFoundException, InvalidSmilesException
 	{
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-        Statement stmt = con.createStatement();
-	    ResultSet rs = stmt.executeQuery("SELECT SMILES, CHONSP FROM RECORD WHERE ID = '" + pubChemID + "' limit 1;");
-	    SmilesParser sp1 = new SmilesParser(DefaultChemObjectBuilder.getInstance());
-	    IAtomContainer molecule = null;
-	    Boolean chonsp = false;
-	    while(rs.next())
-	    {
-	    	//Name
-	    	System.out.print(pubChemID);
-	    	String smiles = rs.getString("smiles");
-	    	this.lastSmiles = smiles;
-	    	boolean bioTest = smiles.contains("C") && (!smiles.contains("O") && !smiles.contains("N") && !smiles.contains("S") && !smiles.contains("P"));
-	    	//boolean bioTest = false;
-	    	if((rs.getInt("chonsp") == 1 && !bioTest) || getALL)
-	    		molecule = sp1.parseSmiles(smiles);
-	    		
-	    }
-	    con.close();
+		SmilesParser sp1 = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		IAtomContainer molecule = null;
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			PreparedStatement stmt = con.prepareStatement("SELECT SMILES, CHONSP FROM RECORD WHERE ID = ? limit 1");
+			try
+			{
+				stmt.setString(1, pubChemID);
+				ResultSet rs = stmt.executeQuery();
+			    while(rs.next())
+			    {
+			    	//Name
+			    	System.out.print(pubChemID);
+			    	String smiles = rs.getString("smiles");
+			    	this.lastSmiles = smiles;
+			    	if(isCandidate(smiles, rs.getInt("chonsp"), getALL))
+			    		molecule = sp1.parseSmiles(smiles);
+			    }
+			}
+			finally
+			{
+				stmt.close();
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
 	    
 	    return molecule;
 	}
 	
+	
+	/**
+	 * Gets the smiles of many candidates at once...one query for up to 500 IDs instead of one
+	 * query per candidate. Only the candidates which would be returned by {@link #getMol(String, boolean)}
+	 * are contained.
+	 * 
+	 * @param pubChemIDs the pub chem ids
+	 * @param getALL gets the molecules also if not biological compound
+	 * 
+	 * @return the smiles by pubchem ID (in the order of the IDs)
+	 * 
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	public Map<String, String> getSmiles(List<String> pubChemIDs, boolean getALL) throws SQLException, ClassNotFoundException
+	{
+		Map<String, String> found = new HashMap<String, String>();
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			for (int start = 0; start < pubChemIDs.size(); start += BATCH_SIZE) {
+				List<String> batch = pubChemIDs.subList(start, Math.min(start + BATCH_SIZE, pubChemIDs.size()));
+				PreparedStatement stmt = con.prepareStatement("SELECT ID, SMILES, CHONSP FROM RECORD WHERE ID IN " + ConnectionPool.getInClause(batch.size()));
+				try
+				{
+					for (int i = 0; i < batch.size(); i++) {
+						stmt.setString(i + 1, batch.get(i));
+					}
+					ResultSet rs = stmt.executeQuery();
+					while(rs.next())
+				    {
+						String smiles = rs.getString("smiles");
+						if(isCandidate(smiles, rs.getInt("chonsp"), getALL))
+							found.put(rs.getString("id"), smiles);
+				    }
+				}
+				finally
+				{
+					stmt.close();
+				}
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
+		
+		Map<String, String> ret = new LinkedHashMap<String, String>();
+		for (String pubChemID : pubChemIDs) {
+			if(found.containsKey(pubChemID))
+				ret.put(pubChemID, found.get(pubChemID));
+		}
+		return ret;
+	}
+	
+	
+	/**
+	 * Gets the molecules of many candidates at once (see {@link #getSmiles(List, boolean)}).
+	 * Candidates with invalid smiles are skipped.
+	 * 
+	 * @param pubChemIDs the pub chem ids
+	 * @param getALL gets the molecules also if not biological compound
+	 * 
+	 * @return the molecules by pubchem ID (in the order of the IDs)
+	 * 
+	 * @throws SQLException the SQL exception
+	 * @throws ClassNotFoundException the class not found exception
+	 */
+	public Map<String, IAtomContainer> getMols(List<String> pubChemIDs, boolean getALL) throws SQLException, ClassNotFoundException
+	{
+		SmilesParser sp1 = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		Map<String, IAtomContainer> ret = new LinkedHashMap<String, IAtomContainer>();
+		for (Map.Entry<String, String> entry : getSmiles(pubChemIDs, getALL).entrySet()) {
+			try {
+				ret.put(entry.getKey(), sp1.parseSmiles(entry.getValue()));
+			} catch (InvalidSmilesException e) {
+				System.out.println("Error parsing smiles!!! " + e.getMessage() + " Candidate: " + entry.getKey());
+			}
+		}
+		return ret;
+	}
+	
+	
+	/**
+	 * Checks if the entry is a candidate: chonsp and no hydrocarbon (or all entries).
+	 * 
+	 * @param smiles the smiles
+	 * @param chonsp the chonsp flag
+	 * @param getALL all entries
+	 * 
+	 * @return true, if it is a candidate
+	 */
+	static boolean isCandidate(String smiles, int chonsp, boolean getALL)
+	{
+		boolean bioTest = smiles.contains("C") && (!smiles.contains("O") && !smiles.contains("N") && !smiles.contains("S") && !smiles.contains("P"));
+		//boolean bioTest = false;
+		return (chonsp == 1 && !bioTest) || getALL;
+	}
+	
 	/**
 	 * Gets the last smiles which was just retrieeved from the database.
 	 * 
@@ -189,25 +301,31 @@ public class PubChemLocal {
 	public List<String> getNames(String pubChemID) throws SQLException, ClassNotFoundException, InvalidSmilesException
 	{
 		List<String> ret = new ArrayList<String>();
-		//now retrieve the search results
-        String driver = "com.mysql.jdbc.Driver"; 
-        Connection con = null; 
-		Class.forName(driver); 
-		DriverManager.registerDriver (new com.mysql.jdbc.Driver()); 
-        // JDBC-driver
-        Class.forName(driver);
-        con = DriverManager.getConnection(url, username, password);
-        Statement stmt = con.createStatement();
-	    ResultSet rs = stmt.executeQuery("select NAME from CH_NAME where ID = '" + pubChemID + "' limit 10;");
-	    
-	    while(rs.next())
-	    {
-	    	//Name
-	    	//System.out.print(pubChemID);
-	    	ret.add(rs.getString("NAME"));
-	    		
-	    }
-	    con.close();
+		ConnectionPool pool = ConnectionPool.getInstance(url, username, password);
+		Connection con = pool.getConnection();
+		try
+		{
+			PreparedStatement stmt = con.prepareStatement("select NAME from CH_NAME where ID = ? limit 10");
+			try
+			{
+				stmt.setString(1, pubChemID);
+				ResultSet rs = stmt.executeQuery();
+			    while(rs.next())
+			    {
+			    	//Name
+			    	//System.out.print(pubChemID);
+			    	ret.add(rs.getString("NAME"));
+			    }
+			}
+			finally
+			{
+				stmt.close();
+			}
+		}
+		finally
+		{
+			pool.release(con);
+		}
 	    
 	    return ret;
 	}
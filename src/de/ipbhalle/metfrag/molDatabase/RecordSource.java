@@ -0,0 +1,53 @@
+package de.ipbhalle.metfrag.molDatabase;
+
+
+/**
+ * The source database of a RECORD entry. The RECORD table stores the source and the numeric part
+ * of the ID next to the string ID, so the candidates of one source are found with a range scan on
+ * the index (SOURCE, EXACT_MASS, NUM_ID) instead of a full table scan with string functions.
+ */
+public class RecordSource {
+
+	public static final int PUBCHEM = 1;
+	//IDs like C00031
+	public static final int KEGG = 2;
+	//IDs like BE000123
+	public static final int BEILSTEIN = 3;
+
+
+	/**
+	 * Gets the source of the ID.
+	 *
+	 * @param id the ID of the entry
+	 *
+	 * @return the source
+	 */
+	public static int getSource(String id)
+	{
+		if(id.startsWith("C"))
+			return KEGG;
+		else if(id.startsWith("B"))
+			return BEILSTEIN;
+		else
+			return PUBCHEM;
+	}
+
+
+	/**
+	 * Gets the numeric part of the ID (without the prefix).
+	 *
+	 * @param id the ID of the entry
+	 *
+	 * @return the numeric ID or 0 if there are no digits
+	 */
+	public static long getNumericID(String id)
+	{
+		int start = 0;
+		while(start < id.length() && !Character.isDigit(id.charAt(start)))
+			start++;
+		if(start == id.length())
+			return 0;
+		return Long.parseLong(id.substring(start));
+	}
+
+}
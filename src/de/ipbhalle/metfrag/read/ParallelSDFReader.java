@@ -0,0 +1,279 @@
+package de.ipbhalle.metfrag.read;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
+
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.io.iterator.IteratingMDLReader;
+
+
+/**
+ * Reads a (gzipped) SDF file in parallel, a drop in replacement for the {@link IteratingMDLReader}.
+ * One thread per file decompresses the stream and splits it into the records ("$$$$"), the records are
+ * parsed (MDL block and properties) by a pool shared by all readers of the JVM. So the records of a
+ * large file are parsed by all processors, also if the other files are done already.
+ * <p/>
+ * The molecules are returned in the order of the file. The parsed records wait in a bounded queue,
+ * the splitting thread blocks if the consumer can't keep up. Records which can't be parsed are skipped.
+ */
+public class ParallelSDFReader implements Iterator<IAtomContainer> {
+
+	//records read ahead per file
+	public static final int DEFAULT_QUEUE_SIZE = 1000;
+	private static final String RECORD_END = "$$$$";
+
+	private static ExecutorService parserPool;
+
+	//marks the end of the file
+	private static final Future<IAtomContainer> END = new FutureTask<IAtomContainer>(new Runnable() {
+		public void run() {}
+	}, null);
+
+	private BlockingQueue<Future<IAtomContainer>> queue;
+	private InputStream in;
+	private Thread splitter;
+	private IAtomContainer nextMolecule = null;
+	private boolean done = false;
+	private volatile IOException error = null;
+
+
+	/**
+	 * Instantiates a new parallel SDF reader.
+	 *
+	 * @param in the SDF stream (already decompressed, see {@link #open(File)})
+	 */
+	public ParallelSDFReader(InputStream in)
+	{
+		this(in, DEFAULT_QUEUE_SIZE);
+	}
+
+
+	/**
+	 * Instantiates a new parallel SDF reader.
+	 *
+	 * @param in the SDF stream (already decompressed, see {@link #open(File)})
+	 * @param queueSize the max number of records read ahead
+	 */
+	public ParallelSDFReader(InputStream in, int queueSize)
+	{
+		this.in = in;
+		this.queue = new ArrayBlockingQueue<Future<IAtomContainer>>(queueSize);
+		final ExecutorService pool = getParserPool();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(in), 1 << 16);
+
+		splitter = new Thread(new Runnable() {
+			public void run() {
+				boolean closed = false;
+				try
+				{
+					StringBuilder record = new StringBuilder();
+					String line;
+					while((line = reader.readLine()) != null)
+					{
+						record.append(line).append('\n');
+						if(line.startsWith(RECORD_END))
+						{
+							queue.put(pool.submit(new RecordParser(record.toString())));
+							record.setLength(0);
+						}
+					}
+					//last record without "$$$$"
+					if(record.toString().trim().length() > 0)
+						queue.put(pool.submit(new RecordParser(record.toString())));
+				}
+				catch(IOException e)
+				{
+					error = e;
+				}
+				catch(InterruptedException e)
+				{
+					closed = true;
+				}
+				catch(RuntimeException e)
+				{
+					//e.g. the parser pool is shut down
+					error = new IOException("Error splitting the records: " + e, e);
+				}
+				finally
+				{
+					//the consumer waits for the end...also after an error
+					if(!closed)
+					{
+						try {
+							queue.put(END);
+						} catch (InterruptedException e) {
+							//closed
+						}
+					}
+				}
+			}
+		}, "SDF splitter");
+		splitter.setDaemon(true);
+		splitter.start();
+	}
+
+
+	/**
+	 * Opens the SDF file, gzipped if the name ends with ".gz".
+	 *
+	 * @param file the file
+	 *
+	 * @return the input stream
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static InputStream open(File file) throws IOException
+	{
+		InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+		if(file.getName().endsWith(".gz"))
+			in = new GZIPInputStream(in, 1 << 16);
+		return in;
+	}
+
+
+	/**
+	 * Gets the pool parsing the records of all readers (one thread per processor).
+	 *
+	 * @return the parser pool
+	 */
+	private static synchronized ExecutorService getParserPool()
+	{
+		if(parserPool == null)
+		{
+			parserPool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "SDF parser");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+		return parserPool;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#hasNext()
+	 */
+	public boolean hasNext()
+	{
+		while(nextMolecule == null && !done)
+		{
+			try
+			{
+				Future<IAtomContainer> parsed = queue.take();
+				if(parsed == END)
+				{
+					done = true;
+					if(error != null)
+						System.err.println("Error reading SDF: " + error.getMessage());
+				}
+				else
+					nextMolecule = parsed.get();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				done = true;
+			}
+			catch(ExecutionException e)
+			{
+				System.err.println("Skipped record: " + e.getCause().getMessage());
+			}
+		}
+		return nextMolecule != null;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see java.util.Iterator#next()
+	 */
+	public IAtomContainer next()
+	{
+		if(!hasNext())
+			throw new NoSuchElementException();
+		IAtomContainer molecule = nextMolecule;
+		nextMolecule = null;
+		return molecule;
+	}
+
+
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+
+
+	/**
+	 * Gets the read error.
+	 *
+	 * @return the error or null if the file was read completely
+	 */
+	public IOException getError()
+	{
+		return error;
+	}
+
+
+	/**
+	 * Stops the splitting thread and closes the stream.
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void close() throws IOException
+	{
+		done = true;
+		splitter.interrupt();
+		queue.clear();
+		in.close();
+	}
+
+
+	/**
+	 * Parses one record (MDL block and properties).
+	 */
+	private static class RecordParser implements Callable<IAtomContainer> {
+
+		private String record;
+
+		private RecordParser(String record)
+		{
+			this.record = record;
+		}
+
+		public IAtomContainer call() throws Exception
+		{
+			IteratingMDLReader reader = new IteratingMDLReader(new StringReader(record), DefaultChemObjectBuilder.getInstance());
+			try
+			{
+				if(!reader.hasNext())
+					throw new IOException("Invalid record");
+				return (IAtomContainer)reader.next();
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+	}
+
+}
@@ -2,21 +2,17 @@ package de.ipbhalle.metfrag.read;
 
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
-import org.openscience.cdk.ChemFile;
-import org.openscience.cdk.ChemObject;
 import org.openscience.cdk.exception.CDKException;
 import org.openscience.cdk.interfaces.IAtomContainer;
-import org.openscience.cdk.io.MDLV2000Reader;
-import org.openscience.cdk.tools.manipulator.ChemFileManipulator;
 
 public class SDFFile {
 	
 	/**
-	 * Read sdf file.
+	 * Read sdf file (gzipped if the name ends with ".gz"). The records are parsed in parallel.
 	 * 
 	 * @param path the path
 	 * 
@@ -27,21 +23,31 @@ public class SDFFile {
 	 */
 	public static List<IAtomContainer> ReadSDFFile(String path) throws FileNotFoundException, CDKException
 	{
-		MDLV2000Reader reader;
-		List<IAtomContainer> containersList;
 		List<IAtomContainer> ret = new ArrayList<IAtomContainer>();
 		
 		File f = new File(path);
 		
 		if(f.isFile())
 		{
-			reader = new MDLV2000Reader(new FileReader(f));
-	        ChemFile chemFile = (ChemFile)reader.read((ChemObject)new ChemFile());
-	        containersList = ChemFileManipulator.getAllAtomContainers(chemFile);
-	        for (IAtomContainer container: containersList) {
-	        	ret.add(container);
+			try
+			{
+				ParallelSDFReader reader = new ParallelSDFReader(ParallelSDFReader.open(f));
+				while(reader.hasNext())
+				{
+					ret.add(reader.next());
+				}
+				reader.close();
+				if(reader.getError() != null)
+					throw new CDKException("Error reading " + path + ": " + reader.getError().getMessage());
+			}
+			catch(FileNotFoundException e)
+			{
+				throw e;
+			}
+			catch(IOException e)
+			{
+				throw new CDKException("Error reading " + path + ": " + e.getMessage());
 			}
-	        
 		}
 		
         return ret;
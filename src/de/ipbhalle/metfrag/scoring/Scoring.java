@@ -7,7 +7,10 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Vector;
 
@@ -15,9 +18,11 @@ import org.openscience.cdk.formula.MolecularFormula;
 import org.openscience.cdk.interfaces.IMolecularFormula;
 import org.openscience.cdk.tools.manipulator.MolecularFormulaManipulator;
 
+import de.ipbhalle.metfrag.fragmenter.AtomContainerMetFrag;
 import de.ipbhalle.metfrag.fragmenter.NeutralLoss;
 import de.ipbhalle.metfrag.main.PeakMolPair;
 import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.spectrum.PeakList;
 
 
 
@@ -31,8 +36,11 @@ import de.ipbhalle.metfrag.massbankParser.Peak;
  */
 public class Scoring {
 	
-	/** The mz to intensity. */
-	private Map<Double, Double> mzToIntensity = null;
+	/** The peaks (mz to intensity). */
+	private PeakList peakList = null;
+	
+	/** The weights of the peaks (same index as the peak list). */
+	private double[] weights = null;
 	
 	/** The neutral loss. */
 	private Map<Double, NeutralLoss> neutralLoss= null;
@@ -46,8 +54,6 @@ public class Scoring {
 	/** The place. */
 	private double penalty = 0.0;
 	
-	private HashMap<Double, Integer> peakToRank;
-	
 	/**
 	 * Instantiates a new scoring.
 	 * 
@@ -55,17 +61,124 @@ public class Scoring {
 	 */
 	public Scoring(Vector<Peak> peakList)
 	{
-		this.mzToIntensity = new HashMap<Double, Double>();
-		this.peakToRank = new HashMap<Double, Integer>();
-		
-		//sum up intensities ... TODO or just take the maximum?!
-		for (int i = peakList.size()-1; i >= 0; i--) {
-			mzToIntensity.put(peakList.get(i).getMass(), peakList.get(i).getRelIntensity());
-			//rank the peaks from small to large....sorted is used as input
-			this.peakToRank.put(peakList.get(i).getMass(), i+1);
-			this.sumIntensities += peakList.get(i).getRelIntensity();
+		this(new PeakList(peakList));
+	}
+	
+	
+	/**
+	 * Instantiates a new scoring. The peak list is only read...it can be shared by all threads.
+	 * 
+	 * @param peakList the intensities
+	 */
+	public Scoring(PeakList peakList)
+	{
+		this(peakList, getPeakWeights(peakList), getSumIntensities(peakList));
+	}
+	
+	
+	/**
+	 * Instantiates a new scoring with the weights and the summed up intensities computed once per spectrum
+	 * (see {@link #getPeakWeights(PeakList)} and {@link #getSumIntensities(PeakList)}).
+	 * 
+	 * @param peakList the intensities
+	 * @param weights the peak weights
+	 * @param sumIntensities the sum of the relative intensities
+	 */
+	public Scoring(PeakList peakList, double[] weights, double sumIntensities)
+	{
+		this.peakList = peakList;
+		this.weights = weights;
+		this.sumIntensities = sumIntensities;
+	}
+	
+	
+	/**
+	 * Sums up the relative intensities of the peaks ... TODO or just take the maximum?!
+	 * 
+	 * @param peakList the peak list
+	 * 
+	 * @return the sum of the relative intensities
+	 */
+	public static double getSumIntensities(PeakList peakList)
+	{
+		double sum = 0.0;
+		for (int i = 0; i < peakList.size(); i++) {
+			sum += peakList.getRelIntensity(i);
+		}
+		return sum;
+	}
+	
+	
+	/**
+	 * Gets the weights of the peaks like in the MassBank paper (m=0.6, n=3):
+	 * W = [Peak intensity]^m * [Mass]^n
+	 * They only depend on the spectrum...compute them once and share them by all candidates.
+	 * 
+	 * @param peakList the peak list
+	 * 
+	 * @return the weights (same index as the peak list)
+	 */
+	public static double[] getPeakWeights(PeakList peakList)
+	{
+		double[] weights = new double[peakList.size()];
+		for (int i = 0; i < weights.length; i++) {
+			weights[i] = Math.pow(peakList.getRelIntensity(i), 0.6) * Math.pow(peakList.getMass(i), 3);
 		}
-	}	
+		return weights;
+	}
+	
+	
+	/**
+	 * Score of one candidate: the sum of the weights of the explained peaks.
+	 * 
+	 * @param weights the peak weights
+	 * @param hitIndices the indices of the explained peaks
+	 * 
+	 * @return the score
+	 */
+	public static double computeScore(double[] weights, int[] hitIndices)
+	{
+		double score = 0.0;
+		for (int i = 0; i < hitIndices.length; i++) {
+			score += weights[hitIndices[i]];
+		}
+		return score;
+	}
+	
+	
+	/**
+	 * Gets the indices of the explained peaks in the peak list (binary search in the sorted masses).
+	 * Hits with a peak which is not in the peak list are skipped.
+	 * 
+	 * @param hits the hits
+	 * 
+	 * @return the hit indices
+	 */
+	public int[] getHitIndices(Vector<PeakMolPair> hits)
+	{
+		int[] indices = new int[hits.size()];
+		int count = 0;
+		for (int i = 0; i < hits.size(); i++) {
+			int index = this.peakList.indexOf(hits.get(i).getPeak().getMass());
+			if(index >= 0)
+				indices[count++] = index;
+		}
+		return count == indices.length ? indices : Arrays.copyOf(indices, count);
+	}
+	
+	
+	/**
+	 * Gets the weight of the peak.
+	 * 
+	 * @param mass the mass of the peak
+	 * 
+	 * @return the weight or 0 if the mass is not in the peak list
+	 */
+	private double getWeight(double mass)
+	{
+		int i = this.peakList.indexOf(mass);
+		return i < 0 ? 0.0 : this.weights[i];
+	}
 	
 	
 	
@@ -103,7 +216,7 @@ public class Scoring {
 			
 			//Scoring like in Massbank paper m=0.6, n=3
 			//W = [Peak intensity]^m * [Mass]^n
-			score += Math.pow(this.mzToIntensity.get(hits.get(i)), 0.6) * Math.pow(hits.get(i),3);
+			score += getWeight(hits.get(i));
 			//m=0.5, n=2 --> not very good
 			//score += Math.pow(this.mzToIntensity.get(hits.get(i)), 0.5) * Math.pow(hits.get(i),2);
 
@@ -123,36 +236,8 @@ public class Scoring {
 	 */
 	public double computeScoringPeakMolPair(Vector<PeakMolPair> hits)
 	{
-		double score = 0.0;
-		
-		
-		for (int i = 0; i < hits.size(); i++) {
-			//Scoring with intensities.....not very good
-			//normal scoring
-			//score += (this.mzToIntensity.get(hits.get(i))/this.sumIntensities);
-			
-			//Squared
-			//score += (this.mzToIntensity.get(hits.get(i))*this.mzToIntensity.get(hits.get(i)))/this.sumIntensities;
-			
-			//ranked peaks
-			//double temp = peakToRank.get(hits.get(i));
-			//temp = hits.get(i) / temp;
-			//score += temp;
-			
-			//double temp = peakToRank.get(hits.get(i));
-			//temp = hits.get(i) / temp;
-			//score += hits.get(i);
-			
-			
-			//Scoring like in Massbank paper m=0.6, n=3
-			//W = [Peak intensity]^m * [Mass]^n
-			score += Math.pow(this.mzToIntensity.get(hits.get(i).getPeak().getMass()), 0.6) * Math.pow(hits.get(i).getPeak().getMass(),3);
-			//m=0.5, n=2 --> not very good
-			//score += Math.pow(this.mzToIntensity.get(hits.get(i)), 0.5) * Math.pow(hits.get(i),2);
-
-		}
-		
-		return score;
+		//Scoring like in Massbank paper m=0.6, n=3...the weights are precomputed
+		return computeScore(this.weights, getHitIndices(hits));
 	}
 	
 	
@@ -165,19 +250,16 @@ public class Scoring {
 	 */
 	public double computeScoringWithBondEnergies(Vector<PeakMolPair> hits)
 	{
-		double score = 0.0;
+		//Scoring like in Massbank paper m=0.6, n=3...the weights are precomputed
+		double score = computeScore(this.weights, getHitIndices(hits));
 		this.scoreBondEnergy = 0.0;
 		
-		for (int i = 0; i < hits.size(); i++) {			
-			//Scoring like in Massbank paper m=0.6, n=3
-			//W = [Peak intensity]^m * [Mass]^n
-			score += Math.pow(this.mzToIntensity.get(hits.get(i).getPeak().getMass()), 0.6) * Math.pow(hits.get(i).getPeak().getMass(),3);
-			scoreBondEnergy += Double.parseDouble((String)hits.get(i).getFragment().getProperty("BondEnergy"));
+		for (int i = 0; i < hits.size(); i++) {
+			//the numeric bond energy of the fragment...no parsing of the property
+			Double bondEnergy = AtomContainerMetFrag.getFragmentBondEnergy(hits.get(i).getFragment());
+			if(bondEnergy != null)
+				scoreBondEnergy += bondEnergy;
 			penalty += hits.get(i).getHydrogenPenalty(); 
-			//Scoring like in MassBank paper
-			//m=0.5, n=2 --> try it!
-			//score += Math.pow(this.mzToIntensity.get(hits.get(i)), 0.5) * Math.pow(hits.get(i),2);
-
 		}
 		penalty = penalty / 10;
 		return score;
@@ -205,85 +287,87 @@ public class Scoring {
 	 */
 	public static Map<Double, Vector<String>> getCombinedScore(Map<Double, Vector<String>> realScoreMap, Map<String, Double> mapCandidateToEnergy, Map<String, Double> mapCandidateToHydrogenPenalty)
 	{
-		Map<Double, Vector<String>> ret = new HashMap<Double, Vector<String>>();
-		double maxScore = 0.0;
-		double maxBondEnergy = 0.0;
-		
+		//all candidates in columns
+		List<String> candidates = new ArrayList<String>();
 		for (Double score : realScoreMap.keySet()) {
-			if(score > maxScore)
-				maxScore = score;
-			
-			Vector<String> cands = realScoreMap.get(score);
-			for (String candidate : cands) {
-				double bondEnergy = mapCandidateToEnergy.get(candidate);
-				double hydrogenPenalty = 0;
+			candidates.addAll(realScoreMap.get(score));
+		}
+		double[] scores = new double[candidates.size()];
+		double[] bondEnergies = new double[candidates.size()];
+		double[] hydrogenPenalties = new double[candidates.size()];
+		int i = 0;
+		for (Double score : realScoreMap.keySet()) {
+			for (String candidate : realScoreMap.get(score)) {
+				scores[i] = score;
+				bondEnergies[i] = mapCandidateToEnergy.get(candidate);
 				try
 				{
-					hydrogenPenalty = mapCandidateToHydrogenPenalty.get(candidate);
+					hydrogenPenalties[i] = mapCandidateToHydrogenPenalty.get(candidate);
 				}
 				catch(NullPointerException e)
 				{
 					System.err.println("ERROR: Null Pointer exception in scoring! \n" + e.getMessage());
 				}
-				double combinedEnergy = bondEnergy + hydrogenPenalty;
-				if(combinedEnergy > maxBondEnergy)
-					maxBondEnergy = combinedEnergy;
+				i++;
 			}
 		}
 		
+		double[] finalScores = getCombinedScores(scores, bondEnergies, hydrogenPenalties);
 		
-		//now compute the final score....normalize the weighted peaks to 1 and the bond energy to 0.5 and finally add them up
-		//and add them together
-		for (Double score : realScoreMap.keySet()) {
-			double normalizedScore = Math.round((score / maxScore) * 1000) / 1000.0;
-			Vector<String> cands = realScoreMap.get(score);
-			for (String candidate : cands) {
-				double bondEnergy = mapCandidateToEnergy.get(candidate);
-				double hydrogenPenalty = 0;
-				try
-				{
-					hydrogenPenalty = mapCandidateToHydrogenPenalty.get(candidate);
-				}
-				catch(NullPointerException e)
-				{
-					System.err.println("ERROR: Null Pointer exception in scoring! \n" + e.getMessage());
-				}
-				double combinedEnergy = bondEnergy + hydrogenPenalty;
-				
-				double normalizedBondEnergy = 0;
-				//more than 1 peak explained
-				if(bondEnergy > 0)
-				{
-					//now normalize the bond energy and subtract it from 1
-					normalizedBondEnergy = Math.round((combinedEnergy / maxBondEnergy) * 1000) / 1000.0;
-				}
-				
-				
-				
-				double finalScore = normalizedScore - (normalizedBondEnergy / 2);
-				
-				if(finalScore < 0)
-					finalScore = 0.0;
-				
-				if(ret.containsKey(finalScore))
-				{
-					Vector<String> temp = ret.get(finalScore);
-					temp.add(candidate);
-					ret.remove(finalScore);
-					ret.put(finalScore, temp);
-				}
-				else
-				{
-					Vector<String> temp = new Vector<String>();
-					temp.add(candidate);
-					ret.put(finalScore, temp);
-				}
+		Map<Double, Vector<String>> ret = new HashMap<Double, Vector<String>>();
+		for (i = 0; i < finalScores.length; i++) {
+			Vector<String> temp = ret.get(finalScores[i]);
+			if(temp == null)
+			{
+				temp = new Vector<String>();
+				ret.put(finalScores[i], temp);
 			}
-			
-		}		
+			temp.add(candidates.get(i));
+		}
 		
 		return ret;
 	}
+	
+	
+	/**
+	 * Gets the combined scores of all candidates of a spectrum: the weighted peaks are normalized to 1,
+	 * the bond energies plus hydrogen penalties to 0.5 and subtracted.
+	 * 
+	 * @param scores the peak scores
+	 * @param bondEnergies the bond energies
+	 * @param hydrogenPenalties the hydrogen penalties
+	 * 
+	 * @return the combined scores (same index as the candidates)
+	 */
+	public static double[] getCombinedScores(double[] scores, double[] bondEnergies, double[] hydrogenPenalties)
+	{
+		double maxScore = 0.0;
+		double maxBondEnergy = 0.0;
+		for (int i = 0; i < scores.length; i++) {
+			if(scores[i] > maxScore)
+				maxScore = scores[i];
+			double combinedEnergy = bondEnergies[i] + hydrogenPenalties[i];
+			if(combinedEnergy > maxBondEnergy)
+				maxBondEnergy = combinedEnergy;
+		}
+		
+		double[] ret = new double[scores.length];
+		for (int i = 0; i < scores.length; i++) {
+			double normalizedScore = Math.round((scores[i] / maxScore) * 1000) / 1000.0;
+			
+			double normalizedBondEnergy = 0;
+			//more than 1 peak explained
+			if(bondEnergies[i] > 0)
+			{
+				//now normalize the bond energy and subtract it from 1
+				normalizedBondEnergy = Math.round(((bondEnergies[i] + hydrogenPenalties[i]) / maxBondEnergy) * 1000) / 1000.0;
+			}
+			
+			double finalScore = normalizedScore - (normalizedBondEnergy / 2);
+			ret[i] = finalScore < 0 ? 0.0 : finalScore;
+		}
+		return ret;
+	}
 
 
 
@@ -3,10 +3,16 @@ package de.ipbhalle.metfrag.similarity;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.openscience.cdk.DefaultChemObjectBuilder;
 import org.openscience.cdk.exception.CDKException;
@@ -19,12 +25,18 @@ import org.openscience.cdk.isomorphism.UniversalIsomorphismTester;
 import org.openscience.cdk.similarity.Tanimoto;
 import org.openscience.cdk.smiles.SmilesParser;
 
+import de.ipbhalle.metfrag.main.SpectrumLog;
 import de.ipbhalle.metfrag.molDatabase.PubChemLocal;
 import de.ipbhalle.metfrag.tools.Render;
 
+/**
+ * Tanimoto similarity of the candidates. The fingerprints are computed in parallel and stored
+ * as packed words (one long[] for all candidates), the Tanimoto coefficient is computed with
+ * Long.bitCount. Instead of a dense n x n matrix only the pairs above the similarity threshold
+ * are kept (sparse neighbour lists), the other values are computed again when they are needed.
+ */
 public class Similarity {
 	
-	private float[][] matrix = null;
 	private Map<String, IAtomContainer> candidateToStructure = null;
 	private Map<String, Integer> candidateToPosition = null;
 	private Map<String, String> candidatesToSmiles = null;
@@ -32,14 +44,18 @@ public class Similarity {
 	private float similarityThreshold;
 	private boolean hasAtomContainer = false;
 	
+	//the fingerprints of all candidates: wordsPerFingerprint words per candidate (by position)
+	private int wordsPerFingerprint;
+	private long[] fingerprints;
+	private int[] cardinalities;
+	//false if the fingerprint could not be computed
+	private boolean[] hasFingerprint;
+	//the candidates (positions) more similar than the threshold and their tanimoto values
+	private int[][] neighbours;
+	private float[][] neighbourSimilarities;
+	
 	public Similarity(Map<String,String> candidatesToSmiles, float similarityThreshold) throws CDKException
 	{
-		matrix = new float[candidatesToSmiles.size()][candidatesToSmiles.size()];
-		for (int i = 0; i < matrix.length; i++) {
-			for (int j = 0; j < matrix.length; j++) {
-				matrix[i][j] = Float.MIN_VALUE;
-			}
-		}
 		this.candidateToStructure = new HashMap<String, IAtomContainer>(candidatesToSmiles.size());
 		this.similarityThreshold = similarityThreshold;
 		this.candidatesToSmiles = candidatesToSmiles;
@@ -49,12 +65,6 @@ public class Similarity {
 	
 	public Similarity(Map<String, IAtomContainer> candidateToStructure, float similarityThreshold, boolean check) throws CDKException
 	{
-		matrix = new float[candidateToStructure.size()][candidateToStructure.size()];
-		for (int i = 0; i < matrix.length; i++) {
-			for (int j = 0; j < matrix.length; j++) {
-				matrix[i][j] = Float.MIN_VALUE;
-			}
-		}
 		this.candidateToStructure = candidateToStructure;
 		this.similarityThreshold = similarityThreshold;
 		this.hasAtomContainer = check;
@@ -62,7 +72,7 @@ public class Similarity {
 		calculateSimilarity(similarityThreshold);
 	}
 	
-	//initialize the position of the candidates in the matrix
+	//initialize the position of the candidates in the fingerprint array
 	private void initializePositions()
 	{
 		int i = 0;
@@ -85,99 +95,201 @@ public class Similarity {
 	
 	
 	/**
-	 * Returns a similarity matrix based on the tanimoto distance
-	 * of the fingerprints. (Upper triangular matrix)
+	 * Computes the fingerprints (in parallel) and the neighbour lists: all pairs with a tanimoto
+	 * value above the similarity threshold.
 	 * 
-	 * @param molList the mol list
 	 * @param similarityThreshold the similarity threshold
 	 * 
-	 * @return the float[][]
-	 * 
 	 * @throws CDKException the CDK exception
 	 */
-	private float[][] calculateSimilarity(float similarityThreshold) throws CDKException
+	private void calculateSimilarity(float similarityThreshold) throws CDKException
 	{
-		Map<String, BitSet> candidateToFingerprint = new HashMap<String, BitSet>();
+		final String[] candidates = new String[candidateToPosition.size()];
+		for (Map.Entry<String, Integer> entry : candidateToPosition.entrySet()) {
+			candidates[entry.getValue()] = entry.getKey();
+		}
+		int n = candidates.length;
 		
-		if(hasAtomContainer)
+		wordsPerFingerprint = (new Fingerprinter().getSize() + 63) / 64;
+		fingerprints = new long[n * wordsPerFingerprint];
+		cardinalities = new int[n];
+		hasFingerprint = new boolean[n];
+		
+		int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), n));
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try
 		{
-			for (String strCandidate : candidateToStructure.keySet()) {
-				Fingerprinter f = new Fingerprinter();
-				BitSet fp = f.getFingerprint(candidateToStructure.get(strCandidate));
-				candidateToFingerprint.put(strCandidate, fp);
+			//fingerprints...one fingerprinter and smiles parser per thread
+			List<Future<?>> tasks = new ArrayList<Future<?>>();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				final int step = threads;
+				//the smiles errors go to the log of the spectrum
+				tasks.add(executor.submit(SpectrumLog.wrap(new Runnable() {
+					public void run() {
+						Fingerprinter f = new Fingerprinter();
+						SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+						for (int i = first; i < candidates.length; i += step) {
+							try
+							{
+								IAtomContainer mol = hasAtomContainer ? candidateToStructure.get(candidates[i]) : sp.parseSmiles(candidatesToSmiles.get(candidates[i]));
+								setFingerprint(i, f.getFingerprint(mol));
+							}
+							catch(Exception e)
+							{
+								System.err.println("Error in smiles!" + e.getMessage());
+							}
+						}
+					}
+				})));
 			}
-		}
-		else
-		{
-			SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
-			for (String string : candidatesToSmiles.keySet()) {
-				try
-				{
-					IMolecule mol = sp.parseSmiles(candidatesToSmiles.get(string));
-					Fingerprinter f = new Fingerprinter();
-					BitSet fp = f.getFingerprint(mol);
-					candidateToFingerprint.put(string, fp);
+			waitFor(tasks);
+			
+			//neighbours...the candidates are compared in the order of the fingerprint cardinality:
+			//tanimoto(i, j) <= c(i) / c(j) for c(i) <= c(j), so the row stops at the first candidate
+			//with a cardinality too large to be similar (the pairs below are never compared)
+			final int[] byCardinality = sortByCardinality();
+			final List<List<int[]>> pairs = new ArrayList<List<int[]>>();
+			tasks.clear();
+			for (int t = 0; t < threads; t++) {
+				final int first = t;
+				final int step = threads;
+				final List<int[]> found = new ArrayList<int[]>();
+				pairs.add(found);
+				tasks.add(executor.submit(new Runnable() {
+					public void run() {
+						float threshold = Similarity.this.similarityThreshold;
+						for (int a = first; a < byCardinality.length; a += step) {
+							int i = byCardinality[a];
+							for (int b = a + 1; b < byCardinality.length; b++) {
+								int j = byCardinality[b];
+								//a small margin for the float rounding of the tanimoto value
+								if(cardinalities[j] * threshold > cardinalities[i] * 1.0001f)
+									break;
+								if(tanimoto(i, j) > threshold)
+									found.add(new int[] {i, j});
+							}
+						}
+					}
+				}));
+			}
+			waitFor(tasks);
+			
+			int[] counts = new int[n];
+			for (List<int[]> found : pairs) {
+				for (int[] pair : found) {
+					counts[pair[0]]++;
+					counts[pair[1]]++;
 				}
-				catch(Exception e)
-				{
-					System.err.println("Error in smiles!" + e.getMessage());
+			}
+			neighbours = new int[n][];
+			neighbourSimilarities = new float[n][];
+			for (int i = 0; i < n; i++) {
+				neighbours[i] = new int[counts[i]];
+				neighbourSimilarities[i] = new float[counts[i]];
+				counts[i] = 0;
+			}
+			for (List<int[]> found : pairs) {
+				for (int[] pair : found) {
+					float similarity = tanimoto(pair[0], pair[1]);
+					neighbours[pair[0]][counts[pair[0]]] = pair[1];
+					neighbourSimilarities[pair[0]][counts[pair[0]]++] = similarity;
+					neighbours[pair[1]][counts[pair[1]]] = pair[0];
+					neighbourSimilarities[pair[1]][counts[pair[1]]++] = similarity;
 				}
 			}
 		}
-		
-
-		int countJ = 0;
-		int countI = 0;
-		
-		if(!hasAtomContainer)
+		finally
 		{
-			for (String candidate1 : candidatesToSmiles.keySet()) {
-	//			System.out.print(candidate1 + " ");
-				for (String candidate2 : candidatesToSmiles.keySet()) {
-					if(countJ < countI || candidate1.equals(candidate2))
-					{
-	//					System.out.print("x ");
-						countJ++;
-						continue;
-					}		
-					float similarity = compareFingerprints(candidateToFingerprint.get(candidate1), candidateToFingerprint.get(candidate2));
-					matrix[countI][countJ] = similarity;
-					//allSimilarityValues.append(similarity + "\n");
-					
-					countJ++;
-	//				System.out.print(compareFingerprints(candidateToFingerprint.get(candidate1), candidateToFingerprint.get(candidate2)) + " ");
-				}
-				countJ = 0;
-				countI++;
-	//			System.out.println("");
+			executor.shutdown();
+		}
+	}
+	
+	
+	/**
+	 * Gets the positions of the candidates with a fingerprint sorted by the cardinality.
+	 * 
+	 * @return the positions
+	 */
+	private int[] sortByCardinality()
+	{
+		Integer[] positions = new Integer[cardinalities.length];
+		int count = 0;
+		for (int i = 0; i < cardinalities.length; i++) {
+			if(hasFingerprint[i])
+				positions[count++] = i;
+		}
+		positions = Arrays.copyOf(positions, count);
+		Arrays.sort(positions, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return cardinalities[o1] - cardinalities[o2];
 			}
+		});
+		int[] sorted = new int[count];
+		for (int i = 0; i < count; i++) {
+			sorted[i] = positions[i];
 		}
-		else
+		return sorted;
+	}
+	
+	
+	/**
+	 * Packs the fingerprint of the candidate.
+	 * 
+	 * @param position the position of the candidate
+	 * @param fingerprint the fingerprint
+	 */
+	private void setFingerprint(int position, BitSet fingerprint)
+	{
+		int offset = position * wordsPerFingerprint;
+		for (int bit = fingerprint.nextSetBit(0); bit >= 0 && bit < wordsPerFingerprint * 64; bit = fingerprint.nextSetBit(bit + 1)) {
+			fingerprints[offset + (bit >>> 6)] |= 1L << bit;
+		}
+		cardinalities[position] = fingerprint.cardinality();
+		hasFingerprint[position] = true;
+	}
+	
+	
+	/**
+	 * The tanimoto coefficient of two candidates (like {@link Tanimoto#calculate(BitSet, BitSet)}).
+	 * 
+	 * @param pos1 the position of the first candidate
+	 * @param pos2 the position of the second candidate
+	 * 
+	 * @return the tanimoto coefficient or 0 if a fingerprint is missing
+	 */
+	private float tanimoto(int pos1, int pos2)
+	{
+		if(!hasFingerprint[pos1] || !hasFingerprint[pos2])
+			return 0;
+		int offset1 = pos1 * wordsPerFingerprint;
+		int offset2 = pos2 * wordsPerFingerprint;
+		int common = 0;
+		for (int k = 0; k < wordsPerFingerprint; k++) {
+			common += Long.bitCount(fingerprints[offset1 + k] & fingerprints[offset2 + k]);
+		}
+		float commonBits = common;
+		return commonBits / (cardinalities[pos1] + cardinalities[pos2] - commonBits);
+	}
+	
+	
+	private static void waitFor(List<Future<?>> tasks) throws CDKException
+	{
+		try
 		{
-			for (String candidate1 : candidateToStructure.keySet()) {
-	//			System.out.print(candidate1 + " ");
-				for (String candidate2 : candidateToStructure.keySet()) {
-					if(countJ < countI || candidate1.equals(candidate2))
-					{
-	//					System.out.print("x ");
-						countJ++;
-						continue;
-					}		
-					float similarity = compareFingerprints(candidateToFingerprint.get(candidate1), candidateToFingerprint.get(candidate2));
-					matrix[countI][countJ] = similarity;
-					//allSimilarityValues.append(similarity + "\n");
-					
-					countJ++;
-	//				System.out.print(compareFingerprints(candidateToFingerprint.get(candidate1), candidateToFingerprint.get(candidate2)) + " ");
-				}
-				countJ = 0;
-				countI++;
-	//			System.out.println("");
+			for (Future<?> task : tasks) {
+				task.get();
 			}
 		}
-		
-		
-		return matrix;
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new CDKException("Interrupted! " + e.getMessage());
+		}
+		catch(ExecutionException e)
+		{
+			throw new CDKException("Error in similarity calculation! " + e.getCause());
+		}
 	}
 	
 	/**
@@ -200,199 +312,193 @@ public class Similarity {
 	 */
 	public float getTanimotoDistance(String candidate1, String candidate2)
 	{
-		int pos1 = 0;
-		int pos2 = 0;
-		try
-		{
-			pos1 = candidateToPosition.get(candidate1);
-			pos2 = candidateToPosition.get(candidate2);
-		}
-		catch(NullPointerException e)
-		{
+		Integer pos1 = candidateToPosition.get(candidate1);
+		Integer pos2 = candidateToPosition.get(candidate2);
+		if(pos1 == null || pos2 == null)
 			return 0;
-		}
-		if(matrix[pos1][pos2] != Float.MIN_VALUE)
-			return matrix[pos1][pos2];
-		else
-			return matrix[pos2][pos1];
+		//the diagonal was never set in the matrix
+		if(pos1.equals(pos2))
+			return Float.MIN_VALUE;
+		return tanimoto(pos1, pos2);
 	}
 	
 	
-	
 	/**
 	 * Gets the tanimoto distance from a list of candidates and groups them!.
+	 * Every candidate is compared with the candidates of the group more similar than the threshold
+	 * (its neighbours). Only the largest sets are used: a set contained in the set of another
+	 * candidate is removed (see {@link #clusterGroup(int[][])}) and candidates with the same
+	 * set are one group.
 	 * 
 	 * @param candidateGroup the candidate group
-	 * @param threshold the threshold
 	 * 
 	 * @return the tanimoto distance list
 	 */
 	public List<SimilarityGroup> getTanimotoDistanceList(List<String> candidateGroup)
 	{
+		int size = candidateGroup.size();
+		//the position in the group of the candidates
+		Map<Integer, Integer> positionToGroupIndex = new HashMap<Integer, Integer>();
+		//a candidate contained twice is used once
+		Map<String, Integer> firstIndex = new HashMap<String, Integer>();
+		boolean[] isDuplicate = new boolean[size];
+		for (int i = 0; i < size; i++) {
+			String candidate = candidateGroup.get(i);
+			if(firstIndex.containsKey(candidate))
+			{
+				isDuplicate[i] = true;
+				continue;
+			}
+			firstIndex.put(candidate, i);
+			Integer pos = candidate == null ? null : candidateToPosition.get(candidate);
+			if(pos != null)
+				positionToGroupIndex.put(pos, i);
+		}
 		
+		//the neighbours in the group (group index and tanimoto value)...sorted by group index
+		int[][] similar = new int[size][];
+		float[][] similarValues = new float[size][];
+		for (int i = 0; i < size; i++) {
+			if(isDuplicate[i])
+				continue;
+			Integer pos = candidateGroup.get(i) == null ? null : candidateToPosition.get(candidateGroup.get(i));
+			int[] rowNeighbours = pos == null ? new int[0] : neighbours[pos];
+			List<int[]> found = new ArrayList<int[]>();
+			for (int k = 0; k < rowNeighbours.length; k++) {
+				Integer index = positionToGroupIndex.get(rowNeighbours[k]);
+				if(index != null)
+					found.add(new int[] {index, k});
+			}
+			Collections.sort(found, new Comparator<int[]>() {
+				public int compare(int[] o1, int[] o2) {
+					return o1[0] - o2[0];
+				}
+			});
+			similar[i] = new int[found.size()];
+			similarValues[i] = new float[found.size()];
+			for (int k = 0; k < found.size(); k++) {
+				similar[i][k] = found.get(k)[0];
+				similarValues[i][k] = neighbourSimilarities[pos][found.get(k)[1]];
+			}
+		}
 		
 		List<SimilarityGroup> groupedCandidates = new ArrayList<SimilarityGroup>();
-		for (String cand1 : candidateGroup) {
-			SimilarityGroup simGroup = new SimilarityGroup(cand1);
-			for (String cand2 : candidateGroup) {
-				if(cand1.equals(cand2))
-					continue;
-				else if(cand1 == null || cand2 == null)
-					continue;
-				else
-				{
-					Float tanimoto = getTanimotoDistance(cand1, cand2);
-					if(tanimoto > similarityThreshold)
-						simGroup.addSimilarCompound(cand2, tanimoto);
-				}
+		for (int i : clusterGroup(similar)) {
+			SimilarityGroup simGroup = new SimilarityGroup(candidateGroup.get(i));
+			for (int k = 0; k < similar[i].length; k++) {
+				simGroup.addSimilarCompound(candidateGroup.get(similar[i][k]), similarValues[i][k]);
 			}
-			//now add similar compound to the group list
-			//if(!isContainedInPreviousResults(groupedCandidates, simGroup))
 			groupedCandidates.add(simGroup);
 		}
-		groupedCandidates = cleanList(groupedCandidates);
 		return groupedCandidates;
 	}
 	
 	
 	/**
-	 * Checks if is identical.
+	 * Clusters the candidates of a group by their neighbour sets (the candidate and its neighbours).
+	 * Candidates with the same set are merged (union find, the first candidate is the leader) and
+	 * a set is removed if it is contained in a larger set. Both sets contain the two candidates,
+	 * so only the sets of the neighbours have to be compared and not all pairs.
 	 * 
-	 * @param similar1 the similar1
-	 * @param similar2 the similar2
+	 * @param similar the neighbours (group indices, sorted) of every candidate of the group (null for duplicates)
 	 * 
-	 * @return true, if is identical
+	 * @return the group indices of the remaining candidates (leaders) in the order of the group
 	 */
-	private boolean isIdentical(List<String> similar1, List<String> similar2)
-	{		
-		String[] candidatesToCompare = new String[similar1.size()];
-		candidatesToCompare = similar1.toArray(candidatesToCompare);
-		Arrays.sort(candidatesToCompare);
-		
-		boolean isAlreadyContained = false;
-		
-		String[] candidateListTemp = new String[similar2.size()];
-		candidateListTemp = similar2.toArray(candidateListTemp);
-		Arrays.sort(candidateListTemp);
+	static List<Integer> clusterGroup(int[][] similar)
+	{
+		int size = similar.length;
+		int[][] sets = new int[size][];
+		int[] leader = new int[size];
+		for (int i = 0; i < size; i++) {
+			leader[i] = i;
+			if(similar[i] != null)
+				sets[i] = withBase(similar[i], i);
+		}
+		for (int i = 0; i < size; i++) {
+			if(similar[i] == null)
+				continue;
+			for (int j : similar[i]) {
+				if(j > i && Arrays.equals(sets[i], sets[j]))
+					union(leader, i, j);
+			}
+		}
 		
-		if(Arrays.equals(candidatesToCompare, candidateListTemp))
-		{
-			isAlreadyContained = true;
+		List<Integer> result = new ArrayList<Integer>();
+		for (int i = 0; i < size; i++) {
+			if(similar[i] == null || find(leader, i) != i)
+				continue;
+			boolean contained = false;
+			for (int j : similar[i]) {
+				if(sets[j].length > sets[i].length && containsAll(sets[j], sets[i]))
+				{
+					contained = true;
+					break;
+				}
+			}
+			if(!contained)
+				result.add(i);
 		}
-
-		return isAlreadyContained;
+		return result;
 	}
 	
-	/**
-	 * Removes the duplicates.
-	 * 
-	 * @param groupedCandidates the grouped candidates
-	 * 
-	 * @return the list< similarity group>
-	 */
-	private List<SimilarityGroup> removeDuplicates(List<SimilarityGroup> groupedCandidates)
-	{		
-		List<SimilarityGroup> toRemove = new ArrayList<SimilarityGroup>();
-		
-		
-		if(groupedCandidates.size() == 1)
-			return groupedCandidates;
-		else
+	
+	private static int find(int[] leader, int i)
+	{
+		while(leader[i] != i)
 		{
-			for (SimilarityGroup simGroup1 : groupedCandidates) {
-				
-				if(toRemove.contains(simGroup1))
-					continue;
-				
-				String[] candidatesToCompare = new String[simGroup1.getSimilarCandidatesWithBase().size()];
-				candidatesToCompare = simGroup1.getSimilarCandidatesWithBase().toArray(candidatesToCompare);
-				Arrays.sort(candidatesToCompare);
-				
-				
-				for (SimilarityGroup simGroup2 : groupedCandidates) {
-										
-					if(simGroup1.equals(simGroup2) || toRemove.contains(simGroup2))
-						continue;
-					
-					List<String> temp = simGroup2.getSimilarCandidatesWithBase();
-					String[] candidateListTemp = new String[temp.size()];
-					candidateListTemp = simGroup2.getSimilarCandidatesWithBase().toArray(candidateListTemp);
-					Arrays.sort(candidateListTemp);
-					if(Arrays.equals(candidatesToCompare, candidateListTemp))
-						toRemove.add(simGroup2);			
-				}
-			}
-			
-			for (SimilarityGroup simGroup : toRemove) {
-				groupedCandidates.remove(simGroup);
+			leader[i] = leader[leader[i]];
+			i = leader[i];
+		}
+		return i;
+	}
+	
+	
+	//the smaller index is the leader
+	private static void union(int[] leader, int i, int j)
+	{
+		int root1 = find(leader, i);
+		int root2 = find(leader, j);
+		if(root1 < root2)
+			leader[root2] = root1;
+		else if(root2 < root1)
+			leader[root1] = root2;
+	}
+	
+	
+	//the sorted neighbours with the candidate itself
+	private static int[] withBase(int[] similar, int base)
+	{
+		int[] set = new int[similar.length + 1];
+		int k = 0;
+		boolean added = false;
+		for (int j : similar) {
+			if(!added && j > base)
+			{
+				set[k++] = base;
+				added = true;
 			}
-			return groupedCandidates;
+			set[k++] = j;
 		}
+		if(!added)
+			set[k] = base;
+		return set;
 	}
 	
 	
 	/**
-	 * Cleans list: remove transitive relations
-	 * Only the largest sets are used
-	 * 
-	 * @param groupedCandidates the grouped candidates
-	 * 
-	 * @return the list< similarity group>
+	 * Checks if the sorted set contains all values of the sorted subset.
 	 */
-	private List<SimilarityGroup> cleanList(List<SimilarityGroup> groupedCandidates)
+	private static boolean containsAll(int[] set, int[] subset)
 	{
-		List<SimilarityGroup> cleanedList = new ArrayList<SimilarityGroup>();		
-		List<SimilarityGroup> alreadyRemoved = new ArrayList<SimilarityGroup>();
-		
-		Map<String, List<String>> candidatesToCompareMapBase = new HashMap<String, List<String>>();
-		Map<String, SimilarityGroup> candidatesToCompareMap = new HashMap<String, SimilarityGroup>();
-		for (SimilarityGroup simGroup : groupedCandidates) {
-			candidatesToCompareMap.put(simGroup.getCandidateTocompare(), simGroup);
-			candidatesToCompareMapBase.put(simGroup.getCandidateTocompare(), simGroup.getSimilarCandidatesWithBase());
-		}
-		
-		if(groupedCandidates.size() == 1)
-			cleanedList = groupedCandidates;
-		else
-		{	
-			//initialize with one value
-			cleanedList.add(groupedCandidates.get(0));
-			for (String key1 : candidatesToCompareMap.keySet()) {
-				for (String key2 : candidatesToCompareMap.keySet()) {
-					if(key1.equals(key2))
-						continue;
-					
-					List<String> similar1 = candidatesToCompareMapBase.get(key1);
-					List<String> similar2 = candidatesToCompareMapBase.get(key2);
-					
-					if(isIdentical(similar1, similar2))
-					{
-						continue;
-					}
-					
-					if(similar1.size() > similar2.size() && similar1.containsAll(similar2))
-					{
-						cleanedList.remove(candidatesToCompareMap.get(key2));
-						alreadyRemoved.add(candidatesToCompareMap.get(key2));
-					}
-					else if(similar2.containsAll(similar1))
-					{
-						cleanedList.remove(candidatesToCompareMap.get(key1));
-						alreadyRemoved.add(candidatesToCompareMap.get(key1));
-					}
-					else
-					{
-						if(!cleanedList.contains(candidatesToCompareMap.get(key2)) && !alreadyRemoved.contains(candidatesToCompareMap.get(key2)))
-							cleanedList.add(candidatesToCompareMap.get(key2));
-						if(!cleanedList.contains(candidatesToCompareMap.get(key1)) && !alreadyRemoved.contains(candidatesToCompareMap.get(key1)))
-							cleanedList.add(candidatesToCompareMap.get(key1));
-					}
-						
-				}
-			}
-			cleanedList = removeDuplicates(cleanedList);
+		int k = 0;
+		for (int value : subset) {
+			while(k < set.length && set[k] < value)
+				k++;
+			if(k == set.length || set[k] != value)
+				return false;
+			k++;
 		}
-		return cleanedList;
+		return true;
 	}
 	
 	
@@ -430,23 +536,6 @@ public class Similarity {
 	
 	
 	
-	/**
-	 * Compare fingerprints by returning the Tanimoto distance.
-	 * 
-	 * @param bitSet1 the bit set1
-	 * @param bitSet2 the bit set2
-	 * 
-	 * @return the float
-	 * 
-	 * @throws CDKException the CDK exception
-	 */
-	private float compareFingerprints(BitSet bitSet1, BitSet bitSet2) throws CDKException
-	{
-		return Tanimoto.calculate(bitSet1, bitSet2);
-	}
-	
-	
-	
 	public static void main(String[] args) {
 		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
 		try {
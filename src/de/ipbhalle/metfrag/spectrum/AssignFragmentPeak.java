@@ -22,6 +22,8 @@ import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -44,6 +46,16 @@ public class AssignFragmentPeak {
 	private String molecularFormula = "";
 	private boolean html = false;
 	private double hydrogenPenalty = 0.0;
+	private int mode = 1;
+	//best hit per peak (streaming mode)...same index as the peak list
+	private PeakMolPair[] bestHits = null;
+	private int streamedFragments = 0;
+	//peak windows sorted by mass (streaming mode)...peakOrder is the index in the peak list
+	private int[] peakOrder = null;
+	private double[] peakLows = null;
+	private double[] peakHighs = null;
+	static final int NO_MATCH = Integer.MIN_VALUE;
+	static final int NEUTRAL = Integer.MAX_VALUE;
 	
 	
 	public AssignFragmentPeak()
@@ -75,152 +87,432 @@ public class AssignFragmentPeak {
 		this.hitsAll = new Vector<PeakMolPair>();
 		this.hitsPeaks = new Vector<Double>();
 		this.html = html;
+		this.bestHits = null;
 //		//initialize neutral losses
 //		getNeutralLosses();
 		
 		
+		//neutral masses of the fragments sorted...only the fragments in the peak windows are checked
+		int fragmentCount = acs.size();
+		double[] masses = new double[fragmentCount];
+		int[] treeDepths = new int[fragmentCount];
+		int maxTreeDepth = 0;
+		for (int j = 0; j < fragmentCount; j++) {
+			masses[j] = getFragmentMass(acs.get(j));
+			treeDepths[j] = getTreeDepth(acs.get(j));
+			maxTreeDepth = Math.max(maxTreeDepth, treeDepths[j]);
+		}
+		Integer[] order = new Integer[fragmentCount];
+		for (int j = 0; j < fragmentCount; j++) {
+			order[j] = j;
+		}
+		final double[] sortMasses = masses;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(sortMasses[o1], sortMasses[o2]);
+			}
+		});
+		double[] sortedMasses = new double[fragmentCount];
+		for (int j = 0; j < fragmentCount; j++) {
+			sortedMasses[j] = masses[order[j]];
+		}
+		double protonMass = hydrogenMass * (double)mode;
+		//all hydrogen shifts tried in the matching
+		double maxShift = Math.abs(protonMass) * (maxTreeDepth + 2);
+		
 		for (int i=0; i< peakList.size(); i++)
 		{
-			//System.out.println("Peak: " + this.peakList.get(i).getMass() + " ====================================");
+			double peak = this.peakList.get(i).getMass();
+			double peakLow = peak - this.mzabs - PPMTool.getPPMDeviation(peak, this.mzppm);
+	        double peakHigh = peak + this.mzabs + PPMTool.getPPMDeviation(peak, this.mzppm);
+	        
+	        //candidates in the same order as in the fragment list (the first hit is kept)
+	        int from = lowerBound(sortedMasses, peakLow - maxShift);
+	        int to = from;
+	        while(to < fragmentCount && sortedMasses[to] <= peakHigh + maxShift)
+	        	to++;
+	        int[] candidates = new int[to - from];
+	        for (int k = from; k < to; k++) {
+				candidates[k - from] = order[k];
+			}
+	        Arrays.sort(candidates);
+	        
 			boolean test = true;
-			for (int j = 0; j < this.acs.size(); j++) {
-				//matched peak
-				if(matchByMass(this.acs.get(j), this.peakList.get(i).getMass(), mode))
+			for (int j : candidates) {
+				int shift = getMatchShift(masses[j], treeDepths[j], peakLow, peakHigh, mode);
+				if(shift == NO_MATCH)
+					continue;
+				//the formula is only built for the hits
+				PeakMolPair hit = createHit(acs.get(j), this.peakList.get(i), masses[j], shift, mode);
+				//add hits to list...only 1...check if this found hydrogen penalty is less than the previous found one
+				if(test || hits.lastElement().getHydrogenPenalty() > hit.getHydrogenPenalty())
 				{
-					//add hits to list...only 1...check if this found hydrogen penalty is less than the previous found one
-					if(test || hits.lastElement().getHydrogenPenalty() > this.hydrogenPenalty)
-					{
-						//exchange the last element...this is the one with the current peak
-						if(!test && hits.size() > 0 && hits.lastElement().getHydrogenPenalty() > this.hydrogenPenalty)
-							hits.remove(hits.size() - 1);
-						hits.add(new PeakMolPair(acs.get(j),this.peakList.get(i), this.matchedMass, this.molecularFormula, this.hydrogenPenalty));
-						hitsPeaks.add(this.peakList.get(i).getMass());
-						test = false;
-					}
-					hitsAll.add(new PeakMolPair(acs.get(j),this.peakList.get(i), this.matchedMass, this.molecularFormula, this.hydrogenPenalty));
+					//exchange the last element...this is the one with the current peak
+					if(!test && hits.size() > 0 && hits.lastElement().getHydrogenPenalty() > hit.getHydrogenPenalty())
+						hits.remove(hits.size() - 1);
+					hits.add(hit);
+					hitsPeaks.add(this.peakList.get(i).getMass());
+					test = false;
 				}
+				hitsAll.add(hit);
 			}
 		}
 	}
 	
 	
 	/**
-	 * Match by mass.
+	 * Initializes the streaming mode. The fragments are matched one by one while they are generated
+	 * (see {@link #assignFragment(IAtomContainer)}). Only the best {@link PeakMolPair} per peak is kept
+	 * so the memory needed depends on the number of peaks and not on the number of fragments.
 	 * 
-	 * @param ac the ac
-	 * @param peak the peak
+	 * @param peakList the peak list
+	 * @param mzabs the mzabs
+	 * @param mzppm the mzppm
+	 * @param mode the mode
+	 * @param html the html
+	 */
+	public void initStreaming(Vector<Peak> peakList, double mzabs, double mzppm, int mode, boolean html)
+	{
+		this.acs = null;
+		this.peakList = peakList;
+		this.mzabs = mzabs;
+		this.mzppm = mzppm;
+		this.mode = mode;
+		this.html = html;
+		this.hits = null;
+		this.hitsAll = null;
+		this.hitsPeaks = null;
+		this.bestHits = new PeakMolPair[peakList.size()];
+		this.streamedFragments = 0;
+		
+		//peak windows sorted by mass...the window bounds grow with the peak mass
+		Integer[] order = new Integer[peakList.size()];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		final Vector<Peak> peaks = peakList;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(peaks.get(o1).getMass(), peaks.get(o2).getMass());
+			}
+		});
+		this.peakOrder = new int[order.length];
+		this.peakLows = new double[order.length];
+		this.peakHighs = new double[order.length];
+		for (int i = 0; i < order.length; i++) {
+			double peak = peakList.get(order[i]).getMass();
+			this.peakOrder[i] = order[i];
+			this.peakLows[i] = peak - this.mzabs - PPMTool.getPPMDeviation(peak, this.mzppm);
+			this.peakHighs[i] = peak + this.mzabs + PPMTool.getPPMDeviation(peak, this.mzppm);
+		}
+	}
+	
+	
+	/**
+	 * Match a single fragment against all peaks (streaming mode). The same hit is kept
+	 * as in {@link #assignFragmentPeak(List, Vector, double, double, int, boolean)}: the first matching fragment
+	 * unless a later one has a lower hydrogen penalty.
 	 * 
-	 * @return true, if successful
+	 * @param ac the fragment
+	 * 
+	 * @return true, if the fragment explains at least one peak
 	 * 
 	 * @throws CDKException the CDK exception
-	 * @throws IOException 
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public boolean assignFragment(IAtomContainer ac) throws CDKException, IOException
+	{
+		boolean matched = false;
+		streamedFragments++;
+		
+		double mass = getFragmentMass(ac);
+		int treeDepth = getTreeDepth(ac);
+		double maxShift = hydrogenMass * (treeDepth + 2);
+		
+		//only the peaks in the windows of all hydrogen shifts
+		for (int k = lowerBound(this.peakHighs, mass - maxShift); k < this.peakLows.length && this.peakLows[k] <= mass + maxShift; k++) {
+			int shift = getMatchShift(mass, treeDepth, this.peakLows[k], this.peakHighs[k], this.mode);
+			if(shift == NO_MATCH)
+				continue;
+			
+			matched = true;
+			int i = this.peakOrder[k];
+			if(bestHits[i] == null || bestHits[i].getHydrogenPenalty() > getHydrogenPenalty(shift))
+			{
+				bestHits[i] = createHit(ac, this.peakList.get(i), mass, shift, this.mode);
+				//the new hits of this peak have to be collected again
+				this.hits = null;
+			}
+		}
+		return matched;
+	}
+	
+	
+	/**
+	 * Quick check (streaming mode) if a fragment with the given mass could match any peak. All
+	 * hydrogen shifts tried in {@link #matchByMass(IAtomContainer, double, int)} are covered, so
+	 * fragments failing this check never produce a hit and their atom container need not be built.
+	 * 
+	 * @param mass the fragment mass
+	 * @param treeDepth the tree depth of the fragment
+	 * 
+	 * @return true, if the fragment is a possible hit
+	 */
+	public boolean isPossibleHit(double mass, int treeDepth)
+	{
+		double protonMass = hydrogenMass * (double)this.mode;
+		double shift = hydrogenTest ? (treeDepth + 1) * hydrogenMass : 0.0;
+		for (int i = 0; i < peakList.size(); i++) {
+			double peak = peakList.get(i).getMass();
+			double deviation = this.mzabs + PPMTool.getPPMDeviation(peak, this.mzppm);
+			if((mass + protonMass + shift) >= (peak - deviation) && (mass + protonMass - shift) <= (peak + deviation))
+				return true;
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Checks (streaming mode) if a fragment with the given mass or any of its sub fragments could still
+	 * change the hits: the sub fragments are lighter, so a peak can only be explained if it is below the
+	 * mass of the fragment plus the proton and all hydrogen shifts up to the max tree depth. Peaks which are
+	 * already explained without hydrogen penalty are skipped...their hit is never replaced.
+	 * 
+	 * @param mass the fragment mass
+	 * @param treeDepthMax the max tree depth of the sub fragments
+	 * 
+	 * @return true, if the fragment has to be split up
+	 */
+	public boolean canExplainOpenPeak(double mass, int treeDepthMax)
+	{
+		double shift = hydrogenMass + (hydrogenTest ? (treeDepthMax + 1) * hydrogenMass : 0.0);
+		for (int i = 0; i < peakList.size(); i++) {
+			if(bestHits != null && bestHits[i] != null && bestHits[i].getHydrogenPenalty() == 0)
+				continue;
+			double peak = peakList.get(i).getMass();
+			double deviation = this.mzabs + PPMTool.getPPMDeviation(peak, this.mzppm);
+			if((peak - deviation) <= (mass + shift))
+				return true;
+		}
+		return false;
+	}
+	
+	
+	/**
+	 * Gets the number of fragments matched in streaming mode.
+	 * 
+	 * @return the number of streamed fragments
+	 */
+	public int getStreamedFragments()
+	{
+		return this.streamedFragments;
+	}
+	
+	
+	/**
+	 * Collect the best hits per peak from the streaming mode in the order of the peak list.
+	 */
+	private void collectStreamingHits()
+	{
+		this.hits = new Vector<PeakMolPair>();
+		this.hitsPeaks = new Vector<Double>();
+		for (int i = 0; i < bestHits.length; i++) {
+			if(bestHits[i] == null)
+				continue;
+			hits.add(bestHits[i]);
+			hitsPeaks.add(bestHits[i].getPeak().getMass());
+		}
+	}
+	
+	
+	/**
+	 * Gets the neutral mass of the fragment: the "FragmentMass" property (speed up and neutral
+	 * loss matching) or the mass of the molecular formula.
+	 * 
+	 * @param ac the fragment
+	 * 
+	 * @return the mass
 	 */
-	private boolean matchByMass(IAtomContainer ac, double peak, int mode) throws CDKException, IOException
+	static double getFragmentMass(IAtomContainer ac)
 	{
-		boolean found = false;
+		if(ac.getProperty("FragmentMass") != null && ac.getProperty("FragmentMass") != "")
+			return Double.parseDouble(ac.getProperty("FragmentMass").toString());
 		
 		IMolecularFormula molecularFormula = new MolecularFormula();
-        molecularFormula = MolecularFormulaManipulator.getMolecularFormula(ac, molecularFormula);         
-        double mass = 0.0;
-        //speed up and neutral loss matching!
-        if(ac.getProperty("FragmentMass") != null && ac.getProperty("FragmentMass") != "")
-        	mass = Double.parseDouble(ac.getProperty("FragmentMass").toString());
-        else
-        	mass = MolecularFormulaTools.getMonoisotopicMass(molecularFormula);
+		molecularFormula = MolecularFormulaManipulator.getMolecularFormula(ac, molecularFormula);
+		return MolecularFormulaTools.getMonoisotopicMass(molecularFormula);
+	}
+	
+	
+	/**
+	 * Gets the tree depth of the fragment (max hydrogen shift).
+	 * 
+	 * @param ac the fragment
+	 * 
+	 * @return the tree depth
+	 */
+	private int getTreeDepth(IAtomContainer ac)
+	{
+		if(!hydrogenTest || ac.getProperty("TreeDepth") == null)
+			return 0;
+		return Integer.parseInt((String)ac.getProperty("TreeDepth"));
+	}
+	
+	
+	/**
+	 * Match by mass: first the protonated (deprotonated) fragment, then (hydrogen test) the
+	 * neutral fragment and at most treedepth hydrogens less or more.
+	 * 
+	 * @param mass the neutral fragment mass
+	 * @param treeDepth the tree depth
+	 * @param peakLow the lower bound of the peak window
+	 * @param peakHigh the upper bound of the peak window
+	 * @param mode the mode
+	 * 
+	 * @return NO_MATCH, 0 (protonated), NEUTRAL or the hydrogens removed (negative) or added (positive)
+	 */
+	private int getMatchShift(double mass, int treeDepth, double peakLow, double peakHigh, int mode)
+	{
+		return getMatchShift(mass, treeDepth, peakLow, peakHigh, mode, this.hydrogenTest);
+	}
+	
+	
+	/**
+	 * Match by mass (see {@link #getMatchShift(double, int, double, double, int)}), also used by the
+	 * {@link FragmentMassIndex}.
+	 * 
+	 * @param mass the neutral fragment mass
+	 * @param treeDepth the tree depth
+	 * @param peakLow the lower bound of the peak window
+	 * @param peakHigh the upper bound of the peak window
+	 * @param mode the mode
+	 * @param hydrogenTest the hydrogen test
+	 * 
+	 * @return NO_MATCH, 0 (protonated), NEUTRAL or the hydrogens removed (negative) or added (positive)
+	 */
+	static int getMatchShift(double mass, int treeDepth, double peakLow, double peakHigh, int mode, boolean hydrogenTest)
+	{
+		double protonMass = hydrogenMass * (double)mode;
+		double massToCompare = mass+protonMass;
+		
+		if((massToCompare >= peakLow && massToCompare <= peakHigh))
+			return 0;
+		
+		//now try to decrease the hydrogens...at most the treedepth
+		if(hydrogenTest)
+		{
+			for(int i= 0; i <= treeDepth; i++)
+			{
+				if(i==0)
+				{
+					if(((mass) >= peakLow && (mass) <= peakHigh))
+						return NEUTRAL;
+				}
+				else
+				{
+					double hMass = i * protonMass;
+					if(((massToCompare - hMass) >= peakLow && (massToCompare - hMass) <= peakHigh))
+						return -i;
+					else if(((massToCompare + hMass) >= peakLow && (massToCompare + hMass) <= peakHigh))
+						return i;
+				}
+			}
+		}
+		return NO_MATCH;
+	}
+	
+	
+	/**
+	 * Gets the hydrogen penalty of the match: a bond energy equivalent to a H-C bond per hydrogen.
+	 * 
+	 * @param shift the shift (see {@link #getMatchShift(double, int, double, double, int)})
+	 * 
+	 * @return the hydrogen penalty
+	 */
+	static double getHydrogenPenalty(int shift)
+	{
+		if(shift == 0)
+			return 0;
+		if(shift == NEUTRAL)
+			return 1000;
+		return (Math.abs(shift) * 1000) + 1000;
+	}
+	
+	
+	/**
+	 * Creates the hit. The molecular formula is only built here.
+	 * 
+	 * @param ac the fragment
+	 * @param peak the peak
+	 * @param mass the neutral fragment mass
+	 * @param shift the shift (see {@link #getMatchShift(double, int, double, double, int)})
+	 * @param mode the mode
+	 * 
+	 * @return the peak mol pair
+	 */
+	private PeakMolPair createHit(IAtomContainer ac, Peak peak, double mass, int shift, int mode)
+	{
+		IMolecularFormula molecularFormula = new MolecularFormula();
+        molecularFormula = MolecularFormulaManipulator.getMolecularFormula(ac, molecularFormula);
+        String formula = this.html ? MolecularFormulaManipulator.getHTML(molecularFormula) : MolecularFormulaManipulator.getString(molecularFormula);
         
-        double peakLow = peak - this.mzabs - PPMTool.getPPMDeviation(peak, this.mzppm);
-        double peakHigh = peak + this.mzabs + PPMTool.getPPMDeviation(peak, this.mzppm);
         double protonMass = hydrogenMass * (double)mode;
         double massToCompare = mass+protonMass;
         
         String neutralLoss = "";
     	if(ac.getProperty("NlElementalComposition") != null && ac.getProperty("NlElementalComposition") != "")
     		neutralLoss = " -" + ac.getProperty("NlElementalComposition");
-    
-        
         String modeString = (mode > 0) ? " +" : " -";
         
-        if((massToCompare >= peakLow && massToCompare <= peakHigh))
+        if(shift == 0)
+        {
+        	this.matchedMass = Math.round(massToCompare*10000.0)/10000.0;
+        	this.molecularFormula = formula + modeString + "H" + neutralLoss;
+        }
+        else if(shift == NEUTRAL)
         {
-        	found = true;
-        	matchedMass = Math.round(massToCompare*10000.0)/10000.0;
-        	this.hydrogenPenalty = 0;
-        	
-        	if(this.html)
-        		this.molecularFormula = MolecularFormulaManipulator.getHTML(molecularFormula) + modeString + "H" + neutralLoss;
-        	else
-        		this.molecularFormula = MolecularFormulaManipulator.getString(molecularFormula) + modeString + "H" + neutralLoss;
-        	
-        	//System.out.println("HIT!" + (double)Math.round(((mass+protonMass)-peak) * 10000)/10000 + " Mass: " + (double)Math.round((mass + protonMass)* 10000)/10000 + " " + MolecularFormulaManipulator.getString(molecularFormula) + " " + mode + "H Error: " + (double)Math.round((Math.abs((mass+protonMass)-peak)*10000))/10000);
+        	this.matchedMass = Math.round((mass)*10000.0)/10000.0;
+        	this.molecularFormula = formula + neutralLoss;
         }
-        //now try to decrease the hydrogens...at most the treedepth
-        if(hydrogenTest && !found)
+        else if(shift < 0)
         {
-        	int treeDepth = Integer.parseInt((String)ac.getProperty("TreeDepth"));
-        	for(int i= 0; i <= treeDepth; i++)
-        	{
-        		if(i==0)
-        		{
-        			//found
-        			if(((mass) >= peakLow && (mass) <= peakHigh))
-        			{
-        				
-        				//now add a bond energy equivalent to a H-C bond
-        				this.hydrogenPenalty = 1000;
-        				
-        				
-        				found = true;
-        				matchedMass = Math.round((mass)*10000.0)/10000.0;
-        				
-        				if(this.html)
-        	        		this.molecularFormula = MolecularFormulaManipulator.getHTML(molecularFormula) + neutralLoss;
-        	        	else
-        	        		this.molecularFormula = MolecularFormulaManipulator.getString(molecularFormula) + neutralLoss;
-        				
-        				break;
-        			}
-        		}
-        		else
-        		{
-        			double hMass = i * protonMass;
-        			
-        			//found
-        			if(((massToCompare - hMass) >= peakLow && (massToCompare - hMass) <= peakHigh))
-        			{
-        				found = true;
-        				matchedMass = Math.round((massToCompare-hMass)*10000.0)/10000.0;
-        				
-        				//now add a bond energy equivalent to a H-C bond
-        				this.hydrogenPenalty = (i * 1000) + 1000;
-        				
-        				if(this.html)
-        	        		this.molecularFormula = MolecularFormulaManipulator.getHTML(molecularFormula) + "-" + (i + 1) + "H" + neutralLoss;
-        	        	else
-        	        		this.molecularFormula = MolecularFormulaManipulator.getString(molecularFormula) + "-" + (i + 1) + "H" + neutralLoss;
-        				
-        				
-        				break;
-        			}
-        			else if(((massToCompare + hMass) >= peakLow && (massToCompare + hMass) <= peakHigh))
-        			{
-        				found = true;
-        				matchedMass = Math.round((massToCompare+hMass)*10000.0)/10000.0;
-        				//now add a bond energy equivalent to a H-C bond
-        				this.hydrogenPenalty = (i * 1000) + 1000;
-        				
-        				
-        				if(this.html)
-        	        		this.molecularFormula = MolecularFormulaManipulator.getHTML(molecularFormula) + "+" + (i + 1) + "H" + neutralLoss;
-        	        	else
-        	        		this.molecularFormula = MolecularFormulaManipulator.getString(molecularFormula) + "+" + (i + 1) + "H" + neutralLoss;
-        				
-        				break;
-        			}
-        		}	
-        	}
+        	double hMass = -shift * protonMass;
+        	this.matchedMass = Math.round((massToCompare-hMass)*10000.0)/10000.0;
+        	this.molecularFormula = formula + "-" + (-shift + 1) + "H" + neutralLoss;
         }
-        		
-		return found;
+        else
+        {
+        	double hMass = shift * protonMass;
+        	this.matchedMass = Math.round((massToCompare+hMass)*10000.0)/10000.0;
+        	this.molecularFormula = formula + "+" + (shift + 1) + "H" + neutralLoss;
+        }
+        this.hydrogenPenalty = getHydrogenPenalty(shift);
+        
+        return new PeakMolPair(ac, peak, this.matchedMass, this.molecularFormula, this.hydrogenPenalty);
+	}
+	
+	
+	/**
+	 * Index of the first value which is greater than or equal to the key.
+	 * 
+	 * @param values the sorted values
+	 * @param key the key
+	 * 
+	 * @return the index
+	 */
+	private static int lowerBound(double[] values, double key)
+	{
+		int low = 0;
+		int high = values.length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(values[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
 	}
 	
 
@@ -231,16 +523,23 @@ public class AssignFragmentPeak {
 	 */
 	public Vector<PeakMolPair> getHits()
 	{
+		if(this.bestHits != null && this.hits == null)
+			collectStreamingHits();
 		return this.hits;
 	}
 	
 	/**
-	 * Gets the all hits. (with all possibilities)
+	 * Gets the all hits. (with all possibilities) This is not available in streaming mode
+	 * because it grows with the number of fragments.
 	 * 
 	 * @return the all hits
+	 * 
+	 * @throws IllegalStateException in streaming mode
 	 */
 	public Vector<PeakMolPair> getAllHits()
 	{
+		if(this.bestHits != null)
+			throw new IllegalStateException("All hits are not collected in streaming mode.");
 		return this.hitsAll;
 	}
 	
@@ -251,6 +550,8 @@ public class AssignFragmentPeak {
 	 */
 	public Vector<Double> getHitsMZ()
 	{
+		if(this.bestHits != null && this.hits == null)
+			collectStreamingHits();
 		return this.hitsPeaks;
 	}
 	
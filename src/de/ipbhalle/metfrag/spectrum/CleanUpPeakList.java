@@ -38,17 +38,20 @@ public class CleanUpPeakList {
 	 */
 	private void removeHeavyPeaks(double mass)
 	{
-		List<Peak> toRemove = new ArrayList<Peak>();
+		//one pass...keep the light peaks in their order
+		List<Peak> toKeep = new ArrayList<Peak>(peakList.size());
 		for (int i = 0; i < peakList.size(); i++) {
-			if(peakList.get(i).getMass() >= mass)
+			if(peakList.get(i).getMass() < mass)
 			{
-				toRemove.add(peakList.get(i));
+				toKeep.add(peakList.get(i));
 			}
 		}
 		
 		//now remove the peaks
-		for (Peak peak : toRemove) {
-			peakList.remove(peak);
+		if(toKeep.size() < peakList.size())
+		{
+			peakList.clear();
+			peakList.addAll(toKeep);
 		}
 	}
 
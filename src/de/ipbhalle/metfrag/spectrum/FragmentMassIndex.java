@@ -0,0 +1,453 @@
+package de.ipbhalle.metfrag.spectrum;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import de.ipbhalle.metfrag.fragmenter.AtomContainerMetFrag;
+import de.ipbhalle.metfrag.tools.MolecularFormulaTools;
+import de.ipbhalle.metfrag.tools.PPMTool;
+
+
+/**
+ * Fragment once, match many (reverse lookup). The fragments of a compound library (e.g. the standards
+ * of the lab) are generated once and indexed by their neutral mass: compound, fragment mass, bond energy
+ * and tree depth (the hydrogen shifts tried in the matching). Every peak list is then matched against all
+ * compounds with one range query per peak instead of matching the fragments of every compound again.
+ * The peak windows and hydrogen shifts are the same as in {@link AssignFragmentPeak}.
+ * <p/>
+ * Only the masses are kept (no atom containers), so the index can be written to disk ({@link #write(File)})
+ * and a fixed library is fragmented only once. The hydrogen test and the tree depth of the fragmentation are
+ * stored in the header...an index built with other settings has to be rebuilt (see {@link #isBuiltWith(boolean, int)}).
+ */
+public class FragmentMassIndex {
+
+	//"MFFI"...not the same as the MassIndex of the molecule database
+	private static final int MAGIC = 0x4d464649;
+	private static final int VERSION = 2;
+	private static final double hydrogenMass = MolecularFormulaTools.getMonoisotopicMass("H1");
+
+	private boolean hydrogenTest;
+	//tree depth of the fragmentation
+	private int treeDepth;
+	private List<String> compounds = new ArrayList<String>();
+	//peaks at or above this mass are not matched (the molecule peak, see CleanUpPeakList)
+	private double[] maxPeakMasses = new double[16];
+	private int count = 0;
+	private double[] masses = new double[1 << 10];
+	private int[] compoundIndices = new int[1 << 10];
+	private double[] bondEnergies = new double[1 << 10];
+	private int[] treeDepths = new int[1 << 10];
+	private int maxTreeDepth = 0;
+	//the fragments are sorted by mass before the first match
+	private boolean sorted = true;
+
+
+	/**
+	 * Instantiates a new empty fragment mass index.
+	 *
+	 * @param hydrogenTest the hydrogen test (see {@link AssignFragmentPeak#setHydrogenTest(boolean)})
+	 * @param treeDepth the tree depth the fragments are generated with
+	 */
+	public FragmentMassIndex(boolean hydrogenTest, int treeDepth)
+	{
+		this.hydrogenTest = hydrogenTest;
+		this.treeDepth = treeDepth;
+	}
+
+
+	/**
+	 * Adds the fragments of a compound (e.g. from {@link de.ipbhalle.metfrag.fragmenter.Fragmenter#generateFragmentsInMemory(IAtomContainer, boolean, int)}).
+	 * The fragments are not kept.
+	 *
+	 * @param compound the compound identifier
+	 * @param fragments the fragments
+	 * @param maxPeakMass peaks at or above this mass are not matched (the exact mass of the compound)
+	 *
+	 * @return the index of the compound
+	 */
+	public synchronized int addCompound(String compound, List<IAtomContainer> fragments, double maxPeakMass)
+	{
+		int compoundIndex = compounds.size();
+		compounds.add(compound);
+		if(compoundIndex == maxPeakMasses.length)
+			maxPeakMasses = Arrays.copyOf(maxPeakMasses, compoundIndex * 2);
+		maxPeakMasses[compoundIndex] = maxPeakMass;
+
+		for (IAtomContainer fragment : fragments) {
+			int treeDepth = 0;
+			if(hydrogenTest && fragment.getProperty("TreeDepth") != null)
+				treeDepth = Integer.parseInt((String)fragment.getProperty("TreeDepth"));
+			Double bondEnergy = AtomContainerMetFrag.getFragmentBondEnergy(fragment);
+			if(bondEnergy == null)
+				bondEnergy = 0.0;
+			add(AssignFragmentPeak.getFragmentMass(fragment), compoundIndex, bondEnergy, treeDepth);
+		}
+		return compoundIndex;
+	}
+
+
+	private void add(double mass, int compoundIndex, double bondEnergy, int treeDepth)
+	{
+		if(count == masses.length)
+		{
+			int capacity = count * 2;
+			masses = Arrays.copyOf(masses, capacity);
+			compoundIndices = Arrays.copyOf(compoundIndices, capacity);
+			bondEnergies = Arrays.copyOf(bondEnergies, capacity);
+			treeDepths = Arrays.copyOf(treeDepths, capacity);
+		}
+		masses[count] = mass;
+		compoundIndices[count] = compoundIndex;
+		bondEnergies[count] = bondEnergy;
+		treeDepths[count] = treeDepth;
+		maxTreeDepth = Math.max(maxTreeDepth, treeDepth);
+		count++;
+		sorted = false;
+	}
+
+
+	/**
+	 * Sorts the fragments by mass (stable).
+	 */
+	private synchronized void sort()
+	{
+		if(sorted)
+			return;
+		Integer[] order = new Integer[count];
+		for (int i = 0; i < count; i++) {
+			order[i] = i;
+		}
+		final double[] sortMasses = masses;
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				return Double.compare(sortMasses[o1], sortMasses[o2]);
+			}
+		});
+		double[] sortedMasses = new double[count];
+		int[] sortedCompounds = new int[count];
+		double[] sortedEnergies = new double[count];
+		int[] sortedDepths = new int[count];
+		for (int i = 0; i < count; i++) {
+			sortedMasses[i] = masses[order[i]];
+			sortedCompounds[i] = compoundIndices[order[i]];
+			sortedEnergies[i] = bondEnergies[order[i]];
+			sortedDepths[i] = treeDepths[order[i]];
+		}
+		masses = sortedMasses;
+		compoundIndices = sortedCompounds;
+		bondEnergies = sortedEnergies;
+		treeDepths = sortedDepths;
+		sorted = true;
+	}
+
+
+	public boolean isHydrogenTest()
+	{
+		return hydrogenTest;
+	}
+
+	public int getTreeDepth()
+	{
+		return treeDepth;
+	}
+
+
+	/**
+	 * Checks if the index is built with the given settings. Otherwise the fragments
+	 * (tree depth) or the matching (hydrogen test) are different and the index has to be rebuilt.
+	 *
+	 * @param hydrogenTest the hydrogen test
+	 * @param treeDepth the tree depth
+	 *
+	 * @return true, if the settings are the same
+	 */
+	public boolean isBuiltWith(boolean hydrogenTest, int treeDepth)
+	{
+		return this.hydrogenTest == hydrogenTest && this.treeDepth == treeDepth;
+	}
+
+	public int getCompoundCount()
+	{
+		return compounds.size();
+	}
+
+	public String getCompound(int compoundIndex)
+	{
+		return compounds.get(compoundIndex);
+	}
+
+	public int getFragmentCount()
+	{
+		return count;
+	}
+
+
+	/**
+	 * Matches a peak list against all compounds. A peak is explained by a compound if one of its fragments
+	 * matches (like the hits of {@link AssignFragmentPeak})...the fragment with the lowest hydrogen penalty
+	 * (and then the lowest bond energy) is used. Once all compounds are added the index can be shared by several threads.
+	 *
+	 * @param peakList the peak list
+	 * @param mzabs the mzabs
+	 * @param mzppm the mzppm
+	 * @param mode the mode
+	 *
+	 * @return the hits of all compounds
+	 */
+	public Match match(PeakList peakList, double mzabs, double mzppm, int mode)
+	{
+		sort();
+		int compoundCount = compounds.size();
+		Match match = new Match(compounds, peakList);
+		//all hydrogen shifts tried in the matching
+		double maxShift = Math.abs(hydrogenMass * (double)mode) * (maxTreeDepth + 2);
+
+		//the best fragment of the compounds explaining the current peak
+		int[] lastPeak = new int[compoundCount];
+		Arrays.fill(lastPeak, -1);
+		double[] bestPenalty = new double[compoundCount];
+		double[] bestEnergy = new double[compoundCount];
+		int[] touched = new int[compoundCount];
+
+		for (int i = 0; i < peakList.size(); i++) {
+			double peak = peakList.getMass(i);
+			double peakLow = peak - mzabs - PPMTool.getPPMDeviation(peak, mzppm);
+			double peakHigh = peak + mzabs + PPMTool.getPPMDeviation(peak, mzppm);
+
+			int touchedCount = 0;
+			for (int k = lowerBound(masses, count, peakLow - maxShift); k < count && masses[k] <= peakHigh + maxShift; k++) {
+				int c = compoundIndices[k];
+				if(peak >= maxPeakMasses[c])
+					continue;
+				int shift = AssignFragmentPeak.getMatchShift(masses[k], treeDepths[k], peakLow, peakHigh, mode, hydrogenTest);
+				if(shift == AssignFragmentPeak.NO_MATCH)
+					continue;
+
+				double penalty = AssignFragmentPeak.getHydrogenPenalty(shift);
+				if(lastPeak[c] != i)
+				{
+					lastPeak[c] = i;
+					touched[touchedCount++] = c;
+					bestPenalty[c] = penalty;
+					bestEnergy[c] = bondEnergies[k];
+				}
+				else if(penalty < bestPenalty[c] || (penalty == bestPenalty[c] && bondEnergies[k] < bestEnergy[c]))
+				{
+					bestPenalty[c] = penalty;
+					bestEnergy[c] = bondEnergies[k];
+				}
+			}
+			for (int t = 0; t < touchedCount; t++) {
+				match.add(touched[t], i, bestEnergy[touched[t]], bestPenalty[touched[t]]);
+			}
+		}
+		return match;
+	}
+
+
+	/**
+	 * Index of the first value which is greater than or equal to the key.
+	 */
+	private static int lowerBound(double[] values, int length, double key)
+	{
+		int low = 0;
+		int high = length;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(values[mid] < key)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+
+	/**
+	 * Writes the index.
+	 *
+	 * @param file the file
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public void write(File file) throws IOException
+	{
+		sort();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeBoolean(hydrogenTest);
+			out.writeInt(treeDepth);
+			out.writeInt(compounds.size());
+			for (int c = 0; c < compounds.size(); c++) {
+				out.writeUTF(compounds.get(c));
+				out.writeDouble(maxPeakMasses[c]);
+			}
+			out.writeInt(count);
+			for (int i = 0; i < count; i++) {
+				out.writeDouble(masses[i]);
+				out.writeInt(compoundIndices[i]);
+				out.writeDouble(bondEnergies[i]);
+				out.writeInt(treeDepths[i]);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	/**
+	 * Reads an index written by {@link #write(File)}.
+	 *
+	 * @param file the file
+	 *
+	 * @return the fragment mass index
+	 *
+	 * @throws IOException Signals that an I/O exception has occurred.
+	 */
+	public static FragmentMassIndex read(File file) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try
+		{
+			if(in.readInt() != MAGIC)
+				throw new IOException("No fragment mass index: " + file);
+			int version = in.readInt();
+			if(version != VERSION)
+				throw new IOException("Unsupported fragment mass index version " + version + ": " + file);
+			boolean hydrogenTest = in.readBoolean();
+			FragmentMassIndex index = new FragmentMassIndex(hydrogenTest, in.readInt());
+			int compoundCount = in.readInt();
+			index.maxPeakMasses = new double[Math.max(compoundCount, 1)];
+			for (int c = 0; c < compoundCount; c++) {
+				index.compounds.add(in.readUTF());
+				index.maxPeakMasses[c] = in.readDouble();
+			}
+			int fragmentCount = in.readInt();
+			for (int i = 0; i < fragmentCount; i++) {
+				index.add(in.readDouble(), in.readInt(), in.readDouble(), in.readInt());
+			}
+			//written sorted
+			index.sorted = true;
+			return index;
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+
+
+	/**
+	 * The hits of one peak list: for every compound the indices of the explained peaks (ascending, see
+	 * {@link de.ipbhalle.metfrag.scoring.Scoring#computeScore(double[], int[])}) with the bond energy and
+	 * hydrogen penalty of the matched fragment.
+	 */
+	public static class Match {
+
+		private List<String> compounds;
+		private PeakList peakList;
+		private int[] hitCounts;
+		private int[][] hitIndices;
+		private double[][] hitBondEnergies;
+		private double[][] hitHydrogenPenalties;
+
+		private Match(List<String> compounds, PeakList peakList)
+		{
+			this.compounds = compounds;
+			this.peakList = peakList;
+			this.hitCounts = new int[compounds.size()];
+			this.hitIndices = new int[compounds.size()][];
+			this.hitBondEnergies = new double[compounds.size()][];
+			this.hitHydrogenPenalties = new double[compounds.size()][];
+		}
+
+		private void add(int c, int peakIndex, double bondEnergy, double hydrogenPenalty)
+		{
+			int n = hitCounts[c];
+			if(hitIndices[c] == null)
+			{
+				hitIndices[c] = new int[4];
+				hitBondEnergies[c] = new double[4];
+				hitHydrogenPenalties[c] = new double[4];
+			}
+			else if(n == hitIndices[c].length)
+			{
+				hitIndices[c] = Arrays.copyOf(hitIndices[c], n * 2);
+				hitBondEnergies[c] = Arrays.copyOf(hitBondEnergies[c], n * 2);
+				hitHydrogenPenalties[c] = Arrays.copyOf(hitHydrogenPenalties[c], n * 2);
+			}
+			hitIndices[c][n] = peakIndex;
+			hitBondEnergies[c][n] = bondEnergy;
+			hitHydrogenPenalties[c][n] = hydrogenPenalty;
+			hitCounts[c]++;
+		}
+
+		public int getCompoundCount()
+		{
+			return compounds.size();
+		}
+
+		public String getCompound(int c)
+		{
+			return compounds.get(c);
+		}
+
+		public PeakList getPeakList()
+		{
+			return peakList;
+		}
+
+		/**
+		 * Gets the number of peaks explained by the compound.
+		 *
+		 * @param c the compound index
+		 *
+		 * @return the hit count
+		 */
+		public int getHitCount(int c)
+		{
+			return hitCounts[c];
+		}
+
+		/**
+		 * Gets the indices of the peaks explained by the compound.
+		 *
+		 * @param c the compound index
+		 *
+		 * @return the peak indices (ascending)
+		 */
+		public int[] getHitIndices(int c)
+		{
+			return hitIndices[c] == null ? new int[0] : Arrays.copyOf(hitIndices[c], hitCounts[c]);
+		}
+
+		public double[] getBondEnergies(int c)
+		{
+			return hitBondEnergies[c] == null ? new double[0] : Arrays.copyOf(hitBondEnergies[c], hitCounts[c]);
+		}
+
+		public double[] getHydrogenPenalties(int c)
+		{
+			return hitHydrogenPenalties[c] == null ? new double[0] : Arrays.copyOf(hitHydrogenPenalties[c], hitCounts[c]);
+		}
+	}
+
+}
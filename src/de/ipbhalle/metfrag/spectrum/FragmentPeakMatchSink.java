@@ -0,0 +1,100 @@
+package de.ipbhalle.metfrag.spectrum;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.openscience.cdk.exception.CDKException;
+import org.openscience.cdk.interfaces.IAtomContainer;
+
+import de.ipbhalle.metfrag.fragmenter.FragmentSink;
+import de.ipbhalle.metfrag.main.PeakMolPair;
+
+
+/**
+ * Fragment sink which matches every fragment against the peak list as soon as it is
+ * generated in the BFS loop of the fragmenter. The fragments themselves are not stored,
+ * only the best hit per peak is kept in the {@link AssignFragmentPeak} (streaming mode).
+ */
+public class FragmentPeakMatchSink implements FragmentSink {
+
+	private AssignFragmentPeak afp;
+	private int matchedFragments = 0;
+
+
+	/**
+	 * Instantiates a new fragment peak match sink.
+	 *
+	 * @param afp the assign fragment peak object...initialized with {@link AssignFragmentPeak#initStreaming}
+	 */
+	public FragmentPeakMatchSink(AssignFragmentPeak afp)
+	{
+		this.afp = afp;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#init(org.openscience.cdk.interfaces.IAtomContainer)
+	 */
+	public void init(IAtomContainer originalMolecule)
+	{
+		this.matchedFragments = 0;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#add(org.openscience.cdk.interfaces.IAtomContainer)
+	 */
+	public void add(IAtomContainer fragment) throws CDKException, IOException
+	{
+		//fragments which explain no peak are dropped
+		if(afp.assignFragment(fragment))
+			matchedFragments++;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#size()
+	 */
+	public int size()
+	{
+		return afp.getStreamedFragments();
+	}
+
+
+	/**
+	 * Gets the number of fragments which matched at least one peak.
+	 *
+	 * @return the matched fragments
+	 */
+	public int getMatchedFragments()
+	{
+		return matchedFragments;
+	}
+
+
+	/**
+	 * Gets the fragments of the best hits. All other fragments are not stored.
+	 *
+	 * @return the fragments
+	 */
+	public List<IAtomContainer> getFragments()
+	{
+		List<IAtomContainer> ret = new ArrayList<IAtomContainer>();
+		for (PeakMolPair hit : afp.getHits()) {
+			if(!ret.contains(hit.getFragment()))
+				ret.add(hit.getFragment());
+		}
+		return ret;
+	}
+
+
+	/* (non-Javadoc)
+	 * @see de.ipbhalle.metfrag.fragmenter.FragmentSink#close()
+	 */
+	public void close()
+	{
+
+	}
+
+}
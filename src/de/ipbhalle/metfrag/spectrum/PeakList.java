@@ -0,0 +1,227 @@
+package de.ipbhalle.metfrag.spectrum;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Vector;
+
+import de.ipbhalle.metfrag.massbankParser.Peak;
+
+
+/**
+ * Immutable peak list sorted by mass. The masses and intensities are stored in primitive arrays
+ * (columns), so one list can be shared read only by all search threads of a spectrum instead of
+ * cloning the Vector of peaks for every candidate. The views ({@link #getPeaksBelow(double)},
+ * {@link #filterByRelIntensity(double)}) keep the original {@link Peak} objects.
+ */
+public class PeakList {
+
+	private final double[] mz;
+	private final double[] intensity;
+	private final double[] relIntensity;
+	private final Peak[] peaks;
+	//a view uses the first size entries of the arrays
+	private final int size;
+	private Vector<Peak> vector = null;
+
+
+	/**
+	 * Instantiates a new peak list. The list is sorted by mass (stable...peaks with the same
+	 * mass keep their order).
+	 *
+	 * @param peakList the peak list
+	 */
+	public PeakList(List<Peak> peakList)
+	{
+		Peak[] sorted = peakList.toArray(new Peak[peakList.size()]);
+		Arrays.sort(sorted, new Comparator<Peak>() {
+			public int compare(Peak o1, Peak o2) {
+				return Double.compare(o1.getMass(), o2.getMass());
+			}
+		});
+
+		this.size = sorted.length;
+		this.peaks = sorted;
+		this.mz = new double[size];
+		this.intensity = new double[size];
+		this.relIntensity = new double[size];
+		for (int i = 0; i < size; i++) {
+			mz[i] = sorted[i].getMass();
+			intensity[i] = sorted[i].getIntensity();
+			relIntensity[i] = sorted[i].getRelIntensity();
+		}
+	}
+
+
+	/**
+	 * View of the first peaks of the parent (shares the arrays).
+	 *
+	 * @param parent the parent
+	 * @param size the number of peaks
+	 */
+	private PeakList(PeakList parent, int size)
+	{
+		this.mz = parent.mz;
+		this.intensity = parent.intensity;
+		this.relIntensity = parent.relIntensity;
+		this.peaks = parent.peaks;
+		this.size = size;
+	}
+
+
+	/**
+	 * Peak list of the given columns (already sorted by mass).
+	 */
+	private PeakList(double[] mz, double[] intensity, double[] relIntensity, Peak[] peaks)
+	{
+		this.mz = mz;
+		this.intensity = intensity;
+		this.relIntensity = relIntensity;
+		this.peaks = peaks;
+		this.size = mz.length;
+	}
+
+
+	public int size()
+	{
+		return size;
+	}
+
+	public double getMass(int i)
+	{
+		return mz[i];
+	}
+
+	public double getIntensity(int i)
+	{
+		return intensity[i];
+	}
+
+	/**
+	 * Gets the relative intensity (see {@link Peak#getRelIntensity()}).
+	 *
+	 * @param i the index
+	 *
+	 * @return the rel intensity
+	 */
+	public double getRelIntensity(int i)
+	{
+		return relIntensity[i];
+	}
+
+	public Peak getPeak(int i)
+	{
+		return peaks[i];
+	}
+
+
+	/**
+	 * Index of the first peak with a mass greater than or equal to the mass.
+	 *
+	 * @param mass the mass
+	 *
+	 * @return the index (size if all peaks are lighter)
+	 */
+	public int lowerBound(double mass)
+	{
+		int low = 0;
+		int high = size;
+		while(low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if(mz[mid] < mass)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+
+	/**
+	 * Gets the index of the peak with exactly this mass.
+	 *
+	 * @param mass the mass
+	 *
+	 * @return the index of the first peak with the mass or -1
+	 */
+	public int indexOf(double mass)
+	{
+		int i = lowerBound(mass);
+		if(i < size && mz[i] == mass)
+			return i;
+		return -1;
+	}
+
+
+	/**
+	 * Gets the peaks lighter than the mass, e.g. without the molecule peak (see {@link CleanUpPeakList}).
+	 * Nothing is copied.
+	 *
+	 * @param mass the mass
+	 *
+	 * @return the peaks below the mass
+	 */
+	public PeakList getPeaksBelow(double mass)
+	{
+		int end = lowerBound(mass);
+		if(end == size)
+			return this;
+		return new PeakList(this, end);
+	}
+
+
+	/**
+	 * Gets the peaks with a relative intensity of at least the given value.
+	 *
+	 * @param minRelIntensity the min rel intensity
+	 *
+	 * @return the filtered peaks
+	 */
+	public PeakList filterByRelIntensity(double minRelIntensity)
+	{
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if(relIntensity[i] >= minRelIntensity)
+				count++;
+		}
+		if(count == size)
+			return this;
+
+		double[] fMz = new double[count];
+		double[] fIntensity = new double[count];
+		double[] fRelIntensity = new double[count];
+		Peak[] fPeaks = new Peak[count];
+		int j = 0;
+		for (int i = 0; i < size; i++) {
+			if(relIntensity[i] < minRelIntensity)
+				continue;
+			fMz[j] = mz[i];
+			fIntensity[j] = intensity[i];
+			fRelIntensity[j] = relIntensity[i];
+			fPeaks[j] = peaks[i];
+			j++;
+		}
+		return new PeakList(fMz, fIntensity, fRelIntensity, fPeaks);
+	}
+
+
+	/**
+	 * Gets the peaks as Vector for the classes working on Vector<Peak> (e.g. the Fragmenter and
+	 * AssignFragmentPeak). The Vector is created once and shared...it must not be modified.
+	 *
+	 * @return the peaks sorted by mass
+	 */
+	public synchronized Vector<Peak> toVector()
+	{
+		if(vector == null)
+		{
+			vector = new Vector<Peak>(size);
+			for (int i = 0; i < size; i++) {
+				vector.add(peaks[i]);
+			}
+		}
+		return vector;
+	}
+
+}
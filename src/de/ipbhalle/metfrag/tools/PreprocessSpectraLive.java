@@ -18,11 +18,7 @@ import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
 
 public class PreprocessSpectraLive {
 	
-	private HashMap<Peak, Vector<Double>> peaksIntensity = null;
-	private HashMap<Peak, Vector<Double>> peaksRelIntensity = null;
 	private HashMap<String, WrapperSpectrum> inchiModeToSpectra = null; 
-	private Vector<Double> newIntensity = null;
-	private Vector<Double> newRelIntensity = null;
 	private String filename = "";
 	
 	/**
@@ -146,27 +142,30 @@ public class PreprocessSpectraLive {
 	}
 	
 	
-	private Vector<Peak> mergePeaks(Vector<WrapperSpectrum> spectra, double mzabs, double mzppm)
+	/**
+	 * Merges the peaks of the spectra (e.g. of the different collision energies). Peaks within
+	 * mzabs and mzppm of the first peak of a group are merged: the average m/z value, the max
+	 * intensity and the lowest collision energy are used. 
+	 * 
+	 * @param spectra the spectra
+	 * @param mzabs the mzabs
+	 * @param mzppm the mzppm
+	 * 
+	 * @return the merged peaks
+	 */
+	public static Vector<Peak> mergePeaks(Vector<WrapperSpectrum> spectra, double mzabs, double mzppm)
 	{
 		Vector<Peak> newPeakList = new Vector<Peak>();
-		newIntensity = new Vector<Double>();
-		newRelIntensity = new Vector<Double>();
 		
+		//the peaks of all spectra sorted by mass
 		Vector<Peak> peaks = new Vector<Peak>();
-		this.peaksIntensity = new HashMap<Peak, Vector<Double>>();
-		this.peaksRelIntensity = new HashMap<Peak, Vector<Double>>();
 		for (int i = 0; i < spectra.size(); i++) {
-			Vector<Peak> tempPeaks = spectra.get(i).getPeakList();
-			for (int j = 0; j < tempPeaks.size(); j++) {
-				//peaks.add(tempPeaks.get(j).getMass());
-				peaksIntensity = addToMap(peaksIntensity, tempPeaks.get(j), tempPeaks.get(j).getIntensity());
-				peaksRelIntensity = addToMap(peaksRelIntensity, tempPeaks.get(j),tempPeaks.get(j).getRelIntensity());
-			}
+			peaks.addAll(spectra.get(i).getPeakList());
 		}
-
-		Peak[] peakArray = new Peak[peaksIntensity.size()];
-		peakArray = peaksIntensity.keySet().toArray(peakArray);
-		//sort peak list
+		if(peaks.isEmpty())
+			return newPeakList;
+		Peak[] peakArray = new Peak[peaks.size()];
+		peakArray = peaks.toArray(peakArray);
 		Arrays.sort(peakArray);
 		
 		//now merge adjacent peaks within a given threshold
@@ -181,37 +180,15 @@ public class PreprocessSpectraLive {
 			if((currentPeak.getMass() >= (peakArray[i].getMass() - (mzabs + PPMTool.getPPMDeviation(currentPeak.getMass(), mzppm)))) && (currentPeak.getMass() <= (peakArray[i].getMass() + (mzabs + PPMTool.getPPMDeviation(currentPeak.getMass(), mzppm)))))
 			{
 				temp.add(peakArray[i]);
-				//gets the max intensity from the same peaks
-				for (int k = 0; k < temp.size(); k++) {
-					int size = peaksIntensity.get(temp.get(k)).size();
-					for (int j = 0; j < size; j++) {
-						if(currentIntensity < peaksIntensity.get(temp.get(k)).get(j))
-							currentIntensity = peaksIntensity.get(temp.get(k)).get(j);
-					}
-					for (int j = 0; j < size; j++) {
-						if(currentRelIntensity < peaksRelIntensity.get(temp.get(k)).get(j))
-							currentRelIntensity = peaksRelIntensity.get(temp.get(k)).get(j);
-					}
+				//gets the max intensity from the same peaks...the first peak is added with the second one
+				for (int k = (temp.size() == 2 ? 0 : temp.size() - 1); k < temp.size(); k++) {
+					currentIntensity = Math.max(currentIntensity, temp.get(k).getIntensity());
+					currentRelIntensity = Math.max(currentRelIntensity, temp.get(k).getRelIntensity());
 				}
 				//get the last peak too
-				if(temp.size() > 1 && i == peakArray.length - 1)
+				if(i == peakArray.length - 1)
 				{
-					double newPeak = 0;
-					int lowestCollisionEnergy = Integer.MAX_VALUE;
-					
-					for (int j = 0; j < temp.size(); j++) {
-						newPeak += temp.get(j).getMass();
-						
-						if(lowestCollisionEnergy > temp.get(j).getLowestEnergy())
-							lowestCollisionEnergy = temp.get(j).getLowestEnergy();
-					}
-					newPeak = Math.round(newPeak/temp.size() *1000)/1000.0;
-					newPeakList.add(new Peak(newPeak, currentIntensity, currentRelIntensity, lowestCollisionEnergy));					
-					
-					//add the corresponding intensities too
-					newIntensity.add(currentIntensity);
-					newRelIntensity.add(currentRelIntensity);
-					
+					newPeakList.add(mergeGroup(temp, currentIntensity, currentRelIntensity));
 					temp = new Vector<Peak>();
 					currentPeak = peakArray[i];
 					currentIntensity = 0.0;
@@ -223,21 +200,7 @@ public class PreprocessSpectraLive {
 			//merge found peaks
 			else if(temp.size() > 1)
 			{
-				double newPeak = 0;
-				int lowestCollisionEnergy = Integer.MAX_VALUE;
-				for (int j = 0; j < temp.size(); j++) {
-					newPeak += temp.get(j).getMass();
-					if(lowestCollisionEnergy > temp.get(j).getLowestEnergy())
-						lowestCollisionEnergy = temp.get(j).getLowestEnergy();
-				}
-				newPeak = Math.round(newPeak/temp.size() *1000)/1000.0;
-				newPeakList.add(new Peak(newPeak, currentIntensity, currentRelIntensity, lowestCollisionEnergy));
-				
-				//add the corresponding intensities too
-				newIntensity.add(currentIntensity);
-				newRelIntensity.add(currentRelIntensity);
-				
-				
+				newPeakList.add(mergeGroup(temp, currentIntensity, currentRelIntensity));
 				temp = new Vector<Peak>();
 				currentPeak = peakArray[i];
 				currentIntensity = 0.0;
@@ -249,39 +212,9 @@ public class PreprocessSpectraLive {
 			{
 				newPeakList.add(peakArray[i-1]);
 				
-				//gets the max intensity from the same peaks
-				int size = peaksIntensity.get(currentPeak).size();
-				for (int j = 0; j < size; j++) {
-					if(currentIntensity < peaksIntensity.get(currentPeak).get(j))
-						currentIntensity = peaksIntensity.get(currentPeak).get(j);
-				}
-				for (int j = 0; j < size; j++) {
-					if(currentRelIntensity < peaksRelIntensity.get(currentPeak).get(j))
-						currentRelIntensity = peaksRelIntensity.get(currentPeak).get(j);
-				}
-				
-				//add the corresponding intensities too
-				newIntensity.add(currentIntensity);
-				newRelIntensity.add(currentRelIntensity);
-				
 				//get the last peak too
 				if(i == peakArray.length - 1)
-				{
 					newPeakList.add(peakArray[i]);
-					//add the corresponding intensities too
-					//gets the max intensity from the same peaks
-					size = peaksIntensity.get(peakArray[i]).size();
-					for (int j = 0; j < size; j++) {
-						if(currentIntensity < peaksIntensity.get(peakArray[i]).get(j))
-							currentIntensity = peaksIntensity.get(peakArray[i]).get(j);
-					}
-					for (int j = 0; j < size; j++) {
-						if(currentRelIntensity < peaksRelIntensity.get(peakArray[i]).get(j))
-							currentRelIntensity = peaksRelIntensity.get(peakArray[i]).get(j);
-					}
-					newIntensity.add(currentIntensity);
-					newRelIntensity.add(currentRelIntensity);
-				}
 				currentPeak = peakArray[i];
 				currentIntensity = 0.0;
 				currentRelIntensity = 0.0;
@@ -294,30 +227,27 @@ public class PreprocessSpectraLive {
 		
 	}
 	
+	
 	/**
-	 * Adds a new peaks with its intensity to the map.
+	 * Merges a group of peaks: the average m/z value (rounded) and the lowest collision energy.
 	 * 
-	 * @param map the map
-	 * @param currentPeak the current peak
-	 * @param intensity the intensity
+	 * @param group the peaks
+	 * @param intensity the max intensity of the peaks
+	 * @param relIntensity the max rel intensity of the peaks
+	 * 
+	 * @return the merged peak
 	 */
-	private HashMap<Peak, Vector<Double>> addToMap(HashMap<Peak, Vector<Double>> map, Peak currentPeak, double intensity)
+	private static Peak mergeGroup(Vector<Peak> group, double intensity, double relIntensity)
 	{
-    	//add sum formula molecule comb. to map
-        if(map.containsKey(currentPeak))
-        {
-        	Vector<Double> tempList = map.get(currentPeak);
-        	tempList.add(intensity);
-        	map.put(currentPeak, tempList);
-        }
-        else
-        {
-        	Vector<Double> temp = new Vector<Double>();
-        	temp.add(intensity);
-        	map.put(currentPeak, temp);
-        }
-        
-        return map;
+		double newPeak = 0;
+		int lowestCollisionEnergy = Integer.MAX_VALUE;
+		for (int j = 0; j < group.size(); j++) {
+			newPeak += group.get(j).getMass();
+			if(lowestCollisionEnergy > group.get(j).getLowestEnergy())
+				lowestCollisionEnergy = group.get(j).getLowestEnergy();
+		}
+		newPeak = Math.round(newPeak/group.size() *1000)/1000.0;
+		return new Peak(newPeak, intensity, relIntensity, lowestCollisionEnergy);
 	}
 	
 	
@@ -0,0 +1,93 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+
+
+public class FragmentQueueTest {
+
+	private IAtomContainer molecule = null;
+
+
+	public FragmentQueueTest() throws Exception {
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		molecule = sp.parseSmiles("CCCCCCO");
+		//numbered like in the fragmenter
+		for (int i = 0; i < molecule.getAtomCount(); i++) {
+			molecule.getAtom(i).setID(Integer.toString(i));
+		}
+		for (int i = 0; i < molecule.getBondCount(); i++) {
+			molecule.getBond(i).setID(Integer.toString(i));
+		}
+	}
+
+
+	/**
+	 * Fragment with the first atoms and bonds of the molecule.
+	 *
+	 * @param bonds the number of bonds
+	 *
+	 * @return the fragment
+	 */
+	private IAtomContainer getFragment(int bonds)
+	{
+		IAtomContainer fragment = new AtomContainerMetFrag();
+		for (int i = 0; i <= bonds; i++) {
+			fragment.addAtom(molecule.getAtom(i));
+		}
+		for (int i = 0; i < bonds; i++) {
+			fragment.addBond(molecule.getBond(i));
+		}
+		fragment.setProperty("BondEnergy", Double.toString(bonds * 100.0));
+		return fragment;
+	}
+
+
+	@Test
+	public void spilledQueueOrderTest()
+	{
+		FragmentQueue queue = new FragmentQueue(molecule, 2, "test");
+		for (int i = 0; i < 5; i++) {
+			queue.offer(new Node(i, i - 1, getFragment(i + 1), i));
+		}
+		Assert.assertTrue(queue.isSpilled());
+		Assert.assertEquals(5, queue.size());
+
+		//offered while nodes are spilled
+		Assert.assertEquals(0, queue.poll().getCurrent());
+		queue.offer(new Node(5, 4, getFragment(6), 5));
+
+		for (int i = 1; i < 6; i++) {
+			Assert.assertEquals(6 - i, queue.size());
+			Node node = queue.poll();
+			Assert.assertEquals(i, node.getCurrent());
+			Assert.assertEquals(i - 1, node.getParent());
+			Assert.assertEquals(i, node.getTreeDepth());
+			Assert.assertEquals(i + 1, node.getMol().getBondCount());
+			Assert.assertEquals(i + 2, node.getMol().getAtomCount());
+			Assert.assertSame(molecule.getAtom(i + 1), node.getMol().getAtom(i + 1));
+			Assert.assertEquals(Double.toString((i + 1) * 100.0), node.getMol().getProperty("BondEnergy"));
+		}
+		Assert.assertTrue(queue.isEmpty());
+		Assert.assertNull(queue.poll());
+		queue.close();
+	}
+
+
+	@Test
+	public void unboundedQueueTest()
+	{
+		FragmentQueue queue = new FragmentQueue(molecule, Integer.MAX_VALUE, "test");
+		IAtomContainer fragment = getFragment(3);
+		queue.offer(new Node(0, 0, fragment, 0));
+		Assert.assertFalse(queue.isSpilled());
+		Assert.assertSame(fragment, queue.peek().getMol());
+		Assert.assertSame(fragment, queue.poll().getMol());
+		Assert.assertTrue(queue.isEmpty());
+	}
+
+}
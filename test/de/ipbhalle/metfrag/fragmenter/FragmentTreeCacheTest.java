@@ -0,0 +1,110 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.io.File;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
+
+
+public class FragmentTreeCacheTest {
+
+	//naringenin (C00509)
+	private String smiles = "OC1=CC=C(C=C1)C2CC(=O)C3=C(O)C=C(O)C=C3O2";
+	private double exactMass = 272.06847;
+	private double mzabs = 0.01;
+	private double mzppm = 50.0;
+	//two spectra of the same candidate with different peaks
+	private WrapperSpectrum spectrum1 = new WrapperSpectrum("147.044 6078.145 606\n153.019 10000.0 999\n179.036 141.192 13\n189.058 176.358 16\n", 1, exactMass);
+	private WrapperSpectrum spectrum2 = new WrapperSpectrum("119.051 467.616 45\n123.044 370.662 36\n153.019 10000.0 999\n", 1, exactMass);
+
+
+	private IAtomContainer getMolecule() throws Exception
+	{
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		IAtomContainer molecule = sp.parseSmiles(smiles);
+		AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+		CDKHydrogenAdder.getInstance(molecule.getBuilder()).addImplicitHydrogens(molecule);
+		AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+		return molecule;
+	}
+
+
+	@SuppressWarnings("unchecked")
+	private List<FragmentBitSet> getFragments(WrapperSpectrum spectrum, FragmentTreeCache cache) throws Exception
+	{
+		Fragmenter fragmenter = new Fragmenter((Vector<Peak>)spectrum.getPeakList().clone(), mzabs, mzppm, 1, true, false, true, false);
+		fragmenter.setFragmentTreeCache(cache);
+		return fragmenter.generateFragmentsBitSet(getMolecule(), 3);
+	}
+
+
+	private Set<BitSet> getAtoms(List<FragmentBitSet> fragments)
+	{
+		Set<BitSet> ret = new HashSet<BitSet>();
+		for (FragmentBitSet fragment : fragments) {
+			ret.add(fragment.getAtoms());
+		}
+		return ret;
+	}
+
+
+	/**
+	 * Compares the filtered tree with the tree split up with the peaks of the spectrum.
+	 */
+	private void assertFilteredTree(WrapperSpectrum spectrum, List<FragmentBitSet> cached) throws Exception
+	{
+		Assert.assertTrue(getAtoms(cached).containsAll(getAtoms(getFragments(spectrum, null))));
+
+		//the min weight is lowered by the tree depth
+		double minWeight = Double.MAX_VALUE;
+		for (Peak peak : spectrum.getPeakList()) {
+			minWeight = Math.min(minWeight, peak.getMass());
+		}
+		for (FragmentBitSet fragment : cached) {
+			Assert.assertTrue(fragment.getMass() > minWeight - 3.0 - 1.1);
+		}
+	}
+
+
+	/**
+	 * The second spectrum of the same candidate uses the cached tree. The filtered tree contains all
+	 * fragments of the tree split up with the peaks and no fragment lighter than the lowest peak.
+	 */
+	@Test
+	public void peakIndependentTreeTest() throws Exception
+	{
+		File directory = File.createTempFile("fragmentTreeCache", "");
+		directory.delete();
+		FragmentTreeCache cache = new FragmentTreeCache(directory);
+
+		List<FragmentBitSet> cached1 = getFragments(spectrum1, cache);
+		List<FragmentBitSet> cached2 = getFragments(spectrum2, cache);
+		Assert.assertEquals(1, cache.getHits());
+		Assert.assertEquals(1, cache.getMisses());
+
+		assertFilteredTree(spectrum1, cached1);
+		assertFilteredTree(spectrum2, cached2);
+		//the lighter peaks of the second spectrum are explained by smaller fragments
+		Assert.assertTrue(cached2.size() > cached1.size());
+
+		for (File file : directory.listFiles()) {
+			file.delete();
+		}
+		directory.delete();
+	}
+
+}
@@ -0,0 +1,148 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.Vector;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
+
+
+public class FragmenterBitSetTest {
+
+	//naringenin (C00509)
+	private String smiles = "OC1=CC=C(C=C1)C2CC(=O)C3=C(O)C=C(O)C=C3O2";
+	private WrapperSpectrum spectrum = null;
+	private double mzabs = 0.01;
+	private double mzppm = 50.0;
+
+
+	public FragmenterBitSetTest() {
+		double exactMass = 272.06847;
+		String peaks = "119.051 467.616 45\n" +
+		   "123.044 370.662 36\n" +
+		   "147.044 6078.145 606\n" +
+		   "153.019 10000.0 999\n" +
+		   "179.036 141.192 13\n" +
+		   "189.058 176.358 16\n";
+		int mode = 1;
+
+		spectrum = new WrapperSpectrum(peaks, mode, exactMass);
+	}
+
+
+	/**
+	 * Gets a freshly parsed candidate with explicit hydrogens.
+	 *
+	 * @return the molecule
+	 */
+	private IAtomContainer getMolecule() throws Exception
+	{
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		IAtomContainer molecule = sp.parseSmiles(smiles);
+		AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+		CDKHydrogenAdder.getInstance(molecule.getBuilder()).addImplicitHydrogens(molecule);
+		AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+		return molecule;
+	}
+
+
+	/**
+	 * Gets a new fragmenter with neutral losses.
+	 *
+	 * @return the fragmenter
+	 */
+	@SuppressWarnings("unchecked")
+	private Fragmenter getFragmenter()
+	{
+		return new Fragmenter((Vector<Peak>)spectrum.getPeakList().clone(), mzabs, mzppm, 1, true, false, true, false);
+	}
+
+
+	/**
+	 * Gets the atom IDs of the fragment (independent of the atom order).
+	 *
+	 * @param fragment the fragment
+	 *
+	 * @return the atoms
+	 */
+	private String getAtoms(IAtomContainer fragment)
+	{
+		BitSet atoms = new BitSet();
+		for (IAtom atom : fragment.atoms()) {
+			atoms.set(Integer.parseInt(atom.getID()));
+		}
+		return atoms.toString();
+	}
+
+
+	/**
+	 * The bit set fragments (especially the neutral loss fragments and their children) have the same
+	 * mass as the atom container fragments with the same atoms.
+	 */
+	@Test
+	public void neutralLossMassTest() throws Exception
+	{
+		Map<String, String> masses = new HashMap<String, String>();
+		for (IAtomContainer fragment : getFragmenter().generateFragmentsInMemory(getMolecule(), false, 3)) {
+			if(!masses.containsKey(getAtoms(fragment)))
+				masses.put(getAtoms(fragment), (String)fragment.getProperty("FragmentMass"));
+		}
+
+		Fragmenter fragmenter = getFragmenter();
+		List<FragmentBitSet> fragments = fragmenter.generateFragmentsBitSet(getMolecule(), 3);
+		int compared = 0;
+		int comparedNeutralLoss = 0;
+		for (FragmentBitSet fragment : fragments) {
+			IAtomContainer ac = fragment.toAtomContainer(fragmenter.getIndexedMolecule());
+			String mass = masses.get(getAtoms(ac));
+			if(mass == null)
+				continue;
+			Assert.assertEquals(Double.parseDouble(mass), fragment.getMass(), 1e-6);
+			compared++;
+			if(ac.getProperty("NeutralLossRule") != null)
+				comparedNeutralLoss++;
+		}
+		Assert.assertTrue(compared > 0);
+		Assert.assertTrue(comparedNeutralLoss > 0);
+	}
+
+
+	/**
+	 * A fragment reached again with a lower bond energy only replaces the representative of the
+	 * redundancy check: both fragmenters emit every atom set once.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void uniqueFragmentsTest() throws Exception
+	{
+		Fragmenter fragmenter = new Fragmenter((Vector<Peak>)spectrum.getPeakList().clone(), mzabs, mzppm, 1, true, false, false, false);
+		Set<String> atoms = new HashSet<String>();
+		List<IAtomContainer> fragments = fragmenter.generateFragmentsInMemory(getMolecule(), false, 3);
+		for (IAtomContainer fragment : fragments) {
+			Assert.assertTrue(atoms.add(getAtoms(fragment)));
+		}
+
+		fragmenter = new Fragmenter((Vector<Peak>)spectrum.getPeakList().clone(), mzabs, mzppm, 1, true, false, false, false);
+		atoms.clear();
+		for (FragmentBitSet fragment : fragmenter.generateFragmentsBitSet(getMolecule(), 3)) {
+			Assert.assertTrue(atoms.add(getAtoms(fragment.toAtomContainer(fragmenter.getIndexedMolecule()))));
+		}
+		Assert.assertTrue(atoms.size() > 0);
+	}
+
+}
@@ -0,0 +1,178 @@
+package de.ipbhalle.metfrag.fragmenter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtom;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
+
+
+public class FragmenterParallelTest {
+
+	//naringenin (C00509)
+	private String smiles = "OC1=CC=C(C=C1)C2CC(=O)C3=C(O)C=C(O)C=C3O2";
+	private WrapperSpectrum spectrum = null;
+	private double mzabs = 0.01;
+	private double mzppm = 50.0;
+
+
+	public FragmenterParallelTest() {
+		double exactMass = 272.06847;
+		String peaks = "119.051 467.616 45\n" +
+		   "123.044 370.662 36\n" +
+		   "147.044 6078.145 606\n" +
+		   "153.019 10000.0 999\n" +
+		   "179.036 141.192 13\n" +
+		   "189.058 176.358 16\n";
+		int mode = 1;
+
+		spectrum = new WrapperSpectrum(peaks, mode, exactMass);
+	}
+
+
+	/**
+	 * Fragments a freshly parsed candidate.
+	 *
+	 * @param treeDepth the tree depth
+	 * @param threads the threads
+	 *
+	 * @return the fragments
+	 */
+	private List<IAtomContainer> fragment(int treeDepth, int threads) throws Exception
+	{
+		return fragment(treeDepth, threads, false);
+	}
+
+
+	/**
+	 * Fragments a freshly parsed candidate.
+	 *
+	 * @param treeDepth the tree depth
+	 * @param threads the threads
+	 * @param recursiveTraverse the recursive traverse
+	 *
+	 * @return the fragments
+	 */
+	@SuppressWarnings("unchecked")
+	private List<IAtomContainer> fragment(int treeDepth, int threads, boolean recursiveTraverse) throws Exception
+	{
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		IAtomContainer molecule = sp.parseSmiles(smiles);
+		AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+		CDKHydrogenAdder.getInstance(molecule.getBuilder()).addImplicitHydrogens(molecule);
+		AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+
+		Fragmenter fragmenter = new Fragmenter((Vector<Peak>)spectrum.getPeakList().clone(), mzabs, mzppm, 1, true, true, true, false);
+		fragmenter.setThreads(threads);
+		fragmenter.setRecursiveTraverse(recursiveTraverse);
+		return fragmenter.generateFragmentsInMemory(molecule, false, treeDepth);
+	}
+
+
+	/**
+	 * The parallel BFS has to return the same fragments in the same order as the sequential one.
+	 *
+	 * @param treeDepth the tree depth
+	 */
+	private void assertSameFragments(int treeDepth) throws Exception
+	{
+		List<IAtomContainer> sequential = fragment(treeDepth, 1);
+		for (int run = 0; run < 3; run++) {
+			List<IAtomContainer> parallel = fragment(treeDepth, 4);
+			Assert.assertEquals(sequential.size(), parallel.size());
+			for (int i = 0; i < sequential.size(); i++) {
+				Assert.assertEquals(getAtoms(sequential.get(i)), getAtoms(parallel.get(i)));
+				Assert.assertEquals(sequential.get(i).getProperty("BondEnergy"), parallel.get(i).getProperty("BondEnergy"));
+				Assert.assertEquals(sequential.get(i).getProperty("TreeDepth"), parallel.get(i).getProperty("TreeDepth"));
+				Assert.assertEquals(sequential.get(i).getProperty("NeutralLossRule"), parallel.get(i).getProperty("NeutralLossRule"));
+			}
+		}
+	}
+
+
+	/**
+	 * Gets the atom IDs of the fragment.
+	 *
+	 * @param fragment the fragment
+	 *
+	 * @return the atoms
+	 */
+	private String getAtoms(IAtomContainer fragment)
+	{
+		StringBuilder atoms = new StringBuilder();
+		for (IAtom atom : fragment.atoms()) {
+			atoms.append(atom.getID()).append(',');
+		}
+		return atoms.toString();
+	}
+
+
+	/**
+	 * Gets the sorted atom IDs of the fragment (the traversals add the atoms in a different order).
+	 *
+	 * @param fragment the fragment
+	 *
+	 * @return the atoms
+	 */
+	private List<Integer> getSortedAtoms(IAtomContainer fragment)
+	{
+		List<Integer> atoms = new ArrayList<Integer>();
+		for (IAtom atom : fragment.atoms()) {
+			atoms.add(Integer.parseInt(atom.getID()));
+		}
+		Collections.sort(atoms);
+		return atoms;
+	}
+
+
+	/**
+	 * The recursive traversal (only kept for the benchmark) gives the same fragments as the iterative one.
+	 */
+	@Test
+	public void recursiveTraverseTest() throws Exception
+	{
+		List<IAtomContainer> iterative = fragment(2, 1, false);
+		List<IAtomContainer> recursive = fragment(2, 1, true);
+		Assert.assertEquals(iterative.size(), recursive.size());
+		for (int i = 0; i < iterative.size(); i++) {
+			Assert.assertEquals(getSortedAtoms(iterative.get(i)), getSortedAtoms(recursive.get(i)));
+			Assert.assertEquals(iterative.get(i).getProperty("BondEnergy"), recursive.get(i).getProperty("BondEnergy"));
+			Assert.assertEquals(iterative.get(i).getProperty("NeutralLossRule"), recursive.get(i).getProperty("NeutralLossRule"));
+		}
+	}
+
+
+	@Test
+	public void parallelTreeDepthOneTest() throws Exception
+	{
+		//only the original molecule is split up
+		assertSameFragments(1);
+	}
+
+
+	@Test
+	public void parallelTreeDepthTwoTest() throws Exception
+	{
+		assertSameFragments(2);
+	}
+
+
+	@Test
+	public void parallelTreeDepthThreeTest() throws Exception
+	{
+		assertSameFragments(3);
+	}
+
+}
@@ -0,0 +1,95 @@
+package de.ipbhalle.metfrag.main;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import de.ipbhalle.metfrag.fragmenter.Fragmenter;
+import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.spectrum.FragmentMassIndex;
+import de.ipbhalle.metfrag.spectrum.PeakList;
+import de.ipbhalle.metfrag.spectrum.WrapperSpectrum;
+
+public class HierarchicalSearchTest {
+
+	//naringenin (C00509)
+	private String smiles = "OC1=CC=C(C=C1)C2CC(=O)C3=C(O)C=C(O)C=C3O2";
+	private double exactMass = 272.06847;
+	private double mzabs = 0.01;
+	private double mzppm = 50.0;
+	private int mode = 1;
+	private Vector<WrapperSpectrum> spectra = new Vector<WrapperSpectrum>();
+
+
+	public HierarchicalSearchTest() {
+		//the higher collision energy has the lighter peaks
+		spectra.add(new WrapperSpectrum("147.044 6078.145 606\n153.019 10000.0 999\n179.036 141.192 13\n", mode, exactMass));
+		spectra.add(new WrapperSpectrum("119.051 467.616 45\n123.044 370.662 36\n153.019 10000.0 999\n", mode, exactMass));
+	}
+
+
+	private IAtomContainer getMolecule() throws Exception
+	{
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		IAtomContainer molecule = sp.parseSmiles(smiles);
+		AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+		CDKHydrogenAdder.getInstance(molecule.getBuilder()).addImplicitHydrogens(molecule);
+		AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+		return molecule;
+	}
+
+
+	/**
+	 * Gets the peaks of a spectrum explained by the fragments.
+	 */
+	private int[] getHits(List<IAtomContainer> fragments, WrapperSpectrum spectrum)
+	{
+		FragmentMassIndex index = new FragmentMassIndex(true, 2);
+		index.addCompound("C00509", fragments, Double.MAX_VALUE);
+		return index.match(new PeakList(spectrum.getPeakList()), mzabs, mzppm, mode).getHitIndices(0);
+	}
+
+
+	@Test
+	public void getAllPeaksTest()
+	{
+		Vector<Peak> peaks = HierarchicalSearch.getAllPeaks(spectra);
+		Assert.assertEquals(6, peaks.size());
+		Assert.assertEquals(119.051, peaks.get(0).getMass());
+		for (int i = 1; i < peaks.size(); i++) {
+			Assert.assertTrue(peaks.get(i - 1).getMass() <= peaks.get(i).getMass());
+		}
+	}
+
+
+	/**
+	 * The shared fragment tree explains the peaks of the higher collision energy below the lowest
+	 * peak of the first spectrum like a tree fragmented with the peaks of that energy.
+	 */
+	@Test
+	public void sharedTreeTest() throws Exception
+	{
+		Fragmenter shared = new Fragmenter(HierarchicalSearch.getAllPeaks(spectra), mzabs, mzppm, mode, true, false, false, false);
+		List<IAtomContainer> sharedFragments = shared.generateFragmentsInMemory(getMolecule(), false, 2);
+
+		@SuppressWarnings("unchecked")
+		Fragmenter single = new Fragmenter((Vector<Peak>)spectra.get(1).getPeakList().clone(), mzabs, mzppm, mode, true, false, false, false);
+		List<IAtomContainer> singleFragments = single.generateFragmentsInMemory(getMolecule(), false, 2);
+
+		int[] hits = getHits(sharedFragments, spectra.get(1));
+		Assert.assertTrue(Arrays.equals(getHits(singleFragments, spectra.get(1)), hits));
+		//the peaks below 147.044 are explained
+		Assert.assertTrue(hits.length > 0);
+		Assert.assertTrue(new PeakList(spectra.get(1).getPeakList()).getMass(hits[0]) < 147.0);
+	}
+
+}
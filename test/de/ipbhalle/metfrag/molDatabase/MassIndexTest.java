@@ -0,0 +1,102 @@
+package de.ipbhalle.metfrag.molDatabase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import de.ipbhalle.metfrag.database.MassIndexBuilder;
+
+public class MassIndexTest {
+
+	private MassIndex index = null;
+
+
+	public MassIndexTest() throws Exception {
+		File indexFile = File.createTempFile("massIndex", ".bin");
+		indexFile.deleteOnExit();
+
+		//not sorted by mass or ID...two compounds with the same mass
+		MassIndexBuilder builder = new MassIndexBuilder(indexFile);
+		builder.add(1001, 180.0634, 1, "OCC(O)C(O)C(O)C(O)C=O", "InChI=1S/C6H12O6");
+		builder.add(5, 150.0, 1, "CCCC", "InChI=1S/C4H10");
+		builder.add(42, 180.0634, 1, "NC(CO)C(=O)O", "InChI=1S/C3H7NO3");
+		builder.add(7, 200.5, 0, "C[Si](C)C", null);
+		builder.add(300, 120.0, 1, "CO", "");
+		builder.write(indexFile);
+
+		index = new MassIndex(indexFile);
+	}
+
+
+	@Test
+	public void buildTest()
+	{
+		Assert.assertEquals(5, index.size());
+		for (int i = 1; i < index.size(); i++) {
+			Assert.assertTrue(index.getMass(i - 1) <= index.getMass(i));
+		}
+		Assert.assertEquals(120.0, index.getMass(0));
+		Assert.assertEquals(200.5, index.getMass(4));
+	}
+
+
+	@Test
+	public void searchTest()
+	{
+		//both bounds are included
+		int[] range = index.getRange(180.0634, 180.0634);
+		Assert.assertEquals(2, range[1] - range[0]);
+
+		//ordered by ID like the database query
+		Assert.assertEquals(Arrays.asList("5", "42", "1001"), index.getHits(150.0, 180.0634));
+		Assert.assertEquals(Arrays.asList("5", "7", "42", "300", "1001"), index.getHits(0.0, 1000.0));
+		Assert.assertTrue(index.getHits(180.07, 200.4).isEmpty());
+		Assert.assertTrue(index.getHits(300.0, 400.0).isEmpty());
+		Assert.assertEquals(3, index.getHitsVector(150.0, 180.0634).size());
+	}
+
+
+	@Test
+	public void idLookupTest()
+	{
+		int position = index.getPosition("42");
+		Assert.assertTrue(position >= 0);
+		Assert.assertEquals(180.0634, index.getMass(position));
+		Assert.assertEquals("NC(CO)C(=O)O", index.getSmiles(position));
+		Assert.assertEquals("InChI=1S/C3H7NO3", index.getInChI(position));
+		Assert.assertTrue(index.isCHONSP(position));
+
+		position = index.getPosition("7");
+		Assert.assertEquals(200.5, index.getMass(position));
+		Assert.assertEquals("C[Si](C)C", index.getSmiles(position));
+		//no InChI
+		Assert.assertEquals("", index.getInChI(position));
+		Assert.assertFalse(index.isCHONSP(position));
+
+		Assert.assertEquals(-1, index.getPosition("999"));
+		Assert.assertEquals(-1, index.getPosition("CID42"));
+	}
+
+
+	@Test
+	public void getSmilesTest()
+	{
+		List<String> ids = new ArrayList<String>(Arrays.asList("300", "5", "999", "42", "7"));
+
+		//only carbon or not chonsp are no candidates (like PubChemLocal)
+		Map<String, String> smiles = index.getSmiles(ids, false);
+		Assert.assertEquals(Arrays.asList("300", "42"), new ArrayList<String>(smiles.keySet()));
+		Assert.assertEquals("CO", smiles.get("300"));
+
+		//in the order of the IDs
+		smiles = index.getSmiles(ids, true);
+		Assert.assertEquals(Arrays.asList("300", "5", "42", "7"), new ArrayList<String>(smiles.keySet()));
+	}
+
+}
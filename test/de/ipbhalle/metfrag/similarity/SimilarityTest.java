@@ -0,0 +1,319 @@
+package de.ipbhalle.metfrag.similarity;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.fingerprint.Fingerprinter;
+import org.openscience.cdk.similarity.Tanimoto;
+import org.openscience.cdk.smiles.SmilesParser;
+
+public class SimilarityTest {
+
+	//flavonoids (some identical) and a few dissimilar compounds
+	private Map<String, String> candidates = new LinkedHashMap<String, String>();
+	private List<String> names = null;
+
+
+	public SimilarityTest() {
+		candidates.put("179999", "C1C(OC2=CC(=CC(=C2C1=O)O)O)C3=CC=CC=C3O");
+		candidates.put("932", "C1C(OC2=CC(=CC(=C2C1=O)O)O)C3=CC=C(C=C3)O");
+		candidates.put("10333412", "C1C(OC(=O)C2=C(C=C(C=C21)O)O)C3=CC=C(C=C3)O");
+		candidates.put("439246", "C1C(OC2=CC(=CC(=C2C1=O)O)O)C3=CC=C(C=C3)O");
+		candidates.put("667495", "C1C(OC2=CC(=CC(=C2C1=O)O)O)C3=CC=C(C=C3)O");
+		candidates.put("113638", "C1C(OC2=CC(=CC(=C2C1=O)O)O)C3=CC(=CC=C3)O");
+		candidates.put("23724670", "C1C(OC2=CC(=C(C=C2C1=O)O)O)C3=CC=C(C=C3)O");
+		candidates.put("13889010", "C1C(OC2=CC(=CC(=C2C1=O)O)O)C3=CC=CC=C3O");
+		candidates.put("125100", "C1C(C(=O)C2=CC(=C(C=C2O1)O)O)C3=CC=C(C=C3)O");
+		candidates.put("2519", "CN1C=NC2=C1C(=O)N(C(=O)N2C)C");
+		candidates.put("5793", "OCC1OC(O)C(O)C(O)C1O");
+		candidates.put("8892", "CCCCCC(=O)O");
+		candidates.put("6137", "CCCCCCCC(=O)O");
+
+		names = new ArrayList<String>(candidates.keySet());
+	}
+
+
+	/**
+	 * The baseline: the tanimoto matrix of the CDK fingerprints.
+	 *
+	 * @return the tanimoto values by candidate pair
+	 */
+	private Map<String, Float> getBaseline() throws Exception
+	{
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		Fingerprinter f = new Fingerprinter();
+		Map<String, BitSet> fingerprints = new HashMap<String, BitSet>();
+		for (String candidate : names) {
+			fingerprints.put(candidate, f.getFingerprint(sp.parseSmiles(candidates.get(candidate))));
+		}
+
+		Map<String, Float> baseline = new HashMap<String, Float>();
+		for (String candidate1 : names) {
+			for (String candidate2 : names) {
+				baseline.put(candidate1 + " " + candidate2, Tanimoto.calculate(fingerprints.get(candidate1), fingerprints.get(candidate2)));
+			}
+		}
+		return baseline;
+	}
+
+
+	/**
+	 * The packed fingerprints give the same tanimoto values as the CDK.
+	 */
+	@Test
+	public void tanimotoTest() throws Exception
+	{
+		Map<String, Float> baseline = getBaseline();
+		Similarity sim = new Similarity(candidates, 0.95f);
+		for (String candidate1 : names) {
+			for (String candidate2 : names) {
+				if(candidate1.equals(candidate2))
+					continue;
+				Assert.assertEquals(baseline.get(candidate1 + " " + candidate2), sim.getTanimotoDistance(candidate1, candidate2), 1e-6);
+			}
+		}
+		Assert.assertEquals(1.0f, sim.getTanimotoDistance("932", "439246"), 1e-6);
+		Assert.assertEquals(0.0f, sim.getTanimotoDistance("932", "unknown"), 0.0);
+	}
+
+
+	/**
+	 * The pairs skipped by the cardinality bound are not more similar than the threshold: every
+	 * pair is grouped like in the baseline matrix.
+	 */
+	@Test
+	public void prunedNeighboursTest() throws Exception
+	{
+		Map<String, Float> baseline = getBaseline();
+		float[] thresholds = {0.3f, 0.5f, 0.8f, 0.95f};
+		for (float threshold : thresholds) {
+			Similarity sim = new Similarity(candidates, threshold);
+			for (String candidate1 : names) {
+				for (String candidate2 : names) {
+					if(candidate1.equals(candidate2))
+						continue;
+					List<SimilarityGroup> groups = sim.getTanimotoDistanceList(Arrays.asList(candidate1, candidate2));
+					if(baseline.get(candidate1 + " " + candidate2) > threshold)
+					{
+						Assert.assertEquals(1, groups.size());
+						Assert.assertEquals(candidate1, groups.get(0).getCandidateTocompare());
+						Assert.assertEquals(Arrays.asList(candidate2), groups.get(0).getSimilarCompounds());
+					}
+					else
+					{
+						Assert.assertEquals(2, groups.size());
+						Assert.assertTrue(groups.get(0).getSimilarCompounds().isEmpty());
+						Assert.assertTrue(groups.get(1).getSimilarCompounds().isEmpty());
+					}
+				}
+			}
+		}
+	}
+
+
+	/**
+	 * The neighbour sets (with the candidate itself) of the clusters.
+	 *
+	 * @param similar the neighbours of every candidate
+	 * @param clusters the candidates of the clusters
+	 *
+	 * @return the sorted sets
+	 */
+	private Set<List<Integer>> getClusterSets(int[][] similar, List<Integer> clusters)
+	{
+		Set<List<Integer>> sets = new HashSet<List<Integer>>();
+		for (int i : clusters) {
+			sets.add(getSetWithBase(similar, i));
+		}
+		return sets;
+	}
+
+
+	private List<Integer> getSetWithBase(int[][] similar, int i)
+	{
+		List<Integer> set = new ArrayList<Integer>();
+		set.add(i);
+		for (int j : similar[i]) {
+			set.add(j);
+		}
+		Collections.sort(set);
+		return set;
+	}
+
+
+	/**
+	 * The clustering before the union find: cleanList and removeDuplicates of the old
+	 * Similarity (with the candidates in the order of the group).
+	 *
+	 * @param similar the neighbours of every candidate
+	 *
+	 * @return the remaining candidates
+	 */
+	private List<Integer> cleanList(int[][] similar)
+	{
+		int size = similar.length;
+		List<Integer> cleanedList = new ArrayList<Integer>();
+		List<Integer> alreadyRemoved = new ArrayList<Integer>();
+		if(size == 1)
+		{
+			cleanedList.add(0);
+			return cleanedList;
+		}
+
+		cleanedList.add(0);
+		for (int key1 = 0; key1 < size; key1++) {
+			for (int key2 = 0; key2 < size; key2++) {
+				if(key1 == key2)
+					continue;
+				List<Integer> similar1 = getSetWithBase(similar, key1);
+				List<Integer> similar2 = getSetWithBase(similar, key2);
+				if(similar1.equals(similar2))
+					continue;
+
+				if(similar1.size() > similar2.size() && similar1.containsAll(similar2))
+				{
+					cleanedList.remove(Integer.valueOf(key2));
+					alreadyRemoved.add(key2);
+				}
+				else if(similar2.containsAll(similar1))
+				{
+					cleanedList.remove(Integer.valueOf(key1));
+					alreadyRemoved.add(key1);
+				}
+				else
+				{
+					if(!cleanedList.contains(key2) && !alreadyRemoved.contains(key2))
+						cleanedList.add(key2);
+					if(!cleanedList.contains(key1) && !alreadyRemoved.contains(key1))
+						cleanedList.add(key1);
+				}
+			}
+		}
+
+		//remove duplicates
+		List<Integer> toRemove = new ArrayList<Integer>();
+		for (int i : cleanedList) {
+			if(toRemove.contains(i))
+				continue;
+			for (int j : cleanedList) {
+				if(i != j && !toRemove.contains(j) && getSetWithBase(similar, i).equals(getSetWithBase(similar, j)))
+					toRemove.add(j);
+			}
+		}
+		cleanedList.removeAll(toRemove);
+		return cleanedList;
+	}
+
+
+	/**
+	 * Random symmetric neighbourhoods (with groups of identical candidates).
+	 *
+	 * @param random the random
+	 * @param size the number of candidates
+	 *
+	 * @return the sorted neighbours of every candidate
+	 */
+	private int[][] getRandomNeighbours(Random random, int size)
+	{
+		boolean[][] isSimilar = new boolean[size][size];
+		//candidates with the same structure have the same neighbours
+		int[] structure = new int[size];
+		for (int i = 0; i < size; i++) {
+			structure[i] = random.nextInt(size);
+		}
+		double density = random.nextDouble() * 0.5;
+		boolean[][] structureSimilar = new boolean[size][size];
+		for (int i = 0; i < size; i++) {
+			for (int j = i + 1; j < size; j++) {
+				structureSimilar[i][j] = structureSimilar[j][i] = random.nextDouble() < density;
+			}
+		}
+		for (int i = 0; i < size; i++) {
+			for (int j = 0; j < size; j++) {
+				if(i != j)
+					isSimilar[i][j] = structure[i] == structure[j] || structureSimilar[structure[i]][structure[j]];
+			}
+		}
+
+		int[][] similar = new int[size][];
+		for (int i = 0; i < size; i++) {
+			List<Integer> neighbours = new ArrayList<Integer>();
+			for (int j = 0; j < size; j++) {
+				if(isSimilar[i][j])
+					neighbours.add(j);
+			}
+			similar[i] = new int[neighbours.size()];
+			for (int k = 0; k < neighbours.size(); k++) {
+				similar[i][k] = neighbours.get(k);
+			}
+		}
+		return similar;
+	}
+
+
+	@Test
+	public void clusterGroupTest()
+	{
+		//two identical candidates (0, 2), one similar to both (1) and one without neighbours (3)
+		int[][] similar = {{1, 2}, {0, 2}, {0, 1}, {}};
+		Assert.assertEquals(Arrays.asList(0, 3), Similarity.clusterGroup(similar));
+		Assert.assertEquals(cleanList(similar), Similarity.clusterGroup(similar));
+
+		//a chain: the middle candidates are the clusters
+		similar = new int[][] {{1}, {0, 2}, {1, 3}, {2}};
+		Assert.assertEquals(Arrays.asList(1, 2), Similarity.clusterGroup(similar));
+		Assert.assertEquals(getClusterSets(similar, cleanList(similar)), getClusterSets(similar, Similarity.clusterGroup(similar)));
+
+		//duplicates in the group are skipped
+		similar = new int[][] {{}, null, {}};
+		Assert.assertEquals(Arrays.asList(0, 2), Similarity.clusterGroup(similar));
+	}
+
+
+	/**
+	 * The union find gives the clusters of the old cleanList. The old cleanList lost a largest set
+	 * if it contained all sets it was compared with and it was not the first candidate (e.g. the
+	 * centre of a star), these sets are the only additional clusters.
+	 */
+	@Test
+	public void clusterGroupCleanListTest()
+	{
+		Random random = new Random(42);
+		int compared = 0;
+		for (int n = 0; n < 500; n++) {
+			int[][] similar = getRandomNeighbours(random, 1 + random.nextInt(12));
+			Set<List<Integer>> clusters = getClusterSets(similar, Similarity.clusterGroup(similar));
+			Set<List<Integer>> oldClusters = getClusterSets(similar, cleanList(similar));
+
+			//every candidate is in a cluster and no set is contained in another
+			Set<Integer> covered = new HashSet<Integer>();
+			for (List<Integer> cluster : clusters) {
+				covered.addAll(cluster);
+				for (List<Integer> other : clusters) {
+					Assert.assertTrue(cluster == other || !cluster.containsAll(other));
+				}
+			}
+			Assert.assertEquals(similar.length, covered.size());
+			Assert.assertEquals(clusters.size(), Similarity.clusterGroup(similar).size());
+
+			Assert.assertTrue(clusters.containsAll(oldClusters));
+			if(clusters.equals(oldClusters))
+				compared++;
+		}
+		Assert.assertTrue(compared > 250);
+	}
+
+}
@@ -0,0 +1,159 @@
+package de.ipbhalle.metfrag.spectrum;
+
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import de.ipbhalle.metfrag.fragmenter.Fragmenter;
+import de.ipbhalle.metfrag.main.PeakMolPair;
+import de.ipbhalle.metfrag.massbankParser.Peak;
+import de.ipbhalle.metfrag.tools.PPMTool;
+
+public class AssignFragmentPeakTest {
+
+	//naringenin (C00509)
+	private String smiles = "OC1=CC=C(C=C1)C2CC(=O)C3=C(O)C=C(O)C=C3O2";
+	private WrapperSpectrum spectrum = null;
+	private double mzabs = 0.01;
+	private double mzppm = 50.0;
+	private int mode = 1;
+	private List<IAtomContainer> fragments = null;
+
+
+	public AssignFragmentPeakTest() throws Exception {
+		double exactMass = 272.06847;
+		String peaks = "153.019 10000.0 999\n" +
+				"273.076 10000.000 999\n" +
+				"274.083 318.003 30\n" +
+				"119.051 467.616 45\n" +
+				"123.044 370.662 36\n" +
+				"147.044 6078.145 606\n" +
+				"179.036 141.192 13\n" +
+				"189.058 176.358 16\n";
+		spectrum = new WrapperSpectrum(peaks, mode, exactMass);
+
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		IAtomContainer molecule = sp.parseSmiles(smiles);
+		AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+		CDKHydrogenAdder.getInstance(molecule.getBuilder()).addImplicitHydrogens(molecule);
+		AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+
+		@SuppressWarnings("unchecked")
+		Fragmenter fragmenter = new Fragmenter((Vector<Peak>)spectrum.getPeakList().clone(), mzabs, mzppm, mode, true, false, true, false);
+		fragments = fragmenter.generateFragmentsInMemory(molecule, false, 2);
+	}
+
+
+	/**
+	 * The matching before the sorted masses: every fragment is compared with every peak, the
+	 * first hit with the lowest hydrogen penalty is kept.
+	 *
+	 * @param hydrogenTest the hydrogen test
+	 * @param allHits the number of all hits (output)
+	 *
+	 * @return the best hit (fragment index) per peak or -1
+	 */
+	private int[] getReferenceHits(boolean hydrogenTest, int[] allHits)
+	{
+		Vector<Peak> peaks = spectrum.getPeakList();
+		int[] best = new int[peaks.size()];
+		for (int i = 0; i < peaks.size(); i++) {
+			double peak = peaks.get(i).getMass();
+			double peakLow = peak - mzabs - PPMTool.getPPMDeviation(peak, mzppm);
+			double peakHigh = peak + mzabs + PPMTool.getPPMDeviation(peak, mzppm);
+			best[i] = -1;
+			double bestPenalty = 0;
+			for (int j = 0; j < fragments.size(); j++) {
+				IAtomContainer fragment = fragments.get(j);
+				int treeDepth = 0;
+				if(hydrogenTest && fragment.getProperty("TreeDepth") != null)
+					treeDepth = Integer.parseInt((String)fragment.getProperty("TreeDepth"));
+				int shift = AssignFragmentPeak.getMatchShift(AssignFragmentPeak.getFragmentMass(fragment), treeDepth, peakLow, peakHigh, mode, hydrogenTest);
+				if(shift == AssignFragmentPeak.NO_MATCH)
+					continue;
+				allHits[0]++;
+				if(best[i] < 0 || bestPenalty > AssignFragmentPeak.getHydrogenPenalty(shift))
+				{
+					best[i] = j;
+					bestPenalty = AssignFragmentPeak.getHydrogenPenalty(shift);
+				}
+			}
+		}
+		return best;
+	}
+
+
+	/**
+	 * Compares the hits with the reference (in the order of the peak list).
+	 */
+	private void assertHits(int[] reference, Vector<PeakMolPair> hits, Vector<Double> hitsMZ)
+	{
+		Vector<Peak> peaks = spectrum.getPeakList();
+		int k = 0;
+		for (int i = 0; i < reference.length; i++) {
+			if(reference[i] < 0)
+				continue;
+			PeakMolPair hit = hits.get(k);
+			Assert.assertSame(peaks.get(i), hit.getPeak());
+			Assert.assertSame(fragments.get(reference[i]), hit.getFragment());
+			Assert.assertEquals(peaks.get(i).getMass(), hitsMZ.get(k));
+			k++;
+		}
+		Assert.assertEquals(k, hits.size());
+		Assert.assertEquals(k, hitsMZ.size());
+	}
+
+
+	@Test
+	public void sortedMatchingTest() throws Exception
+	{
+		boolean[] hydrogenTests = {true, false};
+		for (boolean hydrogenTest : hydrogenTests) {
+			int[] allHits = new int[1];
+			int[] reference = getReferenceHits(hydrogenTest, allHits);
+
+			AssignFragmentPeak afp = new AssignFragmentPeak();
+			afp.setHydrogenTest(hydrogenTest);
+			afp.assignFragmentPeak(fragments, spectrum.getPeakList(), mzabs, mzppm, mode, false);
+			assertHits(reference, afp.getHits(), afp.getHitsMZ());
+			Assert.assertEquals(allHits[0], afp.getAllHits().size());
+			Assert.assertTrue(afp.getHits().size() > 0);
+		}
+	}
+
+
+	@Test
+	public void streamingMatchingTest() throws Exception
+	{
+		AssignFragmentPeak afp = new AssignFragmentPeak();
+		afp.assignFragmentPeak(fragments, spectrum.getPeakList(), mzabs, mzppm, mode, false);
+
+		AssignFragmentPeak streaming = new AssignFragmentPeak();
+		streaming.initStreaming(spectrum.getPeakList(), mzabs, mzppm, mode, false);
+		for (IAtomContainer fragment : fragments) {
+			streaming.assignFragment(fragment);
+		}
+		Assert.assertEquals(fragments.size(), streaming.getStreamedFragments());
+
+		Vector<PeakMolPair> hits = afp.getHits();
+		Vector<PeakMolPair> streamingHits = streaming.getHits();
+		Assert.assertEquals(hits.size(), streamingHits.size());
+		for (int i = 0; i < hits.size(); i++) {
+			Assert.assertSame(hits.get(i).getPeak(), streamingHits.get(i).getPeak());
+			Assert.assertSame(hits.get(i).getFragment(), streamingHits.get(i).getFragment());
+			Assert.assertEquals(hits.get(i).getMatchedMass(), streamingHits.get(i).getMatchedMass());
+			Assert.assertEquals(hits.get(i).getMolecularFormula(), streamingHits.get(i).getMolecularFormula());
+			Assert.assertEquals(hits.get(i).getHydrogenPenalty(), streamingHits.get(i).getHydrogenPenalty());
+		}
+		Assert.assertEquals(afp.getHitsMZ(), streaming.getHitsMZ());
+	}
+
+}
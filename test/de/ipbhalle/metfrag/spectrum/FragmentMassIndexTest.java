@@ -0,0 +1,171 @@
+package de.ipbhalle.metfrag.spectrum;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Vector;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.openscience.cdk.DefaultChemObjectBuilder;
+import org.openscience.cdk.interfaces.IAtomContainer;
+import org.openscience.cdk.smiles.SmilesParser;
+import org.openscience.cdk.tools.CDKHydrogenAdder;
+import org.openscience.cdk.tools.manipulator.AtomContainerManipulator;
+
+import de.ipbhalle.metfrag.database.MassIndexBuilder;
+import de.ipbhalle.metfrag.fragmenter.Fragmenter;
+import de.ipbhalle.metfrag.main.PeakMolPair;
+import de.ipbhalle.metfrag.massbankParser.Peak;
+
+public class FragmentMassIndexTest {
+
+	//naringenin (C00509)
+	private String smiles = "OC1=CC=C(C=C1)C2CC(=O)C3=C(O)C=C(O)C=C3O2";
+	private double exactMass = 272.06847;
+	private WrapperSpectrum spectrum = null;
+	private double mzabs = 0.01;
+	private double mzppm = 50.0;
+	private int mode = 1;
+	private int treeDepth = 2;
+	private List<IAtomContainer> fragments = null;
+	private FragmentMassIndex index = null;
+
+
+	public FragmentMassIndexTest() throws Exception {
+		String peaks = "153.019 10000.0 999\n" +
+				"273.076 10000.000 999\n" +
+				"274.083 318.003 30\n" +
+				"119.051 467.616 45\n" +
+				"123.044 370.662 36\n" +
+				"147.044 6078.145 606\n" +
+				"179.036 141.192 13\n" +
+				"189.058 176.358 16\n";
+		spectrum = new WrapperSpectrum(peaks, mode, exactMass);
+
+		SmilesParser sp = new SmilesParser(DefaultChemObjectBuilder.getInstance());
+		IAtomContainer molecule = sp.parseSmiles(smiles);
+		AtomContainerManipulator.percieveAtomTypesAndConfigureAtoms(molecule);
+		CDKHydrogenAdder.getInstance(molecule.getBuilder()).addImplicitHydrogens(molecule);
+		AtomContainerManipulator.convertImplicitToExplicitHydrogens(molecule);
+
+		@SuppressWarnings("unchecked")
+		Fragmenter fragmenter = new Fragmenter((Vector<Peak>)spectrum.getPeakList().clone(), mzabs, mzppm, mode, true, false, true, false);
+		fragments = fragmenter.generateFragmentsInMemory(molecule, false, treeDepth);
+
+		//the same fragments with only the peaks below 150 matched
+		index = new FragmentMassIndex(true, treeDepth);
+		index.addCompound("C00509", fragments, exactMass);
+		index.addCompound("light", fragments, 150.0);
+	}
+
+
+	/**
+	 * The index explains the same peaks with the same hydrogen penalties as the matching of the fragments.
+	 */
+	@Test
+	public void matchTest() throws Exception
+	{
+		PeakList peakList = new PeakList(spectrum.getPeakList());
+		PeakList below = peakList.getPeaksBelow(exactMass);
+		AssignFragmentPeak afp = new AssignFragmentPeak();
+		afp.assignFragmentPeak(fragments, below.toVector(), mzabs, mzppm, mode, false);
+		Vector<PeakMolPair> hits = afp.getHits();
+		Assert.assertTrue(hits.size() > 0);
+
+		FragmentMassIndex.Match match = index.match(peakList, mzabs, mzppm, mode);
+		Assert.assertEquals(2, match.getCompoundCount());
+		Assert.assertEquals("C00509", match.getCompound(0));
+		Assert.assertEquals(hits.size(), match.getHitCount(0));
+		int[] hitIndices = match.getHitIndices(0);
+		double[] penalties = match.getHydrogenPenalties(0);
+		for (int i = 0; i < hits.size(); i++) {
+			Assert.assertEquals(peakList.indexOf(hits.get(i).getPeak().getMass()), hitIndices[i]);
+			Assert.assertEquals(hits.get(i).getHydrogenPenalty(), penalties[i]);
+		}
+
+		//only the peaks below the max peak mass
+		int light = 0;
+		for (int i : hitIndices) {
+			if(peakList.getMass(i) < 150.0)
+				Assert.assertEquals(i, match.getHitIndices(1)[light++]);
+		}
+		Assert.assertEquals(light, match.getHitCount(1));
+	}
+
+
+	@Test
+	public void writeReadTest() throws Exception
+	{
+		File indexFile = File.createTempFile("fragmentMassIndex", ".bin");
+		indexFile.deleteOnExit();
+		index.write(indexFile);
+		FragmentMassIndex read = FragmentMassIndex.read(indexFile);
+
+		Assert.assertTrue(read.isBuiltWith(true, treeDepth));
+		Assert.assertFalse(read.isBuiltWith(false, treeDepth));
+		Assert.assertFalse(read.isBuiltWith(true, treeDepth + 1));
+		Assert.assertEquals(index.getCompoundCount(), read.getCompoundCount());
+		Assert.assertEquals("light", read.getCompound(1));
+		Assert.assertEquals(index.getFragmentCount(), read.getFragmentCount());
+		Assert.assertEquals(fragments.size() * 2, read.getFragmentCount());
+
+		PeakList peakList = new PeakList(spectrum.getPeakList());
+		FragmentMassIndex.Match match = index.match(peakList, mzabs, mzppm, mode);
+		FragmentMassIndex.Match readMatch = read.match(peakList, mzabs, mzppm, mode);
+		for (int c = 0; c < match.getCompoundCount(); c++) {
+			Assert.assertTrue(Arrays.equals(match.getHitIndices(c), readMatch.getHitIndices(c)));
+			Assert.assertTrue(Arrays.equals(match.getBondEnergies(c), readMatch.getBondEnergies(c)));
+			Assert.assertTrue(Arrays.equals(match.getHydrogenPenalties(c), readMatch.getHydrogenPenalties(c)));
+		}
+
+		//the settings are stored in the header
+		FragmentMassIndex empty = new FragmentMassIndex(false, 3);
+		empty.write(indexFile);
+		read = FragmentMassIndex.read(indexFile);
+		Assert.assertFalse(read.isHydrogenTest());
+		Assert.assertEquals(3, read.getTreeDepth());
+		Assert.assertEquals(0, read.getFragmentCount());
+	}
+
+
+	@Test
+	public void readOtherFileTest() throws Exception
+	{
+		//a mass index of the molecule database
+		File indexFile = File.createTempFile("massIndex", ".bin");
+		indexFile.deleteOnExit();
+		MassIndexBuilder builder = new MassIndexBuilder(indexFile);
+		builder.add(932, 272.06847, 1, smiles, null);
+		builder.write(indexFile);
+		try
+		{
+			FragmentMassIndex.read(indexFile);
+			Assert.fail("mass index read as fragment mass index");
+		}
+		catch(IOException e)
+		{
+			Assert.assertTrue(e.getMessage().startsWith("No fragment mass index"));
+		}
+
+		//an older version
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(indexFile));
+		out.writeInt(0x4d464649);
+		out.writeInt(1);
+		out.close();
+		try
+		{
+			FragmentMassIndex.read(indexFile);
+			Assert.fail("old fragment mass index read");
+		}
+		catch(IOException e)
+		{
+			Assert.assertTrue(e.getMessage().startsWith("Unsupported fragment mass index version"));
+		}
+	}
+
+}
@@ -0,0 +1,109 @@
+package de.ipbhalle.metfrag.spectrum;
+
+import java.util.Vector;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+import de.ipbhalle.metfrag.massbankParser.Peak;
+
+public class PeakListTest {
+
+	//naringenin (C00509) with the molecule peak and its isotope...not sorted
+	private double exactMass = 272.06847;
+	private Vector<Peak> peaks = new Vector<Peak>();
+	private PeakList peakList = null;
+
+
+	public PeakListTest() {
+		peaks.add(new Peak(153.019, 10000.0, 999, 0));
+		peaks.add(new Peak(273.076, 10000.0, 999, 0));
+		peaks.add(new Peak(274.083, 318.003, 30, 0));
+		peaks.add(new Peak(119.051, 467.616, 45, 0));
+		peaks.add(new Peak(123.044, 370.662, 36, 0));
+		peaks.add(new Peak(147.044, 6078.145, 606, 0));
+		peaks.add(new Peak(179.036, 141.192, 13, 0));
+		peaks.add(new Peak(189.058, 176.358, 16, 0));
+
+		peakList = new PeakList(peaks);
+	}
+
+
+	@Test
+	public void sortedByMassTest()
+	{
+		Assert.assertEquals(8, peakList.size());
+		for (int i = 1; i < peakList.size(); i++) {
+			Assert.assertTrue(peakList.getMass(i - 1) < peakList.getMass(i));
+		}
+		//the columns belong to the same peak
+		for (int i = 0; i < peakList.size(); i++) {
+			Peak peak = peakList.getPeak(i);
+			Assert.assertTrue(peaks.contains(peak));
+			Assert.assertEquals(peak.getMass(), peakList.getMass(i));
+			Assert.assertEquals(peak.getIntensity(), peakList.getIntensity(i));
+			Assert.assertEquals(peak.getRelIntensity(), peakList.getRelIntensity(i));
+		}
+		Assert.assertEquals(119.051, peakList.getMass(0));
+		Assert.assertEquals(274.083, peakList.getMass(7));
+	}
+
+
+	@Test
+	public void indexOfTest()
+	{
+		Assert.assertEquals(3, peakList.indexOf(153.019));
+		Assert.assertEquals(-1, peakList.indexOf(153.0));
+		Assert.assertEquals(-1, peakList.indexOf(300.0));
+	}
+
+
+	@Test
+	public void getPeaksBelowTest()
+	{
+		//without the molecule peak and the isotope
+		PeakList below = peakList.getPeaksBelow(exactMass);
+		Assert.assertEquals(6, below.size());
+		for (int i = 0; i < below.size(); i++) {
+			Assert.assertTrue(below.getMass(i) < exactMass);
+			Assert.assertSame(peakList.getPeak(i), below.getPeak(i));
+		}
+		Assert.assertEquals(-1, below.indexOf(273.076));
+		Assert.assertEquals(6, below.toVector().size());
+
+		//a peak with exactly the mass is not below
+		Assert.assertEquals(3, peakList.getPeaksBelow(153.019).size());
+		Assert.assertEquals(0, peakList.getPeaksBelow(100.0).size());
+		//nothing removed
+		Assert.assertSame(peakList, peakList.getPeaksBelow(300.0));
+	}
+
+
+	@Test
+	public void filterByRelIntensityTest()
+	{
+		PeakList filtered = peakList.filterByRelIntensity(36);
+		Assert.assertEquals(5, filtered.size());
+		double[] expected = {119.051, 123.044, 147.044, 153.019, 273.076};
+		for (int i = 0; i < filtered.size(); i++) {
+			Assert.assertEquals(expected[i], filtered.getMass(i));
+			Assert.assertTrue(filtered.getRelIntensity(i) >= 36);
+			Assert.assertEquals(filtered.getPeak(i).getIntensity(), filtered.getIntensity(i));
+		}
+		Assert.assertSame(peakList, peakList.filterByRelIntensity(0));
+		Assert.assertEquals(0, peakList.filterByRelIntensity(1000).size());
+	}
+
+
+	@Test
+	public void filterViewTest()
+	{
+		//only the peaks of the view are filtered
+		PeakList filtered = peakList.getPeaksBelow(exactMass).filterByRelIntensity(36);
+		Assert.assertEquals(4, filtered.size());
+		Assert.assertEquals(153.019, filtered.getMass(3));
+		Assert.assertEquals(-1, filtered.indexOf(273.076));
+	}
+
+}